@@ -0,0 +1,115 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.aop;
+
+import java.util.Collection;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+import com.autentia.common.util.Pair;
+import com.autentia.wuija.persistence.Dao;
+import com.autentia.wuija.persistence.ExecutedQuery;
+import com.autentia.wuija.persistence.QueryMetrics;
+import com.autentia.wuija.persistence.criteria.EntityCriteria;
+
+/**
+ * Aspecto que mide cada llamada al {@link Dao} y la guarda en las {@link QueryMetrics}. La consulta se identifica con
+ * el nombre del método más:
+ * <ul>
+ * <li>el HQL que ha ejecutado el {@link Dao} con la {@link EntityCriteria}, si se pasa una (ver
+ * {@link ExecutedQuery}); así no se vuelve a generar después de cada llamada;</li>
+ * <li>si no, el primer parámetro de tipo <code>String</code> (el HQL, el SQL o el nombre de la consulta);</li>
+ * <li>si no, el nombre de la clase de la entidad.</li>
+ * </ul>
+ * Como registros se cuentan los elementos de la lista devuelta, o el número devuelto por los métodos que modifican o
+ * recorren registros.
+ * <p>
+ * Se activa declarando el bean en el applicationContext.xml (tiene que estar activo <code>&lt;aop:aspectj-autoproxy
+ * /&gt;</code>):
+ *
+ * <pre>
+ * &lt;bean class=&quot;com.autentia.wuija.aop.DaoMetricsAspect&quot;&gt;
+ *     &lt;constructor-arg ref=&quot;queryMetrics&quot; /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+@Aspect
+public class DaoMetricsAspect {
+
+	private final QueryMetrics queryMetrics;
+
+	public DaoMetricsAspect(QueryMetrics queryMetrics) {
+		this.queryMetrics = queryMetrics;
+	}
+
+	@Around("execution(* com.autentia.wuija.persistence.Dao.*(..))"
+			+ " && !execution(* com.autentia.wuija.persistence.Dao.readOnly(..))"
+			+ " && !execution(* com.autentia.wuija.persistence.Dao.getQueryCacheStatistics(..))")
+	public Object measureQuery(ProceedingJoinPoint pjp) throws Throwable {
+		final ExecutedQuery executedQuery = ExecutedQuery.begin();
+		final long start = System.nanoTime();
+		Object retVal = null;
+		try {
+			retVal = pjp.proceed();
+			return retVal;
+
+		} finally {
+			final long elapsedNanos = System.nanoTime() - start;
+			executedQuery.end();
+			final Object[] args = pjp.getArgs();
+			if (executedQuery.getQuery() != null) {
+				queryMetrics.record(pjp.getSignature().getName() + ": " + executedQuery.getQuery(),
+						countRows(retVal), elapsedNanos, executedQuery.getValues());
+			} else {
+				queryMetrics.record(pjp.getSignature().getName() + ": " + getQuery(args), countRows(retVal),
+						elapsedNanos, args);
+			}
+		}
+	}
+
+	private String getQuery(Object[] args) {
+		final EntityCriteria entityCriteria = findArg(args, EntityCriteria.class);
+		if (entityCriteria != null) {
+			// El Dao no ha llegado a ejecutar la consulta
+			return entityCriteria.getEntityClass().getSimpleName();
+		}
+		final String query = findArg(args, String.class);
+		if (query != null) {
+			return query;
+		}
+		final Class<?> entityClass = findArg(args, Class.class);
+		return entityClass == null ? "" : entityClass.getSimpleName();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T findArg(Object[] args, Class<T> argClass) {
+		for (Object arg : args) {
+			if (argClass.isInstance(arg)) {
+				return (T)arg;
+			}
+		}
+		return null;
+	}
+
+	private long countRows(Object retVal) {
+		if (retVal instanceof Collection) {
+			return ((Collection<?>)retVal).size();
+		}
+		if (retVal instanceof Pair && ((Pair<?, ?>)retVal).getLeft() instanceof Collection) {
+			return ((Collection<?>)((Pair<?, ?>)retVal).getLeft()).size();
+		}
+		if (retVal instanceof Number) {
+			return ((Number)retVal).longValue();
+		}
+		return retVal == null ? 0 : 1;
+	}
+}
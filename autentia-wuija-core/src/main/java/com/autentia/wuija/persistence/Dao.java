@@ -40,6 +40,31 @@ public interface Dao {
 	@Transactional
 	void delete(Object[] entities);
 
+	/**
+	 * Borra con una única sentencia <code>delete</code> todas las entidades que cumplen la criteria, sin cargarlas en
+	 * memoria. Como no se pasa por la sesión, no se aplican las cascadas ni los eventos de borrado, y las entidades que
+	 * ya estuvieran cargadas en la sesión no se enteran del borrado.
+	 * <p>
+	 * La criteria no puede tener joins.
+	 * 
+	 * @param entityCriteria la criteria que cumplen las entidades que se quieren borrar.
+	 * @return el número de entidades borradas.
+	 */
+	@Transactional
+	int delete(EntityCriteria entityCriteria);
+
+	/**
+	 * Modifica con una única sentencia <code>update</code> todas las entidades que cumplen la criteria, sin cargarlas
+	 * en memoria. Igual que en {@link Dao#delete(EntityCriteria)}, no se pasa por la sesión y la criteria no puede tener
+	 * joins.
+	 * 
+	 * @param entityCriteria la criteria que cumplen las entidades que se quieren modificar.
+	 * @param assignments los nuevos valores, indexados por el nombre de la propiedad.
+	 * @return el número de entidades modificadas.
+	 */
+	@Transactional
+	int update(EntityCriteria entityCriteria, Map<String, Object> assignments);
+
 	<T> List<T> find(Class<T> entityClass);
 
 	<T> T find(Class<T> entityClass, Serializable id);
@@ -153,6 +178,32 @@ public interface Dao {
 	 */
 	<T> Pair<List<T>, Long> findAndCount(EntityCriteria entityCriteria, int firstResult, int maxResults);
 
+	/**
+	 * Hace una búsqueda según la criteria que se pasa como parámetro, paginando por clave en vez de por desplazamiento.
+	 * Devuelve los <code>maxResults</code> registros que van detrás del registro cuya propiedad de ordenación vale
+	 * <code>lastSortValue</code> y cuya propiedad única vale <code>lastUniqueValue</code>. También devuelve el número
+	 * total de registros.
+	 * <p>
+	 * La criteria debe tener fijada la propiedad única con {@link EntityCriteria#setUniqueSortProperty(String)}. De esta
+	 * forma el coste de la consulta es el mismo para la primera página que para la página 5.000.
+	 * <p>
+	 * La propiedad de ordenación puede admitir nulos: los registros que la tienen a <code>null</code> se devuelven al
+	 * principio o al final, donde los ponga la base de datos al ordenar. Como HQL no permite indicarlo en la consulta,
+	 * el Dao tiene que saber cómo ordena los nulos la base de datos (ver
+	 * {@link com.autentia.wuija.persistence.impl.hibernate.HibernateDao#setNullsSortLow(boolean)}).
+	 * 
+	 * @param <T> el tipo de objeto que se va a devolver dentro de la lista.
+	 * @param entityCriteria la criteria por la que se hará la búsqueda.
+	 * @param lastSortValue valor de la propiedad de ordenación del último registro de la página anterior (puede ser
+	 *            <code>null</code>).
+	 * @param lastUniqueValue valor de la propiedad única del último registro de la página anterior. Si es
+	 *            <code>null</code> se devuelve la primera página.
+	 * @param maxResults número máximo de filas a devolver.
+	 * @return el resultado de la consulta y el número total de registros.
+	 */
+	<T> Pair<List<T>, Long> findAndCountAfter(EntityCriteria entityCriteria, Object lastSortValue,
+			Object lastUniqueValue, int maxResults);
+
 	<T> Pair<List<T>, Long> findAndCount(String hql, String countHql, int firstResult, int maxResults, Object... params);
 
 	/**
@@ -234,6 +285,55 @@ public interface Dao {
 	 */
 	<T> List<T> findByNamedQuery(String queryName, Object... values);
 
+	/**
+	 * Hace una búsqueda con la {@link EntityCriteria} guardando el resultado en la caché de consultas, en la región
+	 * indicada. Está pensado para listas de referencia que cambian poco (grupos, permisos, tablas de códigos, ...).
+	 * <p>
+	 * Hibernate deja de usar los resultados guardados en cuanto se confirma algún cambio en las tablas sobre las que se
+	 * hace la consulta. Si la caché de consultas no está activada, es como llamar a {@link Dao#find(EntityCriteria)}.
+	 * <p>
+	 * No admite criterias con proyección (ver {@link EntityCriteria#setProjection(String...)}).
+	 * 
+	 * @param <T> el tipo de objeto que se va a devolver dentro de la lista.
+	 * @param cacheRegion nombre de la región de la caché de consultas.
+	 * @param entityCriteria la criteria por la que se hará la búsqueda.
+	 * @return lista de objetos que cumplen la criteria.
+	 * @throws IllegalArgumentException si la criteria tiene proyección.
+	 */
+	<T> List<T> findCached(String cacheRegion, EntityCriteria entityCriteria);
+
+	/**
+	 * Igual que {@link Dao#findCached(String, EntityCriteria)}, pero con una consulta en HQL cuyos parámetros se
+	 * sustituyen por posición.
+	 * 
+	 * @param <T> el tipo de objeto que se va a devolver dentro de la lista.
+	 * @param cacheRegion nombre de la región de la caché de consultas.
+	 * @param queryString la consulta en HQL.
+	 * @param values las valores que se usarán como parámetros de la consulta.
+	 * @return lista de objetos que cumplen la consulta.
+	 */
+	<T> List<T> findCached(String cacheRegion, String queryString, Object... values);
+
+	/**
+	 * Igual que {@link Dao#findCached(String, EntityCriteria)}, pero con la consulta cuyo nombre pasa como parámetro.
+	 * 
+	 * @param <T> el tipo de objeto que se va a devolver dentro de la lista.
+	 * @param cacheRegion nombre de la región de la caché de consultas.
+	 * @param queryName nombre de la consulta con la que se hará la búsqueda.
+	 * @param values las valores que se usarán como parámetros de la consulta.
+	 * @return lista de objetos que cumplen la consulta.
+	 */
+	<T> List<T> findByNamedQueryCached(String cacheRegion, String queryName, Object... values);
+
+	/**
+	 * Devuelve los aciertos y fallos de una región de la caché de consultas. Sólo se cuentan si están activadas las
+	 * estadísticas de la capa de persistencia; si no, los contadores siempre valen 0.
+	 * 
+	 * @param cacheRegion nombre de la región de la caché de consultas.
+	 * @return los contadores de la región.
+	 */
+	QueryCacheStatistics getQueryCacheStatistics(String cacheRegion);
+
 	/**
 	 * Elimina los registros que expecifica en la consulta cuyo nombre pasa como parámetro. La consulta puede tener
 	 * parámetros y estos se sustituyen por posición con lo que se pasan como parámetros.
@@ -312,6 +412,37 @@ public interface Dao {
 	@Transactional
 	void persist(Object[] entities);
 
+	/**
+	 * Guarda o actualiza todas las entidades que se pasan como parámetro, haciendo un <code>flush</code> y un
+	 * <code>clear</code> de la sesión cada <code>batchSize</code> entidades. De esta forma las sentencias se pueden
+	 * agrupar en batches de JDBC y la caché de primer nivel no crece con el número de entidades.
+	 * <p>
+	 * <b>Atención !!!</b> al limpiar la sesión, cualquier otra entidad que estuviera cargada en la misma transacción
+	 * deja de estar gestionada por esta. Para que realmente se use el batch de JDBC hay que configurar
+	 * <code>hibernate.jdbc.batch_size</code> con un valor igual o mayor que <code>batchSize</code>, y las entidades no
+	 * deben usar identificadores generados por la base de datos (<code>identity</code>).
+	 * 
+	 * @param entities las entidades a guardar.
+	 * @param batchSize cada cuantas entidades se vuelca la sesión a la base de datos. Si es 0 o menor, sólo se vuelca
+	 *            al final.
+	 * @return el número de entidades guardadas.
+	 */
+	@Transactional
+	int persistBatch(Collection<?> entities, int batchSize);
+
+	/**
+	 * Borra todas las entidades que se pasan como parámetro, haciendo un <code>flush</code> y un <code>clear</code> de la
+	 * sesión cada <code>batchSize</code> entidades.
+	 * 
+	 * @param entities las entidades a borrar.
+	 * @param batchSize cada cuantas entidades se vuelca la sesión a la base de datos. Si es 0 o menor, sólo se vuelca
+	 *            al final.
+	 * @return el número de entidades borradas.
+	 * @see Dao#persistBatch(Collection, int)
+	 */
+	@Transactional
+	int deleteBatch(Collection<?> entities, int batchSize);
+
 	/**
 	 * Hace una búsqueda usando la consulta que se pasa como parámetro. La consulta puede tener parámetros y estos se
 	 * sustituyen por nombre.
@@ -430,6 +561,9 @@ public interface Dao {
 	 * En este caso se especifica tanto el nombre de la consulta para la búsueda, como el nombre de la consulta para obtener
 	 * el número de registros. Esto es necesario porque a veces no es trivial convertir la consulta de busqueda a una
 	 * consulta para obtener sólo el número de registros del resultado.
+	 * <p>
+	 * Las listas largas se tratan igual que en {@link #findByAnHqlQueryWithListParametersSupport(String, Object...)}: si
+	 * las dos consultas se pueden ejecutar por trozos, el número de registros es la suma de las cuentas de los trozos.
 	 * 
 	 * @param <T> el tipo de objeto que se va a devolver dentro de la lista.
 	 * @param queryName el nombre de la query que se usará para hacer la consulta.
@@ -441,12 +575,37 @@ public interface Dao {
 	<T> Pair<List<T>, Long> findAndCountByNamedQueryWithInStatements(String queryName, String countQueryName,
 			int firstResult, int maxResults, Object... params);
 
+	/**
+	 * Igual que {@link #findByAnHqlQueryWithListParametersSupport(String, Object...)}, pero paginado. El número de
+	 * registros que se devuelve es el de la página.
+	 */
 	<T> Pair<List<T>, Long> findAndCountByHqlQueryWithInStatements(String hqlQuery, int firstResult, int maxResults,
 			Object... params);
 
 	@Transactional
 	Integer bulkUpdateWithInStatementSupport(String hqlQuery, Object... values);
 	
+	/**
+	 * Hace una búsqueda con una consulta HQL cuyos parámetros se llaman <code>:param0</code>, <code>:param1</code>...
+	 * Los parámetros que son una {@link java.util.Collection} se pasan como lista, para usarlos en un <code>in</code>.
+	 * <p>
+	 * Si alguna lista tiene más valores de los que admite un <code>in</code> (por defecto
+	 * {@value com.autentia.wuija.persistence.criteria.Operator#DEFAULT_MAX_IN_LIST_SIZE}, se configura en el Dao), la
+	 * consulta se ejecuta por trozos de la lista (en paralelo si hay un executor <code>inListExecutor</code>) y se
+	 * juntan los resultados, respetando la paginación. Sólo se hace cuando el resultado es el mismo que el de la
+	 * consulta completa: la lista se usa una vez en un <code>in</code> y no hay <code>distinct</code>. Las consultas
+	 * con <code>order by</code> no se pueden ejecutar por trozos, porque habría que ordenar en memoria y el orden no
+	 * sería siempre el de la base de datos (por ejemplo, la collation de los textos); si hay que ordenar por una lista
+	 * tan larga, mejor usar una {@link EntityCriteria} con
+	 * {@link com.autentia.wuija.persistence.criteria.Operator#IN}, que lo resuelve en una sola consulta.
+	 * 
+	 * @param <T> el tipo de objeto que se va a devolver dentro de la lista.
+	 * @param hqlQuery la consulta HQL.
+	 * @param values los valores de los parámetros.
+	 * @return el resultado de la consulta.
+	 * @throws IllegalArgumentException si la consulta tiene <code>order by</code> y alguna lista tiene más valores de
+	 *             los que admite un <code>in</code>.
+	 */
 	<T> List<T> findByAnHqlQueryWithListParametersSupport(String hqlQuery, Object... values);
 	
 	<T> List<T> findByNativeQueryTransformerWithListParametersSupport(Class<T> transformerClass, String sqlQueryString,
@@ -454,5 +613,104 @@ public interface Dao {
 	
 	<T> List<T> findByNativeQueryTransformerWithListParametersSupport(Class<T> transformerClass, String sqlQueryString, Map values);
 
+	/**
+	 * Recorre el resultado de la búsqueda según la criteria que se pasa como parámetro, sin cargarlo entero en memoria. Se
+	 * usa un cursor de sólo avance, cada registro se pasa al <code>callback</code>, y cada <code>fetchSize</code>
+	 * registros se vacía la sesión (con sus asociaciones y colecciones ya cargadas), de forma que el consumo de memoria
+	 * es constante con independencia del número de registros.
+	 * <p>
+	 * Como se vacía la sesión entera, las entidades que ya estuviesen en ella antes de empezar se quedan desasociadas, y
+	 * el <code>callback</code> no debe guardar los registros para usarlos después con la sesión. Si hay una transacción
+	 * de escritura, antes de vaciar la sesión se vuelcan los cambios pendientes.
+	 * <p>
+	 * Está pensado para exportaciones y procesos batch sobre tablas muy grandes. Si la criteria tiene proyección, cada
+	 * registro es un {@link java.util.Map} anidado, igual que en {@link Dao#find(EntityCriteria)}.
+	 *
+	 * @param <T> el tipo de objeto que devuelve la consulta.
+	 * @param entityCriteria criteria que se usará para hacer la consulta.
+	 * @param fetchSize número de filas que se piden al driver JDBC en cada viaje a la base de datos, y cada cuántas se
+	 *            vacía la sesión.
+	 * @param callback el que procesará cada uno de los registros.
+	 * @return el número de registros procesados.
+	 */
+	<T> long scroll(EntityCriteria entityCriteria, int fetchSize, ScrollCallBack<T> callback);
+
+	/**
+	 * Recorre el resultado de la consulta que se pasa como parámetro, sin cargarlo entero en memoria. La consulta puede
+	 * tener parámetros y estos se sustituyen por posición con lo que se pasan como parámetros.
+	 *
+	 * @param <T> el tipo de objeto que devuelve la consulta.
+	 * @param queryString la consulta que hay que realizar.
+	 * @param fetchSize número de filas que se piden al driver JDBC en cada viaje a la base de datos.
+	 * @param callback el que procesará cada uno de los registros.
+	 * @param values las valores que se usarán como parámetros de la consulta.
+	 * @return el número de registros procesados.
+	 * @see Dao#scroll(EntityCriteria, int, ScrollCallBack)
+	 */
+	<T> long scroll(String queryString, int fetchSize, ScrollCallBack<T> callback, Object... values);
+
+	/**
+	 * Recorre el resultado de la consulta cuyo nombre se pasa como parámetro, sin cargarlo entero en memoria. La consulta
+	 * puede tener parámetros y estos se sustituyen por posición con lo que se pasan como parámetros.
+	 *
+	 * @param <T> el tipo de objeto que devuelve la consulta.
+	 * @param queryName nombre de la consulta con la que se hará la búsqueda.
+	 * @param fetchSize número de filas que se piden al driver JDBC en cada viaje a la base de datos.
+	 * @param callback el que procesará cada uno de los registros.
+	 * @param values las valores que se usarán como parámetros de la consulta.
+	 * @return el número de registros procesados.
+	 * @see Dao#scroll(EntityCriteria, int, ScrollCallBack)
+	 */
+	<T> long scrollByNamedQuery(String queryName, int fetchSize, ScrollCallBack<T> callback, Object... values);
+
+	/**
+	 * Recorre el resultado de la búsqueda según la criteria igual que {@link Dao#scroll(EntityCriteria, int,
+	 * ScrollCallBack)}, pero dividido en particiones que se recorren en paralelo, cada una en su propio hilo y con su
+	 * propia sesión (y por tanto su propia conexión a la base de datos). Está pensado para exportaciones y recálculos
+	 * sobre tablas enteras, que así aprovechan varios procesadores y conexiones.
+	 * <p>
+	 * Las particiones se obtienen dividiendo en rangos de la misma amplitud los valores (entre el mínimo y el máximo) de
+	 * una propiedad numérica o de tipo fecha, que no debe admitir nulos y conviene que tenga un índice. Si hay una
+	 * transacción de escritura en curso, las particiones se recorren una detrás de otra en la sesión actual, ya que las
+	 * otras sesiones no verían los cambios que todavía no se han confirmado.
+	 * <p>
+	 * El orden de la criteria se respeta dentro de cada partición, pero no entre particiones.
+	 * 
+	 * @param <T> el tipo de objeto que devuelve la consulta.
+	 * @param entityCriteria criteria que se usará para hacer la consulta.
+	 * @param partitionProperty propiedad por la que se divide la consulta, o <code>null</code> para usar el
+	 *            identificador de la entidad.
+	 * @param partitions número de particiones.
+	 * @param fetchSize número de filas que se piden al driver JDBC en cada viaje a la base de datos.
+	 * @param callback el que procesará cada uno de los registros y recibirá el avance de cada partición. Se llama
+	 *            desde varios hilos a la vez.
+	 * @return el número de registros procesados.
+	 */
+	<T> long scrollInPartitions(EntityCriteria entityCriteria, String partitionProperty, int partitions,
+			int fetchSize, PartitionedScrollCallBack<T> callback);
+
+	/**
+	 * Devuelve una vista de sólo lectura de este Dao, pensada para las lecturas grandes (exportaciones, informes,
+	 * listados). Con la vista nunca se hace flush de la sesión (así que tampoco antes de cada consulta) y las entidades
+	 * que se cargan son de sólo lectura, de forma que Hibernate no guarda una copia de su estado para saber si han
+	 * cambiado. Los cambios que se hagan sobre esas entidades no se guardan nunca, y la vista no se debe usar para
+	 * escribir.
+	 * <p>
+	 * La vista es un bean del contexto de Spring igual que este Dao, así que cada llamada participa en la transacción en
+	 * curso o, si no la hay, abre una transacción de sólo lectura, y pasa por los mismos aspectos.
+	 * 
+	 * @return la vista de sólo lectura.
+	 */
+	Dao readOnly();
+
+	/**
+	 * Igual que {@link Dao#readOnly()}, pero además los métodos <code>scroll</code> pueden recorrer las consultas con
+	 * una sesión sin estado, que no guarda las entidades en ninguna caché. Las entidades que se obtienen así no pueden
+	 * cargar sus asociaciones <i>lazy</i>.
+	 * 
+	 * @param statelessScroll <code>true</code> para recorrer las consultas con una sesión sin estado.
+	 * @return la vista de sólo lectura.
+	 */
+	Dao readOnly(boolean statelessScroll);
 
-}
\ No newline at end of file
+}
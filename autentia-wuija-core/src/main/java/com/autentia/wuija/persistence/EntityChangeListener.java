@@ -0,0 +1,46 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. You should have received a copy of the GNU Lesser General Public
+ * License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence;
+
+import java.util.Collection;
+
+/**
+ * Interfaz para enterarse de las entidades que se guardan o se borran a través del {@link Dao}, por ejemplo para
+ * mantener actualizada una caché en memoria sin volver a consultar la base de datos.
+ * <p>
+ * Si hay una transacción en curso, se avisa cuando se ha hecho el commit, así que no se ven los cambios que luego se
+ * deshacen con un rollback. Los avisos llegan en el hilo que ha hecho el cambio.
+ */
+public interface EntityChangeListener {
+
+	/**
+	 * Se llama después de guardar las entidades (con <code>persist</code>, <code>merge</code> o
+	 * <code>persistBatch</code>).
+	 *
+	 * @param entities las entidades guardadas; pueden ser de cualquier clase.
+	 */
+	void entitiesSaved(Collection<?> entities);
+
+	/**
+	 * Se llama después de borrar las entidades (con <code>delete</code> o <code>deleteBatch</code>).
+	 *
+	 * @param entities las entidades borradas; pueden ser de cualquier clase.
+	 */
+	void entitiesDeleted(Collection<?> entities);
+
+	/**
+	 * Se llama después de una sentencia <code>update</code> o <code>delete</code> en bloque, donde no se sabe qué
+	 * entidades han cambiado.
+	 *
+	 * @param entityClass la clase de las entidades que han cambiado, o <code>null</code> si pueden haber cambiado
+	 *            entidades de cualquier clase (por ejemplo, tras una sentencia en SQL nativo).
+	 */
+	void entitiesChangedInBulk(Class<?> entityClass);
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence;
+
+/**
+ * Consulta que ha ejecutado el {@link Dao} en la llamada en curso del hilo actual. Sirve para que quien mide las
+ * llamadas al {@link Dao} (ver {@link com.autentia.wuija.aop.DaoMetricsAspect}) sepa qué HQL se ha ejecutado sin tener
+ * que volver a generarlo.
+ * <p>
+ * Quien mide la llamada la empieza con {@link ExecutedQuery#begin()} y la termina con {@link ExecutedQuery#end()}; el
+ * {@link Dao} apunta con {@link ExecutedQuery#record(String, Object[])} la primera consulta que ejecuta. Si no hay
+ * ninguna llamada empezada, apuntar la consulta no hace nada.
+ */
+public final class ExecutedQuery {
+
+	private static final ThreadLocal<ExecutedQuery> current = new ThreadLocal<ExecutedQuery>();
+
+	/** La llamada que estaba en curso cuando se empezó ésta, para las llamadas anidadas. */
+	private final ExecutedQuery outer;
+
+	private String query;
+
+	private Object[] values;
+
+	private ExecutedQuery(ExecutedQuery outer) {
+		this.outer = outer;
+	}
+
+	/**
+	 * Empieza una llamada en el hilo actual.
+	 * 
+	 * @return la llamada, que hay que terminar con {@link ExecutedQuery#end()}.
+	 */
+	public static ExecutedQuery begin() {
+		final ExecutedQuery executedQuery = new ExecutedQuery(current.get());
+		current.set(executedQuery);
+		return executedQuery;
+	}
+
+	/**
+	 * Apunta la consulta que se ejecuta en la llamada en curso del hilo actual, si no se ha apuntado ya otra.
+	 * 
+	 * @param query la consulta.
+	 * @param values los valores de sus parámetros.
+	 */
+	public static void record(String query, Object[] values) {
+		final ExecutedQuery executedQuery = current.get();
+		if (executedQuery != null && executedQuery.query == null) {
+			executedQuery.query = query;
+			executedQuery.values = values;
+		}
+	}
+
+	/**
+	 * Termina esta llamada, volviendo a la que estaba en curso cuando se empezó.
+	 */
+	public void end() {
+		if (outer == null) {
+			current.remove();
+		} else {
+			current.set(outer);
+		}
+	}
+
+	/**
+	 * @return la consulta que se ha ejecutado, o <code>null</code> si el {@link Dao} no ha apuntado ninguna.
+	 */
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return los valores de los parámetros de la consulta, o <code>null</code> si no se ha apuntado ninguna.
+	 */
+	public Object[] getValues() {
+		return values;
+	}
+}
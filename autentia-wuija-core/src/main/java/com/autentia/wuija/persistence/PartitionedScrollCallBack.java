@@ -0,0 +1,31 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence;
+
+/**
+ * Callback de {@link Dao#scrollInPartitions(com.autentia.wuija.persistence.criteria.EntityCriteria, String, int, int,
+ * PartitionedScrollCallBack)}. Como cada partición se recorre en su propio hilo, los métodos se llaman
+ * concurrentemente desde varios hilos, así que la implementación tiene que ser <i>thread-safe</i>.
+ *
+ * @param <T> el tipo de los objetos que devuelve la consulta.
+ */
+public interface PartitionedScrollCallBack<T> extends ScrollCallBack<T> {
+
+	/**
+	 * Informa del avance de una partición. Se llama cada vez que se procesa un bloque de registros (tantos como el
+	 * <code>fetchSize</code>) y una última vez cuando se termina la partición.
+	 *
+	 * @param partition el número de partición, empezando por 0.
+	 * @param partitions el número total de particiones.
+	 * @param processedRows registros de la partición procesados hasta ahora.
+	 * @param finished si ya se ha terminado de recorrer la partición.
+	 */
+	void partitionProgress(int partition, int partitions, long processedRows, boolean finished);
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence;
+
+/**
+ * Contadores de una región de la caché de consultas: cuántas veces se ha encontrado el resultado en la caché (aciertos),
+ * cuántas no (fallos) y cuántos resultados se han guardado.
+ *
+ * @see Dao#getQueryCacheStatistics(String)
+ */
+public class QueryCacheStatistics {
+
+	private final String cacheRegion;
+
+	private final long hitCount;
+
+	private final long missCount;
+
+	private final long putCount;
+
+	public QueryCacheStatistics(String cacheRegion, long hitCount, long missCount, long putCount) {
+		this.cacheRegion = cacheRegion;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.putCount = putCount;
+	}
+
+	public String getCacheRegion() {
+		return cacheRegion;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getPutCount() {
+		return putCount;
+	}
+
+	@Override
+	public String toString() {
+		return cacheRegion + ": hits=" + hitCount + ", misses=" + missCount + ", puts=" + putCount;
+	}
+}
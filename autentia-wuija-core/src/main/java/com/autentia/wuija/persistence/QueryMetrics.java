@@ -0,0 +1,243 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Métricas de las consultas que se hacen con el {@link Dao}, agrupadas por consulta (el HQL o SQL normalizado, o el
+ * nombre de la consulta): número de ejecuciones, registros devueltos y percentiles del tiempo de respuesta.
+ * <p>
+ * Los percentiles son aproximados: cada tiempo se guarda en un histograma con intervalos de potencias de 2
+ * microsegundos, así que el valor devuelto es el límite superior del intervalo (como mucho el doble del real). A
+ * cambio, guardar cada ejecución no cuesta más que unas pocas operaciones atómicas.
+ * <p>
+ * Las ejecuciones que tardan más que el umbral configurado se escriben en el log
+ * <code>com.autentia.wuija.persistence.QueryMetrics.slowQueries</code>, en WARN sólo la consulta. Los valores de los
+ * parámetros pueden tener datos personales, así que sólo se escriben si ese log está en DEBUG.
+ * <p>
+ * Se publica en JMX, para poder consultar las métricas desde cualquier consola.
+ */
+@ManagedResource(objectName = "com.autentia.wuija:type=Dao,name=queryMetrics", description = "Dao query metrics")
+public class QueryMetrics {
+
+	private static class Entry {
+
+		final AtomicLong calls = new AtomicLong();
+
+		final AtomicLong rows = new AtomicLong();
+
+		final AtomicLong totalNanos = new AtomicLong();
+
+		final AtomicLong maxNanos = new AtomicLong();
+
+		/** El intervalo <code>i</code> cuenta las ejecuciones que han tardado menos de <code>2^i</code> microsegundos. */
+		final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_SIZE);
+
+		void record(long rowCount, long elapsedNanos) {
+			calls.incrementAndGet();
+			rows.addAndGet(rowCount);
+			totalNanos.addAndGet(elapsedNanos);
+
+			long max = maxNanos.get();
+			while (elapsedNanos > max && !maxNanos.compareAndSet(max, elapsedNanos)) {
+				max = maxNanos.get();
+			}
+
+			final long micros = elapsedNanos / 1000;
+			final int bucket = Math.min(HISTOGRAM_SIZE - 1, 64 - Long.numberOfLeadingZeros(micros));
+			histogram.incrementAndGet(bucket);
+		}
+
+		double getPercentileMillis(double percentile) {
+			final long callCount = calls.get();
+			if (callCount == 0) {
+				return 0;
+			}
+			final long position = (long)Math.ceil(callCount * percentile / 100);
+			long accumulated = 0;
+			for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+				accumulated += histogram.get(i);
+				if (accumulated >= position) {
+					return Math.min((1L << i) / 1000.0, maxNanos.get() / 1000000.0);
+				}
+			}
+			return maxNanos.get() / 1000000.0;
+		}
+	}
+
+	private static final Log log = LogFactory.getLog(QueryMetrics.class);
+
+	private static final Log slowQueryLog = LogFactory.getLog(QueryMetrics.class.getName() + ".slowQueries");
+
+	private static final int HISTOGRAM_SIZE = 40;
+
+	private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+
+	/** Clave con la que se agrupan las consultas que ya no caben. */
+	static final String OTHER_QUERIES = "(other queries)";
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private final int maxQueries;
+
+	private volatile long slowQueryThresholdMillis;
+
+	/**
+	 * Crea las métricas.
+	 *
+	 * @param slowQueryThresholdMillis milisegundos a partir de los cuales una ejecución se considera lenta.
+	 * @param maxQueries número máximo de consultas distintas de las que se guardan métricas. El resto se agrupan juntas,
+	 *            para que las consultas que se generan dinámicamente no hagan crecer la memoria sin límite.
+	 */
+	public QueryMetrics(long slowQueryThresholdMillis, int maxQueries) {
+		this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+		this.maxQueries = maxQueries;
+	}
+
+	/**
+	 * Guarda una ejecución de una consulta.
+	 *
+	 * @param query la consulta (HQL, SQL o nombre de la consulta).
+	 * @param rowCount número de registros devueltos o modificados.
+	 * @param elapsedNanos lo que ha tardado la ejecución, en nanosegundos.
+	 * @param values los valores de los parámetros, para el log de consultas lentas en DEBUG.
+	 */
+	public void record(String query, long rowCount, long elapsedNanos, Object[] values) {
+		final String normalizedQuery = normalize(query);
+		getEntry(normalizedQuery).record(rowCount, elapsedNanos);
+
+		if (elapsedNanos / 1000000 >= slowQueryThresholdMillis && slowQueryLog.isWarnEnabled()) {
+			slowQueryLog.warn("Slow query (" + (elapsedNanos / 1000000) + " millis, " + rowCount + " rows): "
+					+ normalizedQuery);
+			if (slowQueryLog.isDebugEnabled()) {
+				slowQueryLog.debug("Slow query values: " + Arrays.deepToString(values));
+			}
+		}
+	}
+
+	private Entry getEntry(String normalizedQuery) {
+		Entry entry = entries.get(normalizedQuery);
+		if (entry == null) {
+			final String key = entries.size() < maxQueries ? normalizedQuery : OTHER_QUERIES;
+			entries.putIfAbsent(key, new Entry());
+			entry = entries.get(key);
+		}
+		return entry;
+	}
+
+	private String normalize(String query) {
+		return query == null ? "" : WHITESPACES.matcher(query.trim()).replaceAll(" ");
+	}
+
+	/**
+	 * @param query la consulta.
+	 * @return el número de ejecuciones de la consulta.
+	 */
+	public long getCallCount(String query) {
+		final Entry entry = entries.get(normalize(query));
+		return entry == null ? 0 : entry.calls.get();
+	}
+
+	/**
+	 * @param query la consulta.
+	 * @return el número total de registros devueltos por la consulta.
+	 */
+	public long getRowCount(String query) {
+		final Entry entry = entries.get(normalize(query));
+		return entry == null ? 0 : entry.rows.get();
+	}
+
+	/**
+	 * @param query la consulta.
+	 * @param percentile el percentil, entre 0 y 100.
+	 * @return el tiempo de respuesta (aproximado) en milisegundos de ese percentil.
+	 */
+	@ManagedOperation(description = "Latency percentile in milliseconds of a query")
+	@ManagedOperationParameters( { @ManagedOperationParameter(name = "query", description = "Query or query name"),
+			@ManagedOperationParameter(name = "percentile", description = "Percentile, between 0 and 100") })
+	public double getPercentileMillis(String query, double percentile) {
+		final Entry entry = entries.get(normalize(query));
+		return entry == null ? 0 : entry.getPercentileMillis(percentile);
+	}
+
+	/**
+	 * Devuelve una línea por consulta con sus métricas, empezando por las que más tiempo total han consumido.
+	 *
+	 * @return las métricas de todas las consultas.
+	 */
+	@ManagedOperation(description = "Metrics of every query, most expensive first")
+	public String[] getReport() {
+		final List<Map.Entry<String, Entry>> sortedEntries = new ArrayList<Map.Entry<String, Entry>>(entries
+				.entrySet());
+		Collections.sort(sortedEntries, new Comparator<Map.Entry<String, Entry>>() {
+
+			@Override
+			public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+				final long total1 = o1.getValue().totalNanos.get();
+				final long total2 = o2.getValue().totalNanos.get();
+				return total1 < total2 ? 1 : (total1 == total2 ? 0 : -1);
+			}
+		});
+
+		final String[] report = new String[sortedEntries.size()];
+		for (int i = 0; i < report.length; i++) {
+			final Entry entry = sortedEntries.get(i).getValue();
+			final long calls = entry.calls.get();
+			report[i] = "calls=" + calls + ", rows=" + entry.rows.get() + ", totalMillis="
+					+ (entry.totalNanos.get() / 1000000) + ", p50=" + entry.getPercentileMillis(50) + ", p95="
+					+ entry.getPercentileMillis(95) + ", p99=" + entry.getPercentileMillis(99) + ", maxMillis="
+					+ (entry.maxNanos.get() / 1000000.0) + ": " + sortedEntries.get(i).getKey();
+		}
+		return report;
+	}
+
+	@ManagedAttribute(description = "Number of different queries measured")
+	public int getQueryCount() {
+		return entries.size();
+	}
+
+	@ManagedAttribute(description = "Executions slower than this are logged")
+	public long getSlowQueryThresholdMillis() {
+		return slowQueryThresholdMillis;
+	}
+
+	@ManagedAttribute
+	public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+		this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+	}
+
+	/**
+	 * Borra todas las métricas.
+	 */
+	@ManagedOperation(description = "Clears all the metrics")
+	public void reset() {
+		entries.clear();
+		log.info("Query metrics cleared");
+	}
+}
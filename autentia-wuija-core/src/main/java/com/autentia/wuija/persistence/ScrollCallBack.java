@@ -0,0 +1,29 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. You should have received a copy of the GNU Lesser General Public
+ * License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence;
+
+/**
+ * Interfaz que se usa en los métodos <code>scroll</code> del {@link Dao} para ir procesando, uno a uno, los registros
+ * de una consulta sin tener que cargar todo el resultado en memoria.
+ * <p>
+ * Una vez que se ha llamado a {@link ScrollCallBack#processRow(Object)}, la entidad se quita de la sesión de
+ * persistencia, así que no se debe guardar una referencia a ella esperando que siga siendo una entidad gestionada.
+ *
+ * @param <T> el tipo de los objetos que devuelve la consulta.
+ */
+public interface ScrollCallBack<T> {
+
+	/**
+	 * Se llama una vez por cada registro que devuelve la consulta, en el mismo orden en el que los devuelve.
+	 *
+	 * @param row el registro actual.
+	 */
+	void processRow(T row);
+}
@@ -11,6 +11,7 @@ package com.autentia.wuija.persistence.criteria;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.criterion.Restrictions;
 
@@ -71,7 +72,12 @@ public abstract class Criteria implements Cloneable {
 		criterions.addAll(criterionsToAdd);
 	}
 
-	void addHqlRestrictions(String alias, StringBuilder restrictionsHql, List<Object> paramValues) {
+	/**
+	 * Añade el HQL de las restricciones y los valores de sus parámetros.
+	 * 
+	 * @param maxInListSize número máximo de valores de cada <code>in</code>, ver {@link Operator#IN}.
+	 */
+	void addHqlRestrictions(String alias, StringBuilder restrictionsHql, List<Object> paramValues, int maxInListSize) {
 		if (!criterions.isEmpty()) {
 			boolean atLeastOneOperand = false;
 			
@@ -80,7 +86,14 @@ public abstract class Criteria implements Cloneable {
 			for (Criterion criterion : criterions) {
 				final int restrictionsHqlLength = restrictionsHql.length();
 				
-				criterion.toHql(alias, restrictionsHql, paramValues);
+				// Sólo estas clases saben generar su HQL con un tamaño máximo de los in distinto del de por defecto
+				if (criterion.getClass() == Junction.class) {
+					((Junction)criterion).addHqlRestrictions(alias, restrictionsHql, paramValues, maxInListSize);
+				} else if (criterion.getClass() == SimpleExpression.class) {
+					((SimpleExpression)criterion).toHql(alias, restrictionsHql, paramValues, maxInListSize);
+				} else {
+					criterion.toHql(alias, restrictionsHql, paramValues);
+				}
 				
 				if (restrictionsHqlLength != restrictionsHql.length()) {
 					// Sólo añadimos el operador si el criterion a aportado algo a la consulta.
@@ -101,6 +114,51 @@ public abstract class Criteria implements Cloneable {
 		}
 	}
 
+	/**
+	 * Añade sólo los valores de los parámetros de las restricciones, los mismos y en el mismo orden que
+	 * {@link Criteria#addHqlRestrictions(String, StringBuilder, List, int)}, pero sin generar el HQL. Sólo se puede usar
+	 * si {@link Criteria#addShape(List, int)} ha devuelto <code>true</code>.
+	 * 
+	 * @param paramValues donde se añaden los valores.
+	 * @param maxInListSize número máximo de valores de cada <code>in</code>, ver {@link Operator#IN}.
+	 */
+	void addHqlValues(List<Object> paramValues, int maxInListSize) {
+		for (Criterion criterion : criterions) {
+			if (criterion instanceof Junction) {
+				((Junction)criterion).addHqlValues(paramValues, maxInListSize);
+			} else {
+				((SimpleExpression)criterion).addHqlValues(paramValues, maxInListSize);
+			}
+		}
+	}
+
+	/**
+	 * Añade la forma de las restricciones, es decir, todo lo que determina el HQL que se genera pero no los valores de
+	 * los parámetros. Dos criterias con la misma forma generan el mismo HQL.
+	 * 
+	 * @param shape donde se añade la forma.
+	 * @param maxInListSize número máximo de valores de cada <code>in</code>, ver {@link Operator#IN}.
+	 * @return <code>false</code> si hay algún {@link Criterion} que no es ni un {@link SimpleExpression} ni un
+	 *         {@link Junction}, y por lo tanto no se conoce su forma.
+	 */
+	boolean addShape(List<Object> shape, int maxInListSize) {
+		shape.add(matchMode);
+		shape.add(Integer.valueOf(criterions.size()));
+		for (Criterion criterion : criterions) {
+			// Sólo se conoce el HQL de estas clases, no el de posibles clases hijas
+			if (criterion.getClass() == Junction.class) {
+				if (!((Junction)criterion).addShape(shape, maxInListSize)) {
+					return false;
+				}
+			} else if (criterion.getClass() == SimpleExpression.class) {
+				((SimpleExpression)criterion).addShape(shape, maxInListSize);
+			} else {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Elimina todos los {@link Criterion} de este junction.
 	 */
@@ -133,6 +191,33 @@ public abstract class Criteria implements Cloneable {
 		return clonedCriterions;
 	}
 
+	/**
+	 * Devuelve una copia de la lista de {@link Criterion} en la que se sustituyen los indicados, también los que están
+	 * dentro de un {@link Junction} (que se copia). El resto de {@link Criterion} no se copian.
+	 * 
+	 * @param criterionsToReplace los {@link Criterion} originales.
+	 * @param replacements los {@link Criterion} que se sustituyen (la clave) y por cuál se sustituyen (el valor).
+	 * @return la nueva lista.
+	 */
+	static List<Criterion> replaceCriterions(List<Criterion> criterionsToReplace,
+			Map<Criterion, Criterion> replacements) {
+		final List<Criterion> replacedCriterions = new ArrayList<Criterion>(criterionsToReplace.size());
+		for (Criterion criterion : criterionsToReplace) {
+			final Criterion replacement = replacements.get(criterion);
+			if (replacement != null) {
+				replacedCriterions.add(replacement);
+			} else if (criterion instanceof Junction) {
+				final Junction junction = (Junction)criterion;
+				final Junction replacedJunction = new Junction(junction.matchMode);
+				replacedJunction.criterions = replaceCriterions(junction.criterions, replacements);
+				replacedCriterions.add(replacedJunction);
+			} else {
+				replacedCriterions.add(criterion);
+			}
+		}
+		return replacedCriterions;
+	}
+
 	protected org.hibernate.criterion.Junction createHibernateJunction() {
 		switch (matchMode) {
 		case ALL:
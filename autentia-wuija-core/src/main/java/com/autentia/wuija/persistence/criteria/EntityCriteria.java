@@ -9,16 +9,24 @@
 
 package com.autentia.wuija.persistence.criteria;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.Assert;
 
 import com.autentia.common.util.ClassUtils;
+import com.autentia.common.util.EntityUtils;
 import com.autentia.common.util.Pair;
 
 /**
@@ -57,8 +65,60 @@ public class EntityCriteria extends Criteria {
 
 	}
 
+	/**
+	 * Último registro de la página anterior en la paginación por clave: la izquierda es el valor de la propiedad de
+	 * ordenación y la derecha el de la propiedad única.
+	 */
+	private static class KeysetBoundary extends Pair<Object, Object> {
+
+		private final boolean nullsSortLow;
+
+		KeysetBoundary(Object lastSortValue, Object lastUniqueValue, boolean nullsSortLow) {
+			super(lastSortValue, lastUniqueValue);
+			this.nullsSortLow = nullsSortLow;
+		}
+
+		Object getLastSortValue() {
+			return super.getLeft();
+		}
+
+		Object getLastUniqueValue() {
+			return super.getRight();
+		}
+
+		/** Si la base de datos considera los nulos menores que cualquier otro valor al ordenar. */
+		boolean isNullsSortLow() {
+			return nullsSortLow;
+		}
+	}
+
 	private static final Log log = LogFactory.getLog(EntityCriteria.class);
 
+	/** El principio de la consulta escalar, antes de las expresiones del select. */
+	private static final Pattern SELECT = Pattern.compile("^\\s*select\\s+", Pattern.CASE_INSENSITIVE);
+
+	/** Una expresión del select que es una función de agregación. */
+	private static final Pattern AGGREGATE_FUNCTION = Pattern.compile("(sum|avg|min|max|count)\\s*\\(.*\\)",
+			Pattern.CASE_INSENSITIVE);
+
+	/** Número máximo de consultas compiladas que se guardan en {@link EntityCriteria#plans}. */
+	private static final int MAX_PLANS = 500;
+
+	/**
+	 * Consultas compiladas, indexadas por la forma de la criteria. Se descartan las que hace más tiempo que no se
+	 * usan.
+	 */
+	private static final Map<List<Object>, EntityCriteriaPlan> plans = Collections
+			.synchronizedMap(new LinkedHashMap<List<Object>, EntityCriteriaPlan>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = -3870427005519394867L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<Object>, EntityCriteriaPlan> eldest) {
+					return size() > MAX_PLANS;
+				}
+			});
+
 	private final String alias;
 
 	/** Clase de la entidad sobre la que se va a aplicar la criteria. */
@@ -81,11 +141,35 @@ public class EntityCriteria extends Criteria {
 	private boolean sortAscending;
 
 	private String sortProperty;
+
+	/**
+	 * Propiedad con valores únicos (normalmente el id) que se usa para desempatar la ordenación. Es necesaria para poder
+	 * paginar por clave con {@link EntityCriteria#toHqlAfter(Object, Object, boolean)}.
+	 */
+	private String uniqueSortProperty;
 	
 	private String groupByProperty;
 	
 	private String flyingObject;
 
+	/**
+	 * Propiedades que devuelve la consulta en vez de la entidad completa, ver
+	 * {@link EntityCriteria#setProjection(String...)}. Si es <code>null</code> la consulta devuelve entidades.
+	 */
+	private String[] projection;
+
+	/**
+	 * Caminos de propiedades cuyas asociaciones se traen en la misma consulta, ver
+	 * {@link EntityCriteria#setFetchPaths(String...)}.
+	 */
+	private String[] fetchPaths;
+
+	/**
+	 * Número máximo de valores de cada <code>in</code> en el HQL que genera esta criteria (también en el de sus joins),
+	 * ver {@link EntityCriteria#setMaxInListSize(int)}.
+	 */
+	private int maxInListSize = Operator.DEFAULT_MAX_IN_LIST_SIZE;
+
 	/**
 	 * Es como llamar a: <code>new EntityCriteria(entityClass, {@link MatchMode#ALL})</code>.
 	 * 
@@ -127,7 +211,7 @@ public class EntityCriteria extends Criteria {
 
 				final int restrictionsHqlLength = restrictionsHql.length();
 
-				nameAndJoin.getJoin().addHqlRestrictions(joinAlias, restrictionsHql, hqlValues);
+				nameAndJoin.getJoin().addHqlRestrictions(joinAlias, restrictionsHql, hqlValues, maxInListSize);
 
 				if (restrictionsHqlLength != restrictionsHql.length()) {
 					restrictionsHql.append(" and ");
@@ -156,7 +240,7 @@ public class EntityCriteria extends Criteria {
 
 				final int restrictionsHqlLength = restrictionsHql.length();
 
-				nameAndJoin.getJoin().addHqlRestrictions(joinAlias, restrictionsHql, hqlValues);
+				nameAndJoin.getJoin().addHqlRestrictions(joinAlias, restrictionsHql, hqlValues, maxInListSize);
 
 				if (restrictionsHqlLength != restrictionsHql.length()) {
 					restrictionsHql.append(" and ");
@@ -179,24 +263,120 @@ public class EntityCriteria extends Criteria {
 	}
 
 	private void addRawHql(StringBuilder hql) {
+		addRawHql(hql, null, null, null);
+	}
+
+	/**
+	 * Añade el from, los joins y las restricciones de la consulta.
+	 * 
+	 * @param hql donde se añade la consulta.
+	 * @param keysetBoundary si no es <code>null</code>, último registro de la página anterior, para añadir la
+	 *            restricción de paginación por clave.
+	 * @param projectionJoinsHql si no es <code>null</code>, joins que hacen falta para la proyección.
+	 * @param rangeRestrictionHql si no es <code>null</code>, restricción de rango que se añade al final, ver
+	 *            {@link EntityCriteria#toHqlInRange(String, boolean)}.
+	 */
+	private void addRawHql(StringBuilder hql, KeysetBoundary keysetBoundary, CharSequence projectionJoinsHql,
+			CharSequence rangeRestrictionHql) {
 		hql.append("from ").append(entityClass.getSimpleName()).append(" as ").append(alias);
 
-		// XXX [wuija] se podría separar la generación de la cadena de la recuparción de los valores, para optimizar ??
-		// La query se compone una vez y los valores se recalculan n veces
+		// Para no volver a componer la query en cada ejecución, ver compile() y bindValues()
 		final StringBuilder restrictionsHql = new StringBuilder();
 		hqlValues.clear();
 
-		addHqlRestrictions(alias, restrictionsHql, hqlValues);
+		addHqlRestrictions(alias, restrictionsHql, hqlValues, maxInListSize);
 
 		addJoinsHql(hql, restrictionsHql);
 		
 		addLeftOuterJoinsHql(hql, restrictionsHql);
 
+		if (projectionJoinsHql != null) {
+			hql.append(projectionJoinsHql);
+		}
+
+		if (keysetBoundary != null) {
+			addKeysetRestriction(restrictionsHql, keysetBoundary);
+		}
+
+		if (rangeRestrictionHql != null) {
+			if (restrictionsHql.length() > 0) {
+				restrictionsHql.append(" and ");
+			}
+			restrictionsHql.append(rangeRestrictionHql);
+		}
+
 		if (restrictionsHql.length() > 0) {
 			hql.append(" where ").append(restrictionsHql);
 		}
 	}
 
+	/**
+	 * Añade la restricción para quedarse sólo con los registros que van detrás de <code>keysetBoundary</code> según la
+	 * ordenación de esta criteria. Los registros con la propiedad de ordenación a <code>null</code> no cumplen ninguna
+	 * comparación, así que se tratan aparte: van al principio o al final según ordene los nulos la base de datos.
+	 */
+	private void addKeysetRestriction(StringBuilder restrictionsHql, KeysetBoundary keysetBoundary) {
+		final String comparator = isKeysetAscending() ? ">?" : "<?";
+
+		if (restrictionsHql.length() > 0) {
+			restrictionsHql.append(" and ");
+		}
+
+		if (sortProperty == null || sortProperty.equals(uniqueSortProperty)) {
+			restrictionsHql.append(alias).append(".").append(uniqueSortProperty).append(comparator);
+			hqlValues.add(keysetBoundary.getLastUniqueValue());
+			return;
+		}
+
+		final String sortPath = alias + "." + sortProperty;
+		final String uniquePath = alias + "." + uniqueSortProperty;
+		final boolean nullsFirst = isKeysetAscending() == keysetBoundary.isNullsSortLow();
+
+		if (keysetBoundary.getLastSortValue() != null) {
+			restrictionsHql.append("(").append(sortPath).append(comparator).append(" or (").append(sortPath).append(
+					"=? and ").append(uniquePath).append(comparator).append(")");
+			if (!nullsFirst) {
+				restrictionsHql.append(" or ").append(sortPath).append(" is null");
+			}
+			restrictionsHql.append(")");
+			hqlValues.add(keysetBoundary.getLastSortValue());
+			hqlValues.add(keysetBoundary.getLastSortValue());
+			hqlValues.add(keysetBoundary.getLastUniqueValue());
+
+		} else {
+			restrictionsHql.append("((").append(sortPath).append(" is null and ").append(uniquePath).append(comparator)
+					.append(")");
+			if (nullsFirst) {
+				restrictionsHql.append(" or ").append(sortPath).append(" is not null");
+			}
+			restrictionsHql.append(")");
+			hqlValues.add(keysetBoundary.getLastUniqueValue());
+		}
+	}
+
+	private void addOrderBy(StringBuilder hql) {
+		if (sortProperty != null) {
+			hql.append(" order by ").append(alias).append(".").append(sortProperty);
+			if (!sortAscending) {
+				hql.append(" desc");
+			}
+			if (uniqueSortProperty != null && !sortProperty.equals(uniqueSortProperty)) {
+				hql.append(", ").append(alias).append(".").append(uniqueSortProperty);
+				if (!sortAscending) {
+					hql.append(" desc");
+				}
+			}
+
+		} else if (uniqueSortProperty != null) {
+			hql.append(" order by ").append(alias).append(".").append(uniqueSortProperty);
+		}
+	}
+
+	/** Si no hay propiedad de ordenación, sólo se ordena (ascendentemente) por la propiedad única. */
+	private boolean isKeysetAscending() {
+		return sortProperty == null || sortAscending;
+	}
+
 	public void clearJoins() {
 		joins.clear();
 	}
@@ -217,6 +397,10 @@ public class EntityCriteria extends Criteria {
 		return alias;
 	}
 
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
 	public Object[] getHqlValues() {
 		return hqlValues.toArray();
 	}
@@ -264,11 +448,15 @@ public class EntityCriteria extends Criteria {
 	}
 
 	private void log(String hql) {
+		log(hql, hqlValues);
+	}
+
+	private void log(String hql, List<Object> values) {
 		if (log.isDebugEnabled()) {
 			log.debug("HQL to execute: " + hql);
-			if (log.isTraceEnabled() && !hqlValues.isEmpty()) {
+			if (log.isTraceEnabled() && !values.isEmpty()) {
 				final StringBuilder sb = new StringBuilder();
-				for (Object obj : hqlValues) {
+				for (Object obj : values) {
 					sb.append(obj).append(" --- ");
 				}
 				sb.setLength(sb.length() - 5); // para quitar el último ' --- '
@@ -277,6 +465,153 @@ public class EntityCriteria extends Criteria {
 		}
 	}
 
+	/**
+	 * Compila esta criteria: devuelve el HQL de la búsqueda y de la cuenta de registros. La consulta compilada sólo se
+	 * genera la primera vez que se ve una criteria con esta forma (entidad, propiedades, operadores, joins y
+	 * ordenación); a partir de ahí se reutiliza, aunque cambien los valores. Los valores de cada ejecución se sacan con
+	 * {@link EntityCriteria#bindValues()}.
+	 * 
+	 * @return la consulta compilada.
+	 */
+	public EntityCriteriaPlan compile() {
+		return compile(createShape());
+	}
+
+	/**
+	 * Devuelve los valores de los parámetros del HQL de {@link EntityCriteria#compile()}, en el mismo orden, pero sin
+	 * generar el HQL. A diferencia de {@link EntityCriteria#getHqlValues()} no depende de la última consulta generada,
+	 * y cada llamada devuelve un array nuevo.
+	 * 
+	 * @return los valores de los parámetros.
+	 */
+	public Object[] bindValues() {
+		if (createShape() == null) {
+			toHql();
+			return getHqlValues();
+		}
+		return bindValuesOfKnownShape();
+	}
+
+	/**
+	 * Hace a la vez {@link EntityCriteria#compile()} y {@link EntityCriteria#bindValues()}, calculando la forma de la
+	 * criteria una sola vez. Es lo que hay que usar para ejecutar la criteria.
+	 * 
+	 * @return la consulta compilada (izquierda) y los valores de sus parámetros (derecha).
+	 */
+	public Pair<EntityCriteriaPlan, Object[]> compileAndBind() {
+		final List<Object> shape = createShape();
+		final EntityCriteriaPlan plan = compile(shape);
+		if (shape == null) {
+			// compile() acaba de generar el HQL, así que los valores ya están calculados
+			return new Pair<EntityCriteriaPlan, Object[]>(plan, getHqlValues());
+		}
+		return new Pair<EntityCriteriaPlan, Object[]>(plan, bindValuesOfKnownShape());
+	}
+
+	private EntityCriteriaPlan compile(List<Object> shape) {
+		if (shape == null) {
+			// Hay algún criterion que no sabemos comparar, así que no se puede reutilizar
+			return new EntityCriteriaPlan(toHql(), toCountHql());
+		}
+
+		EntityCriteriaPlan plan = plans.get(shape);
+		if (plan == null) {
+			plan = new EntityCriteriaPlan(toHql(), toCountHql());
+			plans.put(shape, plan);
+			if (log.isDebugEnabled()) {
+				log.debug("HQL plan compiled: " + plan);
+			}
+		}
+		return plan;
+	}
+
+	private Object[] bindValuesOfKnownShape() {
+		final List<Object> values = new ArrayList<Object>();
+		addHqlValues(values, maxInListSize);
+		for (PropertyNameAndJoin nameAndJoin : joins.values()) {
+			nameAndJoin.getJoin().addHqlValues(values, maxInListSize);
+		}
+		for (PropertyNameAndJoin nameAndJoin : leftOterJoins.values()) {
+			nameAndJoin.getJoin().addHqlValues(values, maxInListSize);
+		}
+		return values.toArray();
+	}
+
+	/**
+	 * Crea la clave con la que se guardan las consultas compiladas: todo lo que determina el HQL de la búsqueda y de la
+	 * cuenta.
+	 * 
+	 * @return la forma de la criteria, o <code>null</code> si tiene algún {@link Criterion} cuya forma no se conoce.
+	 */
+	private List<Object> createShape() {
+		final List<Object> shape = new ArrayList<Object>();
+		shape.add(entityClass);
+		shape.add(alias);
+		shape.add(Integer.valueOf(maxInListSize));
+		if (!addShape(shape, maxInListSize)) {
+			return null;
+		}
+		if (!addJoinsShape(shape, joins) || !addJoinsShape(shape, leftOterJoins)) {
+			return null;
+		}
+		shape.add(sortProperty);
+		shape.add(Boolean.valueOf(sortAscending));
+		shape.add(uniqueSortProperty);
+		shape.add(projection == null ? null : Arrays.asList(projection));
+		shape.add(fetchPaths == null ? null : Arrays.asList(fetchPaths));
+		return shape;
+	}
+
+	private boolean addJoinsShape(List<Object> shape, Map<String, PropertyNameAndJoin> joinsToAdd) {
+		shape.add(Integer.valueOf(joinsToAdd.size()));
+		for (Map.Entry<String, PropertyNameAndJoin> entryMap : joinsToAdd.entrySet()) {
+			shape.add(entryMap.getKey());
+			shape.add(entryMap.getValue().getPropertyName());
+			if (!entryMap.getValue().getJoin().addShape(shape, maxInListSize)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Devuelve una copia de esta criteria en la que se sustituyen algunos de sus {@link Criterion} (también los que están
+	 * dentro de un {@link Junction}) por otros; por ejemplo, un <code>contains</code> por la lista de ids que lo
+	 * cumplen. La copia comparte con esta criteria los joins y los {@link Criterion} que no se sustituyen, así que sólo
+	 * sirve para generar las consultas, no para modificarla.
+	 * 
+	 * @param replacements los {@link Criterion} que se sustituyen (la clave) y por cuál se sustituyen (el valor). Como
+	 *            los {@link Criterion} se comparan por valor, conviene que sea un {@link java.util.IdentityHashMap}.
+	 * @return la copia.
+	 */
+	public EntityCriteria replaceCriterions(Map<Criterion, Criterion> replacements) {
+		final EntityCriteria copy = new EntityCriteria(alias, entityClass, matchMode);
+		copy.criterions = replaceCriterions(criterions, replacements);
+		copy.joins.putAll(joins);
+		copy.leftOterJoins.putAll(leftOterJoins);
+		copy.sortAscending = sortAscending;
+		copy.sortProperty = sortProperty;
+		copy.uniqueSortProperty = uniqueSortProperty;
+		copy.groupByProperty = groupByProperty;
+		copy.flyingObject = flyingObject;
+		copy.projection = projection;
+		copy.fetchPaths = fetchPaths;
+		copy.maxInListSize = maxInListSize;
+		return copy;
+	}
+
+	/**
+	 * Devuelve una copia de esta criteria a la que se le puede cambiar la ordenación, la proyección o las asociaciones
+	 * que se traen sin modificar ésta; por ejemplo, para ejecutarla desde un datatable mientras otro la usa. Igual que
+	 * en {@link EntityCriteria#replaceCriterions(Map)}, la copia comparte con esta criteria los joins y los
+	 * {@link Criterion}.
+	 * 
+	 * @return la copia.
+	 */
+	public EntityCriteria copy() {
+		return replaceCriterions(Collections.<Criterion, Criterion> emptyMap());
+	}
+
 	public String toCountHql() {
 		final StringBuilder hql = new StringBuilder("select count(");
 		if (!joins.isEmpty() || !leftOterJoins.isEmpty()) {
@@ -295,20 +630,166 @@ public class EntityCriteria extends Criteria {
 	}
 
 	public String toHql() {
-		final StringBuilder hql = new StringBuilder();
-		if (!joins.isEmpty() || !leftOterJoins.isEmpty()) {
-			hql.append("select distinct ").append(alias).append(" ");
+		return toHql(null);
+	}
+
+	/**
+	 * Genera la sentencia que borra todas las entidades que cumplen esta criteria. HQL no permite joins en las
+	 * sentencias de borrado, así que la criteria no puede tenerlos.
+	 * <p>
+	 * Igual que {@link EntityCriteria#compileAndBind()}, devuelve la sentencia junto con sus valores y no cambia los
+	 * de {@link EntityCriteria#getHqlValues()}, así que se puede usar a la vez desde varios hilos.
+	 * 
+	 * @return la sentencia en HQL (izquierda) y los valores de sus parámetros (derecha).
+	 */
+	public Pair<String, Object[]> compileDelete() {
+		final StringBuilder hql = new StringBuilder("delete from ").append(entityClass.getSimpleName()).append(" as ")
+				.append(alias);
+		final List<Object> values = new ArrayList<Object>();
+
+		addBulkRestrictionsHql(hql, values);
+
+		return createBulkStatement(hql, values);
+	}
+
+	/**
+	 * Genera la sentencia que modifica todas las entidades que cumplen esta criteria. Igual que en
+	 * {@link EntityCriteria#compileDelete()}, la criteria no puede tener joins, y la sentencia se devuelve junto con
+	 * sus valores.
+	 * 
+	 * @param assignments los nuevos valores, indexados por el nombre de la propiedad.
+	 * @return la sentencia en HQL (izquierda) y los valores de sus parámetros (derecha): primero los nuevos valores y
+	 *         luego los de las restricciones.
+	 */
+	public Pair<String, Object[]> compileUpdate(Map<String, Object> assignments) {
+		Assert.notEmpty(assignments, "There must be at least one property to update");
+
+		final StringBuilder hql = new StringBuilder("update ").append(entityClass.getSimpleName()).append(" as ").append(
+				alias).append(" set ");
+		final List<Object> values = new ArrayList<Object>();
+
+		for (Map.Entry<String, Object> assignment : assignments.entrySet()) {
+			hql.append(alias).append(".").append(assignment.getKey()).append("=?, ");
+			values.add(assignment.getValue());
+		}
+		hql.setLength(hql.length() - 2); // Remove last ', '
+
+		addBulkRestrictionsHql(hql, values);
+
+		return createBulkStatement(hql, values);
+	}
+
+	private void addBulkRestrictionsHql(StringBuilder hql, List<Object> values) {
+		Assert.state(joins.isEmpty() && leftOterJoins.isEmpty(), "Bulk delete and update statements cannot have joins");
+
+		final StringBuilder restrictionsHql = new StringBuilder();
+		addHqlRestrictions(alias, restrictionsHql, values, maxInListSize);
+		if (restrictionsHql.length() > 0) {
+			hql.append(" where ").append(restrictionsHql);
 		}
+	}
+
+	private Pair<String, Object[]> createBulkStatement(StringBuilder hql, List<Object> values) {
+		final String hqlToExecute = hql.toString();
+
+		log(hqlToExecute, values);
+
+		return new Pair<String, Object[]>(hqlToExecute, values.toArray());
+	}
+
+	/**
+	 * Genera la consulta para obtener la página que va justo detrás del registro cuya propiedad de ordenación vale
+	 * <code>lastSortValue</code> y cuya propiedad única vale <code>lastUniqueValue</code> (paginación por clave).
+	 * <p>
+	 * A diferencia de paginar con un desplazamiento, el coste de esta consulta no depende de lo lejos que esté la
+	 * página, siempre que haya un índice por (propiedad de ordenación, propiedad única). Los registros con la propiedad
+	 * de ordenación a <code>null</code> se devuelven en el mismo sitio en el que los pone el <code>order by</code> de
+	 * la base de datos, por eso hay que decir cómo ordena ésta los nulos.
+	 * 
+	 * @param lastSortValue valor de la propiedad de ordenación del último registro de la página anterior.
+	 * @param lastUniqueValue valor de la propiedad única del último registro de la página anterior.
+	 * @param nullsSortLow <code>true</code> si la base de datos considera los nulos menores que cualquier otro valor
+	 *            (HSQLDB, MySQL, SQL Server), <code>false</code> si los considera mayores (Oracle, PostgreSQL, DB2).
+	 * @return la consulta en HQL. Los valores de sus parámetros se recuperan con {@link EntityCriteria#getHqlValues()}.
+	 * @see EntityCriteria#setUniqueSortProperty(String)
+	 */
+	public String toHqlAfter(Object lastSortValue, Object lastUniqueValue, boolean nullsSortLow) {
+		Assert.state(uniqueSortProperty != null, "An unique sort property is required for keyset pagination");
+		return toHql(new KeysetBoundary(lastSortValue, lastUniqueValue, nullsSortLow));
+	}
+
+	/**
+	 * Genera la consulta que devuelve el mínimo y el máximo de una propiedad entre los registros que cumplen esta
+	 * criteria.
+	 * 
+	 * @param propertyName la propiedad de la entidad.
+	 * @return la consulta en HQL. Los valores de sus parámetros se recuperan con {@link EntityCriteria#getHqlValues()}.
+	 */
+	public String toRangeHql(String propertyName) {
+		final StringBuilder hql = new StringBuilder("select min(").append(alias).append(".").append(propertyName)
+				.append("), max(").append(alias).append(".").append(propertyName).append(") ");
 
 		addRawHql(hql);
-		
-		if (sortProperty != null) {
-			hql.append(" order by ").append(alias).append(".").append(sortProperty);
-			if (!sortAscending) {
-				hql.append(" desc");
+
+		final String hqlToExecute = hql.toString();
+
+		log(hqlToExecute);
+
+		return hqlToExecute;
+	}
+
+	/**
+	 * Genera la consulta de esta criteria restringida a un rango de valores de una propiedad. Los dos últimos
+	 * parámetros de la consulta son el principio (incluido) y el final del rango, y sus valores no se devuelven en
+	 * {@link EntityCriteria#getHqlValues()} ni en {@link EntityCriteria#bindValues()}. Sirve para recorrer una tabla por
+	 * trozos.
+	 * 
+	 * @param propertyName la propiedad de la entidad.
+	 * @param includeUpperBound si el final del rango está incluido.
+	 * @return la consulta en HQL.
+	 */
+	public String toHqlInRange(String propertyName, boolean includeUpperBound) {
+		final StringBuilder rangeRestrictionHql = new StringBuilder().append(alias).append(".").append(propertyName)
+				.append(">=? and ").append(alias).append(".").append(propertyName).append(
+						includeUpperBound ? "<=?" : "<?");
+		return toHql(null, rangeRestrictionHql);
+	}
+
+	private String toHql(KeysetBoundary keysetBoundary) {
+		return toHql(keysetBoundary, null);
+	}
+
+	private String toHql(KeysetBoundary keysetBoundary, CharSequence rangeRestrictionHql) {
+		final StringBuilder hql = new StringBuilder();
+		StringBuilder projectionJoinsHql = null;
+		if (projection != null) {
+			projectionJoinsHql = new StringBuilder();
+			hql.append("select ");
+			final boolean distinct = !joins.isEmpty() || !leftOterJoins.isEmpty();
+			if (distinct) {
+				hql.append("distinct ");
+			}
+			addProjectionHql(hql, projectionJoinsHql);
+			if (distinct) {
+				// Para no juntar entidades distintas con los mismos valores, igual que hace la cuenta de registros
+				hql.append(", ").append(alias).append(".id");
+			}
+			hql.append(" ");
+
+		} else {
+			if (!joins.isEmpty() || !leftOterJoins.isEmpty()) {
+				hql.append("select distinct ").append(alias).append(" ");
+			}
+			if (fetchPaths != null) {
+				projectionJoinsHql = new StringBuilder();
+				addFetchJoinsHql(projectionJoinsHql);
 			}
 		}
 
+		addRawHql(hql, keysetBoundary, projectionJoinsHql, rangeRestrictionHql);
+		
+		addOrderBy(hql);
+
 		final String hqlToExecute = hql.toString();
 
 		log(hqlToExecute);
@@ -317,21 +798,107 @@ public class EntityCriteria extends Criteria {
 	}
 	
 	
+	/**
+	 * Añade al select las propiedades de la proyección. Cada asociación con otra entidad que aparece en el camino de una
+	 * propiedad se resuelve con un left outer join (los caminos implícitos de HQL, como <code>a.b.c</code>, generan
+	 * inner joins y se perderían las filas en las que la asociación es <code>null</code>). Un mismo camino sólo se une
+	 * una vez, aunque aparezca en varias propiedades.
+	 * 
+	 * @param selectHql donde se añaden las expresiones del select, separadas por comas.
+	 * @param projectionJoinsHql donde se añaden los joins.
+	 */
+	private void addProjectionHql(StringBuilder selectHql, StringBuilder projectionJoinsHql) {
+		final Map<String, String> joinAliases = new LinkedHashMap<String, String>();
+
+		for (String propertyPath : projection) {
+			final String[] propertyNames = propertyPath.split("\\.");
+			String expression = alias;
+			String path = "";
+			Class<?> propertyClass = entityClass;
+
+			for (String propertyName : propertyNames) {
+				propertyClass = ClassUtils.getPropertyClass(propertyClass, propertyName);
+				Assert.notNull(propertyClass, "The class " + entityClass.getName() + " doesn't have the property "
+						+ propertyPath + ". Review if you spelled it correctly.");
+				path = path.length() == 0 ? propertyName : path + "_" + propertyName;
+
+				if (EntityUtils.isEntity(propertyClass)) {
+					String joinAlias = joinAliases.get(path);
+					if (joinAlias == null) {
+						joinAlias = alias + "_" + path;
+						joinAliases.put(path, joinAlias);
+						projectionJoinsHql.append(" left outer join ").append(expression).append(".").append(
+								propertyName).append(" as ").append(joinAlias);
+					}
+					expression = joinAlias;
+
+				} else {
+					expression = expression + "." + propertyName;
+				}
+			}
+			selectHql.append(expression).append(", ");
+		}
+		selectHql.setLength(selectHql.length() - 2); // Remove last ', '
+	}
+
+	/**
+	 * Añade un <code>left join fetch</code> por cada asociación con otra entidad que aparece en los caminos de
+	 * {@link EntityCriteria#setFetchPaths(String...)}. Cada camino se recorre hasta la primera propiedad que no es una
+	 * entidad: ni las propiedades simples ni las colecciones se traen con join.
+	 * 
+	 * @param fetchJoinsHql donde se añaden los joins.
+	 */
+	private void addFetchJoinsHql(StringBuilder fetchJoinsHql) {
+		final Set<String> fetchedPaths = new HashSet<String>();
+
+		for (String fetchPath : fetchPaths) {
+			String expression = alias;
+			String path = "";
+			Class<?> propertyClass = entityClass;
+
+			for (String propertyName : fetchPath.split("\\.")) {
+				final Method getterMethod = ClassUtils.getGetterMethod(propertyClass, propertyName);
+				if (getterMethod == null || !EntityUtils.isEntity(getterMethod.getReturnType())) {
+					break;
+				}
+				propertyClass = getterMethod.getReturnType();
+				path = path.length() == 0 ? propertyName : path + "_" + propertyName;
+
+				final String joinAlias = alias + "_" + path;
+				if (fetchedPaths.add(path)) {
+					fetchJoinsHql.append(" left join fetch ").append(expression).append(".").append(propertyName)
+							.append(" as ").append(joinAlias);
+				}
+				expression = joinAlias;
+			}
+		}
+	}
+
+	/**
+	 * Genera la consulta que cuenta los registros que devuelve {@link EntityCriteria#toHqlScalarQuery()}, de forma que
+	 * la cuenta se hace entera en la base de datos y siempre devuelve un único registro.
+	 * <p>
+	 * Si no hay agrupación, la consulta devuelve el número de registros. Si hay agrupación, devuelve tres números: los
+	 * distintos valores no nulos de la propiedad de agrupación, el total de registros y los registros con la propiedad
+	 * de agrupación no nula. Si los dos últimos no coinciden es que también hay un grupo para el valor
+	 * <code>null</code>, que el <code>count(distinct ...)</code> no cuenta.
+	 * <p>
+	 * Si no hay agrupación y el select sólo tiene funciones de agregación (<code>select sum(...), count(...)</code>), la
+	 * consulta siempre devuelve un único registro, así que no hace falta contar y se devuelve <code>null</code>.
+	 * 
+	 * @return la consulta en HQL, o <code>null</code> si la consulta escalar siempre devuelve un único registro.
+	 */
 	public String toCountHqlScalarQuery() {
-		final StringBuilder hql = new StringBuilder("select count(");
-		
-		if (!joins.isEmpty() || !leftOterJoins.isEmpty()) {
-			hql.append("distinct ");
+		if (groupByProperty == null) {
+			return isAggregateOnlySelect() ? null : toCountHql();
 		}
-		
-		hql.append(alias).append(") ");
-		
+
+		final String groupByPath = alias + "." + groupByProperty;
+		final StringBuilder hql = new StringBuilder("select count(distinct ").append(groupByPath).append("), ");
+		hql.append("count(*), count(").append(groupByPath).append(") ");
+
 		addRawHql(hql);
 
-		if (groupByProperty!=null){
-			hql.append(" group by ").append(alias).append(".").append(groupByProperty);
-		}
-		
 		final String hqlToExecute = hql.toString();
 
 		log(hqlToExecute);
@@ -339,6 +906,38 @@ public class EntityCriteria extends Criteria {
 		return hqlToExecute;
 	}
 
+	/**
+	 * Indica si el select de la consulta escalar sólo tiene funciones de agregación. Las expresiones se separan por las
+	 * comas que no están entre paréntesis.
+	 */
+	private boolean isAggregateOnlySelect() {
+		if (flyingObject == null) {
+			return false;
+		}
+		final Matcher select = SELECT.matcher(flyingObject);
+		if (!select.find()) {
+			return false;
+		}
+
+		final String selectList = flyingObject.substring(select.end());
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i <= selectList.length(); i++) {
+			final char c = i < selectList.length() ? selectList.charAt(i) : ',';
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				if (!AGGREGATE_FUNCTION.matcher(selectList.substring(start, i).trim()).matches()) {
+					return false;
+				}
+				start = i + 1;
+			}
+		}
+		return true;
+	}
+
 	public String toHqlScalarQuery () {
 		final StringBuilder hql = new StringBuilder();
 		
@@ -377,6 +976,77 @@ public class EntityCriteria extends Criteria {
 		return groupByProperty;
 	}
 
+	public String getUniqueSortProperty() {
+		return uniqueSortProperty;
+	}
+
+	/**
+	 * Fija la propiedad con valores únicos (normalmente el id) que se usará para desempatar la ordenación.
+	 * 
+	 * @param uniqueSortProperty el nombre de la propiedad.
+	 */
+	public void setUniqueSortProperty(String uniqueSortProperty) {
+		this.uniqueSortProperty = uniqueSortProperty;
+	}
+
+	public String[] getProjection() {
+		return projection;
+	}
+
+	/**
+	 * Hace que la consulta devuelva sólo las propiedades indicadas, en vez de la entidad completa. Cada registro será un
+	 * <code>Object[]</code> con el valor de cada propiedad, en el mismo orden (o directamente el valor si sólo hay una
+	 * propiedad); los métodos de búsqueda del {@link com.autentia.wuija.persistence.Dao} que reciben una
+	 * {@link EntityCriteria} lo convierten en un {@link Map} anidado por el nombre de cada propiedad. Se pueden indicar propiedades de entidades asociadas (<code>category.name</code>); si alguna
+	 * asociación del camino es <code>null</code> el valor también lo será, pero el registro se devuelve igualmente.
+	 * <p>
+	 * Sólo se admiten propiedades con un único valor, no colecciones. La cuenta de registros no cambia. Si la criteria
+	 * tiene joins, al final del registro se añade el id de la entidad, para que el <code>distinct</code> no junte
+	 * entidades distintas que tengan los mismos valores en las propiedades proyectadas.
+	 * 
+	 * @param propertyPaths las propiedades que se quieren recuperar, o ninguna para volver a recuperar entidades.
+	 */
+	public void setProjection(String... propertyPaths) {
+		this.projection = propertyPaths == null || propertyPaths.length == 0 ? null : propertyPaths.clone();
+	}
+
+	public String[] getFetchPaths() {
+		return fetchPaths;
+	}
+
+	/**
+	 * Indica qué asociaciones se van a usar de cada entidad encontrada, para traerlas en la misma consulta con un
+	 * <code>left join fetch</code> en vez de cargarlas una a una después (el típico problema de las N+1 consultas al
+	 * pintar una tabla). Se pueden pasar directamente los caminos de las propiedades que se van a leer
+	 * (<code>category.name</code>): se traen todas las entidades del camino y se ignora el resto.
+	 * <p>
+	 * Las colecciones no se traen, porque multiplicarían los registros y Hibernate tendría que paginar en memoria; para
+	 * ellas es mejor usar <code>@BatchSize</code> en el mapeo. Si hay proyección (ver
+	 * {@link EntityCriteria#setProjection(String...)}) no hace falta traer nada y se ignoran.
+	 * 
+	 * @param propertyPaths los caminos de las propiedades, o ninguno para no traer ninguna asociación.
+	 */
+	public void setFetchPaths(String... propertyPaths) {
+		this.fetchPaths = propertyPaths == null || propertyPaths.length == 0 ? null : propertyPaths.clone();
+	}
+
+	public int getMaxInListSize() {
+		return maxInListSize;
+	}
+
+	/**
+	 * Fija el número máximo de valores de cada <code>in</code> (ver {@link Operator#IN}) en el HQL que genera esta
+	 * criteria; las listas más grandes se parten en varios <code>in</code> unidos por <code>or</code>. Depende de la
+	 * base de datos, por eso normalmente lo fija el {@link com.autentia.wuija.persistence.Dao} que la ejecuta. Por
+	 * defecto es {@link Operator#DEFAULT_MAX_IN_LIST_SIZE}.
+	 * 
+	 * @param maxInListSize el número máximo de valores.
+	 */
+	public void setMaxInListSize(int maxInListSize) {
+		Assert.isTrue(maxInListSize > 0, "The max size of the in lists must be positive");
+		this.maxInListSize = maxInListSize;
+	}
+
 	public void setFlyingObject(String flyingObject) {
 		this.flyingObject = flyingObject;
 	}
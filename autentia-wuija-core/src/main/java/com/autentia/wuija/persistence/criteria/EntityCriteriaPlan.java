@@ -0,0 +1,44 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.criteria;
+
+/**
+ * Consulta ya compilada de una {@link EntityCriteria}: el HQL de la búsqueda y el HQL de la cuenta de registros. Es
+ * inmutable, así que se puede compartir entre sesiones e hilos; sólo depende de la forma de la criteria (entidad,
+ * propiedades, operadores, joins y ordenación), no de los valores.
+ * <p>
+ * Los valores de los parámetros se recuperan en cada ejecución con {@link EntityCriteria#bindValues()}.
+ * 
+ * @see EntityCriteria#compile()
+ */
+public final class EntityCriteriaPlan {
+
+	private final String hql;
+
+	private final String countHql;
+
+	EntityCriteriaPlan(String hql, String countHql) {
+		this.hql = hql;
+		this.countHql = countHql;
+	}
+
+	public String getHql() {
+		return hql;
+	}
+
+	public String getCountHql() {
+		return countHql;
+	}
+
+	@Override
+	public String toString() {
+		return hql;
+	}
+}
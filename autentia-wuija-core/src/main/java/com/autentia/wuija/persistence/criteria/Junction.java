@@ -42,6 +42,6 @@ public class Junction extends Criteria implements Criterion {
 	}
 
 	public void toHql(String alias, StringBuilder restrictionsHql, List<Object> paramValues) {
-		addHqlRestrictions(alias, restrictionsHql, paramValues);
+		addHqlRestrictions(alias, restrictionsHql, paramValues, Operator.DEFAULT_MAX_IN_LIST_SIZE);
 	}
 }
@@ -18,136 +18,181 @@
 
 package com.autentia.wuija.persistence.criteria;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
+import org.springframework.util.Assert;
+
+/**
+ * Operadores de los {@link SimpleExpression}. Cada operador sabe generar su trozo de HQL y, por separado, los valores de
+ * sus parámetros, de forma que una consulta ya compilada (ver {@link EntityCriteriaPlan}) sólo necesita recalcular los
+ * valores.
+ */
 public enum Operator {
 	IS_NULL {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append(alias).append(".").append(propertyName).append(" is null");
 		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+			// No tiene parámetros
+		}
 	},
 	IS_NOT_NULL {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append(alias).append(".").append(propertyName).append(" is not null");
 		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+			// No tiene parámetros
+		}
 	},
 	IS_BLANK { // Sólo tiene sentido para cadenas, cuando no tiene valor "" o es null
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append("(").append(alias).append(".").append(propertyName).append(" is null or ").append(
 					alias).append(".").append(propertyName).append("='')");
 		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+			// No tiene parámetros
+		}
 	},
 	IS_NOT_BLANK {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
-			not(IS_BLANK, propertyName, operands, alias, restrictionsHql, paramValues);
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
+			appendNotHql(IS_BLANK, propertyName, operands, alias, restrictionsHql, maxInListSize);
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+			IS_BLANK.addParamValues(operands, paramValues, maxInListSize);
 		}
 	},
 	EQUALS {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append(alias).append(".").append(propertyName).append("=?");
-			paramValues.add(operands.get(0));
 		}
 	},
 	NOT_EQUALS {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
-			not(EQUALS, propertyName, operands, alias, restrictionsHql, paramValues);
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
+			appendNotHql(EQUALS, propertyName, operands, alias, restrictionsHql, maxInListSize);
 		}
 	},
 	CONTAINS { // Sólo tiene sentido para cadenas, cuando una cadena esta contenida dentro de otra
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append("lower(").append(alias).append(".").append(propertyName).append(") like lower(?)");
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
 			paramValues.add("%" + operands.get(0) + "%");
 		}
 	},
 	NOT_CONTAIN {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
-			not(CONTAINS, propertyName, operands, alias, restrictionsHql, paramValues);
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
+			appendNotHql(CONTAINS, propertyName, operands, alias, restrictionsHql, maxInListSize);
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+			CONTAINS.addParamValues(operands, paramValues, maxInListSize);
 		}
 	},
 	STARTS_WITH { // Sólo tiene sentido para cadenas, cuando una cadena empiezar por otra
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append("lower(").append(alias).append(".").append(propertyName).append(") like lower(?)");
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
 			paramValues.add(operands.get(0) + "%");
 		}
 	},
 	ENDS_WITH { // Sólo tiene sentido para cadenas, cuando una cadena acaba por otra
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append("lower(").append(alias).append(".").append(propertyName).append(") like lower(?)");
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
 			paramValues.add("%" + operands.get(0));
 		}
 	},
 	GREATER {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append(alias).append(".").append(propertyName).append(">?");
-			paramValues.add(operands.get(0));
 		}
 	},
 	GREATER_EQUAL {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append(alias).append(".").append(propertyName).append(">=?");
-			paramValues.add(operands.get(0));
 		}
 	},
 	LESS {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append(alias).append(".").append(propertyName).append("<?");
-			paramValues.add(operands.get(0));
 		}
 	},
 	LESS_EQUAL {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append(alias).append(".").append(propertyName).append("<=?");
-			paramValues.add(operands.get(0));
 		}
 	},
 	BETWEEN {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
 			restrictionsHql.append(alias).append(".").append(propertyName).append(" between ? and ?");
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
 			paramValues.add(operands.get(0));
 			paramValues.add(operands.get(1));
 		}
@@ -155,19 +200,167 @@ public enum Operator {
 	NOT_BETWEEN {
 
 		@Override
-		public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-				List<Object> paramValues) {
-			not(BETWEEN, propertyName, operands, alias, restrictionsHql, paramValues);
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
+			appendNotHql(BETWEEN, propertyName, operands, alias, restrictionsHql, maxInListSize);
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+			BETWEEN.addParamValues(operands, paramValues, maxInListSize);
+		}
+	},
+	/**
+	 * El operando es una {@link Collection} con los valores. Para que la misma consulta sirva para listas de distinto
+	 * tamaño, el número de <code>?</code> se redondea a la siguiente potencia de 2 (repitiendo el último valor), y las
+	 * listas más grandes que el tamaño máximo con el que se genera el HQL (por defecto
+	 * {@link Operator#DEFAULT_MAX_IN_LIST_SIZE}) se parten en varios <code>in</code> unidos por <code>or</code>. Una
+	 * lista vacía no encuentra nada.
+	 */
+	IN {
+
+		@Override
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
+			final int paddedSize = getPaddedSize(operands, maxInListSize);
+			if (paddedSize == 0) {
+				restrictionsHql.append("1=0");
+				return;
+			}
+
+			final int chunks = (paddedSize + maxInListSize - 1) / maxInListSize;
+			if (chunks > 1) {
+				restrictionsHql.append("(");
+			}
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				if (chunk > 0) {
+					restrictionsHql.append(" or ");
+				}
+				restrictionsHql.append(alias).append(".").append(propertyName).append(" in (");
+				final int chunkSize = Math.min(maxInListSize, paddedSize - chunk * maxInListSize);
+				for (int i = 0; i < chunkSize; i++) {
+					restrictionsHql.append(i == 0 ? "?" : ", ?");
+				}
+				restrictionsHql.append(")");
+			}
+			if (chunks > 1) {
+				restrictionsHql.append(")");
+			}
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+			final Collection<?> values = getInValues(operands);
+			paramValues.addAll(values);
+			if (!values.isEmpty()) {
+				final Object lastValue = paramValues.get(paramValues.size() - 1);
+				for (int i = values.size(); i < getPaddedSize(operands, maxInListSize); i++) {
+					paramValues.add(lastValue);
+				}
+			}
+		}
+
+		@Override
+		public Object getOperandsShape(List<Object> operands, int maxInListSize) {
+			return Integer.valueOf(getPaddedSize(operands, maxInListSize));
+		}
+	},
+	/** Como {@link Operator#IN}, pero una lista vacía lo encuentra todo. */
+	NOT_IN {
+
+		@Override
+		public void appendHql(String propertyName, List<Object> operands, String alias,
+				StringBuilder restrictionsHql, int maxInListSize) {
+			appendNotHql(IN, propertyName, operands, alias, restrictionsHql, maxInListSize);
+		}
+
+		@Override
+		public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+			IN.addParamValues(operands, paramValues, maxInListSize);
+		}
+
+		@Override
+		public Object getOperandsShape(List<Object> operands, int maxInListSize) {
+			return IN.getOperandsShape(operands, maxInListSize);
 		}
 	};
 
-	public abstract void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
-			List<Object> paramValues);
+	/**
+	 * Número máximo de valores de cada <code>in</code> que se usa si no se indica otro (Oracle no admite más de 1000),
+	 * ver {@link Operator#IN}.
+	 */
+	public static final int DEFAULT_MAX_IN_LIST_SIZE = 1000;
+
+	/**
+	 * Añade la restricción en HQL y los valores de sus parámetros.
+	 * 
+	 * @param maxInListSize número máximo de valores de cada <code>in</code>; las listas más grandes se parten en varios
+	 *            <code>in</code> unidos por <code>or</code>.
+	 */
+	public void toHql(String propertyName, List<Object> operands, String alias, StringBuilder restrictionsHql,
+			List<Object> paramValues, int maxInListSize) {
+		Assert.isTrue(maxInListSize > 0, "The max size of the in lists must be positive");
+		appendHql(propertyName, operands, alias, restrictionsHql, maxInListSize);
+		addParamValues(operands, paramValues, maxInListSize);
+	}
+
+	/**
+	 * Añade la restricción en HQL, con un <code>?</code> por cada parámetro. Salvo en {@link Operator#IN} y
+	 * {@link Operator#NOT_IN}, el HQL no depende de los operandos (ni del número máximo de valores de cada
+	 * <code>in</code>).
+	 */
+	public abstract void appendHql(String propertyName, List<Object> operands, String alias,
+			StringBuilder restrictionsHql, int maxInListSize);
+
+	/**
+	 * Añade los valores de los parámetros de la restricción, en el mismo orden en que aparecen en el HQL. Por defecto
+	 * hay un único parámetro, el primer operando.
+	 */
+	public void addParamValues(List<Object> operands, List<Object> paramValues, int maxInListSize) {
+		paramValues.add(operands.get(0));
+	}
+
+	/**
+	 * Devuelve lo que, además del propio operador, determina el HQL que genera (ver
+	 * {@link EntityCriteria#compile()}). Por defecto nada.
+	 * 
+	 * @param operands los operandos.
+	 * @param maxInListSize número máximo de valores de cada <code>in</code>.
+	 * @return la forma de los operandos, o <code>null</code> si el HQL no depende de ellos.
+	 */
+	public Object getOperandsShape(List<Object> operands, int maxInListSize) {
+		return null;
+	}
+
+	private static Collection<?> getInValues(List<Object> operands) {
+		final Object values = operands.get(0);
+		if (values == null) {
+			return Collections.emptyList();
+		}
+		Assert.isInstanceOf(Collection.class, values, "The operand of IN and NOT_IN must be a collection");
+		return (Collection<?>)values;
+	}
+
+	/**
+	 * Devuelve el número de <code>?</code> para los valores de un <code>in</code>: la siguiente potencia de 2 o, si no
+	 * caben en un solo <code>in</code>, el siguiente múltiplo del tamaño máximo.
+	 */
+	private static int getPaddedSize(List<Object> operands, int maxInListSize) {
+		final int size = getInValues(operands).size();
+		if (size > maxInListSize) {
+			return (size + maxInListSize - 1) / maxInListSize * maxInListSize;
+		}
+		int paddedSize = size == 0 ? 0 : 1;
+		while (paddedSize < size) {
+			paddedSize <<= 1;
+		}
+		return Math.min(paddedSize, maxInListSize);
+	}
 
-	private static void not(Operator operator, String propertyName, List<Object> operands, String alias,
-			StringBuilder restrictionsHql, List<Object> paramValues) {
+	private static void appendNotHql(Operator operator, String propertyName, List<Object> operands, String alias,
+			StringBuilder restrictionsHql, int maxInListSize) {
 		restrictionsHql.append("not (");
-		operator.toHql(propertyName, operands, alias, restrictionsHql, paramValues);
+		operator.appendHql(propertyName, operands, alias, restrictionsHql, maxInListSize);
 		restrictionsHql.append(")");
 	}
-}
\ No newline at end of file
+}
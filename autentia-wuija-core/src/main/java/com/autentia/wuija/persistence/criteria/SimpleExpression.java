@@ -179,9 +179,38 @@ public class SimpleExpression implements Criterion {
 
 	@Override
 	public void toHql(String alias, StringBuilder restrictionsHql, List<Object> paramValues) {
+		toHql(alias, restrictionsHql, paramValues, Operator.DEFAULT_MAX_IN_LIST_SIZE);
+	}
+
+	/**
+	 * Como {@link SimpleExpression#toHql(String, StringBuilder, List)}, pero partiendo las listas de los
+	 * <code>in</code> en trozos de como mucho <code>maxInListSize</code> valores.
+	 */
+	void toHql(String alias, StringBuilder restrictionsHql, List<Object> paramValues, int maxInListSize) {
 		if (property == null) {
 			return;
 		}
-		getOperator().toHql(property, getValues(), alias, restrictionsHql, paramValues);
+		getOperator().toHql(property, getValues(), alias, restrictionsHql, paramValues, maxInListSize);
+	}
+
+	/**
+	 * Añade sólo los valores de los parámetros, los mismos y en el mismo orden que
+	 * {@link SimpleExpression#toHql(String, StringBuilder, List, int)}, pero sin generar el HQL.
+	 */
+	void addHqlValues(List<Object> paramValues, int maxInListSize) {
+		if (property == null) {
+			return;
+		}
+		getOperator().addParamValues(getValues(), paramValues, maxInListSize);
+	}
+
+	/**
+	 * Añade la forma de este criterio (lo que determina el HQL que genera): la propiedad, el operador y, para los
+	 * operadores que lo necesitan (ver {@link Operator#getOperandsShape(List, int)}), la forma de los operandos.
+	 */
+	void addShape(List<Object> shape, int maxInListSize) {
+		shape.add(property);
+		shape.add(property == null ? null : operator);
+		shape.add(property == null ? null : operator.getOperandsShape(values, maxInListSize));
 	}
 }
@@ -21,6 +21,8 @@ package com.autentia.wuija.persistence.event;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.PostLoad;
 import javax.persistence.PostUpdate;
@@ -92,66 +94,136 @@ public class AnnotationEventListener implements PostLoadEventListener, PostUpdat
 
 	private static final Log log = LogFactory.getLog(AnnotationEventListener.class);
 
-	private Object invokeAnnotatedMethod(Session session, Object entity, Class<? extends Annotation> annotation) {
-		final Method annotatedMethod = ClassUtils.findAnnotatedMethod(entity.getClass(), annotation);
-		if (annotatedMethod == null) {
-			return null;
-		}
-
-		if (log.isDebugEnabled()) {
-			log.debug("Invoking " + annotation.getSimpleName() + " method, for class " + entity.getClass().getName());
+	/**
+	 * Métodos anotados de cada clase de entidad, buscados la primera vez que llega un evento de la clase. Las clases
+	 * sin ninguno también se guardan, con {@link #NO_CALLBACKS}.
+	 */
+	private static final ConcurrentMap<Class<?>, Callbacks> callbacksByClass =
+			new ConcurrentHashMap<Class<?>, Callbacks>();
+
+	private static final Callbacks NO_CALLBACKS = new Callbacks(null, null, null, null);
+
+	private static Callbacks getCallbacks(Class<?> entityClass) {
+		Callbacks callbacks = callbacksByClass.get(entityClass);
+		if (callbacks == null) {
+			final Callback postLoad = Callback.find(entityClass, PostLoad.class);
+			final Callback postUpdate = Callback.find(entityClass, PostUpdate.class);
+			final Callback preUpdate = Callback.find(entityClass, PreUpdate.class);
+			final Callback preRemove = Callback.find(entityClass, PreRemove.class);
+			if (postLoad == null && postUpdate == null && preUpdate == null && preRemove == null) {
+				callbacks = NO_CALLBACKS;
+			} else {
+				callbacks = new Callbacks(postLoad, postUpdate, preUpdate, preRemove);
+			}
+			callbacksByClass.put(entityClass, callbacks);
 		}
+		return callbacks;
+	}
 
-		final boolean accesible = annotatedMethod.isAccessible();
-		annotatedMethod.setAccessible(true); // Se hace el método accesible, por si es privado
-		try {
-			if (annotatedMethod.getParameterTypes().length == 1) {
-				return annotatedMethod.invoke(entity, session);
-			}
-			return annotatedMethod.invoke(entity);
-
-		} catch (IllegalArgumentException e) {
-			final String msg = "Cannot invoke event listener method. Method for class "
-					+ annotatedMethod.getDeclaringClass().getName() + "." + annotatedMethod.getName()
-					+ " should have no parameters, or just one parameter, the Hibernate session.";
-			log.fatal(msg, e);
-			throw new IllegalArgumentException(msg, e);
-
-		} catch (IllegalAccessException e) {
-			final String msg = "Cannot invoke event listener. Method for class "
-					+ annotatedMethod.getDeclaringClass().getName() + "." + annotatedMethod.getName()
-					+ " is not accesible.";
-			log.fatal(msg, e);
-			throw new IllegalArgumentException(msg, e);
-
-		} catch (InvocationTargetException e) {
-			final String msg = "Cannot invoke event listener. Method for class "
-					+ annotatedMethod.getDeclaringClass().getName() + "." + annotatedMethod.getName()
-					+ " is not accesible.";
-			log.fatal(msg, e);
-			throw new IllegalArgumentException(msg, e);
-
-		} finally {
-			annotatedMethod.setAccessible(accesible); // Se restaura la accesibilidad del metodo
+	private static Object invoke(Callback callback, Session session, Object entity) {
+		if (callback == null) {
+			return null;
 		}
+		return callback.invoke(session, entity);
 	}
 
 	public void onPostLoad(PostLoadEvent event) {
-		invokeAnnotatedMethod(event.getSession(), event.getEntity(), PostLoad.class);
+		final Object entity = event.getEntity();
+		invoke(getCallbacks(entity.getClass()).postLoad, event.getSession(), entity);
 	}
 
 	public void onPostUpdate(PostUpdateEvent event) {
-		invokeAnnotatedMethod(event.getSession(), event.getEntity(), PostUpdate.class);
+		final Object entity = event.getEntity();
+		invoke(getCallbacks(entity.getClass()).postUpdate, event.getSession(), entity);
 	}
 
 	public boolean onPreUpdate(PreUpdateEvent event) {
-		final Boolean veto = (Boolean)invokeAnnotatedMethod(event.getSession(), event.getEntity(), PreUpdate.class);
+		final Object entity = event.getEntity();
+		final Boolean veto = (Boolean)invoke(getCallbacks(entity.getClass()).preUpdate, event.getSession(), entity);
 		return (veto == null) ? false : veto.booleanValue();
 	}
 
 	public boolean onPreDelete(PreDeleteEvent event) {
-		final Boolean veto = (Boolean)invokeAnnotatedMethod(event.getSession(), event.getEntity(), PreRemove.class);
+		final Object entity = event.getEntity();
+		final Boolean veto = (Boolean)invoke(getCallbacks(entity.getClass()).preRemove, event.getSession(), entity);
 		return (veto == null) ? false : veto.booleanValue();
 	}
 
+	/**
+	 * Los métodos anotados de una clase de entidad; <code>null</code> los que no tiene.
+	 */
+	private static final class Callbacks {
+
+		final Callback postLoad;
+
+		final Callback postUpdate;
+
+		final Callback preUpdate;
+
+		final Callback preRemove;
+
+		Callbacks(Callback postLoad, Callback postUpdate, Callback preUpdate, Callback preRemove) {
+			this.postLoad = postLoad;
+			this.postUpdate = postUpdate;
+			this.preUpdate = preUpdate;
+			this.preRemove = preRemove;
+		}
+	}
+
+	/**
+	 * Un método anotado, ya accesible aunque sea privado. Como el {@link Method} es sólo de esta clase, se hace
+	 * accesible una única vez al crearlo y no hay que restaurar la accesibilidad en cada invocación.
+	 */
+	private static final class Callback {
+
+		private final Method method;
+
+		private final String annotationName;
+
+		private final boolean withSession;
+
+		private Callback(Method method, Class<? extends Annotation> annotation) {
+			this.method = method;
+			this.annotationName = annotation.getSimpleName();
+			this.withSession = method.getParameterTypes().length == 1;
+			method.setAccessible(true); // Se hace el método accesible, por si es privado
+		}
+
+		static Callback find(Class<?> entityClass, Class<? extends Annotation> annotation) {
+			final Method annotatedMethod = ClassUtils.findAnnotatedMethod(entityClass, annotation);
+			return annotatedMethod == null ? null : new Callback(annotatedMethod, annotation);
+		}
+
+		Object invoke(Session session, Object entity) {
+			if (log.isDebugEnabled()) {
+				log.debug("Invoking " + annotationName + " method, for class " + entity.getClass().getName());
+			}
+
+			try {
+				if (withSession) {
+					return method.invoke(entity, session);
+				}
+				return method.invoke(entity);
+
+			} catch (IllegalArgumentException e) {
+				final String msg = "Cannot invoke event listener method. Method for class "
+						+ method.getDeclaringClass().getName() + "." + method.getName()
+						+ " should have no parameters, or just one parameter, the Hibernate session.";
+				log.fatal(msg, e);
+				throw new IllegalArgumentException(msg, e);
+
+			} catch (IllegalAccessException e) {
+				final String msg = "Cannot invoke event listener. Method for class "
+						+ method.getDeclaringClass().getName() + "." + method.getName() + " is not accesible.";
+				log.fatal(msg, e);
+				throw new IllegalArgumentException(msg, e);
+
+			} catch (InvocationTargetException e) {
+				final String msg = "Cannot invoke event listener. Method for class "
+						+ method.getDeclaringClass().getName() + "." + method.getName() + " is not accesible.";
+				log.fatal(msg, e);
+				throw new IllegalArgumentException(msg, e);
+			}
+		}
+	}
 }
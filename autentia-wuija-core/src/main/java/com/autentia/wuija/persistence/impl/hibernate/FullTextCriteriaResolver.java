@@ -0,0 +1,353 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.WildcardQuery;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.search.FullTextQuery;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
+import org.hibernate.search.annotations.Field;
+import org.hibernate.search.annotations.Indexed;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+import com.autentia.common.util.ClassUtils;
+import com.autentia.wuija.persistence.criteria.Criteria;
+import com.autentia.wuija.persistence.criteria.Criterion;
+import com.autentia.wuija.persistence.criteria.EntityCriteria;
+import com.autentia.wuija.persistence.criteria.Junction;
+import com.autentia.wuija.persistence.criteria.Operator;
+import com.autentia.wuija.persistence.criteria.SimpleExpression;
+
+/**
+ * Resuelve con el índice de Hibernate Search los criterios de texto ({@link Operator#CONTAINS},
+ * {@link Operator#STARTS_WITH} y {@link Operator#ENDS_WITH}) de una {@link EntityCriteria}, que en la base de datos son
+ * un <code>like</code> que no puede usar ningún índice. Cada uno de estos criterios se sustituye por un
+ * {@link Operator#IN} con los ids de las entidades que lo cumplen según el índice, y el resto de restricciones se
+ * siguen resolviendo en la base de datos.
+ * <p>
+ * Sólo se resuelven en el índice las propiedades de las entidades anotadas con {@link Indexed} cuyo {@link Field} usa
+ * el {@link LowerCaseKeywordAnalyzer}, que es el que garantiza que el resultado es el mismo que el del
+ * <code>like</code>. Tampoco se resuelven los valores con comodines, ni los que encuentran más de
+ * <code>maxHits</code> entidades, para no generar listas de ids enormes. En todos estos casos el criterio se queda como
+ * estaba.
+ * <p>
+ * Es opcional: el {@link HibernateDao} lo usa si hay un bean de esta clase en el contexto de Spring. El índice lo
+ * mantiene Hibernate Search al hacer commit de cada transacción, así que no ve los cambios de la transacción en curso
+ * ni los de las sentencias <code>update</code> y <code>delete</code> en bloque. Por eso el {@link HibernateDao} no usa
+ * el índice dentro de las transacciones de escritura, y tras una sentencia en bloque marca el índice de esas entidades
+ * como desactualizado (ver {@link #indexOutdated(Class)}): sus criterios se resuelven en la base de datos hasta que se
+ * vuelvan a indexar con {@link #reindex(Session, Class)}. Dónde se guarda el índice se configura
+ * en las propiedades de Hibernate, por ejemplo en un directorio
+ * (<code>hibernate.search.default.directory_provider=org.hibernate.search.store.FSDirectoryProvider</code> y
+ * <code>hibernate.search.default.indexBase</code>) o en memoria para los tests
+ * (<code>org.hibernate.search.store.RAMDirectoryProvider</code>).
+ */
+public class FullTextCriteriaResolver {
+
+	private static final Log log = LogFactory.getLog(FullTextCriteriaResolver.class);
+
+	/** Valor de {@link #indexFields} para las propiedades que no se pueden buscar en el índice. */
+	private static final String NOT_INDEXED = "";
+
+	/** Cada cuántas entidades se vuelca el índice y se limpia la sesión en {@link #reindex(Session, Class)}. */
+	private static final int REINDEX_BATCH_SIZE = 100;
+
+	/** Número máximo de entidades que puede encontrar un criterio en el índice. */
+	private int maxHits = 1000;
+
+	/** Clases de las entidades que han cambiado con sentencias en bloque, y que no se han vuelto a indexar. */
+	private final Set<Class<?>> outdatedClasses = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+	/**
+	 * Nombre del campo del índice de cada propiedad, por clase y nombre de la propiedad (ver {@link #getIndexField}).
+	 */
+	private final ConcurrentMap<String, String> indexFields = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param maxHits número máximo de entidades que puede encontrar un criterio en el índice; si encuentra más, el
+	 *            criterio se resuelve en la base de datos. Por defecto 1000.
+	 */
+	public void setMaxHits(int maxHits) {
+		Assert.isTrue(maxHits > 0, "The max number of hits must be positive");
+		this.maxHits = maxHits;
+	}
+
+	/**
+	 * Devuelve la criteria que hay que ejecutar en la base de datos: una copia de la criteria con los criterios de texto
+	 * resueltos en el índice, o la misma criteria si no se ha podido resolver ninguno.
+	 *
+	 * @param session la sesión de Hibernate.
+	 * @param entityCriteria la criteria.
+	 * @return la criteria a ejecutar.
+	 */
+	EntityCriteria resolve(Session session, EntityCriteria entityCriteria) {
+		final Class<?> entityClass = entityCriteria.getEntityClass();
+		if (entityClass.getAnnotation(Indexed.class) == null || isIndexOutdated(entityClass)) {
+			return entityCriteria;
+		}
+
+		final Map<Criterion, Criterion> replacements = new IdentityHashMap<Criterion, Criterion>();
+		addReplacements(session, entityClass, entityCriteria, replacements);
+		if (replacements.isEmpty()) {
+			return entityCriteria;
+		}
+		return entityCriteria.replaceCriterions(replacements);
+	}
+
+	/**
+	 * Marca el índice de la clase como desactualizado, porque sus entidades han cambiado con una sentencia en bloque
+	 * que Hibernate Search no ve. Desde ese momento los criterios sobre esa clase, sus superclases y sus subclases se
+	 * resuelven en la base de datos, hasta que se vuelva a indexar con {@link #reindex(Session, Class)}.
+	 *
+	 * @param entityClass la clase de las entidades que han cambiado.
+	 */
+	void indexOutdated(Class<?> entityClass) {
+		if (outdatedClasses.add(entityClass)) {
+			log.warn("The full-text index of " + entityClass.getName()
+					+ " is outdated after a bulk statement, its text criteria are resolved in the database until it is"
+					+ " reindexed");
+		}
+	}
+
+	/**
+	 * @return si hay que resolver en la base de datos los criterios de la clase, porque su índice está desactualizado.
+	 */
+	boolean isIndexOutdated(Class<?> entityClass) {
+		for (Class<?> outdatedClass : outdatedClasses) {
+			if (outdatedClass.isAssignableFrom(entityClass) || entityClass.isAssignableFrom(outdatedClass)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Vuelve a indexar todas las entidades de la clase (y de sus subclases), por ejemplo tras una sentencia en bloque.
+	 * Se tiene que llamar dentro de una transacción de escritura; al hacer commit, los criterios sobre esa clase se
+	 * vuelven a resolver en el índice. Por el camino se limpia la sesión, así que las entidades que hubiera en ella
+	 * dejan de estar asociadas.
+	 *
+	 * @param session la sesión de Hibernate.
+	 * @param entityClass la clase, anotada con {@link Indexed}.
+	 */
+	public void reindex(Session session, final Class<?> entityClass) {
+		final FullTextSession fullTextSession = Search.getFullTextSession(session);
+		final FlushMode flushMode = fullTextSession.getFlushMode();
+		final CacheMode cacheMode = fullTextSession.getCacheMode();
+		fullTextSession.setFlushMode(FlushMode.MANUAL);
+		fullTextSession.setCacheMode(CacheMode.IGNORE);
+		int indexedEntities = 0;
+		try {
+			fullTextSession.purgeAll(entityClass);
+			final ScrollableResults results = fullTextSession.createQuery("from " + entityClass.getName())
+					.setFetchSize(REINDEX_BATCH_SIZE).scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (results.next()) {
+					fullTextSession.index(results.get(0));
+					if (++indexedEntities % REINDEX_BATCH_SIZE == 0) {
+						fullTextSession.flushToIndexes();
+						fullTextSession.clear();
+					}
+				}
+			} finally {
+				results.close();
+			}
+			fullTextSession.flushToIndexes();
+			fullTextSession.clear();
+		} finally {
+			fullTextSession.setFlushMode(flushMode);
+			fullTextSession.setCacheMode(cacheMode);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug(indexedEntities + " entities of " + entityClass.getName() + " reindexed");
+		}
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCommit() {
+					indexUpToDate(entityClass);
+				}
+			});
+		} else {
+			indexUpToDate(entityClass);
+		}
+	}
+
+	/**
+	 * Vuelve a resolver en el índice los criterios de la clase y sus subclases.
+	 */
+	private void indexUpToDate(Class<?> entityClass) {
+		for (Class<?> outdatedClass : outdatedClasses) {
+			if (entityClass.isAssignableFrom(outdatedClass)) {
+				outdatedClasses.remove(outdatedClass);
+			}
+		}
+	}
+
+	private void addReplacements(Session session, Class<?> entityClass, Criteria criteria,
+			Map<Criterion, Criterion> replacements) {
+		for (Criterion criterion : criteria.getCriterions()) {
+			if (criterion instanceof Junction) {
+				addReplacements(session, entityClass, (Junction)criterion, replacements);
+
+			} else if (criterion instanceof SimpleExpression) {
+				final SimpleExpression expression = (SimpleExpression)criterion;
+				final Query luceneQuery = createLuceneQuery(entityClass, expression);
+				if (luceneQuery == null) {
+					continue;
+				}
+				final List<Object> ids = findIds(session, entityClass, luceneQuery);
+				if (ids != null) {
+					final ClassMetadata classMetadata = session.getSessionFactory().getClassMetadata(entityClass);
+					replacements.put(criterion, new SimpleExpression(classMetadata.getIdentifierPropertyName(),
+							Operator.IN, ids));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return la consulta de Lucene equivalente al criterio, o <code>null</code> si no se puede resolver en el índice.
+	 */
+	private Query createLuceneQuery(Class<?> entityClass, SimpleExpression expression) {
+		final Operator operator = expression.getOperator();
+		if (expression.getProperty() == null || !isTextOperator(operator)) {
+			return null;
+		}
+
+		final Object value = expression.getValues().get(0);
+		if (!(value instanceof String) || ((String)value).length() == 0 || hasWildcards((String)value)) {
+			return null;
+		}
+
+		final String indexField = getIndexField(entityClass, expression.getProperty());
+		if (indexField == null) {
+			return null;
+		}
+
+		// Como el LowerCaseFilter del índice, sin depender del idioma por defecto (por ejemplo, la 'I' del turco)
+		final String text = ((String)value).toLowerCase(Locale.ENGLISH);
+		switch (operator) {
+		case STARTS_WITH:
+			return new PrefixQuery(new Term(indexField, text));
+		case ENDS_WITH:
+			return new WildcardQuery(new Term(indexField, "*" + text));
+		default:
+			return new WildcardQuery(new Term(indexField, "*" + text + "*"));
+		}
+	}
+
+	private static boolean isTextOperator(Operator operator) {
+		return operator == Operator.CONTAINS || operator == Operator.STARTS_WITH || operator == Operator.ENDS_WITH;
+	}
+
+	/**
+	 * Los comodines del <code>like</code> y los de Lucene no son los mismos, así que estos valores se dejan para la
+	 * base de datos.
+	 */
+	private static boolean hasWildcards(String value) {
+		return value.indexOf('%') >= 0 || value.indexOf('_') >= 0 || value.indexOf('*') >= 0
+				|| value.indexOf('?') >= 0;
+	}
+
+	/**
+	 * @return los ids de las entidades que cumplen la consulta, o <code>null</code> si hay más de <code>maxHits</code>.
+	 */
+	private List<Object> findIds(Session session, Class<?> entityClass, Query luceneQuery) {
+		final List<?> rows;
+		try {
+			final FullTextQuery fullTextQuery = Search.getFullTextSession(session).createFullTextQuery(luceneQuery,
+					entityClass);
+			fullTextQuery.setProjection(FullTextQuery.ID);
+			fullTextQuery.setMaxResults(maxHits + 1);
+			rows = fullTextQuery.list();
+
+		} catch (BooleanQuery.TooManyClauses e) {
+			// Los comodines se expanden a todos los términos que encajan: son demasiados valores distintos
+			log.debug("Too many terms match " + luceneQuery + ", it will be resolved in the database");
+			return null;
+		}
+
+		if (rows.size() > maxHits) {
+			if (log.isDebugEnabled()) {
+				log.debug("More than " + maxHits + " hits for " + luceneQuery + ", it will be resolved in the database");
+			}
+			return null;
+		}
+
+		final List<Object> ids = new ArrayList<Object>(rows.size());
+		for (Object row : rows) {
+			ids.add(((Object[])row)[0]);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug(ids.size() + " hits in the full-text index for " + luceneQuery);
+		}
+		return ids;
+	}
+
+	/**
+	 * Devuelve el campo del índice de una propiedad, si se puede buscar en el índice: es una propiedad de la propia
+	 * entidad (no de una asociación) con un {@link Field} que usa el {@link LowerCaseKeywordAnalyzer}.
+	 *
+	 * @return el nombre del campo, o <code>null</code> si la propiedad no se puede buscar en el índice.
+	 */
+	private String getIndexField(Class<?> entityClass, String propertyName) {
+		final String key = entityClass.getName() + "#" + propertyName;
+		String indexField = indexFields.get(key);
+		if (indexField == null) {
+			indexField = NOT_INDEXED;
+			final Field field = findFieldAnnotation(entityClass, propertyName);
+			if (field != null && field.analyzer().impl() == LowerCaseKeywordAnalyzer.class) {
+				indexField = field.name().length() > 0 ? field.name() : propertyName;
+			}
+			indexFields.put(key, indexField);
+		}
+		return indexField.length() == 0 ? null : indexField;
+	}
+
+	private static Field findFieldAnnotation(Class<?> entityClass, String propertyName) {
+		if (propertyName.indexOf('.') >= 0) {
+			return null;
+		}
+		final java.lang.reflect.Field field = ClassUtils.getField(entityClass, propertyName);
+		if (field != null && field.getAnnotation(Field.class) != null) {
+			return field.getAnnotation(Field.class);
+		}
+		final Method getterMethod = ClassUtils.getGetterMethod(entityClass, propertyName);
+		return getterMethod == null ? null : getterMethod.getAnnotation(Field.class);
+	}
+}
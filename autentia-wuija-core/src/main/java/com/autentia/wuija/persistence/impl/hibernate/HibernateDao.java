@@ -10,137 +10,1159 @@
 package com.autentia.wuija.persistence.impl.hibernate;
 
 import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.EntityMode;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.CascadeStyle;
+import org.hibernate.engine.NamedQueryDefinition;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxyHelper;
+import org.hibernate.search.annotations.Indexed;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.transform.ResultTransformer;
 import org.hibernate.transform.Transformers;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
 
 import com.autentia.common.util.Pair;
 import com.autentia.wuija.persistence.Dao;
+import com.autentia.wuija.persistence.EntityChangeListener;
+import com.autentia.wuija.persistence.ExecutedQuery;
+import com.autentia.wuija.persistence.PartitionedScrollCallBack;
+import com.autentia.wuija.persistence.QueryCacheStatistics;
+import com.autentia.wuija.persistence.ScrollCallBack;
 import com.autentia.wuija.persistence.criteria.EntityCriteria;
+import com.autentia.wuija.persistence.criteria.EntityCriteriaPlan;
+import com.autentia.wuija.persistence.criteria.Operator;
 
 @Repository
-public class HibernateDao extends HibernateDaoSupport implements Dao {
+public class HibernateDao extends HibernateDaoSupport implements Dao, BeanFactoryAware, BeanNameAware {
+
+	/**
+	 * Operaciones de escritura que se pueden hacer en bloque con {@link HibernateDao#executeBatch}.
+	 */
+	private enum BatchOperation {
+		SAVE_OR_UPDATE {
+
+			@Override
+			void execute(Session session, Object entity) {
+				session.saveOrUpdate(entity);
+			}
+		},
+		DELETE {
+
+			@Override
+			void execute(Session session, Object entity) {
+				session.delete(entity);
+			}
+		};
+
+		abstract void execute(Session session, Object entity);
+	}
+
+	/**
+	 * Aviso a todos los {@link EntityChangeListener}. El error de uno de ellos no impide que se avise al resto, ni
+	 * afecta a la operación que ha hecho el cambio, que ya está hecha.
+	 */
+	private abstract class EntityChangeNotification {
+
+		void notifyListeners() {
+			for (EntityChangeListener listener : getEntityChangeListeners()) {
+				try {
+					notifyListener(listener);
+				} catch (RuntimeException e) {
+					log.error("Cannot notify the entity changes to " + listener, e);
+				}
+			}
+		}
+
+		abstract void notifyListener(EntityChangeListener listener);
+	}
+
+	/**
+	 * Avisos a los {@link EntityChangeListener} pendientes del commit de la transacción en curso. Se registra uno solo
+	 * por transacción, que hace todos los avisos en el mismo orden en que se hicieron los cambios.
+	 */
+	private final class PendingEntityChangeNotifications extends TransactionSynchronizationAdapter {
+
+		private final List<EntityChangeNotification> notifications = new ArrayList<EntityChangeNotification>();
+
+		@Override
+		public void afterCommit() {
+			for (EntityChangeNotification notification : notifications) {
+				notification.notifyListeners();
+			}
+		}
+
+		boolean isOf(HibernateDao dao) {
+			return HibernateDao.this == dao;
+		}
+	}
+
+	/**
+	 * Cuenta hecha dentro de una transacción de escritura, que se guarda en la {@link RowCountCache} cuando se hace el
+	 * commit.
+	 */
+	private static final class PendingRowCount {
+
+		final String countHql;
+
+		final Object[] values;
+
+		final Set<String> querySpaces;
+
+		final Long rowCount;
+
+		final long generation;
+
+		PendingRowCount(String countHql, Object[] values, Set<String> querySpaces, Long rowCount, long generation) {
+			this.countHql = countHql;
+			this.values = values;
+			this.querySpaces = querySpaces;
+			this.rowCount = rowCount;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * Cambios de la transacción en curso que afectan a una {@link RowCountCache}: las tablas que ha cambiado, que se
+	 * invalidan al hacer el commit, y las cuentas que ha hecho sobre otras tablas, que se guardan al hacer el commit. Se
+	 * registra uno solo por transacción y caché, así que lo comparten este Dao y sus vistas de sólo lectura.
+	 */
+	private static final class PendingRowCountChanges extends TransactionSynchronizationAdapter {
+
+		private final RowCountCache rowCountCache;
+
+		/** Las tablas que ha cambiado la transacción, o <code>null</code> si pueden haber cambiado todas. */
+		private Set<String> changedQuerySpaces = new HashSet<String>();
+
+		private final List<PendingRowCount> rowCounts = new ArrayList<PendingRowCount>();
+
+		PendingRowCountChanges(RowCountCache rowCountCache) {
+			this.rowCountCache = rowCountCache;
+		}
+
+		void changed(Set<String> querySpaces) {
+			if (querySpaces == null) {
+				changedQuerySpaces = null;
+			} else if (changedQuerySpaces != null) {
+				changedQuerySpaces.addAll(querySpaces);
+			}
+		}
+
+		boolean hasChanged(Set<String> querySpaces) {
+			return changedQuerySpaces == null || !Collections.disjoint(changedQuerySpaces, querySpaces);
+		}
+
+		/**
+		 * Las cuentas se guardan después de invalidar las tablas cambiadas, con la generación que tenía la caché antes
+		 * de contar: si la transacción ha cambiado alguna de sus tablas después de contar, o se ha confirmado otra que
+		 * las cambia, no se guardan.
+		 */
+		@Override
+		public void afterCommit() {
+			if (changedQuerySpaces == null) {
+				rowCountCache.clear();
+			} else if (!changedQuerySpaces.isEmpty()) {
+				rowCountCache.invalidate(changedQuerySpaces);
+			}
+			for (PendingRowCount pending : rowCounts) {
+				rowCountCache.put(pending.countHql, pending.values, pending.querySpaces, pending.rowCount,
+						pending.generation);
+			}
+		}
+
+		boolean isFor(RowCountCache cache) {
+			return rowCountCache == cache;
+		}
+	}
 
 	private static final Log log = LogFactory.getLog(HibernateDao.class);
 
+	/** Cada cuántos registros se informa del avance de una partición si no hay <code>fetchSize</code>. */
+	private static final int DEFAULT_PROGRESS_INTERVAL = 1000;
+
+	/** Cada cuántos registros se vacía la sesión durante un <code>scroll</code> si no hay <code>fetchSize</code>. */
+	private static final int DEFAULT_CLEAR_INTERVAL = 1000;
+
+	/**
+	 * Número máximo de particiones de {@link #scrollInPartitions} que se recorren a la vez cuando no se fija un
+	 * {@link #scanExecutor}. Cada una ocupa una conexión del pool durante todo el recorrido.
+	 */
+	private static final int DEFAULT_SCAN_CONCURRENCY_LIMIT = 4;
+
+	/** Caché de las cuentas de registros, o <code>null</code> si no se quieren cachear. */
+	private RowCountCache rowCountCache;
+
+	/** Executor para hacer la cuenta en paralelo con la búsqueda, o <code>null</code> si se hacen en serie. */
+	private TaskExecutor findAndCountExecutor;
+
+	/** Executor para ejecutar en paralelo los trozos de las listas de los <code>in</code>, o <code>null</code>. */
+	private TaskExecutor inListExecutor;
+
+	/**
+	 * Executor donde se recorren las particiones de {@link #scrollInPartitions}. Si no se fija otro, se crea un hilo
+	 * nuevo por partición, con un máximo de {@link #DEFAULT_SCAN_CONCURRENCY_LIMIT} a la vez entre todas las llamadas.
+	 */
+	private TaskExecutor scanExecutor;
+
+	/** Si la base de datos ordena los nulos antes que cualquier otro valor, ver {@link #setNullsSortLow(boolean)}. */
+	private boolean nullsSortLow = true;
+
+	/** Número máximo de valores de cada <code>in</code>, ver {@link #setMaxInListSize(int)}. */
+	private int maxInListSize = Operator.DEFAULT_MAX_IN_LIST_SIZE;
+
+	/** Resuelve en el índice de Hibernate Search los criterios de texto, o <code>null</code> si no se usa el índice. */
+	private FullTextCriteriaResolver fullTextCriteriaResolver;
+
+	/**
+	 * Objetos a los que se avisa de las entidades que se guardan o se borran a través de este Dao, o <code>null</code>
+	 * si todavía no se han buscado en el contexto de Spring (ver {@link #getEntityChangeListeners()}).
+	 */
+	private volatile List<EntityChangeListener> entityChangeListeners;
+
+	/** Si es una vista de sólo lectura, ver {@link HibernateDao#readOnly()}. */
+	private final boolean readOnly;
+
+	/** El Dao del que es vista esta vista de sólo lectura, o <code>null</code> si no es una vista. */
+	private final HibernateDao writableDao;
+
+	/** Para que las vistas de sólo lectura pasen por los mismos post-procesadores (transacciones, aspectos). */
+	private BeanFactory beanFactory;
+
+	private String beanName;
+
+	/** Vista de sólo lectura, ya con sus proxies, o <code>null</code> si todavía no se ha pedido. */
+	private volatile Dao readOnlyView;
+
+	/** Vista de sólo lectura con scroll sin estado, ya con sus proxies, o <code>null</code> si no se ha pedido. */
+	private volatile Dao statelessScrollReadOnlyView;
+
+	/** Si la vista de sólo lectura recorre las consultas con una {@link StatelessSession}. */
+	private final boolean statelessScroll;
+
 	@Autowired
 	public HibernateDao(SessionFactory sessionFactory) {
 		super.setSessionFactory(sessionFactory);
+		this.scanExecutor = createDefaultScanExecutor();
+		this.readOnly = false;
+		this.statelessScroll = false;
+		this.writableDao = null;
+	}
+
+	/**
+	 * Crea una vista de sólo lectura del Dao que se pasa como parámetro, que comparte con él la caché de cuentas y los
+	 * executors.
+	 */
+	private HibernateDao(HibernateDao dao, boolean statelessScroll) {
+		super.setHibernateTemplate(new ReadOnlyHibernateTemplate(dao.getSessionFactory()));
+		this.rowCountCache = dao.rowCountCache;
+		this.findAndCountExecutor = dao.findAndCountExecutor;
+		this.inListExecutor = dao.inListExecutor;
+		this.scanExecutor = dao.scanExecutor;
+		this.maxInListSize = dao.maxInListSize;
+		this.nullsSortLow = dao.nullsSortLow;
+		this.fullTextCriteriaResolver = dao.fullTextCriteriaResolver;
+		this.entityChangeListeners = dao.entityChangeListeners;
+		this.readOnly = true;
+		this.statelessScroll = statelessScroll;
+		this.writableDao = dao;
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+	}
+
+	@Override
+	public void setBeanName(String beanName) {
+		this.beanName = beanName;
+	}
+
+	@Override
+	public Dao readOnly() {
+		return readOnly(false);
+	}
+
+	/**
+	 * Las vistas se crean la primera vez que se piden y se inicializan como beans del contexto, para que el
+	 * auto-proxy de Spring les aplique las transacciones y los aspectos igual que a este Dao. Si este Dao no se ha
+	 * creado desde un contexto de Spring, la vista se devuelve sin proxies.
+	 */
+	@Override
+	public Dao readOnly(boolean useStatelessScroll) {
+		if (readOnly) {
+			return writableDao.readOnly(useStatelessScroll);
+		}
+
+		Dao view = useStatelessScroll ? statelessScrollReadOnlyView : readOnlyView;
+		if (view == null) {
+			view = createReadOnlyView(useStatelessScroll);
+			if (useStatelessScroll) {
+				statelessScrollReadOnlyView = view;
+			} else {
+				readOnlyView = view;
+			}
+		}
+		return view;
+	}
+
+	private Dao createReadOnlyView(boolean useStatelessScroll) {
+		final HibernateDao view = new HibernateDao(this, useStatelessScroll);
+		if (!(beanFactory instanceof AutowireCapableBeanFactory)) {
+			log.debug("HibernateDao not created by a Spring context, the read-only view will not be proxied");
+			return view;
+		}
+		final String viewName = (beanName != null ? beanName : "dao") + (useStatelessScroll ? "#statelessReadOnly"
+				: "#readOnly");
+		return (Dao)((AutowireCapableBeanFactory)beanFactory).initializeBean(view, viewName);
+	}
+
+	/**
+	 * Fija la caché donde se guardan las cuentas de registros de las consultas paginadas. Si no se fija, siempre se
+	 * hace el <code>select count</code>.
+	 * 
+	 * @param rowCountCache la caché de cuentas de registros.
+	 */
+	@Autowired(required = false)
+	public void setRowCountCache(RowCountCache rowCountCache) {
+		this.rowCountCache = rowCountCache;
+	}
+
+	/**
+	 * Fija el executor donde se hace el <code>select count</code> de las búsquedas paginadas, en paralelo con la
+	 * búsqueda de la página. Conviene que esté acotado, ya que cada cuenta usa su propia conexión a la base de datos. Si
+	 * no se fija, la cuenta y la búsqueda se hacen en serie.
+	 * 
+	 * @param findAndCountExecutor el executor de las cuentas.
+	 */
+	@Autowired(required = false)
+	public void setFindAndCountExecutor(@Qualifier("findAndCountExecutor") TaskExecutor findAndCountExecutor) {
+		this.findAndCountExecutor = findAndCountExecutor;
+	}
+
+	/**
+	 * Fija el executor donde se ejecutan en paralelo, cada uno con su propia sesión de sólo lectura, los trozos de las
+	 * consultas con listas de más de {@link #setMaxInListSize(int) maxInListSize} valores (ver
+	 * {@link #findByAnHqlQueryWithListParametersSupport(String, Object...)}). Conviene que esté acotado, ya que cada
+	 * trozo usa su propia conexión a la base de datos. Si no se fija, los trozos se ejecutan en serie en la sesión
+	 * actual.
+	 * 
+	 * @param inListExecutor el executor de los trozos.
+	 */
+	@Autowired(required = false)
+	public void setInListExecutor(@Qualifier("inListExecutor") TaskExecutor inListExecutor) {
+		this.inListExecutor = inListExecutor;
+	}
+
+	/**
+	 * Fija el executor donde se recorren en paralelo las particiones de
+	 * {@link #scrollInPartitions(EntityCriteria, String, int, int, PartitionedScrollCallBack)}. Cada partición usa su
+	 * propia conexión a la base de datos durante todo el recorrido. Si no se fija, se crea un hilo nuevo para cada
+	 * partición, pero nunca se recorren más de {@value #DEFAULT_SCAN_CONCURRENCY_LIMIT} particiones a la vez, contando
+	 * las de todas las llamadas a este Dao.
+	 * 
+	 * @param scanExecutor el executor de las particiones.
+	 */
+	@Autowired(required = false)
+	public void setScanExecutor(@Qualifier("scanExecutor") TaskExecutor scanExecutor) {
+		Assert.notNull(scanExecutor, "The executor of the partitions cannot be null");
+		this.scanExecutor = scanExecutor;
+	}
+
+	/**
+	 * Indica cómo ordena los nulos la base de datos en un <code>order by</code> ascendente: <code>true</code> si los
+	 * considera menores que cualquier otro valor (HSQLDB, MySQL, SQL Server), que es el valor por defecto, o
+	 * <code>false</code> si los considera mayores (Oracle, PostgreSQL, DB2). HQL no permite decirlo en la consulta, así
+	 * que hay que configurarlo para que la paginación por clave de
+	 * {@link #findAndCountAfter(EntityCriteria, Object, Object, int)} devuelva los nulos en el mismo sitio que la base
+	 * de datos.
+	 * 
+	 * @param nullsSortLow si la base de datos ordena los nulos antes que cualquier otro valor.
+	 */
+	public void setNullsSortLow(boolean nullsSortLow) {
+		this.nullsSortLow = nullsSortLow;
+	}
+
+	/**
+	 * Fija el número máximo de valores de cada <code>in</code> en las consultas de este Dao (por defecto
+	 * {@value Operator#DEFAULT_MAX_IN_LIST_SIZE}, el límite de Oracle). Las listas más grandes de las
+	 * {@link EntityCriteria} se parten en varios <code>in</code> unidos por <code>or</code> (ver {@link Operator#IN}),
+	 * y las de las consultas en HQL se ejecutan en trozos (ver
+	 * {@link #findByAnHqlQueryWithListParametersSupport(String, Object...)}).
+	 * 
+	 * @param maxInListSize el número máximo de valores.
+	 */
+	public void setMaxInListSize(int maxInListSize) {
+		Assert.isTrue(maxInListSize > 0, "The max size of the in lists must be positive");
+		this.maxInListSize = maxInListSize;
+	}
+
+	/**
+	 * Fija el objeto que resuelve en el índice de Hibernate Search los <code>contains</code>, <code>starts with</code> y
+	 * <code>ends with</code> de las búsquedas con {@link EntityCriteria} sobre propiedades indexadas. Si no se fija,
+	 * siempre se resuelven en la base de datos.
+	 * 
+	 * @param fullTextCriteriaResolver el objeto que resuelve los criterios en el índice.
+	 */
+	@Autowired(required = false)
+	public void setFullTextCriteriaResolver(FullTextCriteriaResolver fullTextCriteriaResolver) {
+		this.fullTextCriteriaResolver = fullTextCriteriaResolver;
+	}
+
+	/**
+	 * Fija los objetos a los que se avisa de las entidades que se guardan o se borran a través de este Dao (ver
+	 * {@link EntityChangeListener}). Por defecto se usan todos los beans del contexto de Spring que implementen esa
+	 * interfaz, que se buscan la primera vez que cambia alguna entidad y no al crear el Dao: así los
+	 * {@link EntityChangeListener} pueden depender del Dao sin crear una dependencia circular.
+	 * 
+	 * @param entityChangeListeners los objetos a los que se avisa.
+	 */
+	public void setEntityChangeListeners(List<EntityChangeListener> entityChangeListeners) {
+		this.entityChangeListeners = entityChangeListeners;
+	}
+
+	/**
+	 * @return los objetos a los que se avisa de los cambios; si no se han fijado, los beans del contexto de Spring que
+	 *         implementan {@link EntityChangeListener}.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<EntityChangeListener> getEntityChangeListeners() {
+		List<EntityChangeListener> listeners = entityChangeListeners;
+		if (listeners == null) {
+			if (beanFactory instanceof ListableBeanFactory) {
+				listeners = new ArrayList<EntityChangeListener>(BeanFactoryUtils.beansOfTypeIncludingAncestors(
+						(ListableBeanFactory)beanFactory, EntityChangeListener.class, false, true).values());
+			} else {
+				listeners = Collections.emptyList();
+			}
+			entityChangeListeners = listeners;
+		}
+		return listeners;
+	}
+
+	/**
+	 * Devuelve la criteria que hay que ejecutar en la base de datos, con los criterios de texto ya resueltos en el índice
+	 * si se puede (ver {@link FullTextCriteriaResolver}). Dentro de una transacción de escritura no se usa el índice,
+	 * porque no tiene los cambios de esa transacción hasta que se hace commit.
+	 */
+	private EntityCriteria resolveFullText(EntityCriteria entityCriteria) {
+		final EntityCriteria criteriaToResolve = withMaxInListSize(entityCriteria);
+		if (fullTextCriteriaResolver == null || !isOtherSessionAllowed()) {
+			return criteriaToResolve;
+		}
+		return (EntityCriteria)getHibernateTemplate().executeWithNativeSession(new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				return fullTextCriteriaResolver.resolve(session, criteriaToResolve);
+			}
+		});
+	}
+
+	/**
+	 * Devuelve la criteria que genera el HQL con el número máximo de valores de cada <code>in</code> de este Dao (ver
+	 * {@link #setMaxInListSize(int)}). Si es distinto, se cambia en una copia, para no modificar la criteria de quien
+	 * llama.
+	 */
+	private EntityCriteria withMaxInListSize(EntityCriteria entityCriteria) {
+		if (entityCriteria.getMaxInListSize() == maxInListSize) {
+			return entityCriteria;
+		}
+		final EntityCriteria copy = entityCriteria.copy();
+		copy.setMaxInListSize(maxInListSize);
+		return copy;
 	}
 
 	private HibernateCallback createHibernateCallbackWithHql(final String hql, final int firstResult,
 			final int maxResults, final Object... values) {
+		return createHibernateCallbackWithHql(hql, null, firstResult, maxResults, values);
+	}
+
+	private HibernateCallback createHibernateCallbackWithHql(final String hql,
+			final ResultTransformer resultTransformer, final int firstResult, final int maxResults,
+			final Object... values) {
 
 		return new HibernateCallback() {
 
 			@Override
 			public Object doInHibernate(Session session) throws HibernateException {
 				final Query query = session.createQuery(hql);
+				if (resultTransformer != null) {
+					query.setResultTransformer(resultTransformer);
+				}
 				return prepareFindByQuery(query, firstResult, maxResults, values);
 			}
 		};
 	}
 
+	/**
+	 * Si la criteria tiene proyección, los registros se devuelven como {@link Map} anidados en vez de como
+	 * <code>Object[]</code>.
+	 * 
+	 * @return el {@link ResultTransformer} de la proyección, o <code>null</code> si la criteria no tiene proyección.
+	 */
+	private ResultTransformer createProjectionResultTransformer(EntityCriteria entityCriteria) {
+		final String[] projection = entityCriteria.getProjection();
+		return projection == null ? null : new NestedMapResultTransformer(projection);
+	}
+
 	private HibernateCallback createHibernateCallbackWithNamedQuery(final String namedQuery, final int firstResult,
 			final int maxResults, final Object... values) {
 
 		return new HibernateCallback() {
 
-			@Override
-			public Object doInHibernate(Session session) throws HibernateException {
-				final Query query = session.getNamedQuery(namedQuery);
-				return prepareFindByQuery(query, firstResult, maxResults, values);
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				final Query query = session.getNamedQuery(namedQuery);
+				return prepareFindByQuery(query, firstResult, maxResults, values);
+			}
+		};
+	}
+
+	public void delete(List<?> entities) {
+		delete(entities.toArray());
+	}
+
+	public void delete(Object entity) {
+		getHibernateTemplate().delete(entity);
+		entitiesChanged(Collections.singleton(entity), true);
+	}
+
+	public void delete(Object[] entities) {
+		for (Object entity : entities) {
+			getHibernateTemplate().delete(entity);
+		}
+		entitiesChanged(Arrays.asList(entities), true);
+	}
+
+	public int delete(EntityCriteria entityCriteria) {
+		final Pair<String, Object[]> statement = withMaxInListSize(entityCriteria).compileDelete();
+		ExecutedQuery.record(statement.getLeft(), statement.getRight());
+		return executeBulkUpdate(entityCriteria.getEntityClass(), statement.getLeft(), statement.getRight());
+	}
+
+	public int update(EntityCriteria entityCriteria, Map<String, Object> assignments) {
+		final Pair<String, Object[]> statement = withMaxInListSize(entityCriteria).compileUpdate(assignments);
+		ExecutedQuery.record(statement.getLeft(), statement.getRight());
+		return executeBulkUpdate(entityCriteria.getEntityClass(), statement.getLeft(), statement.getRight());
+	}
+
+	/**
+	 * Ejecuta una sentencia <code>delete</code> o <code>update</code> en HQL.
+	 * 
+	 * @param entityClass la clase de las entidades que se modifican.
+	 * @param hql la sentencia.
+	 * @param values los valores de los parámetros.
+	 * @return el número de entidades borradas o modificadas.
+	 */
+	private int executeBulkUpdate(Class<?> entityClass, final String hql, final Object[] values) {
+		final Integer rowsUpdated = (Integer)getHibernateTemplate().execute(new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				final Query query = session.createQuery(hql);
+				for (int i = 0; i < values.length; i++) {
+					query.setParameter(i, values[i]);
+				}
+				return Integer.valueOf(query.executeUpdate());
+			}
+		});
+
+		entityClassesChanged(Collections.<Class<?>> singleton(entityClass));
+		fullTextIndexOutdated(entityClass);
+		fireEntitiesChangedInBulk(entityClass);
+
+		if (log.isDebugEnabled()) {
+			log.debug("Rows updated by bulk statement: " + rowsUpdated);
+		}
+		return rowsUpdated.intValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> List<T> find(Class<T> entityClass) {
+		return getHibernateTemplate().loadAll(entityClass);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T find(Class<T> entityClass, Serializable id) {
+		return (T)getHibernateTemplate().get(entityClass, id);
+	}
+
+	public <T> List<T> find(Class<T> entityClass, String sortProperty, boolean sortAscending) {
+		final EntityCriteria entityCriteria = new EntityCriteria(entityClass);
+		entityCriteria.addOrder(sortProperty, sortAscending);
+		return find(entityCriteria);
+	}
+
+	public <T> List<T> find(EntityCriteria entityCriteria) {
+		return find(entityCriteria, 0, 0);
+	}
+
+	public <T> List<T> find(EntityCriteria entityCriteria, int firstResult, int maxResults) {
+		final EntityCriteria criteriaToExecute = resolveFullText(entityCriteria);
+		final Pair<EntityCriteriaPlan, Object[]> planAndValues = criteriaToExecute.compileAndBind();
+		ExecutedQuery.record(planAndValues.getLeft().getHql(), planAndValues.getRight());
+		return findByHibernateCallback(createHibernateCallbackWithHql(planAndValues.getLeft().getHql(),
+				createProjectionResultTransformer(criteriaToExecute), firstResult, maxResults, planAndValues
+						.getRight()));
+	}
+
+	public <T> List<T> find(final String queryString, final int firstResult, final int maxResults,
+			final Object... values) {
+		return findByHibernateCallback(createHibernateCallbackWithHql(queryString, firstResult, maxResults, values));
+	}
+
+	public <T> List<T> find(String queryString, int maxResults, Object... values) {
+		return find(queryString, 0, maxResults, values);
+	}
+
+	public <T> List<T> find(String queryString, Object... values) {
+		return find(queryString, 0, 0, values);
+	}
+
+	public <T> Pair<List<T>, Long> findAndCount(Class<T> entityClass, String sortProperty, boolean sortAscending,
+			int firstResult, int maxResults) {
+		final EntityCriteria entityCriteria = new EntityCriteria(entityClass);
+		entityCriteria.addOrder(sortProperty, sortAscending);
+		return findAndCount(entityCriteria, firstResult, maxResults);
+	}
+
+	public <T> Pair<List<T>, Long> findAndCount(EntityCriteria entityCriteria, int firstResult, int maxResults) {
+		final EntityCriteria criteriaToExecute = resolveFullText(entityCriteria);
+		final Pair<EntityCriteriaPlan, Object[]> planAndValues = criteriaToExecute.compileAndBind();
+		final EntityCriteriaPlan plan = planAndValues.getLeft();
+		final Object[] values = planAndValues.getRight();
+		ExecutedQuery.record(plan.getHql(), values);
+
+		final HibernateCallback countQueryCallback = createHibernateCallbackWithHql(plan.getCountHql(), 0, 0, values);
+		final HibernateCallback queryCallback = createHibernateCallbackWithHql(plan.getHql(),
+				createProjectionResultTransformer(criteriaToExecute), firstResult, maxResults, values);
+		return findAndCount(queryCallback, countQueryCallback, plan.getCountHql(), values, maxResults);
+	}
+
+	@Override
+	public <T> Pair<List<T>, Long> findAndCountAfter(EntityCriteria entityCriteria, Object lastSortValue,
+			Object lastUniqueValue, int maxResults) {
+		final EntityCriteria criteriaToExecute = resolveFullText(entityCriteria);
+		final Pair<EntityCriteriaPlan, Object[]> planAndValues = criteriaToExecute.compileAndBind();
+		final EntityCriteriaPlan plan = planAndValues.getLeft();
+		final String countHql = plan.getCountHql();
+		final Object[] countValues = planAndValues.getRight();
+		ExecutedQuery.record(plan.getHql(), countValues);
+
+		final String hql;
+		final Object[] values;
+		if (lastUniqueValue == null) {
+			hql = plan.getHql();
+			values = countValues;
+		} else {
+			hql = criteriaToExecute.toHqlAfter(lastSortValue, lastUniqueValue, nullsSortLow);
+			values = criteriaToExecute.getHqlValues();
+		}
+
+		final HibernateCallback countQueryCallback = createHibernateCallbackWithHql(countHql, 0, 0, countValues);
+		final HibernateCallback queryCallback = createHibernateCallbackWithHql(hql,
+				createProjectionResultTransformer(criteriaToExecute), 0, maxResults, values);
+		return findAndCount(queryCallback, countQueryCallback, countHql, countValues, maxResults);
+	}
+
+	private <T> Pair<List<T>, Long> findAndCount(HibernateCallback queryCallback, HibernateCallback countQueryCallback,
+			String countHql, Object[] countValues, int maxResults) {
+		final Pair<List<T>, Long> pair = new Pair<List<T>, Long>();
+
+		// Si hay paginación, hay que hacer un select count para saber el número de registros totales.
+		if (maxResults > 0) {
+			if (canCountInParallel(countHql, countValues)) {
+				return findAndCountInParallel(queryCallback, countQueryCallback, countHql, countValues);
+			}
+
+			final Long rowCount = count(countQueryCallback, countHql, countValues);
+			pair.setRight(rowCount);
+
+			// Pequeño shortcut: si no hay resultados, ni siquiera se hace la búsqueda.
+			if (rowCount.intValue() == 0) {
+				final List<T> emptyList = Collections.emptyList();
+				pair.setLeft(emptyList);
+				return pair;
+			}
+		}
+
+		final List<T> list = findByHibernateCallback(queryCallback);
+		pair.setLeft(list);
+
+		// Si todavía no se ha calculado el numero total de registros, se saca del tamaño de la lista de resultados.
+		if (pair.getRight() == null) {
+			pair.setRight(Long.valueOf(list.size()));
+		}
+
+		return pair;
+	}
+
+	/**
+	 * Indica si la cuenta se puede hacer en paralelo con la búsqueda. Sólo merece la pena si hay
+	 * {@link HibernateDao#findAndCountExecutor} y la cuenta no está ya en la {@link RowCountCache} (en ese caso es mejor
+	 * hacerlo en serie, porque así no se hace la búsqueda si no hay registros). Además no puede haber una transacción de
+	 * escritura en curso, ya que la cuenta se hace en otra sesión y no vería los cambios que todavía no se han
+	 * confirmado.
+	 */
+	private boolean canCountInParallel(String countHql, Object[] countValues) {
+		if (findAndCountExecutor == null) {
+			return false;
+		}
+		if (!isOtherSessionAllowed()) {
+			return false;
+		}
+		return rowCountCache == null || countHql == null || rowCountCache.get(countHql, countValues) == null;
+	}
+
+	/**
+	 * Indica si se puede consultar en otra sesión: no puede haber una transacción de escritura en curso, ya que la otra
+	 * sesión no vería los cambios que todavía no se han confirmado.
+	 */
+	private boolean isOtherSessionAllowed() {
+		return !TransactionSynchronizationManager.isActualTransactionActive()
+				|| TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+	}
+
+	/**
+	 * Hace la cuenta en un hilo del {@link HibernateDao#findAndCountExecutor}, con su propia sesión de sólo lectura,
+	 * mientras se hace la búsqueda en el hilo actual. La búsqueda se queda en la sesión actual para que las entidades
+	 * devueltas sigan asociadas a ella. Si el executor no admite más tareas, la cuenta se hace en el hilo actual.
+	 */
+	private <T> Pair<List<T>, Long> findAndCountInParallel(HibernateCallback queryCallback,
+			final HibernateCallback countQueryCallback, final String countHql, final Object[] countValues) {
+		final FutureTask<Long> countTask = new FutureTask<Long>(new Callable<Long>() {
+
+			@Override
+			public Long call() throws Exception {
+				return count(createReadOnlyHibernateCallback(countQueryCallback), countHql, countValues);
+			}
+		});
+		try {
+			findAndCountExecutor.execute(countTask);
+		} catch (TaskRejectedException e) {
+			log.debug("findAndCountExecutor is busy, counting rows in the current thread");
+			countTask.run();
+		}
+
+		final List<T> list = findByHibernateCallback(queryCallback);
+		final Long rowCount = getTaskResult(countTask);
+
+		if (rowCount.intValue() == 0) {
+			final List<T> emptyList = Collections.emptyList();
+			return new Pair<List<T>, Long>(emptyList, rowCount);
+		}
+		return new Pair<List<T>, Long>(list, rowCount);
+	}
+
+	private <V> V getTaskResult(FutureTask<V> task) {
+		try {
+			return task.get();
+
+		} catch (InterruptedException e) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new DataRetrievalFailureException("Interrupted while waiting for a parallel query", e);
+
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new DataRetrievalFailureException("Parallel query failed", cause);
+		}
+	}
+
+	/**
+	 * Envuelve el callback para que nunca se haga <code>flush</code> de la sesión, ya que sólo se va a leer.
+	 */
+	private HibernateCallback createReadOnlyHibernateCallback(final HibernateCallback hibernateCallback) {
+		return new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException, SQLException {
+				session.setFlushMode(FlushMode.MANUAL);
+				return hibernateCallback.doInHibernate(session);
+			}
+		};
+	}
+
+	/**
+	 * Ejecuta la consulta de tipo <code>select count</code>. Si hay {@link RowCountCache}, primero se busca ahí la cuenta
+	 * y, si no está, se guarda junto con las tablas sobre las que se hace la consulta.
+	 * <p>
+	 * Dentro de una transacción de escritura también se usa la caché, salvo que la transacción haya cambiado (a través
+	 * de este Dao) alguna de las tablas de la consulta: en ese caso la cuenta tiene que incluir sus cambios, que todavía
+	 * no ha visto nadie más. Las cuentas que se hacen dentro de la transacción no se guardan hasta el commit, por si se
+	 * deshace.
+	 * 
+	 * @param countQueryCallback el callback que ejecuta la consulta.
+	 * @param countHql el HQL de la consulta, o <code>null</code> si no se conoce (por ejemplo, si es SQL nativo). En ese
+	 *            caso no se usa la caché.
+	 * @param values los valores de los parámetros.
+	 * @return el número de registros.
+	 */
+	private Long count(HibernateCallback countQueryCallback, String countHql, Object[] values) {
+		if (rowCountCache == null || countHql == null) {
+			return (Long)findByHibernateCallback(countQueryCallback).get(0);
+		}
+
+		final Set<String> querySpaces = getQuerySpaces(countHql);
+		final boolean writeTransaction = !isOtherSessionAllowed();
+		if (writeTransaction && (!TransactionSynchronizationManager.isSynchronizationActive()
+				|| getPendingRowCountChanges().hasChanged(querySpaces))) {
+			return (Long)findByHibernateCallback(countQueryCallback).get(0);
+		}
+
+		// Se lee antes de contar, para no guardar la cuenta si mientras tanto se confirma algún cambio en sus tablas
+		final long generation = rowCountCache.getGeneration();
+		Long rowCount = rowCountCache.get(countHql, values);
+		if (rowCount == null) {
+			rowCount = (Long)findByHibernateCallback(countQueryCallback).get(0);
+			if (writeTransaction) {
+				getPendingRowCountChanges().rowCounts.add(new PendingRowCount(countHql, values, querySpaces, rowCount,
+						generation));
+			} else {
+				rowCountCache.put(countHql, values, querySpaces, rowCount, generation);
+			}
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Devuelve las tablas (<i>query spaces</i>) sobre las que se hace la consulta. Hibernate ya tiene el plan de la
+	 * consulta en su caché, así que no se vuelve a analizar el HQL.
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<String> getQuerySpaces(String hql) {
+		return getSessionFactoryImplementor().getQueryPlanCache().getHQLQueryPlan(hql, false, Collections.EMPTY_MAP)
+				.getQuerySpaces();
+	}
+
+	/**
+	 * Devuelve el HQL de una consulta con nombre, o <code>null</code> si no existe o es una consulta SQL nativa.
+	 */
+	private String getNamedHqlQueryString(String queryName) {
+		final NamedQueryDefinition namedQuery = getSessionFactoryImplementor().getNamedQuery(queryName);
+		return namedQuery == null ? null : namedQuery.getQueryString();
+	}
+
+	private SessionFactoryImplementor getSessionFactoryImplementor() {
+		return (SessionFactoryImplementor)getSessionFactory();
+	}
+
+	/**
+	 * Avisa a las cachés de que han cambiado estas entidades: se eliminan de la {@link RowCountCache} las cuentas de las
+	 * consultas que usan alguna de las tablas donde se guardan estas entidades, y se avisa a los
+	 * {@link EntityChangeListener}. De la caché de consultas de Hibernate no hace falta ocuparse: Hibernate ya invalida
+	 * las consultas sobre las tablas que cambian al hacer el commit.
+	 * 
+	 * @param entities las entidades que se han guardado o borrado.
+	 * @param deleted si las entidades se han borrado.
+	 */
+	private void entitiesChanged(Collection<?> entities, final boolean deleted) {
+		if (!getEntityChangeListeners().isEmpty()) {
+			final List<Object> changedEntities = new ArrayList<Object>(entities);
+			fireEntityChange(new EntityChangeNotification() {
+
+				@Override
+				void notifyListener(EntityChangeListener listener) {
+					if (deleted) {
+						listener.entitiesDeleted(changedEntities);
+					} else {
+						listener.entitiesSaved(changedEntities);
+					}
+				}
+			});
+		}
+
+		if (rowCountCache == null) {
+			return;
+		}
+
+		final Set<Class<?>> entityClasses = new HashSet<Class<?>>();
+		for (Object entity : entities) {
+			entityClasses.add(HibernateProxyHelper.getClassWithoutInitializingProxy(entity));
+		}
+		entityClassesChanged(entityClasses);
+	}
+
+	/**
+	 * Añade las tablas donde se guarda la entidad, las de sus colecciones, y las de las entidades a las que se propagan
+	 * (en cascada) los cambios de la entidad, ya que un cambio en la entidad también puede cambiar esas tablas.
+	 * 
+	 * @param entityName el nombre de la entidad.
+	 * @param querySpaces donde se añaden las tablas.
+	 * @param visitedEntityNames las entidades que ya se han recorrido, para no entrar en un bucle.
+	 */
+	private void addQuerySpaces(String entityName, Set<String> querySpaces, Set<String> visitedEntityNames) {
+		if (!visitedEntityNames.add(entityName)) {
+			return;
+		}
+
+		final EntityPersister persister = getSessionFactoryImplementor().getEntityPersister(entityName);
+		for (Serializable querySpace : persister.getQuerySpaces()) {
+			querySpaces.add((String)querySpace);
+		}
+
+		final Type[] propertyTypes = persister.getPropertyTypes();
+		final CascadeStyle[] cascadeStyles = persister.getPropertyCascadeStyles();
+		for (int i = 0; i < propertyTypes.length; i++) {
+			final boolean cascaded = cascadeStyles[i] != CascadeStyle.NONE;
+			if (propertyTypes[i].isCollectionType()) {
+				final CollectionPersister collectionPersister = getSessionFactoryImplementor().getCollectionPersister(
+						((CollectionType)propertyTypes[i]).getRole());
+				for (Serializable querySpace : collectionPersister.getCollectionSpaces()) {
+					querySpaces.add((String)querySpace);
+				}
+				if (cascaded && collectionPersister.getElementType().isEntityType()) {
+					addQuerySpaces(((EntityType)collectionPersister.getElementType()).getAssociatedEntityName(),
+							querySpaces, visitedEntityNames);
+				}
+
+			} else if (cascaded && propertyTypes[i].isEntityType()) {
+				addQuerySpaces(((EntityType)propertyTypes[i]).getAssociatedEntityName(), querySpaces,
+						visitedEntityNames);
 			}
-		};
+		}
 	}
 
-	public void delete(List<?> entities) {
-		delete(entities.toArray());
+	/**
+	 * Elimina de la {@link RowCountCache} las cuentas de las consultas sobre estas tablas cuando se haga el commit de
+	 * la transacción en curso, o ahora mismo si no hay ninguna transacción. Si se hiciese antes del commit, otro hilo
+	 * podría volver a guardar una cuenta con los datos anteriores.
+	 * 
+	 * @param querySpaces las tablas que han cambiado, o <code>null</code> para eliminar todas las cuentas.
+	 */
+	private void invalidateRowCountsAfterCommit(Set<String> querySpaces) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			getPendingRowCountChanges().changed(querySpaces);
+		} else if (querySpaces == null) {
+			rowCountCache.clear();
+		} else {
+			rowCountCache.invalidate(querySpaces);
+		}
 	}
 
-	public void delete(Object entity) {
-		getHibernateTemplate().delete(entity);
+	/**
+	 * @return los cambios de la transacción en curso que afectan a la {@link RowCountCache}, que se registran la
+	 *         primera vez que se piden.
+	 */
+	private PendingRowCountChanges getPendingRowCountChanges() {
+		for (Object synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			if (synchronization instanceof PendingRowCountChanges
+					&& ((PendingRowCountChanges)synchronization).isFor(rowCountCache)) {
+				return (PendingRowCountChanges)synchronization;
+			}
+		}
+		final PendingRowCountChanges pending = new PendingRowCountChanges(rowCountCache);
+		TransactionSynchronizationManager.registerSynchronization(pending);
+		return pending;
 	}
 
-	public void delete(Object[] entities) {
-		for (Object entity : entities) {
-			delete(entity);
+	/**
+	 * Igual que {@link HibernateDao#entitiesChanged(Collection, boolean)}, pero cuando sólo se conocen las clases de las
+	 * entidades que han cambiado (por ejemplo, tras un borrado en bloque con una {@link EntityCriteria}).
+	 * 
+	 * @param entityClasses las clases de las entidades que se han guardado o borrado.
+	 */
+	private void entityClassesChanged(Collection<Class<?>> entityClasses) {
+		if (rowCountCache == null) {
+			return;
+		}
+
+		final Set<String> querySpaces = new HashSet<String>();
+		final Set<String> visitedEntityNames = new HashSet<String>();
+		for (Class<?> entityClass : entityClasses) {
+			addQuerySpaces(entityClass.getName(), querySpaces, visitedEntityNames);
 		}
+
+		invalidateRowCountsAfterCommit(querySpaces);
 	}
 
-	@SuppressWarnings("unchecked")
-	public <T> List<T> find(Class<T> entityClass) {
-		return getHibernateTemplate().loadAll(entityClass);
+	/**
+	 * Vacía la {@link RowCountCache}. Se usa tras las actualizaciones en bloque, donde no se sabe qué entidades han
+	 * cambiado.
+	 */
+	private void allEntitiesChanged() {
+		if (rowCountCache != null) {
+			invalidateRowCountsAfterCommit(null);
+		}
+		fullTextIndexOutdated(null);
+		fireEntitiesChangedInBulk(null);
 	}
 
-	@SuppressWarnings("unchecked")
-	public <T> T find(Class<T> entityClass, Serializable id) {
-		return (T)getHibernateTemplate().get(entityClass, id);
+	/**
+	 * Marca como desactualizado el índice de Hibernate Search de las entidades que han cambiado con una sentencia en
+	 * bloque, que no pasa por los eventos de Hibernate, para que sus criterios de texto se resuelvan en la base de datos.
+	 * 
+	 * @param entityClass la clase de las entidades que han cambiado, o <code>null</code> si no se sabe, y entonces se
+	 *            marcan todas las entidades indexadas.
+	 */
+	private void fullTextIndexOutdated(Class<?> entityClass) {
+		if (fullTextCriteriaResolver == null) {
+			return;
+		}
+		if (entityClass != null) {
+			fullTextCriteriaResolver.indexOutdated(entityClass);
+			return;
+		}
+		for (Object classMetadata : getSessionFactory().getAllClassMetadata().values()) {
+			final Class<?> mappedClass = ((ClassMetadata)classMetadata).getMappedClass(EntityMode.POJO);
+			if (mappedClass != null && mappedClass.getAnnotation(Indexed.class) != null) {
+				fullTextCriteriaResolver.indexOutdated(mappedClass);
+			}
+		}
 	}
 
-	public <T> List<T> find(Class<T> entityClass, String sortProperty, boolean sortAscending) {
-		final EntityCriteria entityCriteria = new EntityCriteria(entityClass);
-		entityCriteria.addOrder(sortProperty, sortAscending);
-		return find(entityCriteria);
+	/**
+	 * Avisa a los {@link EntityChangeListener} de una sentencia en bloque.
+	 * 
+	 * @param entityClass la clase de las entidades que han cambiado, o <code>null</code> si no se sabe.
+	 */
+	private void fireEntitiesChangedInBulk(final Class<?> entityClass) {
+		if (getEntityChangeListeners().isEmpty()) {
+			return;
+		}
+		fireEntityChange(new EntityChangeNotification() {
+
+			@Override
+			void notifyListener(EntityChangeListener listener) {
+				listener.entitiesChangedInBulk(entityClass);
+			}
+		});
 	}
 
-	public <T> List<T> find(EntityCriteria entityCriteria) {
-		return find(entityCriteria, 0, 0);
+	/**
+	 * Avisa a los {@link EntityChangeListener} cuando se haga el commit de la transacción en curso, para que no vean los
+	 * cambios que luego se deshacen, o ahora mismo si no hay ninguna transacción.
+	 */
+	private void fireEntityChange(EntityChangeNotification notification) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			getPendingEntityChangeNotifications().notifications.add(notification);
+		} else {
+			notification.notifyListeners();
+		}
 	}
 
-	public <T> List<T> find(EntityCriteria entityCriteria, int firstResult, int maxResults) {
-		return find(entityCriteria.toHql(), firstResult, maxResults, entityCriteria.getHqlValues());
+	/**
+	 * @return los avisos pendientes de la transacción en curso, que se registran la primera vez que se piden.
+	 */
+	private PendingEntityChangeNotifications getPendingEntityChangeNotifications() {
+		for (Object synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			if (synchronization instanceof PendingEntityChangeNotifications
+					&& ((PendingEntityChangeNotifications)synchronization).isOf(this)) {
+				return (PendingEntityChangeNotifications)synchronization;
+			}
+		}
+		final PendingEntityChangeNotifications pending = new PendingEntityChangeNotifications();
+		TransactionSynchronizationManager.registerSynchronization(pending);
+		return pending;
 	}
 
-	public <T> List<T> find(final String queryString, final int firstResult, final int maxResults,
-			final Object... values) {
-		return findByHibernateCallback(createHibernateCallbackWithHql(queryString, firstResult, maxResults, values));
+	private HibernateCallback createCacheableHibernateCallback(final String cacheRegion, final String queryString,
+			final boolean namedQuery, final Object... values) {
+
+		return new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				final Query query = namedQuery ? session.getNamedQuery(queryString) : session.createQuery(queryString);
+				query.setCacheable(true);
+				query.setCacheRegion(cacheRegion);
+				return prepareFindByQuery(query, 0, 0, values);
+			}
+		};
 	}
 
-	public <T> List<T> find(String queryString, int maxResults, Object... values) {
-		return find(queryString, 0, maxResults, values);
+	@Override
+	public <T> List<T> findCached(String cacheRegion, EntityCriteria entityCriteria) {
+		// Los registros de la caché de consultas se guardan sin transformar, así que no se pueden convertir en mapas
+		Assert.isNull(entityCriteria.getProjection(), "Criteria with a projection cannot be cached");
+		final Pair<EntityCriteriaPlan, Object[]> planAndValues = withMaxInListSize(entityCriteria).compileAndBind();
+		ExecutedQuery.record(planAndValues.getLeft().getHql(), planAndValues.getRight());
+		return findCached(cacheRegion, planAndValues.getLeft().getHql(), planAndValues.getRight());
 	}
 
-	public <T> List<T> find(String queryString, Object... values) {
-		return find(queryString, 0, 0, values);
+	@Override
+	public <T> List<T> findCached(String cacheRegion, String queryString, Object... values) {
+		return findByHibernateCallback(createCacheableHibernateCallback(cacheRegion, queryString, false, values));
 	}
 
-	public <T> Pair<List<T>, Long> findAndCount(Class<T> entityClass, String sortProperty, boolean sortAscending,
-			int firstResult, int maxResults) {
-		final EntityCriteria entityCriteria = new EntityCriteria(entityClass);
-		entityCriteria.addOrder(sortProperty, sortAscending);
-		return findAndCount(entityCriteria, firstResult, maxResults);
+	@Override
+	public <T> List<T> findByNamedQueryCached(String cacheRegion, String queryName, Object... values) {
+		return findByHibernateCallback(createCacheableHibernateCallback(cacheRegion, queryName, true, values));
 	}
 
-	public <T> Pair<List<T>, Long> findAndCount(EntityCriteria entityCriteria, int firstResult, int maxResults) {
-		final String countHql = entityCriteria.toCountHql();
-		final String hql = entityCriteria.toHql();
-		return findAndCount(hql, countHql, firstResult, maxResults, entityCriteria.getHqlValues());
+	@Override
+	public QueryCacheStatistics getQueryCacheStatistics(String cacheRegion) {
+		final SecondLevelCacheStatistics statistics = getSessionFactory().getStatistics()
+				.getSecondLevelCacheStatistics(cacheRegion);
+		if (statistics == null) {
+			// Todavía no se ha usado la región, o no está activada la caché de consultas
+			return new QueryCacheStatistics(cacheRegion, 0, 0, 0);
+		}
+		return new QueryCacheStatistics(cacheRegion, statistics.getHitCount(), statistics.getMissCount(), statistics
+				.getPutCount());
 	}
 
-	private <T> Pair<List<T>, Long> findAndCount(HibernateCallback queryCallback, HibernateCallback countQueryCallback,
-			int maxResults) {
+	private <T> Pair<List<T>, Long> findAndCountScalarQuery(HibernateCallback queryCallback, String countHql,
+			int maxResults, Object[] values) {
 		final Pair<List<T>, Long> pair = new Pair<List<T>, Long>();
 
 		// Si hay paginación, hay que hacer un select count para saber el número de registros totales.
 		if (maxResults > 0) {
-			final Long rowCount = (Long)findByHibernateCallback(countQueryCallback).get(0);
+			final Long rowCount = countScalarQuery(countHql, values);
 			pair.setRight(rowCount);
 
 			// Pequeño shortcut: si no hay resultados, ni siquiera se hace la búsqueda.
@@ -162,39 +1184,40 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 		return pair;
 	}
 
-	private <T> Pair<List<T>, Long> findAndCountScalarQuery(HibernateCallback queryCallback, String countHql,
-			int maxResults, Object[] values) {
-		final Pair<List<T>, Long> pair = new Pair<List<T>, Long>();
-
-		// Si hay paginación, hay que hacer un select count para saber el número de registros totales.
-		if (maxResults > 0) {
-			final Long rowCount = Long.valueOf(getHibernateTemplate().find(countHql, values).size());
-			pair.setRight(rowCount);
-
-			// Pequeño shortcut: si no hay resultados, ni siquiera se hace la búsqueda.
-			if (rowCount.intValue() == 0) {
-				final List<T> emptyList = Collections.emptyList();
-				pair.setLeft(emptyList);
-				return pair;
-			}
+	/**
+	 * Ejecuta la consulta generada con {@link EntityCriteria#toCountHqlScalarQuery()}. Si la consulta está agrupada, el
+	 * único registro que devuelve trae el número de grupos no nulos, el total de registros y los registros con la
+	 * propiedad de agrupación no nula; si los dos últimos no coinciden hay que sumar el grupo del valor
+	 * <code>null</code>.
+	 * 
+	 * @param countHql la consulta de tipo <code>select count</code>, o <code>null</code> si la consulta escalar sólo
+	 *            tiene funciones de agregación y siempre devuelve un único registro.
+	 * @param values los valores de los parámetros.
+	 * @return el número de registros (o de grupos) que devuelve la consulta escalar.
+	 */
+	private Long countScalarQuery(String countHql, Object[] values) {
+		if (countHql == null) {
+			return Long.valueOf(1);
 		}
 
-		final List<T> list = findByHibernateCallback(queryCallback);
-		pair.setLeft(list);
-
-		// Si todavía no se ha calculado el numero total de registros, se saca del tamaño de la lista de resultados.
-		if (pair.getRight() == null) {
-			pair.setRight(Long.valueOf(list.size()));
+		final Object result = getHibernateTemplate().find(countHql, values).get(0);
+		if (!(result instanceof Object[])) {
+			return Long.valueOf(((Number)result).longValue());
 		}
 
-		return pair;
+		final Object[] counts = (Object[])result;
+		long groups = ((Number)counts[0]).longValue();
+		if (((Number)counts[1]).longValue() > ((Number)counts[2]).longValue()) {
+			groups++;
+		}
+		return Long.valueOf(groups);
 	}
 
 	public <T> Pair<List<T>, Long> findAndCount(String hql, String countHql, int firstResult, int maxResults,
 			Object... values) {
 		final HibernateCallback countQueryCallback = createHibernateCallbackWithHql(countHql, 0, 0, values);
 		final HibernateCallback queryCallback = createHibernateCallbackWithHql(hql, firstResult, maxResults, values);
-		return findAndCount(queryCallback, countQueryCallback, maxResults);
+		return findAndCount(queryCallback, countQueryCallback, countHql, values, maxResults);
 	}
 
 	private <T> Pair<List<T>, Long> findAndCountScalarQuery(String hql, String countHql, int firstResult,
@@ -209,7 +1232,8 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 		final HibernateCallback countQueryCallback = createHibernateCallbackWithNamedQuery(countQueryName, 0, 0, values);
 		final HibernateCallback queryCallback = createHibernateCallbackWithNamedQuery(queryName, firstResult,
 				maxResults, values);
-		return findAndCount(queryCallback, countQueryCallback, maxResults);
+		return findAndCount(queryCallback, countQueryCallback, getNamedHqlQueryString(countQueryName), values,
+				maxResults);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -250,7 +1274,9 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 	}
 
 	public Object merge(Object entity) {
-		return getHibernateTemplate().merge(entity);
+		final Object mergedEntity = getHibernateTemplate().merge(entity);
+		entitiesChanged(Collections.singleton(mergedEntity), false);
+		return mergedEntity;
 	}
 
 	public void persist(Collection<?> entities) {
@@ -263,12 +1289,60 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 
 	public void persist(Object entity) {
 		getHibernateTemplate().saveOrUpdate(entity);
+		entitiesChanged(Collections.singleton(entity), false);
 	}
 
 	public void persist(Object[] entities) {
 		for (Object entity : entities) {
-			persist(entity);
+			getHibernateTemplate().saveOrUpdate(entity);
+		}
+		entitiesChanged(Arrays.asList(entities), false);
+	}
+
+	@Override
+	public int persistBatch(Collection<?> entities, int batchSize) {
+		return executeBatch(BatchOperation.SAVE_OR_UPDATE, entities, batchSize);
+	}
+
+	@Override
+	public int deleteBatch(Collection<?> entities, int batchSize) {
+		return executeBatch(BatchOperation.DELETE, entities, batchSize);
+	}
+
+	/**
+	 * Aplica la operación a todas las entidades, volcando y limpiando la sesión cada <code>batchSize</code> entidades.
+	 * 
+	 * @param operation la operación a realizar sobre cada entidad.
+	 * @param entities las entidades.
+	 * @param batchSize cada cuantas entidades se hace el <code>flush</code> y el <code>clear</code> de la sesión.
+	 * @return el número de entidades sobre las que se ha aplicado la operación.
+	 */
+	private int executeBatch(final BatchOperation operation, final Collection<?> entities, final int batchSize) {
+		final Integer rowsWritten = (Integer)getHibernateTemplate().execute(new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				int count = 0;
+				for (Object entity : entities) {
+					operation.execute(session, entity);
+					count++;
+					if (batchSize > 0 && count % batchSize == 0) {
+						session.flush();
+						session.clear();
+					}
+				}
+				session.flush();
+				session.clear();
+				return Integer.valueOf(count);
+			}
+		});
+
+		entitiesChanged(entities, operation == BatchOperation.DELETE);
+
+		if (log.isDebugEnabled()) {
+			log.debug(operation + " in batches of " + batchSize + ", rows written: " + rowsWritten);
 		}
+		return rowsWritten.intValue();
 	}
 
 	/**
@@ -483,9 +1557,11 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 	public <T> Pair<List<T>, Long> findAndCountSacalerQuery(EntityCriteria entityCriteria, int firstResult,
 			int maxResults) {
 
-		final String countHql = entityCriteria.toCountHqlScalarQuery();
-		final String hql = entityCriteria.toHqlScalarQuery();
-		return findAndCountScalarQuery(hql, countHql, firstResult, maxResults, entityCriteria.getHqlValues());
+		final EntityCriteria criteriaToExecute = withMaxInListSize(entityCriteria);
+		final String countHql = criteriaToExecute.toCountHqlScalarQuery();
+		final String hql = criteriaToExecute.toHqlScalarQuery();
+		ExecutedQuery.record(hql, criteriaToExecute.getHqlValues());
+		return findAndCountScalarQuery(hql, countHql, firstResult, maxResults, criteriaToExecute.getHqlValues());
 	}
 
 	@Override
@@ -515,6 +1591,7 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 				return null;
 			}
 		});
+		allEntitiesChanged();
 	}
 
 	@Override
@@ -530,6 +1607,7 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 				return query.executeUpdate();
 			}
 		});
+		allEntitiesChanged();
 	}
 
 	@Override
@@ -556,6 +1634,22 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 	@Override
 	public <T> Pair<List<T>, Long> findAndCountByNamedQueryWithInStatements(final String namedQuery,
 			final String countNamedQuery, final int firstResult, final int maxResults, final Object... params) {
+		final String hql = getNamedHqlQueryString(namedQuery);
+		final String countHql = getNamedHqlQueryString(countNamedQuery);
+		final InListChunks chunks = hql == null ? null : InListChunks.forRows(hql, params, maxInListSize);
+		final InListChunks countChunks = countHql == null ? null : InListChunks.forCount(countHql, params,
+				maxInListSize);
+		if (chunks != null && countChunks != null) {
+			final Long countResult = InListChunks.sumCounts(this.<Object> findInChunks(countHql, countChunks, 0));
+			if (countResult.longValue() == 0) {
+				return new Pair<List<T>, Long>(Collections.<T> emptyList(), countResult);
+			}
+			final int chunkMaxResults = maxResults > 0 ? firstResult + maxResults : 0;
+			final List<T> result = chunks.merge(this.<T> findInChunks(hql, chunks, chunkMaxResults), firstResult,
+					maxResults);
+			return new Pair<List<T>, Long>(result, countResult);
+		}
+
 		return (Pair<List<T>, Long>)getHibernateTemplate().execute(new HibernateCallback() {
 
 			@Override
@@ -577,6 +1671,14 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 	@Override
 	public <T> Pair<List<T>, Long> findAndCountByHqlQueryWithInStatements(final String hqlQuery, final int firstResult,
 			final int maxResults, final Object... params) {
+		final InListChunks chunks = InListChunks.forRows(hqlQuery, params, maxInListSize);
+		if (chunks != null) {
+			final int chunkMaxResults = maxResults > 0 ? firstResult + maxResults : 0;
+			final List<T> result = chunks.merge(this.<T> findInChunks(hqlQuery, chunks, chunkMaxResults),
+					firstResult, maxResults);
+			return new Pair<List<T>, Long>(result, Long.valueOf(result.size()));
+		}
+
 		return (Pair<List<T>, Long>)getHibernateTemplate().execute(new HibernateCallback() {
 
 			@Override
@@ -595,7 +1697,7 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 
 	@Override
 	public Integer bulkUpdateWithInStatementSupport(final String hqlQuery, final Object... values) {
-		return (Integer)getHibernateTemplate().execute(new HibernateCallback() {
+		final Integer rowsUpdated = (Integer)getHibernateTemplate().execute(new HibernateCallback() {
 
 			@Override
 			public Object doInHibernate(Session session) throws HibernateException {
@@ -611,11 +1713,18 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 				return Integer.valueOf(query.executeUpdate());
 			}
 		});
+		allEntitiesChanged();
+		return rowsUpdated;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> List<T> findByAnHqlQueryWithListParametersSupport(final String hqlQuery, final Object... values) {
+		final InListChunks chunks = InListChunks.forRows(hqlQuery, values, maxInListSize);
+		if (chunks != null) {
+			return chunks.merge(this.<T> findInChunks(hqlQuery, chunks, 0), 0, 0);
+		}
+
 		return (List<T>)getHibernateTemplate().execute(new HibernateCallback() {
 
 			@Override
@@ -628,6 +1737,65 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 
 	}
 
+	/**
+	 * Ejecuta la consulta una vez por cada trozo de la lista. Si hay {@link #inListExecutor} y no hay una transacción de
+	 * escritura en curso, los trozos se ejecutan en paralelo, cada uno con su propia sesión de sólo lectura (las
+	 * entidades devueltas no quedan asociadas a la sesión actual). Si el executor no admite más tareas, el trozo se
+	 * ejecuta en el hilo actual.
+	 * 
+	 * @param hql la consulta, con los parámetros <code>:param0</code>, <code>:param1</code>...
+	 * @param chunks los trozos de la lista.
+	 * @param maxResults número máximo de registros de cada trozo, o 0 si no hay máximo.
+	 * @return los registros de cada trozo, en el mismo orden que los trozos.
+	 */
+	private <T> List<List<T>> findInChunks(final String hql, InListChunks chunks, final int maxResults) {
+		final boolean parallel = inListExecutor != null && chunks.size() > 1 && isOtherSessionAllowed();
+		final List<FutureTask<List<T>>> tasks = new ArrayList<FutureTask<List<T>>>(chunks.size());
+		for (int i = 0; i < chunks.size(); i++) {
+			final Object[] chunkValues = chunks.getValues(i);
+			final HibernateCallback chunkCallback = new HibernateCallback() {
+
+				@Override
+				public Object doInHibernate(Session session) throws HibernateException {
+					final Query query = session.createQuery(hql);
+					addParamsToQueryCheckingIfIsListType(query, chunkValues);
+					setPagination(query, 0, maxResults);
+					return query.list();
+				}
+			};
+			final FutureTask<List<T>> task = new FutureTask<List<T>>(new Callable<List<T>>() {
+
+				@Override
+				public List<T> call() throws Exception {
+					return findByHibernateCallback(parallel ? createReadOnlyHibernateCallback(chunkCallback)
+							: chunkCallback);
+				}
+			});
+			tasks.add(task);
+
+			if (parallel) {
+				try {
+					inListExecutor.execute(task);
+				} catch (TaskRejectedException e) {
+					log.debug("inListExecutor is busy, querying chunk " + i + " in the current thread");
+					task.run();
+				}
+			} else {
+				task.run();
+			}
+		}
+
+		final List<List<T>> results = new ArrayList<List<T>>(tasks.size());
+		for (FutureTask<List<T>> task : tasks) {
+			results.add(getTaskResult(task));
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Query executed in " + chunks.size() + " chunks" + (parallel ? " in parallel" : "") + ": "
+					+ hql);
+		}
+		return results;
+	}
+
 	private void addParamsToQueryCheckingIfIsListType(final Query query, Object[] params) {
 		for (int i = 0; i < params.length; i++) {
 			if (params[i] instanceof Collection) {
@@ -664,6 +1832,280 @@ public class HibernateDao extends HibernateDaoSupport implements Dao {
 		return list;
 	}
 	
+	@Override
+	public <T> long scroll(EntityCriteria entityCriteria, int fetchSize, ScrollCallBack<T> callback) {
+		final EntityCriteria criteriaToExecute = resolveFullText(entityCriteria);
+		final Pair<EntityCriteriaPlan, Object[]> planAndValues = criteriaToExecute.compileAndBind();
+		ExecutedQuery.record(planAndValues.getLeft().getHql(), planAndValues.getRight());
+		return scroll(planAndValues.getLeft().getHql(), createProjectionResultTransformer(criteriaToExecute),
+				fetchSize, callback, planAndValues.getRight());
+	}
+
+	@Override
+	public <T> long scroll(String queryString, int fetchSize, ScrollCallBack<T> callback, Object... values) {
+		return scroll(queryString, null, fetchSize, callback, values);
+	}
+
+	private <T> long scroll(final String queryString, final ResultTransformer resultTransformer, final int fetchSize,
+			final ScrollCallBack<T> callback, final Object... values) {
+		return scrollByHibernateCallback(new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				if (statelessScroll) {
+					final StatelessSession statelessSession = openStatelessSession(session);
+					try {
+						return Long.valueOf(scrollQuery(null, statelessSession.createQuery(queryString),
+								resultTransformer, fetchSize, callback, values));
+					} finally {
+						statelessSession.close();
+					}
+				}
+				return Long.valueOf(scrollQuery(session, session.createQuery(queryString), resultTransformer,
+						fetchSize, callback, values));
+			}
+		});
+	}
+
+	@Override
+	public <T> long scrollByNamedQuery(final String namedQuery, final int fetchSize, final ScrollCallBack<T> callback,
+			final Object... values) {
+		return scrollByHibernateCallback(new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				if (statelessScroll) {
+					final StatelessSession statelessSession = openStatelessSession(session);
+					try {
+						return Long.valueOf(scrollQuery(null, statelessSession.getNamedQuery(namedQuery), null,
+								fetchSize, callback, values));
+					} finally {
+						statelessSession.close();
+					}
+				}
+				return Long.valueOf(scrollQuery(session, session.getNamedQuery(namedQuery), null, fetchSize, callback,
+						values));
+			}
+		});
+	}
+
+	/**
+	 * Crea el executor de {@link #scrollInPartitions} que se usa cuando no se fija ninguno. Cuando ya hay
+	 * {@link #DEFAULT_SCAN_CONCURRENCY_LIMIT} particiones en marcha (de ésta o de otras llamadas), el hilo que lanza
+	 * las demás espera a que termine alguna, así que nunca se ocupan más hilos ni conexiones que ese límite.
+	 */
+	private static TaskExecutor createDefaultScanExecutor() {
+		final SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("scrollInPartitions-");
+		executor.setConcurrencyLimit(DEFAULT_SCAN_CONCURRENCY_LIMIT);
+		return executor;
+	}
+
+	@Override
+	public <T> long scrollInPartitions(EntityCriteria entityCriteria, String partitionProperty, int partitions,
+			final int fetchSize, final PartitionedScrollCallBack<T> callback) {
+		Assert.isTrue(partitions > 0, "There must be at least one partition");
+		final String property = partitionProperty != null ? partitionProperty : getSessionFactory().getClassMetadata(
+				entityCriteria.getEntityClass()).getIdentifierPropertyName();
+
+		final EntityCriteria criteriaToExecute = withMaxInListSize(entityCriteria);
+		final Object[] range = this.<Object[]> find(criteriaToExecute.toRangeHql(property),
+				criteriaToExecute.getHqlValues()).get(0);
+		if (range[0] == null) {
+			log.debug("Nothing to scroll, there are no rows");
+			return 0;
+		}
+
+		final List<Object> boundaries = ScanPartitions.splitRange(range[0], range[1], partitions);
+		final int partitionCount = boundaries.size() - 1;
+		final String hql = criteriaToExecute.toHqlInRange(property, false);
+		final String lastPartitionHql = criteriaToExecute.toHqlInRange(property, true);
+		final Object[] criteriaValues = criteriaToExecute.getHqlValues();
+		ExecutedQuery.record(hql, criteriaValues);
+		final ResultTransformer resultTransformer = createProjectionResultTransformer(entityCriteria);
+
+		final boolean parallel = partitionCount > 1 && isOtherSessionAllowed();
+		final List<FutureTask<Long>> tasks = new ArrayList<FutureTask<Long>>(partitionCount);
+		for (int i = 0; i < partitionCount; i++) {
+			final int partition = i;
+			final Object[] values = Arrays.copyOf(criteriaValues, criteriaValues.length + 2);
+			values[values.length - 2] = boundaries.get(i);
+			values[values.length - 1] = boundaries.get(i + 1);
+
+			final FutureTask<Long> task = new FutureTask<Long>(new Callable<Long>() {
+
+				@Override
+				public Long call() throws Exception {
+					final long processedRows = scroll(partition == partitionCount - 1 ? lastPartitionHql : hql,
+							resultTransformer, fetchSize, createPartitionCallback(callback, partition, partitionCount,
+									fetchSize), values);
+					callback.partitionProgress(partition, partitionCount, processedRows, true);
+					return Long.valueOf(processedRows);
+				}
+			});
+			tasks.add(task);
+
+			boolean runInCurrentThread = !parallel;
+			if (parallel) {
+				try {
+					scanExecutor.execute(task);
+				} catch (TaskRejectedException e) {
+					log.debug("scanExecutor is busy, scrolling partition " + i + " in the current thread");
+					runInCurrentThread = true;
+				}
+			}
+			if (runInCurrentThread) {
+				task.run();
+				if (hasFailed(task)) {
+					// Las particiones que faltan ya no se lanzan
+					break;
+				}
+			}
+		}
+
+		long processedRows = 0;
+		RuntimeException failure = null;
+		for (FutureTask<Long> task : tasks) {
+			try {
+				processedRows += getTaskResult(task).longValue();
+			} catch (RuntimeException e) {
+				if (failure == null) {
+					failure = e;
+					// Las particiones que todavía no han empezado ya no se recorren
+					for (FutureTask<Long> pendingTask : tasks) {
+						pendingTask.cancel(false);
+					}
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Rows processed by scroll in " + partitionCount + " partitions" + (parallel ? " in parallel" : "")
+					+ ": " + processedRows);
+		}
+		return processedRows;
+	}
+
+	/**
+	 * @return si la tarea, que ya ha terminado, ha acabado con una excepción.
+	 */
+	private static boolean hasFailed(FutureTask<?> task) {
+		try {
+			task.get();
+			return false;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return true;
+
+		} catch (ExecutionException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Envuelve el callback para ir informando del avance de la partición cada <code>fetchSize</code> registros.
+	 */
+	private <T> ScrollCallBack<T> createPartitionCallback(final PartitionedScrollCallBack<T> callback,
+			final int partition, final int partitions, int fetchSize) {
+		final int progressInterval = fetchSize > 0 ? fetchSize : DEFAULT_PROGRESS_INTERVAL;
+		return new ScrollCallBack<T>() {
+
+			private long processedRows;
+
+			@Override
+			public void processRow(T row) {
+				callback.processRow(row);
+				processedRows++;
+				if (processedRows % progressInterval == 0) {
+					callback.partitionProgress(partition, partitions, processedRows, false);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Abre una {@link StatelessSession} sobre la conexión de la sesión actual, para que la consulta vea lo mismo que la
+	 * transacción en curso. Las entidades que devuelve no pasan por la caché de primer nivel, pero tampoco pueden cargar
+	 * sus asociaciones <i>lazy</i>.
+	 */
+	@SuppressWarnings("deprecation")
+	private StatelessSession openStatelessSession(Session session) {
+		return getSessionFactory().openStatelessSession(session.connection());
+	}
+
+	private long scrollByHibernateCallback(HibernateCallback hibernateCallback) {
+		final Long processedRows = (Long)getHibernateTemplate().execute(hibernateCallback);
+		if (log.isDebugEnabled()) {
+			log.debug("Rows processed by scroll: " + processedRows);
+		}
+		return processedRows.longValue();
+	}
+
+	/**
+	 * Recorre la consulta con un cursor de sólo avance. Cada registro se pasa al callback, y cada <code>fetchSize</code>
+	 * registros se vacía la sesión, para que la caché de primer nivel no crezca con el número de registros. Quitar sólo
+	 * cada registro no basta: las asociaciones que se cargan con él y las colecciones que se inicializan en el callback
+	 * se quedarían en la sesión.
+	 * 
+	 * @param <T> el tipo de objetos que se devuelven.
+	 * @param session la sesión sobre la que se ejecuta la consulta, o <code>null</code> si es una
+	 *            {@link StatelessSession} (no hay nada que vaciar).
+	 * @param query la consulta.
+	 * @param fetchSize número de filas que se piden al driver en cada viaje a la base de datos.
+	 * @param callback el que procesará cada registro.
+	 * @param values los valores de los parámetros.
+	 * @return el número de registros procesados.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> long scrollQuery(Session session, Query query, ResultTransformer resultTransformer, int fetchSize,
+			ScrollCallBack<T> callback, Object... values) {
+		for (int i = 0; i < values.length; i++) {
+			query.setParameter(i, values[i]);
+		}
+		if (fetchSize > 0) {
+			query.setFetchSize(fetchSize);
+		}
+		query.setReadOnly(true);
+
+		final int clearInterval = fetchSize > 0 ? fetchSize : DEFAULT_CLEAR_INTERVAL;
+		long processedRows = 0;
+		final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				final Object[] columns = results.get();
+				final Object row;
+				if (resultTransformer != null) {
+					row = resultTransformer.transformTuple(columns, null);
+				} else {
+					row = columns.length == 1 ? columns[0] : columns;
+				}
+				callback.processRow((T)row);
+				processedRows++;
+
+				if (session != null && processedRows % clearInterval == 0) {
+					clearScrolledSession(session);
+				}
+			}
+		} finally {
+			results.close();
+		}
+		return processedRows;
+	}
+
+	/**
+	 * Vacía la sesión durante un <code>scroll</code>. Si la sesión se vuelca automáticamente (transacción de escritura),
+	 * antes se guardan los cambios que haya hecho el callback, que si no se perderían. Si no, es que los cambios no se
+	 * iban a guardar de todas formas (vistas y transacciones de sólo lectura).
+	 */
+	private void clearScrolledSession(Session session) {
+		if (!FlushMode.isManualFlushMode(session.getFlushMode())) {
+			session.flush();
+		}
+		session.clear();
+	}
+
 	@SuppressWarnings("unchecked")
 	private void setNamedParametersWithListSupport(final Map values, final Query query) {
 		final Iterator<String> it = values.keySet().iterator();
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Divide en trozos el parámetro de tipo lista de una consulta HQL con parámetros <code>:param0</code>,
+ * <code>:param1</code>... (ver {@link HibernateDao#findByAnHqlQueryWithListParametersSupport(String, Object...)}), para
+ * poder ejecutar la consulta una vez por trozo y juntar después los resultados.
+ * <p>
+ * Sólo se divide si el resultado de juntar los trozos es el mismo que el de la consulta completa:
+ * <ul>
+ * <li>el parámetro se usa una sola vez, y en un <code>in (:paramN)</code> (nunca en un <code>not in</code>);</li>
+ * <li>la consulta no tiene <code>distinct</code>, ya que un mismo registro podría salir en varios trozos;</li>
+ * <li>si es una consulta de registros, devuelve la entidad raíz.</li>
+ * </ul>
+ * Las consultas de registros con <code>order by</code> no se dividen: habría que ordenar en memoria los registros de
+ * todos los trozos, y el orden de Java no siempre coincide con el de la base de datos (la collation de los textos, los
+ * nulos...). Con una {@link com.autentia.wuija.persistence.criteria.EntityCriteria} no hace falta dividir la consulta,
+ * porque {@link com.autentia.wuija.persistence.criteria.Operator#IN} ya parte la lista en varios <code>in</code> de la
+ * misma consulta y es la base de datos la que ordena.
+ * Los valores repetidos de la lista se quitan, y el último trozo se completa repitiendo su último valor, para que todos
+ * los trozos generen la misma sentencia SQL y la base de datos reutilice su plan de ejecución.
+ */
+class InListChunks {
+
+	private static final Pattern SELECT_FROM = Pattern.compile(
+			"^\\s*(?:select\\s+(distinct\\s+)?(\\w+)\\s+)?from\\s+[\\w.$]+(?:\\s+(?:as\\s+)?(\\w+))?",
+			Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern DISTINCT = Pattern.compile("\\bdistinct\\b", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern KEYWORDS = Pattern.compile("where|order|group|join|left|right|inner|outer|full",
+			Pattern.CASE_INSENSITIVE);
+
+	private final Object[] values;
+
+	private final int chunkedParamIndex;
+
+	private final List<List<Object>> chunks;
+
+	private InListChunks(Object[] values, int chunkedParamIndex, List<List<Object>> chunks) {
+		this.values = values;
+		this.chunkedParamIndex = chunkedParamIndex;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Divide una consulta de registros.
+	 *
+	 * @param hql la consulta.
+	 * @param values los valores de los parámetros.
+	 * @param chunkSize número máximo de valores de cada trozo.
+	 * @return los trozos, o <code>null</code> si no hay ninguna lista con más de <code>chunkSize</code> valores o si
+	 *         no se puede dividir la consulta.
+	 * @throws IllegalArgumentException si habría que dividir la consulta pero tiene <code>order by</code>.
+	 */
+	static InListChunks forRows(String hql, Object[] values, int chunkSize) {
+		final int paramIndex = findChunkableParam(hql, values, chunkSize);
+		if (paramIndex < 0) {
+			return null;
+		}
+
+		final Matcher selectFrom = SELECT_FROM.matcher(hql);
+		if (!selectFrom.find() || selectFrom.group(1) != null) {
+			return null;
+		}
+		String alias = selectFrom.group(3);
+		if (alias != null && KEYWORDS.matcher(alias).matches()) {
+			alias = null;
+		}
+		if (selectFrom.group(2) != null && !selectFrom.group(2).equals(alias)) {
+			return null;
+		}
+
+		if (ORDER_BY.matcher(hql).find()) {
+			throw new IllegalArgumentException("The list of :param" + paramIndex + " has more than " + chunkSize
+					+ " values and the query has an order by, so it cannot be run in chunks. Use an EntityCriteria "
+					+ "with Operator.IN instead, or a shorter list");
+		}
+
+		return new InListChunks(values, paramIndex, split((Collection<?>)values[paramIndex], chunkSize));
+	}
+
+	/**
+	 * Divide una consulta de tipo <code>select count(...)</code>. El número total de registros es la suma de las cuentas
+	 * de todos los trozos.
+	 *
+	 * @param countHql la consulta.
+	 * @param values los valores de los parámetros.
+	 * @param chunkSize número máximo de valores de cada trozo.
+	 * @return los trozos, o <code>null</code> si no hay ninguna lista con más de <code>chunkSize</code> valores o si
+	 *         no se puede dividir la consulta.
+	 */
+	static InListChunks forCount(String countHql, Object[] values, int chunkSize) {
+		final int paramIndex = findChunkableParam(countHql, values, chunkSize);
+		if (paramIndex < 0 || DISTINCT.matcher(countHql).find()) {
+			return null;
+		}
+		return new InListChunks(values, paramIndex, split((Collection<?>)values[paramIndex], chunkSize));
+	}
+
+	/**
+	 * Busca la lista con más valores, siempre que tenga más de <code>chunkSize</code> y se use una sola vez, en un
+	 * <code>in</code>.
+	 */
+	private static int findChunkableParam(String hql, Object[] values, int chunkSize) {
+		int paramIndex = -1;
+		int maxSize = chunkSize;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] instanceof Collection && ((Collection<?>)values[i]).size() > maxSize) {
+				paramIndex = i;
+				maxSize = ((Collection<?>)values[i]).size();
+			}
+		}
+		if (paramIndex < 0) {
+			return -1;
+		}
+
+		final Pattern paramPattern = Pattern.compile(":param" + paramIndex + "\\b");
+		final Matcher param = paramPattern.matcher(hql);
+		if (!param.find()) {
+			return -1;
+		}
+		final int position = param.start();
+		if (param.find()) {
+			return -1;
+		}
+		final Matcher in = Pattern.compile("(?:\\bnot\\s+)?\\bin\\s*\\(\\s*$", Pattern.CASE_INSENSITIVE).matcher(
+				hql.substring(0, position));
+		if (!in.find() || in.group().toLowerCase().startsWith("not")) {
+			return -1;
+		}
+		return paramIndex;
+	}
+
+	private static List<List<Object>> split(Collection<?> collection, int chunkSize) {
+		final List<Object> distinctValues = new ArrayList<Object>(new LinkedHashSet<Object>(collection));
+		final List<List<Object>> chunks = new ArrayList<List<Object>>();
+		for (int from = 0; from < distinctValues.size(); from += chunkSize) {
+			final List<Object> chunk = new ArrayList<Object>(distinctValues.subList(from, Math.min(from + chunkSize,
+					distinctValues.size())));
+			while (chunk.size() < chunkSize) {
+				chunk.add(chunk.get(chunk.size() - 1));
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	int size() {
+		return chunks.size();
+	}
+
+	/**
+	 * @param chunk el número de trozo.
+	 * @return los valores de los parámetros para ejecutar la consulta con ese trozo.
+	 */
+	Object[] getValues(int chunk) {
+		final Object[] chunkValues = values.clone();
+		chunkValues[chunkedParamIndex] = chunks.get(chunk);
+		return chunkValues;
+	}
+
+	/**
+	 * Junta los registros de todos los trozos, uno detrás de otro, y devuelve la página pedida. Como la consulta no
+	 * tiene <code>order by</code>, cualquier orden es igual de válido que el de la consulta completa. Para que la
+	 * página sea correcta, cada trozo tiene que haber devuelto sus primeros <code>firstResult + maxResults</code>
+	 * registros.
+	 *
+	 * @param chunkResults los registros de cada trozo.
+	 * @param firstResult un número de fila, empezando a contar desde 0.
+	 * @param maxResults número máximo de filas a devolver, o 0 si se devuelven todas.
+	 * @return la página de los registros de todos los trozos.
+	 */
+	<T> List<T> merge(List<List<T>> chunkResults, int firstResult, int maxResults) {
+		final List<T> rows = new ArrayList<T>();
+		for (List<T> chunkResult : chunkResults) {
+			rows.addAll(chunkResult);
+		}
+
+		final int from = Math.min(firstResult, rows.size());
+		final int to = maxResults > 0 ? Math.min(from + maxResults, rows.size()) : rows.size();
+		return new ArrayList<T>(rows.subList(from, to));
+	}
+
+	/**
+	 * @param chunkCounts el resultado de la consulta <code>select count(...)</code> de cada trozo.
+	 * @return la suma de todas las cuentas.
+	 */
+	static Long sumCounts(List<List<Object>> chunkCounts) {
+		long count = 0;
+		for (List<Object> chunkCount : chunkCounts) {
+			count += ((Number)chunkCount.get(0)).longValue();
+		}
+		return Long.valueOf(count);
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.KeywordTokenizer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+/**
+ * {@link Analyzer} de Lucene que indexa todo el valor de la propiedad como un único término en minúsculas, sin
+ * trocearlo en palabras. Es el que tienen que usar las propiedades que se quieren buscar en el índice con
+ * {@link FullTextCriteriaResolver}, para que un <code>contains</code> encuentre lo mismo que el
+ * <code>lower(...) like lower(?)</code> de la base de datos:
+ *
+ * <pre>
+ * &#064;Field(analyzer = &#064;Analyzer(impl = LowerCaseKeywordAnalyzer.class))
+ * private String title;
+ * </pre>
+ */
+public class LowerCaseKeywordAnalyzer extends Analyzer {
+
+	@Override
+	public TokenStream tokenStream(String fieldName, Reader reader) {
+		return new LowerCaseFilter(new KeywordTokenizer(reader));
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.transform.ResultTransformer;
+
+import com.autentia.wuija.persistence.criteria.EntityCriteria;
+
+/**
+ * Convierte cada registro de una consulta con proyección (ver {@link EntityCriteria#setProjection(String...)}) en un
+ * {@link Map} anidado: el valor de <code>category.name</code> se guarda bajo la clave <code>name</code> del mapa que
+ * hay en la clave <code>category</code>. Así el registro se navega igual que la entidad, tanto desde EL
+ * (<code>row['category']['name']</code>) como con {@link com.autentia.common.util.ClassUtils#invokeGetterMethod}.
+ * <p>
+ * Si se proyecta una asociación completa (<code>category</code>) junto con alguna de sus propiedades
+ * (<code>category.name</code>), se guarda la entidad, que ya tiene todas sus propiedades.
+ * <p>
+ * Las columnas que sobran al final del registro (por ejemplo, el id que se añade a las proyecciones con
+ * <code>distinct</code>) se ignoran.
+ */
+public class NestedMapResultTransformer implements ResultTransformer {
+
+	private static final long serialVersionUID = -2094310561732845571L;
+
+	private final String[][] propertyPaths;
+
+	public NestedMapResultTransformer(String[] propertyPaths) {
+		this.propertyPaths = new String[propertyPaths.length][];
+		for (int i = 0; i < propertyPaths.length; i++) {
+			this.propertyPaths[i] = propertyPaths[i].split("\\.");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object transformTuple(Object[] tuple, String[] aliases) {
+		final Map<String, Object> row = new HashMap<String, Object>();
+		for (int i = 0; i < propertyPaths.length; i++) {
+			final String[] propertyNames = propertyPaths[i];
+			Map<String, Object> map = row;
+			for (int j = 0; j < propertyNames.length - 1 && map != null; j++) {
+				final Object value = map.get(propertyNames[j]);
+				if (value == null) {
+					final Map<String, Object> nestedMap = new HashMap<String, Object>();
+					map.put(propertyNames[j], nestedMap);
+					map = nestedMap;
+
+				} else if (value instanceof Map) {
+					map = (Map<String, Object>)value;
+
+				} else {
+					// Ya está la entidad completa
+					map = null;
+				}
+			}
+
+			if (map != null) {
+				final String propertyName = propertyNames[propertyNames.length - 1];
+				if (!(tuple[i] == null && map.get(propertyName) instanceof Map)) {
+					map.put(propertyName, tuple[i]);
+				}
+			}
+		}
+		return row;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List transformList(List collection) {
+		return collection;
+	}
+}
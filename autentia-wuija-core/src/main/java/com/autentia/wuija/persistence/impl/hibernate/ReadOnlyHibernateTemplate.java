@@ -0,0 +1,79 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.springframework.orm.hibernate3.HibernateCallback;
+import org.springframework.orm.hibernate3.HibernateTemplate;
+
+/**
+ * {@link HibernateTemplate} de sólo lectura:
+ * <ul>
+ * <li>Nunca hace flush de la sesión (la pone en {@link org.hibernate.FlushMode#MANUAL} mientras se ejecuta cada
+ * operación), así que tampoco se comprueba antes de cada consulta si hay entidades modificadas. Por la misma razón no
+ * permite operaciones de escritura.</li>
+ * <li>Las entidades que se cargan son de sólo lectura, así que Hibernate no guarda la copia de su estado que usa para
+ * saber si han cambiado.</li>
+ * </ul>
+ *
+ * @see HibernateDao#readOnly()
+ */
+class ReadOnlyHibernateTemplate extends HibernateTemplate {
+
+	ReadOnlyHibernateTemplate(SessionFactory sessionFactory) {
+		super(sessionFactory);
+		setFlushMode(FLUSH_NEVER);
+	}
+
+	@Override
+	protected void prepareQuery(Query queryObject) {
+		super.prepareQuery(queryObject);
+		queryObject.setReadOnly(true);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object get(final Class entityClass, final Serializable id, final LockMode lockMode) {
+		return executeWithNativeSession(new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				final Object entity = lockMode == null ? session.get(entityClass, id) : session.get(entityClass, id,
+						lockMode);
+				if (entity != null) {
+					session.setReadOnly(entity, true);
+				}
+				return entity;
+			}
+		});
+	}
+
+	/** Se hace con HQL en vez de con una <code>Criteria</code>, porque en las criterias no se puede pedir sólo lectura. */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List loadAll(final Class entityClass) {
+		return (List)executeWithNativeSession(new HibernateCallback() {
+
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException {
+				final Query query = session.createQuery("from " + entityClass.getName());
+				prepareQuery(query);
+				return query.list();
+			}
+		});
+	}
+}
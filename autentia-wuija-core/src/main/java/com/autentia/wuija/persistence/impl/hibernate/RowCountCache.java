@@ -0,0 +1,233 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. You should have received a copy of the GNU Lesser General Public
+ * License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.autentia.common.util.EntityUtils;
+
+/**
+ * Caché del número de registros que devuelven las consultas de tipo <code>select count(...)</code> que hace el
+ * {@link HibernateDao} para paginar. La clave es la consulta normalizada más los valores de sus parámetros, así que al
+ * ordenar o cambiar de página con el mismo filtro no se vuelve a contar.
+ * <p>
+ * Cada entrada caduca pasado un tiempo, y como mucho se guardan <code>maxEntries</code> entradas (se descartan las que
+ * hace más tiempo que no se usan). Además cada entrada recuerda las tablas (<i>query spaces</i> de Hibernate) sobre las
+ * que se hizo la consulta, para que el {@link HibernateDao} la pueda invalidar cuando se guarda o se borra una entidad
+ * de alguna de esas tablas.
+ * <p>
+ * Esta caché es local a cada máquina, así que los cambios que se hagan desde fuera de este {@link HibernateDao} (SQL
+ * nativo, otras aplicaciones u otros nodos del cluster) sólo se verán cuando caduque la entrada. Por eso no está
+ * activada por defecto.
+ */
+public class RowCountCache {
+
+	private static class Entry {
+
+		final Long rowCount;
+
+		final long expirationTime;
+
+		final Set<String> querySpaces;
+
+		Entry(Long rowCount, long expirationTime, Set<String> querySpaces) {
+			this.rowCount = rowCount;
+			this.expirationTime = expirationTime;
+			this.querySpaces = querySpaces;
+		}
+	}
+
+	private static final Log log = LogFactory.getLog(RowCountCache.class);
+
+	private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+
+	private final long timeToLiveMillis;
+
+	/** Mapa ordenado por acceso, de forma que la primera entrada siempre es la que hace más tiempo que no se usa. */
+	private final Map<List<Object>, Entry> entries;
+
+	/** Se incrementa cada vez que se invalida alguna cuenta, ver {@link RowCountCache#getGeneration()}. */
+	private long generation;
+
+	/**
+	 * La generación en la que se invalidó por última vez cada tabla. Sólo hay una entrada por tabla, así que no crece
+	 * más que el número de tablas del modelo.
+	 */
+	private final Map<String, Long> invalidationGenerations = new HashMap<String, Long>();
+
+	/** La generación en la que se vació por última vez toda la caché. */
+	private long clearGeneration;
+
+	/**
+	 * Crea una nueva caché.
+	 *
+	 * @param timeToLiveSeconds segundos que se mantiene cada cuenta en la caché.
+	 * @param maxEntries número máximo de cuentas que se guardan.
+	 */
+	public RowCountCache(long timeToLiveSeconds, final int maxEntries) {
+		this.timeToLiveMillis = timeToLiveSeconds * 1000;
+		this.entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 6281916427458104562L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Devuelve el número de registros guardado para la consulta, o <code>null</code> si no está en la caché o ha
+	 * caducado.
+	 *
+	 * @param countQuery la consulta de tipo <code>select count(...)</code>.
+	 * @param values los valores de los parámetros de la consulta.
+	 * @return el número de registros, o <code>null</code> si no está en la caché.
+	 */
+	public synchronized Long get(String countQuery, Object[] values) {
+		final List<Object> key = createKey(countQuery, values);
+		final Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expirationTime < System.currentTimeMillis()) {
+			entries.remove(key);
+			return null;
+		}
+		if (log.isTraceEnabled()) {
+			log.trace("Row count found in cache (" + entry.rowCount + "): " + key);
+		}
+		return entry.rowCount;
+	}
+
+	/**
+	 * Devuelve la generación actual de la caché, que cambia cada vez que se invalida alguna cuenta. Hay que leerla
+	 * antes de hacer la consulta y pasársela a {@link RowCountCache#put(String, Object[], Set, Long, long)}, para no
+	 * guardar una cuenta que se hizo antes de que cambiasen los datos de sus tablas. Los cambios en otras tablas no
+	 * impiden guardarla.
+	 *
+	 * @return la generación actual.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Guarda en la caché el número de registros de la consulta.
+	 *
+	 * @param countQuery la consulta de tipo <code>select count(...)</code>.
+	 * @param values los valores de los parámetros de la consulta.
+	 * @param querySpaces las tablas sobre las que se hace la consulta.
+	 * @param rowCount el número de registros.
+	 */
+	public synchronized void put(String countQuery, Object[] values, Set<String> querySpaces, Long rowCount) {
+		put(countQuery, values, querySpaces, rowCount, generation);
+	}
+
+	/**
+	 * Guarda en la caché el número de registros de la consulta, salvo que se haya invalidado alguna de sus tablas (o
+	 * toda la caché) desde que se leyó <code>generation</code>: en ese caso la cuenta puede ser anterior al cambio y no
+	 * se guarda.
+	 *
+	 * @param countQuery la consulta de tipo <code>select count(...)</code>.
+	 * @param values los valores de los parámetros de la consulta.
+	 * @param querySpaces las tablas sobre las que se hace la consulta.
+	 * @param rowCount el número de registros.
+	 * @param generation la generación de la caché antes de hacer la consulta, ver
+	 *            {@link RowCountCache#getGeneration()}.
+	 */
+	public synchronized void put(String countQuery, Object[] values, Set<String> querySpaces, Long rowCount,
+			long generation) {
+		if (isInvalidatedSince(querySpaces, generation)) {
+			if (log.isTraceEnabled()) {
+				log.trace("Row count not cached, the cache was invalidated while counting: " + countQuery);
+			}
+			return;
+		}
+		entries.put(createKey(countQuery, values), new Entry(rowCount, System.currentTimeMillis() + timeToLiveMillis,
+				querySpaces));
+	}
+
+	/**
+	 * Elimina de la caché todas las cuentas de consultas que se hacen sobre alguna de las tablas indicadas.
+	 *
+	 * @param querySpaces las tablas que han cambiado.
+	 */
+	public synchronized void invalidate(Collection<String> querySpaces) {
+		generation++;
+		final Long invalidationGeneration = Long.valueOf(generation);
+		for (String querySpace : querySpaces) {
+			invalidationGenerations.put(querySpace, invalidationGeneration);
+		}
+		final Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (!Collections.disjoint(it.next().querySpaces, querySpaces)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Elimina todas las cuentas de la caché.
+	 */
+	public synchronized void clear() {
+		generation++;
+		clearGeneration = generation;
+		invalidationGenerations.clear();
+		entries.clear();
+	}
+
+	/**
+	 * Indica si se ha vaciado la caché o se ha invalidado alguna de las tablas después de la generación indicada.
+	 */
+	private boolean isInvalidatedSince(Set<String> querySpaces, long generation) {
+		if (clearGeneration > generation) {
+			return true;
+		}
+		for (String querySpace : querySpaces) {
+			final Long invalidationGeneration = invalidationGenerations.get(querySpace);
+			if (invalidationGeneration != null && invalidationGeneration.longValue() > generation) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Crea la clave con la consulta normalizada (sin espacios redundantes) y los valores de los parámetros. Las
+	 * entidades se sustituyen por su clase y su id, para que la misma entidad cargada en distintas sesiones dé la
+	 * misma clave.
+	 */
+	private List<Object> createKey(String countQuery, Object[] values) {
+		final List<Object> key = new ArrayList<Object>(values.length + 1);
+		key.add(WHITESPACES.matcher(countQuery.trim()).replaceAll(" "));
+		for (Object value : values) {
+			if (value != null && EntityUtils.isEntity(value.getClass())) {
+				key.add(value.getClass().getName() + "#" + EntityUtils.getId(value));
+			} else {
+				key.add(value);
+			}
+		}
+		return key;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Divide el rango de valores de una propiedad numérica o de tipo fecha en particiones de la misma amplitud, para
+ * recorrer una tabla por trozos (ver {@link HibernateDao#scrollInPartitions}).
+ */
+class ScanPartitions {
+
+	private ScanPartitions() {
+		// Sólo tiene métodos estáticos
+	}
+
+	/**
+	 * Calcula los límites de las particiones: la partición <code>i</code> va desde el límite <code>i</code> (incluido)
+	 * hasta el <code>i + 1</code> (excluido, salvo en la última partición). Si el rango es de números enteros y tiene
+	 * menos valores que particiones, se devuelven menos particiones.
+	 *
+	 * @param min el valor mínimo.
+	 * @param max el valor máximo.
+	 * @param partitions número de particiones.
+	 * @return los límites de las particiones, empezando por <code>min</code> y terminando por <code>max</code>, del
+	 *         mismo tipo que ellos.
+	 * @throws IllegalArgumentException si los valores no son números ni fechas.
+	 */
+	static List<Object> splitRange(Object min, Object max, int partitions) {
+		final BigDecimal from = toBigDecimal(min);
+		final BigDecimal to = toBigDecimal(max);
+		final boolean integral = isIntegral(min);
+
+		final List<Object> boundaries = new ArrayList<Object>(partitions + 1);
+		boundaries.add(min);
+		final BigDecimal width = to.subtract(from);
+		for (int i = 1; i < partitions; i++) {
+			BigDecimal boundary = from.add(width.multiply(BigDecimal.valueOf(i)).divide(BigDecimal.valueOf(partitions),
+					10, RoundingMode.FLOOR));
+			if (integral) {
+				boundary = boundary.setScale(0, RoundingMode.FLOOR);
+			}
+			final Object value = fromBigDecimal(boundary, min);
+			if (!value.equals(boundaries.get(boundaries.size() - 1))) {
+				boundaries.add(value);
+			}
+		}
+		if (!max.equals(boundaries.get(boundaries.size() - 1)) || boundaries.size() == 1) {
+			boundaries.add(max);
+		}
+		return boundaries;
+	}
+
+	private static boolean isIntegral(Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+				|| value instanceof BigInteger || value instanceof Date;
+	}
+
+	private static BigDecimal toBigDecimal(Object value) {
+		if (value instanceof BigDecimal) {
+			return (BigDecimal)value;
+		}
+		if (value instanceof BigInteger) {
+			return new BigDecimal((BigInteger)value);
+		}
+		if (value instanceof Double || value instanceof Float) {
+			return BigDecimal.valueOf(((Number)value).doubleValue());
+		}
+		if (value instanceof Number) {
+			return BigDecimal.valueOf(((Number)value).longValue());
+		}
+		if (value instanceof Date) {
+			return BigDecimal.valueOf(((Date)value).getTime());
+		}
+		throw new IllegalArgumentException("Cannot partition values of " + (value == null ? null : value.getClass()));
+	}
+
+	private static Object fromBigDecimal(BigDecimal value, Object sample) {
+		if (sample instanceof Integer) {
+			return Integer.valueOf(value.intValue());
+		}
+		if (sample instanceof Long) {
+			return Long.valueOf(value.longValue());
+		}
+		if (sample instanceof Short) {
+			return Short.valueOf(value.shortValue());
+		}
+		if (sample instanceof Byte) {
+			return Byte.valueOf(value.byteValue());
+		}
+		if (sample instanceof BigInteger) {
+			return value.toBigInteger();
+		}
+		if (sample instanceof Double) {
+			return Double.valueOf(value.doubleValue());
+		}
+		if (sample instanceof Float) {
+			return Float.valueOf(value.floatValue());
+		}
+		if (sample instanceof Timestamp) {
+			return new Timestamp(value.longValue());
+		}
+		if (sample instanceof java.sql.Date) {
+			return new java.sql.Date(value.longValue());
+		}
+		if (sample instanceof Date) {
+			return new Date(value.longValue());
+		}
+		return value;
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * {@link DataSource} que reparte las conexiones entre la base de datos principal y una réplica de sólo lectura: las
+ * transacciones de sólo lectura (<code>@Transactional(readOnly = true)</code>) y los informes (ver
+ * {@link #getReadOnlyConnection()}) van a la réplica, y todo lo demás a la principal.
+ * <p>
+ * Si no se puede conectar con la réplica, o si va demasiado retrasada respecto a la principal (según la consulta
+ * <code>lagQuery</code>), se usa la principal. El estado de la réplica se vuelve a comprobar cada
+ * <code>checkIntervalMillis</code>, para no pagar la comprobación en cada conexión.
+ * <p>
+ * Como el gestor de transacciones pide la conexión antes de marcar la transacción como de sólo lectura, hay que poner
+ * delante un {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, que no pide la conexión hasta
+ * la primera sentencia:
+ *
+ * <pre>
+ * &lt;bean id=&quot;dataSource&quot; class=&quot;org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy&quot;&gt;
+ *     &lt;property name=&quot;targetDataSource&quot;&gt;
+ *         &lt;bean class=&quot;com.autentia.wuija.persistence.impl.jdbc.ReadReplicaRoutingDataSource&quot;&gt;
+ *             &lt;constructor-arg ref=&quot;primaryDataSource&quot; /&gt;
+ *             &lt;constructor-arg ref=&quot;replicaDataSource&quot; /&gt;
+ *         &lt;/bean&gt;
+ *     &lt;/property&gt;
+ *     &lt;property name=&quot;defaultAutoCommit&quot; value=&quot;true&quot; /&gt;
+ *     &lt;property name=&quot;defaultTransactionIsolationName&quot; value=&quot;TRANSACTION_READ_COMMITTED&quot; /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * <p>
+ * Cuidado con la caché de segundo nivel de Hibernate: las entidades que se leen de la réplica en una transacción de
+ * sólo lectura se guardan en la caché igual que las que se leen de la principal, así que si la réplica va retrasada
+ * se pueden cachear datos antiguos, y las transacciones de escritura los verán hasta que caduquen o se modifiquen
+ * esas entidades. Las entidades que no admitan ese retraso no deberían estar en la caché, o el retraso máximo
+ * (<code>maxLagSeconds</code>) debería ser pequeño.
+ */
+public class ReadReplicaRoutingDataSource extends AbstractDataSource {
+
+	private static final Log log = LogFactory.getLog(ReadReplicaRoutingDataSource.class);
+
+	private final DataSource primaryDataSource;
+
+	private final DataSource replicaDataSource;
+
+	/** Consulta que devuelve los segundos de retraso de la réplica, o <code>null</code> si no se comprueba. */
+	private String lagQuery;
+
+	private long maxLagSeconds = 30;
+
+	private long checkIntervalMillis = 5000;
+
+	private volatile boolean replicaAvailable = true;
+
+	/** Momento a partir del cual hay que volver a comprobar el estado de la réplica. */
+	private volatile long nextCheckMillis;
+
+	public ReadReplicaRoutingDataSource(DataSource primaryDataSource, DataSource replicaDataSource) {
+		this.primaryDataSource = primaryDataSource;
+		this.replicaDataSource = replicaDataSource;
+	}
+
+	/**
+	 * Fija la consulta con la que se comprueba el retraso de la réplica. Se ejecuta sobre la réplica y tiene que
+	 * devolver un único número: los segundos de retraso. Por ejemplo, en PostgreSQL:
+	 * <code>select extract(epoch from now() - pg_last_xact_replay_timestamp())</code>.
+	 *
+	 * @param lagQuery la consulta, o <code>null</code> para no comprobar el retraso.
+	 */
+	public void setLagQuery(String lagQuery) {
+		this.lagQuery = lagQuery;
+	}
+
+	/**
+	 * @param maxLagSeconds segundos de retraso a partir de los cuales no se usa la réplica. Por defecto 30.
+	 */
+	public void setMaxLagSeconds(long maxLagSeconds) {
+		this.maxLagSeconds = maxLagSeconds;
+	}
+
+	/**
+	 * @param checkIntervalMillis cada cuántos milisegundos se comprueba el estado de la réplica. Por defecto 5000.
+	 */
+	public void setCheckIntervalMillis(long checkIntervalMillis) {
+		this.checkIntervalMillis = checkIntervalMillis;
+	}
+
+	/**
+	 * @return si la última vez que se comprobó se podía usar la réplica.
+	 */
+	public boolean isReplicaAvailable() {
+		return replicaAvailable;
+	}
+
+	/**
+	 * Devuelve una conexión a la réplica si hay una transacción de sólo lectura en curso, y a la principal si no.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return getConnection(null, null);
+	}
+
+	/**
+	 * Igual que {@link #getConnection()}, pero pidiendo la conexión con las credenciales que se pasan como parámetro,
+	 * tanto a la réplica como a la principal.
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			return getReadOnlyConnection(username, password);
+		}
+		return getConnection(primaryDataSource, username, password);
+	}
+
+	/**
+	 * Devuelve una conexión a la réplica, o a la principal si la réplica no está disponible. Es la que se usa para los
+	 * informes y cualquier otra lectura que se haga fuera de una transacción de sólo lectura.
+	 *
+	 * @return la conexión.
+	 * @throws SQLException si no se puede conectar con la principal.
+	 */
+	public Connection getReadOnlyConnection() throws SQLException {
+		return getReadOnlyConnection(null, null);
+	}
+
+	private Connection getReadOnlyConnection(String username, String password) throws SQLException {
+		final Connection replicaConnection = getReplicaConnection(username, password);
+		if (replicaConnection != null) {
+			return replicaConnection;
+		}
+		return getConnection(primaryDataSource, username, password);
+	}
+
+	/**
+	 * @return una conexión del {@link DataSource}, con sus propias credenciales si <code>username</code> es
+	 *         <code>null</code>.
+	 */
+	private static Connection getConnection(DataSource dataSource, String username, String password)
+			throws SQLException {
+		if (username == null) {
+			return dataSource.getConnection();
+		}
+		return dataSource.getConnection(username, password);
+	}
+
+	/**
+	 * Devuelve una conexión para leer del {@link DataSource} que se pasa como parámetro: si es (o envuelve a) un
+	 * {@link ReadReplicaRoutingDataSource}, de la réplica aunque no haya una transacción de sólo lectura; si no, una
+	 * conexión normal.
+	 *
+	 * @param dataSource el {@link DataSource}.
+	 * @return la conexión.
+	 * @throws SQLException si no se puede conectar.
+	 */
+	public static Connection getConnectionForReading(DataSource dataSource) throws SQLException {
+		DataSource targetDataSource = dataSource;
+		while (targetDataSource instanceof DelegatingDataSource) {
+			targetDataSource = ((DelegatingDataSource)targetDataSource).getTargetDataSource();
+		}
+		if (targetDataSource instanceof ReadReplicaRoutingDataSource) {
+			return ((ReadReplicaRoutingDataSource)targetDataSource).getReadOnlyConnection();
+		}
+		return dataSource.getConnection();
+	}
+
+	/**
+	 * @return una conexión a la réplica, o <code>null</code> si no está disponible.
+	 */
+	private Connection getReplicaConnection(String username, String password) {
+		final long now = System.currentTimeMillis();
+		final boolean check = now >= nextCheckMillis;
+		if (!check && !replicaAvailable) {
+			return null;
+		}
+
+		Connection connection = null;
+		try {
+			connection = getConnection(replicaDataSource, username, password);
+			if (check) {
+				nextCheckMillis = now + checkIntervalMillis;
+				if (!isLagAcceptable(connection)) {
+					JdbcUtils.closeConnection(connection);
+					return null;
+				}
+				if (!replicaAvailable) {
+					log.info("Read replica is available again");
+					replicaAvailable = true;
+				}
+			}
+			return connection;
+
+		} catch (SQLException e) {
+			JdbcUtils.closeConnection(connection);
+			nextCheckMillis = now + checkIntervalMillis;
+			if (replicaAvailable) {
+				log.warn("Cannot connect to read replica, using primary database", e);
+				replicaAvailable = false;
+			}
+			return null;
+		}
+	}
+
+	private boolean isLagAcceptable(Connection connection) throws SQLException {
+		if (lagQuery == null) {
+			return true;
+		}
+
+		Statement statement = null;
+		ResultSet resultSet = null;
+		try {
+			statement = connection.createStatement();
+			resultSet = statement.executeQuery(lagQuery);
+			final long lagSeconds = resultSet.next() ? resultSet.getLong(1) : 0;
+			if (lagSeconds > maxLagSeconds) {
+				if (replicaAvailable) {
+					log.warn("Read replica is " + lagSeconds + " seconds behind, using primary database");
+					replicaAvailable = false;
+				}
+				return false;
+			}
+			return true;
+
+		} finally {
+			JdbcUtils.closeResultSet(resultSet);
+			JdbcUtils.closeStatement(statement);
+		}
+	}
+}
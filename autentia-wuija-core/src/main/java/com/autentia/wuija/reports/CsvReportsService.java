@@ -33,7 +33,7 @@ import org.springframework.context.support.MessageSourceAccessor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.autentia.common.util.ClassUtils;
+import com.autentia.common.util.PropertyPath;
 import com.csvreader.CsvWriter;
 
 /**
@@ -97,9 +97,14 @@ public class CsvReportsService {
 			}
 			writercsv.endRecord();
 
-			for (int i = 0; i < entities.size(); i++) {
-				for (String header : headers) {
-					final Object value = ClassUtils.invokeGetterMethod(entities.get(i), header);
+			final PropertyPath[] propertyPaths = new PropertyPath[headers.length];
+			for (int i = 0; i < headers.length; i++) {
+				propertyPaths[i] = PropertyPath.compile(headers[i]);
+			}
+
+			for (T entity : entities) {
+				for (PropertyPath propertyPath : propertyPaths) {
+					final Object value = propertyPath.getValue(entity);
 					if (value != null) {
 						if (value.getClass().isEnum()) {
 							writercsv.write(msa.getMessage(value.toString()));
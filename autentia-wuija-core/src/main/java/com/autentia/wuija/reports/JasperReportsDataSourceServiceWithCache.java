@@ -32,6 +32,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.ClassUtils;
 
+import com.autentia.wuija.persistence.impl.jdbc.ReadReplicaRoutingDataSource;
+
 public class JasperReportsDataSourceServiceWithCache extends JasperReportsService {
 
 	private static final Log log = LogFactory.getLog(JasperReportsDataSourceServiceWithCache.class);
@@ -135,15 +137,17 @@ public class JasperReportsDataSourceServiceWithCache extends JasperReportsServic
 	}
 	
 	/**
-	 * Get database connection
+	 * Get database connection. If the datasource routes read-only work to a replica, reports are filled from the
+	 * replica.
 	 * 
 	 * @return database connection
 	 * @throws SQLException
+	 * @see ReadReplicaRoutingDataSource
 	 */
 	protected Connection getConnection() throws SQLException {
 		
 		if (dataSource != null) {
-			return dataSource.getConnection();
+			return ReadReplicaRoutingDataSource.getConnectionForReading(dataSource);
 		}
 		
 		return null;
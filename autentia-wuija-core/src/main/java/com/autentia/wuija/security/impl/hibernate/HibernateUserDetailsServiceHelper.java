@@ -9,6 +9,9 @@
 
 package com.autentia.wuija.security.impl.hibernate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.PostConstruct;
@@ -24,6 +27,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
 import com.autentia.wuija.persistence.Dao;
+import com.autentia.wuija.persistence.criteria.Operator;
 import com.autentia.wuija.security.SecurityGroup;
 import com.autentia.wuija.security.UserDetailsServiceHelper;
 
@@ -51,35 +55,20 @@ public class HibernateUserDetailsServiceHelper implements UserDetailsServiceHelp
 	public List<UserDetails> loadUsersByRoles(String... roles) {
 		Assert.notEmpty(roles, "The array of roles must have elements");
 
-		final StringBuilder hql = new StringBuilder(userDetailsHqlProvider.getUsersByRoleHql());
-		for (int i = 1; i < roles.length; i++) {
-			hql.append(" or a.role = ? or ga.role = ?");
-		}
+		// Con IN la consulta es la misma para cualquier número de roles (ver Operator.IN)
+		final List<Object> operands = Collections.<Object> singletonList(Arrays.asList(roles));
+		final List<Object> values = new ArrayList<Object>();
+		final StringBuilder hql = new StringBuilder(userDetailsHqlProvider.getUsersByRoleHql()).append(" where ");
+		Operator.IN.toHql("role", operands, "a", hql, values, Operator.DEFAULT_MAX_IN_LIST_SIZE);
+		hql.append(" or ");
+		Operator.IN.toHql("role", operands, "ga", hql, values, Operator.DEFAULT_MAX_IN_LIST_SIZE);
 		hql.append(userDetailsHqlProvider.getUsersByRoleHqlOrderBy());
 
 		if (log.isDebugEnabled()) {
 			log.debug("Loading user with roles: " + ToStringBuilder.reflectionToString(roles) + ", query: " + hql);
 		}
 
-		return dao.find(hql.toString(), (Object[])repeatArrayElements(roles));
-	}
-
-	/**
-	 * Este método nos devuelve un array con los elementos repetidos, es decir dado un array { A, B, C } nos devolverá
-	 * el array { A, A, B, B, C, C }
-	 * 
-	 * @param a array con los elementos que queremos repetir.
-	 * @return array con los elementos repetidos.
-	 */
-	private String[] repeatArrayElements(String[] a) {
-		final String[] result = new String[a.length * 2];
-
-		for (int i = 0; i < a.length; i++) {
-			result[i * 2] = a[i];
-			result[i * 2 + 1] = a[i];
-		}
-
-		return result;
+		return dao.find(hql.toString(), values.toArray());
 	}
 
 	/**
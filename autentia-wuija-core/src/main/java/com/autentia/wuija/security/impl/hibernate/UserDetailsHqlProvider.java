@@ -70,7 +70,7 @@ abstract class UserDetailsHqlProvider {
 				+ " left join u.groups as g " + " left join g.authorities " + " where u.username = ?";
 
 		USERS_BY_ROLE_HQL = "select distinct u from " + userClassName + " as u " + " left join u.userAuthorities as a "
-				+ " left join u.groups as g " + " left join g.authorities as ga " + " where a.role = ? or ga.role = ?";
+				+ " left join u.groups as g " + " left join g.authorities as ga ";
 
 		USERS_BY_ROLE_HQL_ORDERBY = " order by u.username";
 
@@ -108,7 +108,9 @@ abstract class UserDetailsHqlProvider {
 	/**
 	 * El método es <code>final</code> porque la consulta se tiene que 'calcular' en tiempo de construcción.
 	 * 
-	 * @return la consulta HQL que devuelve la lista de usuarios que tienen un conjutno de roles dados.
+	 * @return la consulta HQL que devuelve la lista de usuarios que tienen un conjutno de roles dados, sin el
+	 *         <code>where</code>: las condiciones sobre los roles (alias <code>a</code> para los del usuario y
+	 *         <code>ga</code> para los de sus grupos) las añade {@link HibernateUserDetailsServiceHelper}.
 	 */
 	protected final String getUsersByRoleHql() {
 		return USERS_BY_ROLE_HQL;
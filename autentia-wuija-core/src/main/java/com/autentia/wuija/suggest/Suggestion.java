@@ -0,0 +1,49 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.suggest;
+
+import java.io.Serializable;
+
+/**
+ * Una sugerencia de un {@link SuggestionIndex}: el id de una entidad y su texto. Es inmutable, así que el índice
+ * puede devolver la misma instancia a todos los que buscan; si se necesita la entidad, hay que cargarla por su id.
+ */
+public final class Suggestion implements Serializable {
+
+	private static final long serialVersionUID = 4871390226365137429L;
+
+	private final Serializable id;
+
+	private final String label;
+
+	public Suggestion(Serializable id, String label) {
+		this.id = id;
+		this.label = label;
+	}
+
+	/**
+	 * @return el id de la entidad.
+	 */
+	public Serializable getId() {
+		return id;
+	}
+
+	/**
+	 * @return el texto de la entidad, tal y como se lee de la propiedad del índice.
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	@Override
+	public String toString() {
+		return label + " [" + id + "]";
+	}
+}
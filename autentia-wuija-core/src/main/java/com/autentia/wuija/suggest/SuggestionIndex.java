@@ -0,0 +1,395 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.suggest;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import com.autentia.common.util.EntityUtils;
+import com.autentia.common.util.PropertyPath;
+import com.autentia.wuija.persistence.Dao;
+import com.autentia.wuija.persistence.EntityChangeListener;
+
+/**
+ * Índice en memoria de las entidades de una clase por el texto de una de sus propiedades, para sugerir valores en los
+ * campos de autocompletar sin hacer una consulta a la base de datos por cada tecla que se pulsa. Está pensado para
+ * vocabularios acotados: países, códigos de producto, nombres de usuario...
+ * <p>
+ * Las entidades se cargan con el {@link Dao} la primera vez que se busca. Los textos se guardan en minúsculas en un
+ * array ordenado, donde los que empiezan por el texto buscado se encuentran con una búsqueda binaria, y con un índice
+ * de trigramas (trozos de tres caracteres) para encontrar los que lo contienen sin recorrerlos todos.
+ * <p>
+ * Si se declara como bean de Spring, el {@link Dao} le avisa de las entidades que se guardan o se borran (ver
+ * {@link EntityChangeListener}), y el índice las actualiza sin volver a consultar la base de datos; tras una sentencia
+ * en bloque se vuelve a cargar entero. El Dao no busca sus {@link EntityChangeListener} hasta que cambia alguna
+ * entidad, así que el índice puede recibir el Dao en el constructor sin crear una dependencia circular. Por ejemplo:
+ *
+ * <pre>
+ * &lt;bean id=&quot;countrySuggestions&quot; class=&quot;com.autentia.wuija.suggest.SuggestionIndex&quot;&gt;
+ *     &lt;constructor-arg ref=&quot;dao&quot; /&gt;
+ *     &lt;constructor-arg value=&quot;com.example.Country&quot; /&gt;
+ *     &lt;constructor-arg value=&quot;name&quot; /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ *
+ * El índice no guarda las entidades, sólo su id y su texto: las búsquedas devuelven {@link Suggestion}, que son
+ * inmutables y se pueden compartir entre todos los que buscan. Se puede usar desde varios hilos a la vez.
+ *
+ * @param <T> la clase de las entidades.
+ */
+public class SuggestionIndex<T> implements EntityChangeListener {
+
+	private static final Log log = LogFactory.getLog(SuggestionIndex.class);
+
+	/** Longitud de los trozos del índice de trigramas. */
+	private static final int GRAM_LENGTH = 3;
+
+	private final Dao dao;
+
+	private final Class<T> entityClass;
+
+	private final PropertyPath labelPath;
+
+	/** Entradas del índice por el id de su entidad. Se modifica siempre con el <i>lock</i> del índice. */
+	private final Map<Serializable, Entry> entries = new HashMap<Serializable, Entry>();
+
+	/** Si ya se han cargado las entidades de la base de datos. */
+	private boolean loaded;
+
+	/** Estructura de búsqueda con las entradas actuales, o <code>null</code> si hay que volver a construirla. */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * @param dao el Dao con el que se cargan las entidades.
+	 * @param entityClass la clase de las entidades.
+	 * @param labelProperty la propiedad, o ruta de propiedades separadas por puntos, con el texto por el que se busca.
+	 */
+	public SuggestionIndex(Dao dao, Class<T> entityClass, String labelProperty) {
+		Assert.notNull(entityClass, "The entity class cannot be null");
+		Assert.hasText(labelProperty, "The label property cannot be empty");
+		this.dao = dao;
+		this.entityClass = entityClass;
+		this.labelPath = PropertyPath.compile(labelProperty);
+	}
+
+	/**
+	 * Devuelve las sugerencias de las entidades cuyo texto contiene el texto buscado, sin distinguir mayúsculas y
+	 * minúsculas. Primero van las que empiezan por el texto buscado y luego el resto, cada grupo ordenado
+	 * alfabéticamente.
+	 *
+	 * @param text el texto buscado, o <code>null</code> si todavía no se ha escrito nada.
+	 * @param maxResults el número máximo de sugerencias a devolver.
+	 * @return las sugerencias encontradas, o una lista vacía si el texto es <code>null</code>.
+	 */
+	public List<Suggestion> find(String text, int maxResults) {
+		Assert.isTrue(maxResults > 0, "The max number of results must be positive");
+		if (text == null) {
+			return new ArrayList<Suggestion>(0);
+		}
+
+		final List<Suggestion> found = new ArrayList<Suggestion>(Math.min(maxResults, 16));
+		getSnapshot().find(normalize(text), maxResults, found);
+		return found;
+	}
+
+	/**
+	 * @param entity la entidad.
+	 * @return el texto de la entidad por el que se busca, o <code>null</code> si no tiene.
+	 */
+	public String getLabel(T entity) {
+		final Object label = labelPath.getValue(entity);
+		return label == null ? null : label.toString();
+	}
+
+	/**
+	 * @return el número de entidades del índice.
+	 */
+	public int size() {
+		return getSnapshot().keys.length;
+	}
+
+	/**
+	 * Descarta el contenido del índice, para que se vuelva a cargar de la base de datos en la siguiente búsqueda.
+	 */
+	public synchronized void refresh() {
+		entries.clear();
+		loaded = false;
+		snapshot = null;
+	}
+
+	public void entitiesSaved(Collection<?> entities) {
+		update(entities, false);
+	}
+
+	public void entitiesDeleted(Collection<?> entities) {
+		update(entities, true);
+	}
+
+	public void entitiesChangedInBulk(Class<?> changedClass) {
+		if (changedClass == null || changedClass.isAssignableFrom(entityClass)
+				|| entityClass.isAssignableFrom(changedClass)) {
+			refresh();
+		}
+	}
+
+	/**
+	 * Carga de la base de datos las entidades del índice. Por defecto son todas las entidades de la clase; se puede
+	 * sobrescribir para cargar sólo algunas, junto con {@link #accept(Object)}.
+	 *
+	 * @return las entidades.
+	 */
+	protected List<T> loadEntities() {
+		return dao.find(entityClass);
+	}
+
+	/**
+	 * Indica si una entidad tiene que estar en el índice. Se usa al cargar las entidades y cuando se guarda alguna, de
+	 * forma que una entidad que deja de cumplir la condición desaparece del índice. Por defecto se aceptan todas.
+	 *
+	 * @param entity la entidad.
+	 * @return si la entidad tiene que estar en el índice.
+	 */
+	protected boolean accept(T entity) {
+		return true;
+	}
+
+	private synchronized void update(Collection<?> changedEntities, boolean deleted) {
+		if (!loaded) {
+			// Ya se tendrán en cuenta al cargar
+			return;
+		}
+
+		boolean changed = false;
+		for (Object changedEntity : changedEntities) {
+			if (!entityClass.isInstance(changedEntity)) {
+				continue;
+			}
+			final T entity = entityClass.cast(changedEntity);
+			final Serializable id = EntityUtils.getId(entity);
+			final Entry entry = deleted ? null : createEntry(id, entity);
+			if (entry == null) {
+				changed |= entries.remove(id) != null;
+			} else {
+				entries.put(id, entry);
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			snapshot = null;
+		}
+	}
+
+	private Snapshot getSnapshot() {
+		final Snapshot current = snapshot;
+		return current != null ? current : buildSnapshot();
+	}
+
+	private synchronized Snapshot buildSnapshot() {
+		if (snapshot == null) {
+			if (!loaded) {
+				load();
+			}
+			snapshot = new Snapshot(entries.values());
+		}
+		return snapshot;
+	}
+
+	private void load() {
+		for (T entity : loadEntities()) {
+			final Serializable id = EntityUtils.getId(entity);
+			final Entry entry = createEntry(id, entity);
+			if (entry != null) {
+				entries.put(id, entry);
+			}
+		}
+		loaded = true;
+
+		if (log.isDebugEnabled()) {
+			log.debug(entries.size() + " entities of " + entityClass.getName() + " loaded in the suggestion index by "
+					+ labelPath);
+		}
+	}
+
+	/**
+	 * @return la entrada de la entidad, o <code>null</code> si no tiene que estar en el índice.
+	 */
+	private Entry createEntry(Serializable id, T entity) {
+		if (!accept(entity)) {
+			return null;
+		}
+		final String label = getLabel(entity);
+		return label == null ? null : new Entry(normalize(label), new Suggestion(id, label));
+	}
+
+	/**
+	 * Pasa el texto a minúsculas siempre con las mismas reglas, sin depender del idioma por defecto de la máquina (en
+	 * turco, por ejemplo, la "I" mayúscula no se convierte en "i").
+	 */
+	private static String normalize(String text) {
+		return text.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * La sugerencia de una entidad del índice con su texto ya normalizado.
+	 */
+	private static final class Entry {
+
+		static final Comparator<Entry> BY_KEY = new Comparator<Entry>() {
+
+			@Override
+			public int compare(Entry entry1, Entry entry2) {
+				return entry1.key.compareTo(entry2.key);
+			}
+		};
+
+		final String key;
+
+		final Suggestion suggestion;
+
+		Entry(String key, Suggestion suggestion) {
+			this.key = key;
+			this.suggestion = suggestion;
+		}
+	}
+
+	/**
+	 * Estructura de búsqueda inmutable con las entradas del índice en un momento dado. Cuando cambia alguna entrada se
+	 * construye otra, sin volver a la base de datos; mientras tanto las búsquedas en curso siguen usando esta.
+	 */
+	private static final class Snapshot {
+
+		/** Textos normalizados, ordenados. */
+		final String[] keys;
+
+		/** La sugerencia de cada texto, en la misma posición. */
+		final Suggestion[] suggestions;
+
+		/** Posiciones, en orden creciente, de los textos que contienen cada trigrama. */
+		final Map<String, int[]> grams;
+
+		Snapshot(Collection<Entry> entries) {
+			final Entry[] sorted = entries.toArray(new Entry[entries.size()]);
+			Arrays.sort(sorted, Entry.BY_KEY);
+
+			keys = new String[sorted.length];
+			suggestions = new Suggestion[sorted.length];
+			final Map<String, Postings> postings = new HashMap<String, Postings>();
+			for (int i = 0; i < sorted.length; i++) {
+				keys[i] = sorted[i].key;
+				suggestions[i] = sorted[i].suggestion;
+				for (int start = 0; start + GRAM_LENGTH <= keys[i].length(); start++) {
+					final String gram = keys[i].substring(start, start + GRAM_LENGTH);
+					Postings gramPostings = postings.get(gram);
+					if (gramPostings == null) {
+						gramPostings = new Postings();
+						postings.put(gram, gramPostings);
+					}
+					gramPostings.add(i);
+				}
+			}
+
+			grams = new HashMap<String, int[]>(postings.size() * 4 / 3 + 1);
+			for (Map.Entry<String, Postings> gramPostings : postings.entrySet()) {
+				grams.put(gramPostings.getKey(), gramPostings.getValue().toArray());
+			}
+		}
+
+		void find(String key, int maxResults, List<Suggestion> found) {
+			// Los que empiezan por el texto están seguidos a partir de donde iría el texto en el array
+			int position = Arrays.binarySearch(keys, key);
+			if (position < 0) {
+				position = -position - 1;
+			}
+			while (position < keys.length && found.size() < maxResults && keys[position].startsWith(key)) {
+				add(position++, found);
+			}
+
+			if (found.size() < maxResults) {
+				if (key.length() < GRAM_LENGTH) {
+					// Más corto que un trigrama: se recorren los textos ordenados hasta tener bastantes
+					for (int i = 0; i < keys.length && found.size() < maxResults; i++) {
+						if (keys[i].indexOf(key) > 0) {
+							add(i, found);
+						}
+					}
+					return;
+				}
+
+				for (int candidate : findContainsCandidates(key)) {
+					if (keys[candidate].indexOf(key) > 0) {
+						add(candidate, found);
+						if (found.size() == maxResults) {
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Devuelve las posiciones de los textos que pueden contener el texto buscado: los que contienen su trigrama
+		 * menos frecuente. El texto tiene que tener al menos la longitud de un trigrama.
+		 */
+		private int[] findContainsCandidates(String key) {
+			int[] candidates = null;
+			for (int start = 0; start + GRAM_LENGTH <= key.length(); start++) {
+				final int[] gramPostings = grams.get(key.substring(start, start + GRAM_LENGTH));
+				if (gramPostings == null) {
+					return new int[0];
+				}
+				if (candidates == null || gramPostings.length < candidates.length) {
+					candidates = gramPostings;
+				}
+			}
+			return candidates;
+		}
+
+		private void add(int position, List<Suggestion> found) {
+			found.add(suggestions[position]);
+		}
+	}
+
+	/**
+	 * Lista de posiciones de un trigrama mientras se construye el índice. Un mismo texto sólo se apunta una vez aunque
+	 * contenga varias veces el trigrama.
+	 */
+	private static final class Postings {
+
+		private int[] positions = new int[4];
+
+		private int size;
+
+		void add(int position) {
+			if (size > 0 && positions[size - 1] == position) {
+				return;
+			}
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			positions[size++] = position;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(positions, size);
+		}
+	}
+}
@@ -0,0 +1,625 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ * 
+ * This file is part of Autentia WUIJA.
+ * 
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.jmx.support.ObjectNameManager;
+import org.springframework.util.Assert;
+
+import com.autentia.wuija.trace.processor.BatchTraceProcessor;
+import com.autentia.wuija.trace.processor.TraceProcessor;
+
+/**
+ * {@link Tracer} que no procesa las trazas en el hilo que las deja, sino que las mete en una cola acotada y sin
+ * bloqueos ({@link TraceRingBuffer}) de donde las saca un hilo propio en lotes: cuando hay <code>batchSize</code>
+ * trazas, o cuando la más antigua lleva <code>flushIntervalMillis</code> esperando. Los {@link BatchTraceProcessor},
+ * como el {@link com.autentia.wuija.trace.processor.PersistTraceProcessor}, reciben el lote entero; el resto, las
+ * trazas de una en una. Así, dejar una traza no alarga la transacción del usuario, y un error al procesar las trazas
+ * sólo se deja en el log y en las métricas, sin hacer fallar la operación del usuario.
+ * <p>
+ * Cuando la cola está llena se aplica la {@link OverflowPolicy} configurada. Con
+ * {@link OverflowPolicy#SPILL_TO_FILE} las trazas que no caben se guardan serializadas en un fichero local, que se
+ * vuelve a procesar cuando la cola se vacía, o al arrancar si quedó alguno de una ejecución anterior. Por eso las
+ * trazas del fichero se procesan después de otras que se dejaron más tarde pero sí cupieron en la cola: los
+ * procesadores no deben suponer que las trazas les llegan en orden (cada una tiene su fecha).
+ * <p>
+ * Al cerrar el contexto de Spring se procesan todas las trazas pendientes antes de parar el hilo (con un tiempo
+ * máximo, ver {@link #setShutdownTimeoutMillis(long)}); las trazas que llegan después se procesan en el hilo que las
+ * deja, igual que si no se ha arrancado el hilo. Las métricas de la cola se publican en JMX, con el nombre
+ * <code>com.autentia.wuija:type=Tracer,name=&lt;nombre del bean&gt;</code>.
+ * <p>
+ * Se declara en lugar del {@link Tracer}, por ejemplo:
+ * 
+ * <pre>
+ * &lt;bean id=&quot;tracer&quot; class=&quot;com.autentia.wuija.trace.AsyncTracer&quot;&gt;
+ *     &lt;constructor-arg value=&quot;myApp&quot; /&gt;
+ *     &lt;constructor-arg&gt;&lt;map&gt;...&lt;/map&gt;&lt;/constructor-arg&gt;
+ *     &lt;constructor-arg value=&quot;10000&quot; /&gt;
+ *     &lt;property name=&quot;overflowPolicy&quot; value=&quot;SPILL_TO_FILE&quot; /&gt;
+ *     &lt;property name=&quot;spillFile&quot; value=&quot;/var/tmp/myApp-traces.ser&quot; /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+@ManagedResource(description = "Asynchronous trace queue")
+public class AsyncTracer extends Tracer implements SelfNaming, BeanNameAware {
+
+	/**
+	 * Qué hacer con una traza cuando la cola está llena.
+	 */
+	public enum OverflowPolicy {
+		/** El hilo que deja la traza espera a que haya sitio en la cola. No se pierde ninguna traza. */
+		BLOCK,
+		/** Se descarta la traza más antigua de la cola para hacer sitio. */
+		DROP_OLDEST,
+		/**
+		 * La traza se guarda en el fichero de desbordamiento, ver {@link AsyncTracer#setSpillFile(File)}. Se procesa
+		 * cuando se vacía la cola, así que después de trazas posteriores a ella.
+		 */
+		SPILL_TO_FILE
+	}
+
+	private static final Log log = LogFactory.getLog(AsyncTracer.class);
+
+	/** Cuánto espera cada vez un hilo bloqueado porque la cola está llena. */
+	private static final long BLOCKED_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final TraceRingBuffer queue;
+
+	private int batchSize = 500;
+
+	private long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	private File spillFile;
+
+	private long shutdownTimeoutMillis = 30000;
+
+	/** Hilo que procesa las trazas, o <code>null</code> si no se ha arrancado. */
+	private volatile Thread consumer;
+
+	private volatile boolean stopping;
+
+	/**
+	 * Llamadas a {@link #trace(Trace)} que están dejando su traza en la cola, para que al parar no se pierda ninguna
+	 * que se encole después de vaciar la cola por última vez.
+	 */
+	private final AtomicInteger tracesInFlight = new AtomicInteger();
+
+	/** Nombre del bean, con el que se publican las métricas en JMX. */
+	private String beanName = "asyncTracer";
+
+	/** Protege el fichero de desbordamiento. */
+	private final Object spillLock = new Object();
+
+	/** Fichero de desbordamiento abierto, o <code>null</code> si no se está escribiendo. */
+	private ObjectOutputStream spillOutput;
+
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	private final AtomicLong processedTraces = new AtomicLong();
+
+	private final AtomicLong failedTraces = new AtomicLong();
+
+	private final AtomicLong droppedTraces = new AtomicLong();
+
+	private final AtomicLong spilledTraces = new AtomicLong();
+
+	private final AtomicLong blockedCalls = new AtomicLong();
+
+	/**
+	 * @param applicationName nombre de la aplicación que deja las trazas.
+	 * @param traceProcessors los {@link TraceProcessor} de cada clase o paquete de trazas (ver {@link Tracer}).
+	 * @param queueCapacity número de trazas que caben en la cola; se redondea a la siguiente potencia de 2.
+	 */
+	public AsyncTracer(String applicationName, Map<String, List<TraceProcessor>> traceProcessors, int queueCapacity) {
+		super(applicationName, traceProcessors);
+		this.queue = new TraceRingBuffer(queueCapacity);
+	}
+
+	/**
+	 * @param batchSize número máximo de trazas de cada lote. Por defecto 500.
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0, "The batch size must be positive");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param flushIntervalMillis tiempo máximo que espera una traza en la cola a que se complete su lote. Por defecto
+	 *            200 milisegundos.
+	 */
+	public void setFlushIntervalMillis(long flushIntervalMillis) {
+		Assert.isTrue(flushIntervalMillis > 0, "The flush interval must be positive");
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+	}
+
+	/**
+	 * @param overflowPolicy qué hacer con las trazas que no caben en la cola. Por defecto {@link OverflowPolicy#BLOCK}.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "The overflow policy cannot be null");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * @param spillFile fichero donde se guardan las trazas que no caben en la cola con
+	 *            {@link OverflowPolicy#SPILL_TO_FILE}.
+	 */
+	public void setSpillFile(File spillFile) {
+		this.spillFile = spillFile;
+	}
+
+	/**
+	 * @param shutdownTimeoutMillis tiempo máximo que se espera al cerrar a que se procesen las trazas pendientes. Por
+	 *            defecto 30 segundos.
+	 */
+	public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+		this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+	}
+
+	@Override
+	public void setBeanName(String beanName) {
+		this.beanName = beanName;
+	}
+
+	/**
+	 * Cada {@link AsyncTracer} se publica en JMX con el nombre de su bean, para que uno no sustituya a otro.
+	 */
+	@Override
+	public ObjectName getObjectName() throws MalformedObjectNameException {
+		return ObjectNameManager.getInstance("com.autentia.wuija:type=Tracer,name=" + ObjectName.quote(beanName));
+	}
+
+	/**
+	 * Arranca el hilo que procesa las trazas. Hasta entonces, las trazas se procesan en el hilo que las deja.
+	 */
+	@PostConstruct
+	public synchronized void start() {
+		Assert.state(overflowPolicy != OverflowPolicy.SPILL_TO_FILE || spillFile != null,
+				"The spill file is required by the SPILL_TO_FILE overflow policy");
+		if (consumer != null) {
+			return;
+		}
+
+		setAsideLeftoverSpillFile();
+		stopping = false;
+		final Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				consume();
+			}
+		}, "AsyncTracer");
+		thread.setDaemon(true);
+		consumer = thread;
+		thread.start();
+	}
+
+	/**
+	 * Procesa todas las trazas pendientes y para el hilo que procesa las trazas. Las trazas que lleguen después se
+	 * procesan en el hilo que las deja.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		final Thread thread = consumer;
+		if (thread == null) {
+			return;
+		}
+
+		stopping = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(shutdownTimeoutMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (thread.isAlive()) {
+			log.warn("AsyncTracer stopped before processing all the traces, " + queue.size() + " still queued");
+		} else {
+			// Las que se encolaron mientras se paraba el hilo, incluidas las de las llamadas que todavía no han visto
+			// que se está parando
+			while (tracesInFlight.get() > 0) {
+				LockSupport.parkNanos(BLOCKED_WAIT_NANOS);
+			}
+			consumer = null;
+			final List<Trace> remaining = drain(Integer.MAX_VALUE);
+			if (!remaining.isEmpty()) {
+				processBatch(remaining);
+			}
+			closeSpillOutput();
+		}
+	}
+
+	/**
+	 * Asigna el nombre de la aplicación a la traza y la deja en la cola. Si el hilo que procesa las trazas no está
+	 * arrancado, la procesa en el hilo actual como el {@link Tracer}.
+	 */
+	@Override
+	public void trace(Trace trace) {
+		tracesInFlight.incrementAndGet();
+		final boolean queued;
+		try {
+			queued = consumer != null && !stopping && enqueue(trace);
+		} finally {
+			tracesInFlight.decrementAndGet();
+		}
+		if (!queued) {
+			super.trace(trace);
+		}
+	}
+
+	/**
+	 * @return si la traza se ha dejado en la cola o en el fichero de desbordamiento; si no, hay que procesarla en el
+	 *         hilo actual.
+	 */
+	private boolean enqueue(Trace trace) {
+		assignApplication(trace);
+		if (!queue.offer(trace) && !handleOverflow(trace)) {
+			return false;
+		}
+
+		final int depth = queue.size();
+		int max = maxQueueDepth.get();
+		while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+			max = maxQueueDepth.get();
+		}
+		if (depth >= batchSize) {
+			LockSupport.unpark(consumer);
+		}
+		return true;
+	}
+
+	/**
+	 * @return si se ha podido dejar la traza en la cola o en el fichero de desbordamiento.
+	 */
+	private boolean handleOverflow(Trace trace) {
+		switch (overflowPolicy) {
+		case DROP_OLDEST:
+			do {
+				if (queue.poll() != null) {
+					droppedTraces.incrementAndGet();
+				}
+			} while (!queue.offer(trace));
+			return true;
+
+		case SPILL_TO_FILE:
+			spill(trace);
+			return true;
+
+		default:
+			blockedCalls.incrementAndGet();
+			while (!queue.offer(trace)) {
+				final Thread thread = consumer;
+				if (thread == null || stopping || !thread.isAlive()) {
+					return false;
+				}
+				LockSupport.unpark(thread);
+				LockSupport.parkNanos(BLOCKED_WAIT_NANOS);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Bucle del hilo que procesa las trazas: va llenando el lote con las trazas de la cola y lo procesa cuando está
+	 * completo o cuando vence el plazo de la primera traza. Con la cola vacía procesa las trazas del fichero de
+	 * desbordamiento. Los errores de los procesadores, incluso un {@link Error}, sólo cuentan como fallidas las trazas
+	 * de ese procesador (ver {@link #processBatch(List)}); cualquier otro error se deja en el log y se sigue con el
+	 * siguiente lote, porque si el hilo terminase las trazas se quedarían en la cola para siempre.
+	 */
+	private void consume() {
+		final List<Trace> batch = new ArrayList<Trace>();
+		long deadline = 0;
+		for (;;) {
+			final boolean stop = stopping;
+			try {
+				Trace trace;
+				while (batch.size() < batchSize && (trace = queue.poll()) != null) {
+					if (batch.isEmpty()) {
+						deadline = System.nanoTime() + flushIntervalNanos;
+					}
+					batch.add(trace);
+				}
+
+				if (batch.size() >= batchSize || !batch.isEmpty() && (stop || System.nanoTime() - deadline >= 0)) {
+					processBatch(batch);
+					batch.clear();
+
+				} else if (batch.isEmpty()) {
+					if (!replaySpilledTraces()) {
+						if (stop) {
+							return;
+						}
+						LockSupport.parkNanos(flushIntervalNanos);
+					}
+
+				} else {
+					LockSupport.parkNanos(deadline - System.nanoTime());
+				}
+
+			} catch (Throwable e) {
+				failedTraces.addAndGet(batch.size());
+				log.error("Unexpected error processing " + batch.size() + " traces, they are lost", e);
+				batch.clear();
+				if (stop) {
+					return;
+				}
+				LockSupport.parkNanos(flushIntervalNanos);
+			}
+		}
+	}
+
+	private List<Trace> drain(int maxTraces) {
+		final List<Trace> traces = new ArrayList<Trace>();
+		Trace trace;
+		while (traces.size() < maxTraces && (trace = queue.poll()) != null) {
+			traces.add(trace);
+		}
+		return traces;
+	}
+
+	/**
+	 * Pasa las trazas a sus {@link TraceProcessor}, agrupadas por procesador. Los errores, incluso un {@link Error}, se
+	 * dejan en el log y en las métricas, y no impiden que los demás procesadores reciban sus trazas.
+	 */
+	private void processBatch(List<Trace> batch) {
+		final Map<TraceProcessor, List<Trace>> tracesByProcessor = new LinkedHashMap<TraceProcessor, List<Trace>>();
+		for (Trace trace : batch) {
+			for (TraceProcessor processor : getProcessors(trace)) {
+				List<Trace> traces = tracesByProcessor.get(processor);
+				if (traces == null) {
+					traces = new ArrayList<Trace>();
+					tracesByProcessor.put(processor, traces);
+				}
+				traces.add(trace);
+			}
+		}
+
+		for (Map.Entry<TraceProcessor, List<Trace>> entry : tracesByProcessor.entrySet()) {
+			final TraceProcessor processor = entry.getKey();
+			final List<Trace> traces = entry.getValue();
+			if (processor instanceof BatchTraceProcessor) {
+				try {
+					((BatchTraceProcessor)processor).process(traces);
+				} catch (Throwable e) {
+					failedTraces.addAndGet(traces.size());
+					log.error("Cannot process " + traces.size() + " traces with " + processor, e);
+				}
+			} else {
+				for (Trace trace : traces) {
+					try {
+						processor.process(trace);
+					} catch (Throwable e) {
+						failedTraces.incrementAndGet();
+						log.error("Cannot process trace with " + processor + ": " + trace, e);
+					}
+				}
+			}
+		}
+		processedTraces.addAndGet(batch.size());
+
+		if (log.isDebugEnabled()) {
+			log.debug(batch.size() + " traces processed, " + queue.size() + " still queued");
+		}
+	}
+
+	private void spill(Trace trace) {
+		synchronized (spillLock) {
+			try {
+				if (spillOutput == null) {
+					spillOutput = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile,
+							false)));
+				}
+				spillOutput.writeObject(trace);
+				// Para que el stream no guarde una referencia a cada traza escrita
+				spillOutput.reset();
+				spillOutput.flush();
+				spilledTraces.incrementAndGet();
+
+			} catch (IOException e) {
+				droppedTraces.incrementAndGet();
+				log.error("Cannot write trace to the spill file " + spillFile + ", it is lost: " + trace, e);
+			}
+		}
+	}
+
+	private void closeSpillOutput() {
+		synchronized (spillLock) {
+			close(spillOutput);
+			spillOutput = null;
+		}
+	}
+
+	/**
+	 * Procesa, en lotes, las trazas del fichero de desbordamiento. Para no bloquear a los hilos que siguen guardando
+	 * trazas en él, antes se renombra; si el proceso se interrumpe, el fichero renombrado se vuelve a procesar en la
+	 * siguiente llamada.
+	 * 
+	 * @return si había trazas en el fichero.
+	 */
+	private boolean replaySpilledTraces() {
+		if (spillFile == null) {
+			return false;
+		}
+
+		final File replayFile = getReplayFile();
+		synchronized (spillLock) {
+			if (!replayFile.exists()) {
+				if (!spillFile.exists()) {
+					return false;
+				}
+				closeSpillOutput();
+				if (!spillFile.renameTo(replayFile)) {
+					log.error("Cannot rename the spill file " + spillFile + " to " + replayFile);
+					return false;
+				}
+			}
+		}
+
+		int replayed = 0;
+		ObjectInputStream input = null;
+		try {
+			input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(replayFile)));
+			final List<Trace> batch = new ArrayList<Trace>();
+			try {
+				for (;;) {
+					batch.add((Trace)input.readObject());
+					if (batch.size() == batchSize) {
+						processBatch(batch);
+						replayed += batch.size();
+						batch.clear();
+					}
+				}
+			} catch (EOFException e) {
+				// Fin del fichero
+			}
+			if (!batch.isEmpty()) {
+				processBatch(batch);
+				replayed += batch.size();
+			}
+
+		} catch (IOException e) {
+			log.error("Cannot read the spill file " + replayFile + ", the remaining traces are lost", e);
+		} catch (ClassNotFoundException e) {
+			log.error("Cannot read the spill file " + replayFile + ", the remaining traces are lost", e);
+		} finally {
+			close(input);
+		}
+
+		if (!replayFile.delete()) {
+			log.error("Cannot delete the spill file " + replayFile + ", its traces will be processed again");
+		}
+		if (log.isInfoEnabled()) {
+			log.info(replayed + " traces processed from the spill file " + replayFile);
+		}
+		return true;
+	}
+
+	/**
+	 * Aparta el fichero de desbordamiento que haya quedado de una ejecución anterior, para que las trazas que se
+	 * desborden a partir de ahora no lo sobrescriban; el hilo lo procesará cuando la cola se vacíe. Si además quedó un
+	 * fichero a medio procesar, antes se procesa ese en el hilo actual.
+	 */
+	private void setAsideLeftoverSpillFile() {
+		if (spillFile == null || !spillFile.exists()) {
+			return;
+		}
+
+		final File replayFile = getReplayFile();
+		if (replayFile.exists()) {
+			replaySpilledTraces();
+		}
+		synchronized (spillLock) {
+			closeSpillOutput();
+			if (!spillFile.renameTo(replayFile)) {
+				log.error("Cannot rename the spill file " + spillFile + " to " + replayFile
+						+ ", it will be overwritten if the queue overflows");
+			}
+		}
+	}
+
+	/**
+	 * @return el fichero donde se mueve el fichero de desbordamiento para procesarlo.
+	 */
+	private File getReplayFile() {
+		return new File(spillFile.getPath() + ".replay");
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.warn("Cannot close the spill file", e);
+		}
+	}
+
+	@ManagedAttribute(description = "Traces waiting in the queue")
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	@ManagedAttribute(description = "Max number of traces that have been waiting in the queue")
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	@ManagedAttribute(description = "Number of traces that fit in the queue")
+	public int getQueueCapacity() {
+		return queue.capacity();
+	}
+
+	@ManagedAttribute(description = "Traces taken from the queue and passed to their processors")
+	public long getProcessedTraces() {
+		return processedTraces.get();
+	}
+
+	@ManagedAttribute(description = "Traces that some processor failed to process")
+	public long getFailedTraces() {
+		return failedTraces.get();
+	}
+
+	@ManagedAttribute(description = "Traces discarded because the queue was full")
+	public long getDroppedTraces() {
+		return droppedTraces.get();
+	}
+
+	@ManagedAttribute(description = "Traces written to the spill file because the queue was full")
+	public long getSpilledTraces() {
+		return spilledTraces.get();
+	}
+
+	@ManagedAttribute(description = "Calls that had to wait because the queue was full")
+	public long getBlockedCalls() {
+		return blockedCalls.get();
+	}
+}
@@ -18,6 +18,7 @@
 
 package com.autentia.wuija.trace;
 
+import java.io.Serializable;
 import java.util.Date;
 
 import javax.persistence.Entity;
@@ -65,12 +66,16 @@ import com.autentia.wuija.security.SecurityUtils;
  * (string1, string2) que las clases hijas podrán usar para guardar su información adicional.
  * <p>
  * Recuerde que debe dar de alta esta y todas las clases de traza que utilice en su fichero de mapeo de Hibernate.
+ * <p>
+ * Las trazas son serializables para que el {@link AsyncTracer} las pueda guardar en un fichero cuando se llena su cola.
  * 
  * @author Autentia Real Business Solutions
  */
 @Entity
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
-public class Trace {
+public class Trace implements Serializable {
+
+	private static final long serialVersionUID = -6373108437914624781L;
 
 	/** Nombre de la aplicación donde se originó la traza. */
 	@NotEmpty
@@ -9,6 +9,7 @@
 package com.autentia.wuija.trace;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import javax.annotation.Resource;
@@ -16,8 +17,13 @@ import javax.annotation.Resource;
 import org.springframework.stereotype.Service;
 
 import com.autentia.common.util.DateFormater;
+import com.autentia.common.util.Pair;
 import com.autentia.wuija.persistence.Dao;
+import com.autentia.wuija.persistence.criteria.EntityCriteria;
+import com.autentia.wuija.persistence.criteria.Operator;
+import com.autentia.wuija.persistence.criteria.SimpleExpression;
 import com.autentia.wuija.trace.persistence.OperationalTrace;
+import com.autentia.wuija.trace.persistence.OperationalTraceTypeEnum;
 import com.autentia.wuija.trace.service.TraceQueryParams;
 
 @Service
@@ -45,10 +51,32 @@ public class TraceRepository {
 		}
 	}
 
+	/**
+	 * Devuelve todas las trazas. Con una tabla de trazas de producción carga millones de registros en memoria, así que
+	 * sólo se debe usar con pocas trazas, por ejemplo en los tests.
+	 * 
+	 * @deprecated usar {@link #getAllTraces(OperationalTrace, int)}, que pagina por fecha.
+	 */
+	@Deprecated
 	public List<OperationalTrace> getAllTraces() {
 		return dao.find(OperationalTrace.class);
 	}
 
+	/**
+	 * Devuelve una página de todas las trazas, de la más moderna a la más antigua, paginando por clave: la página que
+	 * va detrás de <code>lastTrace</code>. El coste es el mismo para cualquier página si existe el índice por fecha (ver
+	 * <code>sql/OperationalTraceIndexes.sql</code>).
+	 * 
+	 * @param lastTrace la última traza de la página anterior, o <code>null</code> para la primera página.
+	 * @param maxResults número máximo de trazas a devolver.
+	 * @return las trazas de la página y el número total de trazas.
+	 */
+	public Pair<List<OperationalTrace>, Long> getAllTraces(OperationalTrace lastTrace, int maxResults) {
+		final EntityCriteria entityCriteria = new EntityCriteria(OperationalTrace.class);
+		entityCriteria.addOrder("date", false);
+		return findAfter(entityCriteria, lastTrace, maxResults);
+	}
+
 	public List<OperationalTrace> getTracesByUserOrderByDate(String username) {
 		return dao.findByNamedQuery("operationalTraceByUserOrderByDate", username);
 	}
@@ -57,53 +85,39 @@ public class TraceRepository {
 		return dao.findByNamedQuery("operationalTraceByUserOrderByDate", 10, username);
 	}
 
-	private String generateOperationalTypeCondition(int numberOfTypes) {
-		final StringBuilder condition = new StringBuilder();
-
-		if (numberOfTypes != 0) {
-			condition.append(" AND (");
-			for (int index = 0; index < numberOfTypes; index++) {
-				condition.append("operationalTrace.type = ? OR ");
-			}
-			condition.delete(condition.lastIndexOf("OR"), condition.length());
-			condition.append(")");
-		}
-		return condition.toString();
-	}
-
-	private String generateDateCondition(boolean initDate, boolean endDate) {
-		final StringBuilder condition = new StringBuilder();
-
-		if (initDate) {
-			condition.append(" AND operationalTrace.date >= ?");
+	/**
+	 * Borra las trazas con una única sentencia, por su id, sin volver a pasar cada traza por la sesión.
+	 * 
+	 * @param operationalTracesToDelete las trazas a borrar.
+	 */
+	public void delete(List<OperationalTrace> operationalTracesToDelete) {
+		if (operationalTracesToDelete.isEmpty()) {
+			return;
 		}
 
-		if (endDate) {
-			condition.append(" AND operationalTrace.date <= ?");
+		final List<Object> ids = new ArrayList<Object>(operationalTracesToDelete.size());
+		for (OperationalTrace operationalTrace : operationalTracesToDelete) {
+			ids.add(operationalTrace.getId());
 		}
 
-		return condition.toString();
+		final EntityCriteria entityCriteria = new EntityCriteria(OperationalTrace.class);
+		entityCriteria.add(new SimpleExpression("id", Operator.IN, ids));
+		dao.delete(entityCriteria);
 	}
 
-	private List<Object> generateParams(TraceQueryParams traceQueryParams) {
-		final List<Object> params = new ArrayList<Object>();
-		params.add(traceQueryParams.getUsername());
-
-		if (traceQueryParams.getInitDate() != null) {
-			params.add(DateFormater.normalizeInitDate(traceQueryParams.getInitDate()));
-		}
-		if (traceQueryParams.getEndDate() != null) {
-			params.add(DateFormater.normalizeEndDate(traceQueryParams.getEndDate()));
-		}
-
-		if (traceQueryParams.getTraceTypes() != null) {
-			params.addAll(traceQueryParams.getTraceTypes());
-		}
-		return params;
-	}
-
-	public void delete(List<OperationalTrace> operationalTracesToDelete) {
-		dao.delete(operationalTracesToDelete);
+	/**
+	 * Borra con una única sentencia todas las trazas entre las dos fechas (ambos días incluidos), por ejemplo para
+	 * purgar las trazas de un mes.
+	 * 
+	 * @param initDate día de la traza más antigua que se borra.
+	 * @param endDate día de la traza más moderna que se borra.
+	 * @return el número de trazas borradas.
+	 */
+	public int deleteTracesBetweenDates(Date initDate, Date endDate) {
+		final EntityCriteria entityCriteria = new EntityCriteria(OperationalTrace.class);
+		entityCriteria.add(new SimpleExpression("date", Operator.BETWEEN, DateFormater.normalizeInitDate(initDate),
+				DateFormater.normalizeEndDate(endDate)));
+		return dao.delete(entityCriteria);
 	}
 
 	public List<OperationalTrace> getTracesBetweenDatesAndWithTypesByUser(TraceQueryParams traceQueryParams) {
@@ -112,37 +126,74 @@ public class TraceRepository {
 
 	public List<OperationalTrace> getTracesBetweenDatesAndWithTypesByUser(TraceQueryParams traceQueryParams,
 			boolean sortAscending) {
+		return dao.find(createCriteria(traceQueryParams, sortAscending));
+	}
 
-		int numberOfTypes = 0;
-
-		if (traceQueryParams.getTraceTypes() != null) {
-			numberOfTypes = traceQueryParams.getTraceTypes().size();
-		}
-
-		final String query = generateQuery(traceQueryParams.getInitDate() != null,
-				traceQueryParams.getEndDate() != null, numberOfTypes, sortAscending);
-
-		final List<Object> params = generateParams(traceQueryParams);
-
-		return dao.find(query, params);
+	/**
+	 * Devuelve una página de las trazas del usuario entre las fechas y con los tipos indicados, paginando por
+	 * desplazamiento. Es lo que necesita una tabla que salta a una página concreta; para recorrer las páginas una detrás
+	 * de otra es mejor {@link #getTracesBetweenDatesAndWithTypesByUserAfter}, que no se hace más lenta al avanzar.
+	 * 
+	 * @param traceQueryParams los filtros de la consulta.
+	 * @param sortAscending <code>true</code> para ordenar de la traza más antigua a la más moderna.
+	 * @param firstResult la primera traza a devolver, empezando a contar desde 0.
+	 * @param maxResults número máximo de trazas a devolver.
+	 * @return las trazas de la página y el número total de trazas que cumplen los filtros.
+	 */
+	public Pair<List<OperationalTrace>, Long> getTracesBetweenDatesAndWithTypesByUser(
+			TraceQueryParams traceQueryParams, boolean sortAscending, int firstResult, int maxResults) {
+		return dao.findAndCount(createCriteria(traceQueryParams, sortAscending), firstResult, maxResults);
 	}
 
-	private String generateQuery(boolean initDate, boolean endDate, int numberOfTypes, boolean sortAscending) {
-		final StringBuilder query = new StringBuilder();
+	/**
+	 * Devuelve una página de las trazas del usuario entre las fechas y con los tipos indicados, paginando por clave: la
+	 * página que va detrás de <code>lastTrace</code> según la fecha (y el id para desempatar).
+	 * 
+	 * @param traceQueryParams los filtros de la consulta.
+	 * @param sortAscending <code>true</code> para ordenar de la traza más antigua a la más moderna.
+	 * @param lastTrace la última traza de la página anterior, o <code>null</code> para la primera página.
+	 * @param maxResults número máximo de trazas a devolver.
+	 * @return las trazas de la página y el número total de trazas que cumplen los filtros.
+	 */
+	public Pair<List<OperationalTrace>, Long> getTracesBetweenDatesAndWithTypesByUserAfter(
+			TraceQueryParams traceQueryParams, boolean sortAscending, OperationalTrace lastTrace, int maxResults) {
+		return findAfter(createCriteria(traceQueryParams, sortAscending), lastTrace, maxResults);
+	}
 
-		query.append("select operationalTrace from OperationalTrace operationalTrace").append(
-				" where operationalTrace.userName = ?");
+	private Pair<List<OperationalTrace>, Long> findAfter(EntityCriteria entityCriteria, OperationalTrace lastTrace,
+			int maxResults) {
+		entityCriteria.setUniqueSortProperty("id");
+		if (lastTrace == null) {
+			return dao.findAndCountAfter(entityCriteria, null, null, maxResults);
+		}
+		return dao.findAndCountAfter(entityCriteria, lastTrace.getDate(), lastTrace.getId(), maxResults);
+	}
 
-		query.append(generateDateCondition(initDate, endDate));
+	/**
+	 * Crea la criteria de las trazas de un usuario. Los filtros siempre se añaden en el mismo orden (usuario, fechas y
+	 * tipos), que es el del índice por (userName, date, type), y sólo hay tantas consultas distintas como combinaciones
+	 * de filtros, así que la base de datos puede reutilizar sus planes de ejecución.
+	 */
+	private EntityCriteria createCriteria(TraceQueryParams traceQueryParams, boolean sortAscending) {
+		final EntityCriteria entityCriteria = new EntityCriteria(OperationalTrace.class);
+		entityCriteria.add(new SimpleExpression("userName", Operator.EQUALS, traceQueryParams.getUsername()));
 
-		query.append(generateOperationalTypeCondition(numberOfTypes));
+		if (traceQueryParams.getInitDate() != null) {
+			entityCriteria.add(new SimpleExpression("date", Operator.GREATER_EQUAL, DateFormater
+					.normalizeInitDate(traceQueryParams.getInitDate())));
+		}
+		if (traceQueryParams.getEndDate() != null) {
+			entityCriteria.add(new SimpleExpression("date", Operator.LESS_EQUAL, DateFormater
+					.normalizeEndDate(traceQueryParams.getEndDate())));
+		}
 
-		if (sortAscending) {
-			query.append(" order by operationalTrace.date ASC");
-		} else {
-			query.append(" order by operationalTrace.date DESC");
+		// Con IN la consulta es la misma para cualquier número de tipos (ver Operator.IN)
+		final List<OperationalTraceTypeEnum> traceTypes = traceQueryParams.getTraceTypes();
+		if (traceTypes != null && !traceTypes.isEmpty()) {
+			entityCriteria.add(new SimpleExpression("type", Operator.IN, traceTypes));
 		}
 
-		return query.toString();
+		entityCriteria.addOrder("date", sortAscending);
+		return entityCriteria;
 	}
 }
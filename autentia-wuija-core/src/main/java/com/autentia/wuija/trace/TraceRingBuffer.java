@@ -0,0 +1,128 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ * 
+ * This file is part of Autentia WUIJA.
+ * 
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * Cola acotada de trazas sin bloqueos, sobre un array circular, para que los hilos que dejan trazas en el
+ * {@link AsyncTracer} no compitan por un <i>lock</i> con el hilo que las procesa. Admite varios productores y varios
+ * consumidores.
+ * <p>
+ * Cada posición del array tiene un número de secuencia que indica si está libre para la siguiente vuelta de los
+ * productores o tiene una traza lista para los consumidores; productores y consumidores sólo se coordinan con un
+ * <i>compare and set</i> sobre su contador.
+ */
+final class TraceRingBuffer {
+
+	private final int mask;
+
+	private final AtomicReferenceArray<Trace> slots;
+
+	private final AtomicLongArray sequences;
+
+	/** Siguiente posición donde se va a escribir. */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** Siguiente posición de donde se va a leer. */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * @param capacity número mínimo de trazas que caben en la cola; se redondea a la siguiente potencia de 2.
+	 */
+	TraceRingBuffer(int capacity) {
+		Assert.isTrue(capacity > 0 && capacity <= 1 << 30, "The capacity must be between 1 and 2^30");
+		final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		this.mask = size - 1;
+		this.slots = new AtomicReferenceArray<Trace>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Añade la traza al final de la cola.
+	 * 
+	 * @return <code>false</code> si la cola está llena.
+	 */
+	boolean offer(Trace trace) {
+		long position = tail.get();
+		for (;;) {
+			final int index = (int)(position & mask);
+			final long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots.set(index, trace);
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				// Otro productor ya ha ocupado esta posición
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Saca la primera traza de la cola.
+	 * 
+	 * @return la traza, o <code>null</code> si la cola está vacía.
+	 */
+	Trace poll() {
+		long position = head.get();
+		for (;;) {
+			final int index = (int)(position & mask);
+			final long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					final Trace trace = slots.get(index);
+					slots.set(index, null);
+					sequences.set(index, position + mask + 1);
+					return trace;
+				}
+				position = head.get();
+			} else if (difference < 0) {
+				return null;
+			} else {
+				// Otro consumidor ya ha leído esta posición
+				position = head.get();
+			}
+		}
+	}
+
+	/**
+	 * @return el número aproximado de trazas en la cola.
+	 */
+	int size() {
+		final long size = tail.get() - head.get();
+		return (int)Math.max(0, Math.min(size, capacity()));
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+}
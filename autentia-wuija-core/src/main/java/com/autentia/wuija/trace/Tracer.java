@@ -18,8 +18,9 @@
 
 package com.autentia.wuija.trace;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,7 +33,7 @@ import com.autentia.wuija.trace.processor.TraceProcessor;
 
 /**
  * Dada una traza la procesa inmediatamente. Si el proceso de la traza consume mucho tiempo, el cliente quedará
- * bloqueado todo ese tiempo. Sería recomendable usar un Tracer asincrono para evitar esto.
+ * bloqueado todo ese tiempo. Para evitarlo se puede usar el {@link AsyncTracer}.
  * 
  * @author Autentia Real Business Solutions
  */
@@ -42,10 +43,20 @@ public class Tracer {
 	private static final Log log = LogFactory.getLog(Tracer.class);
 
 	/**
-	 * Cache donde dado un nombre de clase o un paquete, se obtiene la lista de {@link TraceProcessor} que hay que usar
-	 * para procesar esa clase o paquete.
+	 * Dado un nombre de clase o un paquete, la lista de {@link TraceProcessor} que hay que usar para procesar esa clase
+	 * o paquete. No se modifica nunca: cuando cambian los procesadores se sustituye entera.
 	 */
-	private final Map<String, List<TraceProcessor>> processorsCache = new Hashtable<String, List<TraceProcessor>>();
+	private volatile Map<String, List<TraceProcessor>> processorsByName = Collections.emptyMap();
+
+	/**
+	 * Tabla de rutas: la lista de {@link TraceProcessor} ya resuelta para cada clase de traza (ver
+	 * {@link #getProcessors(Trace)}). Igual que {@link #processorsByName}, no se modifica nunca sino que se sustituye
+	 * por una copia con la nueva clase, así que se puede leer sin ningún <i>lock</i>.
+	 */
+	private volatile Map<Class<?>, List<TraceProcessor>> routes = Collections.emptyMap();
+
+	/** Protege la sustitución de {@link #processorsByName} y {@link #routes}. */
+	private final Object routesLock = new Object();
 
 	/** Nombre de la aplicación a la que pertenencen todas las trazas que pasen por este {@link Tracer}. */
 	private final String application;
@@ -65,59 +76,133 @@ public class Tracer {
 		Assert.hasText(applicationName, "application cannot be empty");
 		Assert.notEmpty(traceProcessors);
 		this.application = applicationName;
-		processorsCache.putAll(traceProcessors);
+		this.processorsByName = copy(traceProcessors);
+	}
+
+	/**
+	 * Asigna los {@link TraceProcessor} de una clase o un paquete de trazas, sustituyendo a los que tuviera. Las trazas
+	 * que ya se están procesando siguen usando los procesadores anteriores.
+	 * 
+	 * @param classOrPackage nombre de la clase o del paquete.
+	 * @param processors los procesadores, o <code>null</code> para quitar los que tuviera.
+	 */
+	public void setProcessors(String classOrPackage, List<TraceProcessor> processors) {
+		Assert.hasText(classOrPackage, "The class or package cannot be empty");
+		synchronized (routesLock) {
+			final Map<String, List<TraceProcessor>> newProcessorsByName = new HashMap<String, List<TraceProcessor>>(
+					processorsByName);
+			if (processors == null) {
+				newProcessorsByName.remove(classOrPackage);
+			} else {
+				newProcessorsByName.put(classOrPackage, processors);
+			}
+			processorsByName = copy(newProcessorsByName);
+			routes = Collections.emptyMap();
+		}
+	}
+
+	private static Map<String, List<TraceProcessor>> copy(Map<String, List<TraceProcessor>> traceProcessors) {
+		final Map<String, List<TraceProcessor>> copy = new HashMap<String, List<TraceProcessor>>();
+		for (Map.Entry<String, List<TraceProcessor>> entry : traceProcessors.entrySet()) {
+			copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<TraceProcessor>(entry.getValue())));
+		}
+		return Collections.unmodifiableMap(copy);
 	}
 
 	/**
 	 * Asigna el nombre de la apliación y procesa la traza por todos los {@link TraceProcessor} que tenga asignados.
 	 */
 	public void trace(Trace trace) {
-		Assert.state(!application.equals(UNKNOWN_APP));
-		
-		trace.setApplication(application);
+		assignApplication(trace);
 		for (TraceProcessor processor : getProcessors(trace)) {
 			processor.process(trace);
 		}
 	}
 
+	/**
+	 * Asigna a la traza el nombre de la aplicación de este {@link Tracer}.
+	 * 
+	 * @throws IllegalStateException si el {@link Tracer} se ha creado con el constructor por defecto.
+	 */
+	protected void assignApplication(Trace trace) {
+		Assert.state(!application.equals(UNKNOWN_APP));
+		
+		trace.setApplication(application);
+	}
+
 	/**
 	 * Para una traza dada, devuelve la lista de {@link TraceProcessor} que hay que aplicarle.
 	 * <p>
-	 * La búsqueda se hacer por el nombre de la clase totalmente cualificado, si no se encuentra se busca el paquete,
-	 * sino el paquete padre, sino el padre del padre, ... Por ejemplo, se buscará:
-	 * com.autentia.common.trace.login.LoginSuccess, sino com.autentia.common.trace.login, sino
-	 * com.autentia.common.trace, sino com.autentia.common, sino ...
+	 * Se busca primero por el nombre de la clase totalmente cualificado, luego por el de su clase padre, el de la padre
+	 * de la padre, ... y por los interfaces que implementan. Si no se encuentra se busca por el paquete de la clase,
+	 * sino el paquete padre, sino el padre del padre, ... y lo mismo con los paquetes de las clases padre. Por ejemplo,
+	 * para una <code>com.autentia.common.trace.login.LoginSuccess</code> se buscará: la propia clase, sino
+	 * com.autentia.common.trace.login.LoginTrace, sino com.autentia.common.trace.Trace, sino
+	 * com.autentia.common.trace.login, sino com.autentia.common.trace, sino com.autentia.common, sino ...
 	 * <p>
-	 * Esto permite definir que, para todas las trazas de un mismo paquete, se use el mismo conjunto de
-	 * {@link TraceProcessor}.
+	 * Esto permite definir que, para todas las trazas de un mismo paquete o de una misma jerarquía, se use el mismo
+	 * conjunto de {@link TraceProcessor}, y a la vez dar otros procesadores a una clase concreta.
 	 * <p>
-	 * Si una traza no tiene {@link TraceProcessor} definido, se dejará un mensaje de error y la traza en el log.
+	 * La búsqueda sólo se hace la primera vez que llega una traza de cada clase; después el resultado se lee de la tabla
+	 * de rutas sin ningún <i>lock</i>. Si una traza no tiene {@link TraceProcessor} definido, se dejará un mensaje de
+	 * error y la traza en el log.
 	 * 
 	 * @param traza de la que se quiere conseguir la lista de {@link TraceProcessor}.
 	 * @return la lista de {@link TraceProcessor} que hay que aplicarle.
 	 */
 	List<TraceProcessor> getProcessors(Trace trace) {
-		final String className = trace.getClass().getName();
-		String path = className;
-		int lastDot = -2;
-
-		List<TraceProcessor> processors = processorsCache.get(className);
-		while (processors == null) {
-			lastDot = path.lastIndexOf('.');
-			if (lastDot == -1) {
-				log.error("Not processor defined for trace (" + className + "): " + trace);
-				return Collections.emptyList();
+		final List<TraceProcessor> processors = routes.get(trace.getClass());
+		return processors != null ? processors : addRoute(trace);
+	}
+
+	private List<TraceProcessor> addRoute(Trace trace) {
+		final Class<?> traceClass = trace.getClass();
+		synchronized (routesLock) {
+			List<TraceProcessor> processors = routes.get(traceClass);
+			if (processors == null) {
+				processors = findProcessors(traceClass);
+				if (processors.isEmpty()) {
+					log.error("Not processor defined for trace (" + traceClass.getName() + "): " + trace);
+				}
+
+				final Map<Class<?>, List<TraceProcessor>> newRoutes = new HashMap<Class<?>, List<TraceProcessor>>(
+						routes);
+				newRoutes.put(traceClass, processors);
+				routes = Collections.unmodifiableMap(newRoutes);
+			}
+			return processors;
+		}
+	}
+
+	private List<TraceProcessor> findProcessors(Class<?> traceClass) {
+		final Map<String, List<TraceProcessor>> configuredProcessors = processorsByName;
+
+		for (Class<?> clazz = traceClass; clazz != Object.class; clazz = clazz.getSuperclass()) {
+			List<TraceProcessor> processors = configuredProcessors.get(clazz.getName());
+			if (processors != null) {
+				return processors;
+			}
+			for (Class<?> implementedInterface : clazz.getInterfaces()) {
+				processors = configuredProcessors.get(implementedInterface.getName());
+				if (processors != null) {
+					return processors;
+				}
 			}
-			path = path.substring(0, lastDot);
-			processors = processorsCache.get(path);
 		}
 
-		if (lastDot != -2) {
-			// No estaba dado de alta el nombre de la clase.
-			// Se da de alta para encontrarlo a la primera la próxima vez.
-			processorsCache.put(className, processors);
+		for (Class<?> clazz = traceClass; clazz != Object.class; clazz = clazz.getSuperclass()) {
+			String path = clazz.getName();
+			int lastDot = path.lastIndexOf('.');
+			while (lastDot > 0) {
+				path = path.substring(0, lastDot);
+				final List<TraceProcessor> processors = configuredProcessors.get(path);
+				if (processors != null) {
+					return processors;
+				}
+				lastDot = path.lastIndexOf('.');
+			}
 		}
 
-		return processors;
+		return Collections.emptyList();
 	}
 }
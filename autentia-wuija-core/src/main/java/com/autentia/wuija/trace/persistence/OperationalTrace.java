@@ -22,6 +22,8 @@ import javax.persistence.TemporalType;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Table;
 import org.hibernate.validator.NotEmpty;
 import org.hibernate.validator.NotNull;
 
@@ -31,6 +33,11 @@ import com.autentia.common.util.DateFormater;
 @NamedQueries({ @NamedQuery(name = "operationalTraceByUserOrderByDate", query = "select operationalTrace from OperationalTrace operationalTrace where operationalTrace.userName = ? order by operationalTrace.date DESC")
 
 })
+// Índices para las consultas de TraceRepository; en una base de datos que ya existe hay que crearlos a mano con
+// sql/OperationalTraceIndexes.sql
+@Table(appliesTo = "OperationalTrace", indexes = {
+		@Index(name = "idx_optrace_user_date_type", columnNames = { "userName", "date", "type" }),
+		@Index(name = "idx_optrace_date", columnNames = { "date" }) })
 public class OperationalTrace {
 
 	private static final int STRING2_MAX_LENGTH = 255;
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ * 
+ * This file is part of Autentia WUIJA.
+ * 
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.trace.processor;
+
+import java.util.List;
+
+import com.autentia.wuija.trace.AsyncTracer;
+import com.autentia.wuija.trace.Trace;
+
+/**
+ * Procesador de trazas que, además de una a una, sabe procesar varias trazas a la vez de forma más eficiente (por
+ * ejemplo, guardándolas todas en la misma transacción). El {@link AsyncTracer} lo usa para procesar las trazas que
+ * acumula en su cola.
+ */
+public interface BatchTraceProcessor extends TraceProcessor {
+
+	/**
+	 * Procesa todas las trazas, en el orden de la lista.
+	 * 
+	 * @param traces las trazas.
+	 */
+	void process(List<Trace> traces);
+}
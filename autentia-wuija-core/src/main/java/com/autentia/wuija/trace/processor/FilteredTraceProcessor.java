@@ -0,0 +1,121 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ * 
+ * This file is part of Autentia WUIJA.
+ * 
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.trace.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+import com.autentia.wuija.trace.Trace;
+import com.autentia.wuija.trace.Tracer;
+
+/**
+ * Procesador que sólo pasa a otro procesador las trazas que cumplen un {@link TraceFilter} y, de ellas, una muestra de
+ * un porcentaje dado. Sirve para no guardar todas las trazas de los tipos más numerosos: por ejemplo, se puede asignar
+ * en el {@link Tracer} un {@link FilteredTraceProcessor} con un 10% de muestreo a las
+ * <code>com.autentia.wuija.trace.persistence.QueryTrace</code>, y a la vez el procesador original al resto del
+ * paquete, de forma que las trazas de login se guarden siempre.
+ * <p>
+ * El muestreo no es aleatorio sino por cuenta: con un 10% se procesa exactamente una de cada diez trazas que cumplen el
+ * filtro, sin <i>locks</i>.
+ */
+public class FilteredTraceProcessor implements BatchTraceProcessor {
+
+	private static final long RATE_SCALE = 1000000;
+
+	private final TraceProcessor processor;
+
+	private TraceFilter filter;
+
+	/** De cada cuántas trazas se procesa una, multiplicado por {@link #RATE_SCALE}. */
+	private long sampleEvery = RATE_SCALE;
+
+	/** Trazas que han cumplido el filtro. */
+	private final AtomicLong accepted = new AtomicLong();
+
+	/**
+	 * @param processor el procesador al que se pasan las trazas.
+	 */
+	public FilteredTraceProcessor(TraceProcessor processor) {
+		Assert.notNull(processor, "The processor cannot be null");
+		this.processor = processor;
+	}
+
+	/**
+	 * @param filter condición que tienen que cumplir las trazas. Si no se fija, se aceptan todas.
+	 */
+	public void setFilter(TraceFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @param samplingRate porcentaje de las trazas que cumplen el filtro que se procesan, entre 0 (ninguna) y 100
+	 *            (todas, el valor por defecto).
+	 */
+	public void setSamplingRate(double samplingRate) {
+		Assert.isTrue(samplingRate >= 0 && samplingRate <= 100, "The sampling rate must be between 0 and 100");
+		this.sampleEvery = samplingRate == 0 ? Long.MAX_VALUE : Math.round(RATE_SCALE * 100 / samplingRate);
+	}
+
+	public void process(Trace trace) {
+		if (accept(trace)) {
+			processor.process(trace);
+		}
+	}
+
+	public void process(List<Trace> traces) {
+		final List<Trace> acceptedTraces = new ArrayList<Trace>(traces.size());
+		for (Trace trace : traces) {
+			if (accept(trace)) {
+				acceptedTraces.add(trace);
+			}
+		}
+		if (acceptedTraces.isEmpty()) {
+			return;
+		}
+
+		if (processor instanceof BatchTraceProcessor) {
+			((BatchTraceProcessor)processor).process(acceptedTraces);
+		} else {
+			for (Trace trace : acceptedTraces) {
+				processor.process(trace);
+			}
+		}
+	}
+
+	private boolean accept(Trace trace) {
+		if (filter != null && !filter.accept(trace)) {
+			return false;
+		}
+		if (sampleEvery == RATE_SCALE) {
+			return true;
+		}
+		// Se procesa la traza cuando su número de orden, escalado, pasa a otro múltiplo de sampleEvery
+		final long number = accepted.incrementAndGet();
+		return sampleEvery != Long.MAX_VALUE && (number * RATE_SCALE) / sampleEvery > ((number - 1) * RATE_SCALE)
+				/ sampleEvery;
+	}
+
+	@Override
+	public String toString() {
+		return "Filtered(" + processor + ")";
+	}
+}
@@ -18,6 +18,8 @@
 
 package com.autentia.wuija.trace.processor;
 
+import java.util.List;
+
 import javax.annotation.Resource;
 
 import org.apache.commons.logging.Log;
@@ -33,13 +35,27 @@ import com.autentia.wuija.trace.Trace;
  * @author Autentia Real Business Solutions
  */
 @Service
-public class PersistTraceProcessor implements TraceProcessor {
+public class PersistTraceProcessor implements BatchTraceProcessor {
 
 	private static final Log log = LogFactory.getLog(PersistTraceProcessor.class);
 
+	/** Número de trazas de cada lote de JDBC si no se indica otro, ver {@link #setBatchSize(int)}. */
+	public static final int DEFAULT_BATCH_SIZE = 50;
+
 	@Resource
 	private Dao dao;
 
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * @param batchSize cada cuántas trazas se vuelca la sesión a la base de datos al guardar un lote (ver
+	 *            {@link Dao#persistBatch(java.util.Collection, int)}). Conviene que sea igual que
+	 *            <code>hibernate.jdbc.batch_size</code>; por defecto {@value #DEFAULT_BATCH_SIZE}.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
 	/**
 	 * Procesa la traza guardandola en la capa de persistencia.
 	 * <p>
@@ -53,4 +69,20 @@ public class PersistTraceProcessor implements TraceProcessor {
 			throw e;
 		}
 	}
+
+	/**
+	 * Guarda todas las trazas en una única transacción, agrupando las sentencias <code>insert</code> en lotes de JDBC
+	 * de <code>batchSize</code> trazas (ver {@link Dao#persistBatch(java.util.Collection, int)}), sea cual sea el
+	 * tamaño del lote de trazas que llega.
+	 * <p>
+	 * Si no se pudieran persistir las trazas se dejará un error en el log.
+	 */
+	public void process(List<Trace> traces) {
+		try {
+			dao.persistBatch(traces, batchSize);
+		} catch (RuntimeException e) {
+			log.error("Cannot persist " + traces.size() + " traces, first one: " + traces.get(0), e);
+			throw e;
+		}
+	}
 }
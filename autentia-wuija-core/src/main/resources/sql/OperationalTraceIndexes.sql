@@ -0,0 +1,18 @@
+-- Índices recomendados para la tabla de trazas operacionales (OperationalTrace), que en producción puede tener decenas
+-- de millones de registros. Hibernate los crea con hbm2ddl (ver las anotaciones de OperationalTrace); en una base de
+-- datos que ya existe hay que crearlos con este script.
+--
+-- Consultas de TraceRepository por usuario, entre fechas, con tipos y ordenadas por fecha: la igualdad por usuario y el
+-- rango de fechas se resuelven con el índice y el IN de los tipos se filtra sin leer la tabla. Como el índice ya está
+-- ordenado por fecha para cada usuario, la base de datos no tiene que ordenar y la paginación por clave
+-- (getTracesBetweenDatesAndWithTypesByUserAfter) lee sólo las filas de la página.
+CREATE INDEX idx_optrace_user_date_type ON OperationalTrace (userName, date, type);
+
+-- Listado de todas las trazas paginado por fecha (getAllTraces) y purgado de trazas entre fechas
+-- (deleteTracesBetweenDates).
+CREATE INDEX idx_optrace_date ON OperationalTrace (date);
+
+-- La paginación por clave desempata por id. En las bases de datos en las que los índices secundarios no incluyen la
+-- clave primaria (todas salvo MySQL/InnoDB) y hay muchas trazas con la misma fecha, se puede añadir el id al final:
+-- CREATE INDEX idx_optrace_user_date_type ON OperationalTrace (userName, date, type, id);
+-- CREATE INDEX idx_optrace_date ON OperationalTrace (date, id);
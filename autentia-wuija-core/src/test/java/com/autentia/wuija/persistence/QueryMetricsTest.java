@@ -0,0 +1,57 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class QueryMetricsTest {
+
+	private static final String HQL = "find: from Book as book where book.title like ?";
+
+	private static final Object[] VALUES = new Object[] { "%a%" };
+
+	@Test
+	public void shouldGroupCallsByNormalizedQuery() {
+		final QueryMetrics queryMetrics = new QueryMetrics(1000, 10);
+		queryMetrics.record(HQL, 3, 1000000, VALUES);
+		queryMetrics.record("find:  from Book as book\n where book.title like ?", 5, 2000000, VALUES);
+
+		assertEquals(2, queryMetrics.getCallCount(HQL));
+		assertEquals(8, queryMetrics.getRowCount(HQL));
+		assertEquals(1, queryMetrics.getQueryCount());
+	}
+
+	@Test
+	public void shouldApproximatePercentilesFromAbove() {
+		final QueryMetrics queryMetrics = new QueryMetrics(1000, 10);
+		for (int i = 0; i < 99; i++) {
+			queryMetrics.record(HQL, 1, 3000000, VALUES); // 3 ms
+		}
+		queryMetrics.record(HQL, 1, 700000000, VALUES); // 700 ms
+
+		final double p50 = queryMetrics.getPercentileMillis(HQL, 50);
+		assertTrue("p50 = " + p50, p50 >= 3 && p50 <= 6);
+		assertEquals(700, queryMetrics.getPercentileMillis(HQL, 100), 0.001);
+	}
+
+	@Test
+	public void shouldGroupQueriesOverTheLimit() {
+		final QueryMetrics queryMetrics = new QueryMetrics(1000, 1);
+		queryMetrics.record(HQL, 1, 1000, VALUES);
+		queryMetrics.record("find: from Category", 1, 1000, VALUES);
+		queryMetrics.record("find: from Trace", 1, 1000, VALUES);
+
+		assertEquals(2, queryMetrics.getQueryCount());
+		assertEquals(2, queryMetrics.getCallCount(QueryMetrics.OTHER_QUERIES));
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.criteria;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.autentia.common.util.Pair;
+
+public class EntityCriteriaTest {
+
+	static class Trace {
+
+		public Integer getId() {
+			return null;
+		}
+
+		public String getUserName() {
+			return null;
+		}
+	}
+
+	@Test
+	public void shouldPageAfterSortValueAndId() {
+		final EntityCriteria entityCriteria = new EntityCriteria(Trace.class);
+		final String alias = entityCriteria.getAlias();
+		entityCriteria.add(new SimpleExpression("userName", Operator.EQUALS, "alex"));
+		entityCriteria.addOrder("userName", false);
+		entityCriteria.setUniqueSortProperty("id");
+
+		final String hql = entityCriteria.toHqlAfter("maria", Integer.valueOf(7), true);
+
+		assertEquals("from Trace as " + alias + " where (" + alias + ".userName=?) and (" + alias + ".userName<? or ("
+				+ alias + ".userName=? and " + alias + ".id<?) or " + alias + ".userName is null) order by " + alias
+				+ ".userName desc, " + alias + ".id desc", hql);
+		assertEquals(Arrays.asList("alex", "maria", "maria", Integer.valueOf(7)), Arrays.asList(entityCriteria
+				.getHqlValues()));
+	}
+
+	@Test
+	public void shouldPageAfterNullSortValueWhenNullsSortHigh() {
+		final EntityCriteria entityCriteria = new EntityCriteria(Trace.class);
+		final String alias = entityCriteria.getAlias();
+		entityCriteria.addOrder("userName", false);
+		entityCriteria.setUniqueSortProperty("id");
+
+		final String hql = entityCriteria.toHqlAfter(null, Integer.valueOf(7), false);
+
+		assertEquals("from Trace as " + alias + " where ((" + alias + ".userName is null and " + alias + ".id<?) or "
+				+ alias + ".userName is not null) order by " + alias + ".userName desc, " + alias + ".id desc", hql);
+		assertEquals(Arrays.asList(Integer.valueOf(7)), Arrays.asList(entityCriteria.getHqlValues()));
+	}
+
+	@Test
+	public void shouldPageAfterIdWhenThereIsNoSortProperty() {
+		final EntityCriteria entityCriteria = new EntityCriteria(Trace.class);
+		final String alias = entityCriteria.getAlias();
+		entityCriteria.setUniqueSortProperty("id");
+
+		final String hql = entityCriteria.toHqlAfter(null, Integer.valueOf(7), true);
+
+		assertEquals("from Trace as " + alias + " where " + alias + ".id>? order by " + alias + ".id", hql);
+		assertEquals(Arrays.asList(Integer.valueOf(7)), Arrays.asList(entityCriteria.getHqlValues()));
+	}
+
+	@Test
+	public void shouldReusePlanForSameShapeAndBindNewValues() {
+		final EntityCriteria entityCriteria = new EntityCriteria(Trace.class);
+		final SimpleExpression userName = new SimpleExpression("userName", Operator.CONTAINS, "alex");
+		entityCriteria.add(userName);
+		entityCriteria.add(new SimpleExpression("id", Operator.BETWEEN, Integer.valueOf(1), Integer.valueOf(9)));
+		entityCriteria.addOrder("userName", true);
+
+		final EntityCriteriaPlan plan = entityCriteria.compile();
+		userName.setValues("maria");
+
+		assertSame(plan, entityCriteria.compile());
+		assertEquals(Arrays.asList("%maria%", Integer.valueOf(1), Integer.valueOf(9)), Arrays.asList(entityCriteria
+				.bindValues()));
+		assertEquals(entityCriteria.toHql(), plan.getHql());
+		assertEquals(Arrays.asList(entityCriteria.getHqlValues()), Arrays.asList(entityCriteria.bindValues()));
+	}
+
+	@Test
+	public void shouldCompileAndBindACopyWithoutChangingTheOriginal() {
+		final EntityCriteria entityCriteria = new EntityCriteria(Trace.class);
+		entityCriteria.add(new SimpleExpression("userName", Operator.EQUALS, "alex"));
+		entityCriteria.addOrder("userName", true);
+
+		final EntityCriteria copy = entityCriteria.copy();
+		copy.addOrder("id", false);
+		final Pair<EntityCriteriaPlan, Object[]> planAndValues = copy.compileAndBind();
+
+		assertSame(copy.compile(), planAndValues.getLeft());
+		assertEquals(Arrays.asList("alex"), Arrays.asList(planAndValues.getRight()));
+		assertTrue(copy.toHql().endsWith(" order by " + copy.getAlias() + ".id desc"));
+		assertTrue(entityCriteria.toHql().endsWith(" order by " + entityCriteria.getAlias() + ".userName"));
+	}
+
+	@Test
+	public void shouldPadInListsToReuseThePlan() {
+		final EntityCriteria entityCriteria = new EntityCriteria(Trace.class);
+		final String alias = entityCriteria.getAlias();
+		final SimpleExpression ids = new SimpleExpression("id", Operator.IN, Arrays.asList(Integer.valueOf(1), Integer
+				.valueOf(2), Integer.valueOf(3)));
+		entityCriteria.add(ids);
+
+		final EntityCriteriaPlan plan = entityCriteria.compile();
+		assertEquals("from Trace as " + alias + " where (" + alias + ".id in (?, ?, ?, ?))", plan.getHql());
+		assertEquals(Arrays.asList(Integer.valueOf(1), Integer.valueOf(2), Integer.valueOf(3), Integer.valueOf(3)),
+				Arrays.asList(entityCriteria.bindValues()));
+
+		ids.setValues(Arrays.asList(Integer.valueOf(5), Integer.valueOf(6), Integer.valueOf(7), Integer.valueOf(8)));
+		assertSame(plan, entityCriteria.compile());
+	}
+
+	@Test
+	public void shouldCompileBulkStatementsWithTheirOwnValues() {
+		final EntityCriteria entityCriteria = new EntityCriteria(Trace.class);
+		final String alias = entityCriteria.getAlias();
+		entityCriteria.add(new SimpleExpression("userName", Operator.EQUALS, "alex"));
+		entityCriteria.toHql();
+
+		final Pair<String, Object[]> update = entityCriteria.compileUpdate(Collections.<String, Object> singletonMap(
+				"userName", "maria"));
+		final Pair<String, Object[]> delete = entityCriteria.compileDelete();
+
+		assertEquals("update Trace as " + alias + " set " + alias + ".userName=? where (" + alias + ".userName=?)",
+				update.getLeft());
+		assertEquals(Arrays.asList("maria", "alex"), Arrays.asList(update.getRight()));
+		assertEquals("delete from Trace as " + alias + " where (" + alias + ".userName=?)", delete.getLeft());
+		assertEquals(Arrays.asList("alex"), Arrays.asList(delete.getRight()));
+		assertEquals(Arrays.asList("alex"), Arrays.asList(entityCriteria.getHqlValues()));
+	}
+
+	@Test
+	public void shouldSplitInListsLargerThanTheMaxSize() {
+		final EntityCriteria entityCriteria = new EntityCriteria(Trace.class);
+		final String alias = entityCriteria.getAlias();
+		entityCriteria.add(new SimpleExpression("userName", Operator.NOT_IN, Arrays.asList("a", "b", "c")));
+		entityCriteria.setMaxInListSize(2);
+
+		assertEquals("from Trace as " + alias + " where (not ((" + alias + ".userName in (?, ?) or " + alias
+				+ ".userName in (?, ?))))", entityCriteria.toHql());
+		assertEquals(Arrays.asList("a", "b", "c", "c"), Arrays.asList(entityCriteria.getHqlValues()));
+		assertEquals(Arrays.asList("a", "b", "c", "c"), Arrays.asList(entityCriteria.bindValues()));
+
+		entityCriteria.setMaxInListSize(Operator.DEFAULT_MAX_IN_LIST_SIZE);
+		assertEquals("from Trace as " + alias + " where (not (" + alias + ".userName in (?, ?, ?, ?)))",
+				entityCriteria.compile().getHql());
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ *
+ * This file is part of Autentia WUIJA.
+ *
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.persistence.PostLoad;
+import javax.persistence.PreUpdate;
+
+import org.hibernate.event.PostLoadEvent;
+import org.hibernate.event.PreUpdateEvent;
+import org.junit.Test;
+
+public class AnnotationEventListenerTest {
+
+	private static class Parent {
+
+		int loads;
+
+		@SuppressWarnings("unused")
+		@PostLoad
+		private void afterLoad() {
+			loads++;
+		}
+	}
+
+	private static class Child extends Parent {
+
+		@SuppressWarnings("unused")
+		@PreUpdate
+		private boolean beforeUpdate() {
+			return true;
+		}
+	}
+
+	private static class WithoutCallbacks {
+		// Sin métodos anotados
+	}
+
+	private final AnnotationEventListener listener = new AnnotationEventListener();
+
+	@Test
+	public void shouldInvokeInheritedPrivateCallbacksEveryTime() {
+		final Child child = new Child();
+
+		listener.onPostLoad(postLoadEvent(child));
+		listener.onPostLoad(postLoadEvent(child));
+
+		assertEquals(2, child.loads);
+		assertTrue(listener.onPreUpdate(new PreUpdateEvent(child, null, null, null, null, null)));
+		assertFalse(listener.onPreUpdate(new PreUpdateEvent(new Parent(), null, null, null, null, null)));
+	}
+
+	@Test
+	public void shouldIgnoreClassesWithoutCallbacks() {
+		final WithoutCallbacks entity = new WithoutCallbacks();
+
+		listener.onPostLoad(postLoadEvent(entity));
+		assertFalse(listener.onPreUpdate(new PreUpdateEvent(entity, null, null, null, null, null)));
+	}
+
+	private static PostLoadEvent postLoadEvent(Object entity) {
+		final PostLoadEvent event = new PostLoadEvent(null);
+		event.setEntity(entity);
+		return event;
+	}
+}
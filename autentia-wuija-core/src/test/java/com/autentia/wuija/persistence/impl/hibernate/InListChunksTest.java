@@ -0,0 +1,91 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class InListChunksTest {
+
+	public static class Row {
+
+		private final String name;
+
+		public Row(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private static final List<Integer> IDS = Arrays.asList(1, 2, 3, 2, 4, 5);
+
+	@Test
+	public void shouldSplitDistinctValuesInChunksOfTheSameSize() {
+		final InListChunks chunks = InListChunks.forRows("from Book as b where b.id in (:param1)", new Object[] {
+				"x", IDS }, 2);
+
+		assertEquals(3, chunks.size());
+		assertEquals(Arrays.asList(1, 2), chunks.getValues(0)[1]);
+		assertEquals(Arrays.asList(3, 4), chunks.getValues(1)[1]);
+		assertEquals(Arrays.asList(5, 5), chunks.getValues(2)[1]);
+		assertEquals("x", chunks.getValues(2)[0]);
+	}
+
+	@Test
+	public void shouldNotSplitWhenTheResultWouldChange() {
+		final Object[] values = new Object[] { IDS };
+		assertNull(InListChunks.forRows("from Book as b where b.id in (:param0)", values, 10));
+		assertNull(InListChunks.forRows("from Book as b where b.id not in (:param0)", values, 2));
+		assertNull(InListChunks.forRows("select distinct b from Book as b where b.id in (:param0)", values, 2));
+		assertNull(InListChunks.forRows("from Book as b where b.id in (:param0) order by b.title", values, 10));
+		assertNull(InListChunks.forCount("select count(distinct b.id) from Book as b where b.id in (:param0)",
+				values, 2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectSortedQueriesThatNeedChunks() {
+		InListChunks.forRows("from Book as b where b.id in (:param0) order by b.title", new Object[] { IDS }, 2);
+	}
+
+	@Test
+	public void shouldMergeChunksKeepingPagination() {
+		final InListChunks chunks = InListChunks.forRows("from Row r where r.id in (:param0)", new Object[] { IDS },
+				2);
+
+		final List<List<Row>> chunkResults = new ArrayList<List<Row>>();
+		chunkResults.add(Arrays.asList(new Row("e"), new Row("b")));
+		chunkResults.add(Arrays.asList(new Row("d"), new Row("a")));
+		chunkResults.add(Arrays.asList(new Row("c")));
+
+		final List<Row> page = chunks.merge(chunkResults, 1, 3);
+		assertEquals(3, page.size());
+		assertEquals("b", page.get(0).getName());
+		assertEquals("d", page.get(1).getName());
+		assertEquals("a", page.get(2).getName());
+	}
+
+	@Test
+	public void shouldSumCountsOfAllChunks() {
+		final List<List<Object>> chunkCounts = new ArrayList<List<Object>>();
+		chunkCounts.add(Arrays.<Object> asList(Long.valueOf(2)));
+		chunkCounts.add(Arrays.<Object> asList(Long.valueOf(3)));
+
+		assertEquals(Long.valueOf(5), InListChunks.sumCounts(chunkCounts));
+	}
+}
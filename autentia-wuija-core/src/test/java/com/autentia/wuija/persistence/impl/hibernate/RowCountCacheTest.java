@@ -0,0 +1,79 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RowCountCacheTest {
+
+	private static final String COUNT_HQL = "select count(*) from Book as b where b.title like ?";
+
+	@Test
+	public void shouldReuseCountForSameQueryAndValues() {
+		final RowCountCache cache = new RowCountCache(60, 10);
+		cache.put(COUNT_HQL, new Object[] { "%a%" }, Collections.singleton("Book"), Long.valueOf(3));
+
+		assertEquals(Long.valueOf(3), cache.get("select  count(*)\n from Book as b where b.title like ?",
+				new Object[] { "%a%" }));
+		assertNull(cache.get(COUNT_HQL, new Object[] { "%b%" }));
+	}
+
+	@Test
+	public void shouldInvalidateCountsOfChangedTables() {
+		final RowCountCache cache = new RowCountCache(60, 10);
+		cache.put(COUNT_HQL, new Object[] { "%a%" }, Collections.singleton("Book"), Long.valueOf(3));
+
+		cache.invalidate(Collections.singleton("Category"));
+		assertEquals(Long.valueOf(3), cache.get(COUNT_HQL, new Object[] { "%a%" }));
+
+		cache.invalidate(Collections.singleton("Book"));
+		assertNull(cache.get(COUNT_HQL, new Object[] { "%a%" }));
+	}
+
+	@Test
+	public void shouldNotCacheCountMadeBeforeAnInvalidation() {
+		final RowCountCache cache = new RowCountCache(60, 10);
+		final long generation = cache.getGeneration();
+
+		cache.invalidate(Collections.singleton("Book"));
+		cache.put(COUNT_HQL, new Object[] { "%a%" }, Collections.singleton("Book"), Long.valueOf(3), generation);
+
+		assertNull(cache.get(COUNT_HQL, new Object[] { "%a%" }));
+	}
+
+	@Test
+	public void shouldCacheCountMadeBeforeAnInvalidationOfOtherTables() {
+		final RowCountCache cache = new RowCountCache(60, 10);
+		final long generation = cache.getGeneration();
+
+		cache.invalidate(Collections.singleton("Category"));
+		cache.put(COUNT_HQL, new Object[] { "%a%" }, Collections.singleton("Book"), Long.valueOf(3), generation);
+		assertEquals(Long.valueOf(3), cache.get(COUNT_HQL, new Object[] { "%a%" }));
+
+		cache.clear();
+		cache.put(COUNT_HQL, new Object[] { "%a%" }, Collections.singleton("Book"), Long.valueOf(3), generation);
+		assertNull(cache.get(COUNT_HQL, new Object[] { "%a%" }));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedCount() {
+		final RowCountCache cache = new RowCountCache(60, 1);
+		cache.put(COUNT_HQL, new Object[] { "%a%" }, Collections.singleton("Book"), Long.valueOf(3));
+		cache.put(COUNT_HQL, new Object[] { "%b%" }, Collections.singleton("Book"), Long.valueOf(5));
+
+		assertNull(cache.get(COUNT_HQL, new Object[] { "%a%" }));
+		assertEquals(Long.valueOf(5), cache.get(COUNT_HQL, new Object[] { "%b%" }));
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ScanPartitionsTest {
+
+	@Test
+	public void shouldSplitIdsInRangesOfTheSameWidth() {
+		assertEquals(Arrays.<Object> asList(1, 3, 5, 8), ScanPartitions.splitRange(1, 8, 3));
+		assertEquals(Arrays.<Object> asList(0.0, 0.25, 0.5, 0.75, 1.0), ScanPartitions.splitRange(0.0, 1.0, 4));
+	}
+
+	@Test
+	public void shouldReturnLessPartitionsThanValues() {
+		assertEquals(Arrays.<Object> asList(1L, 2L), ScanPartitions.splitRange(1L, 2L, 4));
+		assertEquals(Arrays.<Object> asList(5L, 5L), ScanPartitions.splitRange(5L, 5L, 4));
+	}
+
+	@Test
+	public void shouldSplitDatesKeepingTheirType() {
+		assertEquals(Arrays.<Object> asList(new Timestamp(0), new Timestamp(3000), new Timestamp(6000), new Timestamp(
+				9000)), ScanPartitions.splitRange(new Timestamp(0), new Timestamp(9000), 3));
+	}
+}
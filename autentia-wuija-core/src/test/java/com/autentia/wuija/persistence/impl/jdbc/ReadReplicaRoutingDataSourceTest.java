@@ -0,0 +1,169 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.hibernate3.HibernateCallback;
+import org.springframework.orm.hibernate3.HibernateTemplate;
+import org.springframework.orm.hibernate3.HibernateTransactionManager;
+import org.springframework.orm.hibernate3.LocalSessionFactoryBean;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class ReadReplicaRoutingDataSourceTest {
+
+	private static final String PRIMARY_URL = "jdbc:hsqldb:mem:wuija-primary";
+
+	private static final String REPLICA_URL = "jdbc:hsqldb:mem:wuija-replica";
+
+	private final DataSource primary = createDataSource(PRIMARY_URL);
+
+	@After
+	public void clearReadOnlyTransaction() {
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+	}
+
+	@Test
+	public void shouldUseReplicaOnlyForReadOnlyTransactionsAndReports() throws SQLException {
+		final ReadReplicaRoutingDataSource routingDataSource = new ReadReplicaRoutingDataSource(primary,
+				createDataSource(REPLICA_URL));
+
+		assertEquals(PRIMARY_URL, getUrl(routingDataSource));
+
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+		assertEquals(REPLICA_URL, getUrl(routingDataSource));
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+
+		final Connection connection = ReadReplicaRoutingDataSource
+				.getConnectionForReading(new LazyConnectionDataSourceProxy(routingDataSource));
+		try {
+			assertEquals(REPLICA_URL, connection.getMetaData().getURL());
+		} finally {
+			connection.close();
+		}
+	}
+
+	@Test
+	public void shouldFallBackToPrimaryWhenReplicaIsUnavailable() throws SQLException {
+		final ReadReplicaRoutingDataSource routingDataSource = new ReadReplicaRoutingDataSource(primary,
+				createDataSource("jdbc:hsqldb:hsql://localhost:1/wuija-replica"));
+
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+		assertEquals(PRIMARY_URL, getUrl(routingDataSource));
+		assertFalse(routingDataSource.isReplicaAvailable());
+	}
+
+	@Test
+	public void shouldFallBackToPrimaryWhenReplicaIsTooFarBehind() throws SQLException {
+		final ReadReplicaRoutingDataSource routingDataSource = new ReadReplicaRoutingDataSource(primary,
+				createDataSource(REPLICA_URL));
+		routingDataSource.setLagQuery("call 100");
+		routingDataSource.setMaxLagSeconds(10);
+
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+		assertEquals(PRIMARY_URL, getUrl(routingDataSource));
+		assertFalse(routingDataSource.isReplicaAvailable());
+	}
+
+	@Test
+	public void shouldUseReplicaCredentialsGivenByTheCaller() throws SQLException {
+		final ReadReplicaRoutingDataSource routingDataSource = new ReadReplicaRoutingDataSource(primary,
+				createDataSource(REPLICA_URL));
+
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+		final Connection connection = routingDataSource.getConnection("sa", "");
+		try {
+			assertEquals(REPLICA_URL, connection.getMetaData().getURL());
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * <b>Dado</b> un {@link ReadReplicaRoutingDataSource} detrás de un {@link LazyConnectionDataSourceProxy}, como se
+	 * configura con Hibernate, <b>cuando</b> abro transacciones con el {@link HibernateTransactionManager},
+	 * <b>entonces</b> las de sólo lectura deberían usar la réplica y las demás la principal.
+	 */
+	@Test
+	public void shouldRouteHibernateTransactionsThroughLazyConnectionProxy() throws Exception {
+		final LocalSessionFactoryBean sessionFactoryBean = new LocalSessionFactoryBean();
+		sessionFactoryBean.setDataSource(new LazyConnectionDataSourceProxy(new ReadReplicaRoutingDataSource(primary,
+				createDataSource(REPLICA_URL))));
+		final Properties hibernateProperties = new Properties();
+		hibernateProperties.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+		hibernateProperties.setProperty("hibernate.cache.provider_class", "org.hibernate.cache.NoCacheProvider");
+		sessionFactoryBean.setHibernateProperties(hibernateProperties);
+		sessionFactoryBean.afterPropertiesSet();
+		try {
+			final SessionFactory sessionFactory = (SessionFactory)sessionFactoryBean.getObject();
+			final HibernateTransactionManager transactionManager = new HibernateTransactionManager(sessionFactory);
+
+			assertEquals(REPLICA_URL, getUrlInTransaction(sessionFactory, transactionManager, true));
+			assertEquals(PRIMARY_URL, getUrlInTransaction(sessionFactory, transactionManager, false));
+		} finally {
+			sessionFactoryBean.destroy();
+		}
+	}
+
+	private static String getUrlInTransaction(final SessionFactory sessionFactory,
+			HibernateTransactionManager transactionManager, boolean readOnly) {
+		final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setReadOnly(readOnly);
+		return (String)transactionTemplate.execute(new TransactionCallback() {
+
+			@Override
+			public Object doInTransaction(TransactionStatus status) {
+				return new HibernateTemplate(sessionFactory).execute(new HibernateCallback() {
+
+					@SuppressWarnings("deprecation")
+					@Override
+					public Object doInHibernate(Session session) throws HibernateException, SQLException {
+						return session.connection().getMetaData().getURL();
+					}
+				});
+			}
+		});
+	}
+
+	private static DataSource createDataSource(String url) {
+		final DriverManagerDataSource dataSource = new DriverManagerDataSource();
+		dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+		dataSource.setUrl(url);
+		dataSource.setUsername("sa");
+		dataSource.setPassword("");
+		return dataSource;
+	}
+
+	private static String getUrl(DataSource dataSource) throws SQLException {
+		final Connection connection = dataSource.getConnection();
+		try {
+			return connection.getMetaData().getURL();
+		} finally {
+			connection.close();
+		}
+	}
+}
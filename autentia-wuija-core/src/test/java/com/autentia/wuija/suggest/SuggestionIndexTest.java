@@ -0,0 +1,125 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ *
+ * This file is part of Autentia WUIJA.
+ *
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.suggest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.persistence.Id;
+
+import org.junit.Test;
+
+public class SuggestionIndexTest {
+
+	public static class Country {
+
+		@Id
+		private final Long id;
+
+		private final String name;
+
+		Country(long id, String name) {
+			this.id = Long.valueOf(id);
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private final List<Country> countries = new ArrayList<Country>(Arrays.asList(new Country(1, "Alemania"),
+			new Country(2, "España"), new Country(3, "Estonia"), new Country(4, "Eslovenia"), new Country(5,
+					"Guinea Ecuatorial"), new Country(6, "Ecuador")));
+
+	private int loads;
+
+	private final SuggestionIndex<Country> index = new SuggestionIndex<Country>(null, Country.class, "name") {
+
+		@Override
+		protected List<Country> loadEntities() {
+			loads++;
+			return countries;
+		}
+	};
+
+	@Test
+	public void shouldFindPrefixMatchesBeforeContainsMatches() {
+		assertEquals(Arrays.asList("Ecuador", "Guinea Ecuatorial"), names(index.find("ECUA", 10)));
+		assertEquals(Arrays.asList("Ecuador", "Eslovenia", "España", "Estonia"), names(index.find("e", 4)));
+		assertEquals(Arrays.asList("Alemania", "Ecuador", "Eslovenia"), names(index.find("a", 3)));
+		assertEquals(Arrays.asList("Alemania", "Eslovenia", "Estonia"), names(index.find("nia", 10)));
+		assertEquals(Collections.emptyList(), names(index.find("xyz", 10)));
+		assertEquals(1, loads);
+	}
+
+	@Test
+	public void shouldUpdateChangedEntitiesWithoutLoadingThemAgain() {
+		assertEquals(6, index.size());
+
+		index.entitiesSaved(Arrays.asList(new Country(7, "Estados Unidos"), new Country(3, "Eesti"), "other"));
+		index.entitiesDeleted(Collections.singleton(new Country(2, "España")));
+
+		assertEquals(Arrays.asList("Eslovenia", "Estados Unidos", "Eesti"), names(index.find("es", 10)));
+		assertEquals(1, loads);
+
+		index.entitiesChangedInBulk(Country.class);
+		assertEquals(6, index.size());
+		assertEquals(2, loads);
+	}
+
+	@Test
+	public void shouldReturnIdsAndLabelsInsteadOfTheEntities() {
+		final List<Suggestion> found = index.find("ecua", 10);
+
+		assertEquals(Long.valueOf(6), found.get(0).getId());
+		assertEquals("Ecuador", found.get(0).getLabel());
+		assertSame(found.get(0), index.find("ecuador", 1).get(0));
+	}
+
+	@Test
+	public void shouldFindNothingForNullText() {
+		assertEquals(Collections.emptyList(), index.find(null, 10));
+	}
+
+	@Test
+	public void shouldIgnoreTheDefaultLocaleWhenComparingCase() {
+		final Locale defaultLocale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr", "TR"));
+		try {
+			assertEquals(Arrays.asList("Guinea Ecuatorial"), names(index.find("GUINEA", 10)));
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	private List<String> names(List<Suggestion> found) {
+		final List<String> names = new ArrayList<String>();
+		for (Suggestion suggestion : found) {
+			names.add(suggestion.getLabel());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ *
+ * This file is part of Autentia WUIJA.
+ *
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.autentia.wuija.trace.processor.BatchTraceProcessor;
+import com.autentia.wuija.trace.processor.TraceProcessor;
+
+public class AsyncTracerTest {
+
+	private static class TestTrace extends Trace {
+
+		private static final long serialVersionUID = 1L;
+
+		TestTrace(int number) {
+			setString1(String.valueOf(number));
+		}
+
+		int getNumber() {
+			return Integer.parseInt(getString1());
+		}
+	}
+
+	private static class RecordingProcessor implements BatchTraceProcessor {
+
+		final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+		final List<Integer> numbers = Collections.synchronizedList(new ArrayList<Integer>());
+
+		public void process(Trace trace) {
+			process(Collections.singletonList(trace));
+		}
+
+		public void process(List<Trace> traces) {
+			batchSizes.add(Integer.valueOf(traces.size()));
+			for (Trace trace : traces) {
+				numbers.add(Integer.valueOf(((TestTrace)trace).getNumber()));
+			}
+		}
+	}
+
+	/**
+	 * Procesador que se queda esperando con el primer lote hasta que se llama a {@link #release()}, para llenar la cola.
+	 */
+	private class BlockingProcessor implements BatchTraceProcessor {
+
+		final CountDownLatch processing = new CountDownLatch(1);
+
+		final CountDownLatch released = new CountDownLatch(1);
+
+		public void process(Trace trace) {
+			process(Collections.singletonList(trace));
+		}
+
+		public void process(List<Trace> traces) {
+			processing.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			processor.process(traces);
+		}
+
+		void awaitProcessing() throws InterruptedException {
+			assertTrue(processing.await(10, TimeUnit.SECONDS));
+		}
+
+		void release() {
+			released.countDown();
+		}
+	}
+
+	private final RecordingProcessor processor = new RecordingProcessor();
+
+	private AsyncTracer createTracer(TraceProcessor traceProcessor, int queueCapacity) {
+		return new AsyncTracer("test", Collections.singletonMap(TestTrace.class.getName(), Arrays
+				.asList(traceProcessor)), queueCapacity);
+	}
+
+	@Test
+	public void shouldProcessTheTracesInBatchesAndDrainTheQueueOnShutdown() {
+		final AsyncTracer tracer = createTracer(processor, 1024);
+		tracer.setBatchSize(10);
+		tracer.setFlushIntervalMillis(60000);
+		tracer.start();
+
+		for (int i = 0; i < 25; i++) {
+			tracer.trace(new TestTrace(i));
+		}
+		tracer.shutdown();
+
+		assertEquals(25, processor.numbers.size());
+		assertEquals(25, tracer.getProcessedTraces());
+		assertEquals(0, tracer.getQueueDepth());
+		for (Integer batchSize : processor.batchSizes) {
+			assertTrue(batchSize.intValue() <= 10);
+		}
+	}
+
+	@Test
+	public void shouldCountAsFailedOnlyTheTracesOfTheProcessorThatFails() {
+		final TraceProcessor failingProcessor = new BatchTraceProcessor() {
+
+			public void process(Trace trace) {
+				throw new Error("Broken processor");
+			}
+
+			public void process(List<Trace> traces) {
+				throw new Error("Broken processor");
+			}
+		};
+		final AsyncTracer tracer = new AsyncTracer("test", Collections.singletonMap(TestTrace.class.getName(), Arrays
+				.<TraceProcessor> asList(failingProcessor, processor)), 1024);
+		tracer.start();
+
+		for (int i = 0; i < 3; i++) {
+			tracer.trace(new TestTrace(i));
+		}
+		tracer.shutdown();
+
+		assertEquals(Arrays.asList(0, 1, 2), processor.numbers);
+		assertEquals(3, tracer.getFailedTraces());
+		assertEquals(3, tracer.getProcessedTraces());
+	}
+
+	@Test
+	public void shouldDropTheOldestTracesWhenTheQueueIsFull() throws InterruptedException {
+		final CountDownLatch processing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AsyncTracer tracer = createTracer(new BatchTraceProcessor() {
+
+			public void process(Trace trace) {
+				throw new UnsupportedOperationException();
+			}
+
+			public void process(List<Trace> traces) {
+				processing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				processor.process(traces);
+			}
+		}, 4);
+		tracer.setBatchSize(1);
+		tracer.setOverflowPolicy(AsyncTracer.OverflowPolicy.DROP_OLDEST);
+		tracer.start();
+
+		tracer.trace(new TestTrace(0));
+		assertTrue(processing.await(10, TimeUnit.SECONDS));
+		for (int i = 1; i <= 6; i++) {
+			tracer.trace(new TestTrace(i));
+		}
+		release.countDown();
+		tracer.shutdown();
+
+		assertEquals(Arrays.asList(0, 3, 4, 5, 6), processor.numbers);
+		assertEquals(2, tracer.getDroppedTraces());
+		assertEquals(4, tracer.getMaxQueueDepth());
+	}
+
+	@Test
+	public void shouldBlockWhenTheQueueIsFullWithoutLosingTraces() throws InterruptedException {
+		final BlockingProcessor blockingProcessor = new BlockingProcessor();
+		final AsyncTracer tracer = createTracer(blockingProcessor, 4);
+		tracer.setBatchSize(1);
+		tracer.setOverflowPolicy(AsyncTracer.OverflowPolicy.BLOCK);
+		tracer.start();
+
+		tracer.trace(new TestTrace(0));
+		blockingProcessor.awaitProcessing();
+		for (int i = 1; i <= 4; i++) {
+			tracer.trace(new TestTrace(i));
+		}
+		final Thread producer = new Thread(new Runnable() {
+
+			public void run() {
+				tracer.trace(new TestTrace(5));
+			}
+		});
+		producer.start();
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (tracer.getBlockedCalls() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, tracer.getBlockedCalls());
+		assertTrue(producer.isAlive());
+
+		blockingProcessor.release();
+		producer.join(10000);
+		assertFalse(producer.isAlive());
+		tracer.shutdown();
+
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), processor.numbers);
+		assertEquals(0, tracer.getDroppedTraces());
+	}
+
+	@Test
+	public void shouldSpillTheOverflowToFileAndProcessItLater() throws InterruptedException, IOException {
+		final File spillFile = createSpillFile();
+		final BlockingProcessor blockingProcessor = new BlockingProcessor();
+		final AsyncTracer tracer = createTracer(blockingProcessor, 4);
+		tracer.setBatchSize(1);
+		tracer.setOverflowPolicy(AsyncTracer.OverflowPolicy.SPILL_TO_FILE);
+		tracer.setSpillFile(spillFile);
+		tracer.start();
+
+		tracer.trace(new TestTrace(0));
+		blockingProcessor.awaitProcessing();
+		for (int i = 1; i <= 6; i++) {
+			tracer.trace(new TestTrace(i));
+		}
+		assertEquals(2, tracer.getSpilledTraces());
+		assertTrue(spillFile.exists());
+
+		blockingProcessor.release();
+		tracer.shutdown();
+
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), processor.numbers);
+		assertEquals(0, tracer.getDroppedTraces());
+		assertFalse(spillFile.exists());
+	}
+
+	@Test
+	public void shouldNotOverwriteTheSpillFileOfThePreviousRun() throws InterruptedException, IOException {
+		final File spillFile = createSpillFile();
+		final ObjectOutputStream leftover = new ObjectOutputStream(new FileOutputStream(spillFile));
+		try {
+			leftover.writeObject(new TestTrace(100));
+			leftover.writeObject(new TestTrace(101));
+		} finally {
+			leftover.close();
+		}
+
+		final BlockingProcessor blockingProcessor = new BlockingProcessor();
+		final AsyncTracer tracer = createTracer(blockingProcessor, 4);
+		tracer.setBatchSize(1);
+		tracer.setOverflowPolicy(AsyncTracer.OverflowPolicy.SPILL_TO_FILE);
+		tracer.setSpillFile(spillFile);
+		tracer.start();
+
+		tracer.trace(new TestTrace(0));
+		blockingProcessor.awaitProcessing();
+		for (int i = 1; i <= 5; i++) {
+			tracer.trace(new TestTrace(i));
+		}
+		blockingProcessor.release();
+		tracer.shutdown();
+
+		assertEquals(8, processor.numbers.size());
+		assertTrue(processor.numbers.containsAll(Arrays.asList(0, 1, 2, 3, 4, 5, 100, 101)));
+		assertFalse(spillFile.exists());
+	}
+
+	private static File createSpillFile() throws IOException {
+		final File spillFile = File.createTempFile("AsyncTracerTest", ".ser");
+		assertTrue(spillFile.delete());
+		spillFile.deleteOnExit();
+		new File(spillFile.getPath() + ".replay").deleteOnExit();
+		return spillFile;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ *
+ * This file is part of Autentia WUIJA.
+ *
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.autentia.wuija.trace.processor.FilteredTraceProcessor;
+import com.autentia.wuija.trace.processor.TraceFilter;
+import com.autentia.wuija.trace.processor.TraceProcessor;
+
+public class TracerTest {
+
+	private static class ParentTrace extends Trace {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class ChildTrace extends ParentTrace {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class OtherTrace extends Trace {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class CountingProcessor implements TraceProcessor {
+
+		int processed;
+
+		public void process(Trace trace) {
+			processed++;
+		}
+	}
+
+	private final CountingProcessor parentProcessor = new CountingProcessor();
+
+	private final CountingProcessor packageProcessor = new CountingProcessor();
+
+	private Tracer createTracer() {
+		final Map<String, List<TraceProcessor>> traceProcessors = new HashMap<String, List<TraceProcessor>>();
+		traceProcessors.put(ParentTrace.class.getName(), Arrays.<TraceProcessor> asList(parentProcessor));
+		traceProcessors.put("com.autentia.wuija", Arrays.<TraceProcessor> asList(packageProcessor));
+		return new Tracer("test", traceProcessors);
+	}
+
+	@Test
+	public void shouldRouteByClassHierarchyBeforePackages() {
+		final Tracer tracer = createTracer();
+
+		assertEquals(Arrays.asList(parentProcessor), tracer.getProcessors(new ChildTrace()));
+		assertEquals(Arrays.asList(packageProcessor), tracer.getProcessors(new OtherTrace()));
+		assertTrue(tracer.getProcessors(new ChildTrace()) == tracer.getProcessors(new ParentTrace()));
+
+		final CountingProcessor childProcessor = new CountingProcessor();
+		tracer.setProcessors(ChildTrace.class.getName(), Arrays.<TraceProcessor> asList(childProcessor));
+		tracer.trace(new ChildTrace());
+		tracer.trace(new ParentTrace());
+
+		assertEquals(1, childProcessor.processed);
+		assertEquals(1, parentProcessor.processed);
+	}
+
+	@Test
+	public void shouldProcessOnlyTheSampleOfTheFilteredTraces() {
+		final CountingProcessor processor = new CountingProcessor();
+		final FilteredTraceProcessor filteredProcessor = new FilteredTraceProcessor(processor);
+		filteredProcessor.setSamplingRate(25);
+		filteredProcessor.setFilter(new TraceFilter() {
+
+			public boolean accept(Trace trace) {
+				return trace instanceof ChildTrace;
+			}
+		});
+		final Tracer tracer = new Tracer("test", Collections.singletonMap("com.autentia.wuija", Arrays
+				.<TraceProcessor> asList(filteredProcessor)));
+
+		for (int i = 0; i < 100; i++) {
+			tracer.trace(new ChildTrace());
+			tracer.trace(new OtherTrace());
+		}
+
+		assertEquals(25, processor.processed);
+	}
+}
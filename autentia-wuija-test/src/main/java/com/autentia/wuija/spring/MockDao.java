@@ -18,6 +18,9 @@ import javax.persistence.PersistenceException;
 
 import com.autentia.common.util.Pair;
 import com.autentia.wuija.persistence.Dao;
+import com.autentia.wuija.persistence.PartitionedScrollCallBack;
+import com.autentia.wuija.persistence.QueryCacheStatistics;
+import com.autentia.wuija.persistence.ScrollCallBack;
 import com.autentia.wuija.persistence.criteria.EntityCriteria;
 
 /**
@@ -41,6 +44,16 @@ public class MockDao implements Dao {
 		// Do nothing
 	}
 
+	@Override
+	public int delete(EntityCriteria entityCriteria) {
+		return 0;
+	}
+
+	@Override
+	public int update(EntityCriteria entityCriteria, Map<String, Object> assignments) {
+		return 0;
+	}
+
 	@Override
 	public <T> List<T> find(Class<T> entityClass) {
 		return Collections.emptyList();
@@ -98,6 +111,13 @@ public class MockDao implements Dao {
 		return new Pair<List<T>, Long>(emptyList, Long.valueOf(0));
 	}
 
+	@Override
+	public <T> Pair<List<T>, Long> findAndCountAfter(EntityCriteria entityCriteria, Object lastSortValue,
+			Object lastUniqueValue, int maxResults) {
+		final List<T> emptyList = Collections.emptyList();
+		return new Pair<List<T>, Long>(emptyList, Long.valueOf(0));
+	}
+
 	@Override
 	public <T> Pair<List<T>, Long> findAndCountByNamedQuery(String queryName, String countQueryName, int firstResult,
 			int maxResults, Object... params) {
@@ -151,6 +171,16 @@ public class MockDao implements Dao {
 		// Do nothing
 	}
 
+	@Override
+	public int persistBatch(Collection<?> entities, int batchSize) {
+		return entities.size();
+	}
+
+	@Override
+	public int deleteBatch(Collection<?> entities, int batchSize) {
+		return entities.size();
+	}
+
 	@Override
 	public <T> List<T> find(String queryString, int firstResult,
 			int maxResults, List values) {
@@ -312,4 +342,66 @@ public class MockDao implements Dao {
 		return null;
 	}
 
+	@Override
+	public <T> long scroll(EntityCriteria entityCriteria, int fetchSize, ScrollCallBack<T> callback) {
+		final List<T> rows = find(entityCriteria);
+		return scroll(rows, callback);
+	}
+
+	@Override
+	public <T> long scroll(String queryString, int fetchSize, ScrollCallBack<T> callback, Object... values) {
+		final List<T> rows = find(queryString, values);
+		return scroll(rows, callback);
+	}
+
+	@Override
+	public <T> long scrollByNamedQuery(String queryName, int fetchSize, ScrollCallBack<T> callback, Object... values) {
+		final List<T> rows = findByNamedQuery(queryName, values);
+		return scroll(rows, callback);
+	}
+
+	@Override
+	public <T> long scrollInPartitions(EntityCriteria entityCriteria, String partitionProperty, int partitions,
+			int fetchSize, PartitionedScrollCallBack<T> callback) {
+		final long processedRows = scroll(entityCriteria, fetchSize, callback);
+		callback.partitionProgress(0, 1, processedRows, true);
+		return processedRows;
+	}
+
+	private <T> long scroll(List<T> rows, ScrollCallBack<T> callback) {
+		for (T row : rows) {
+			callback.processRow(row);
+		}
+		return rows.size();
+	}
+
+	@Override
+	public <T> List<T> findCached(String cacheRegion, EntityCriteria entityCriteria) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public <T> List<T> findCached(String cacheRegion, String queryString, Object... values) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public <T> List<T> findByNamedQueryCached(String cacheRegion, String queryName, Object... values) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public QueryCacheStatistics getQueryCacheStatistics(String cacheRegion) {
+		return new QueryCacheStatistics(cacheRegion, 0, 0, 0);
+	}
+
+	@Override
+	public Dao readOnly() {
+		return this;
+	}
+
+	@Override
+	public Dao readOnly(boolean statelessScroll) {
+		return this;
+	}
 }
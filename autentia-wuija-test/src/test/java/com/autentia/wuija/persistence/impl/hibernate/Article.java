@@ -0,0 +1,86 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ * 
+ * This file is part of Autentia WUIJA.
+ * 
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.hibernate.search.annotations.Analyzer;
+import org.hibernate.search.annotations.DocumentId;
+import org.hibernate.search.annotations.Field;
+import org.hibernate.search.annotations.Indexed;
+import org.hibernate.validator.NotEmpty;
+
+/**
+ * Entidad indexada con Hibernate Search para los tests del {@link FullTextCriteriaResolver}, en su propia tabla e
+ * índice para no cambiar el mapeo de los libros. El título se indexa con el {@link LowerCaseKeywordAnalyzer}, así que
+ * sus criterios de texto se resuelven con el índice; el resumen no está indexado y siempre se busca en la base de
+ * datos.
+ */
+@Entity
+@Indexed
+public class Article {
+
+	@Id
+	@GeneratedValue
+	@DocumentId
+	private Integer id;
+
+	@Field(analyzer = @Analyzer(impl = LowerCaseKeywordAnalyzer.class))
+	@NotEmpty
+	private String title;
+
+	private String summary;
+
+	public Article() {
+		// Default constructor
+	}
+
+	public Article(String title, String summary) {
+		this.title = title;
+		this.summary = summary;
+	}
+
+	public Integer getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public void setTitle(String title) {
+		this.title = title;
+	}
+
+	public String getSummary() {
+		return summary;
+	}
+
+	public void setSummary(String summary) {
+		this.summary = summary;
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+}
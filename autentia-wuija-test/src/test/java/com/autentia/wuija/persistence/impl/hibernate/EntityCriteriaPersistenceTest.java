@@ -10,23 +10,45 @@
 package com.autentia.wuija.persistence.impl.hibernate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Resource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.orm.hibernate3.HibernateCallback;
+import org.springframework.orm.hibernate3.HibernateTemplate;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.autentia.common.util.ClassUtils;
 import com.autentia.common.util.Pair;
 import com.autentia.wuija.persistence.Dao;
+import com.autentia.wuija.persistence.PartitionedScrollCallBack;
+import com.autentia.wuija.persistence.ScrollCallBack;
 import com.autentia.wuija.persistence.criteria.EntityCriteria;
 import com.autentia.wuija.persistence.criteria.MatchMode;
 import com.autentia.wuija.persistence.criteria.Operator;
@@ -40,6 +62,15 @@ public class EntityCriteriaPersistenceTest {
 
 	@Resource
 	private Dao dao;
+
+	@Resource
+	private SessionFactory sessionFactory;
+
+	@Resource
+	private PlatformTransactionManager transactionManager;
+
+	@Resource
+	private FullTextCriteriaResolver fullTextCriteriaResolver;
 	
 	private static boolean addedData = false;
 	
@@ -78,6 +109,15 @@ public class EntityCriteriaPersistenceTest {
 		books.add(new Book("El curioso incidente del perro a medianoche", "", null, 0, categories.get(2)));
 		dao.persist(books);
 
+		final List<Article> articles = new ArrayList<Article>();
+		articles.add(new Article("El Señor de los Gramillos", "Edición de bolsillo"));
+		articles.add(new Article("Hiperion", "1 de 4"));
+		articles.add(new Article("La Caida de Hiperion", "2 de 4"));
+		articles.add(new Article("Endymion", "3 de 4"));
+		articles.add(new Article("El ascenso de Endymion", "4 de 4"));
+		articles.add(new Article("Los microsiervos", null));
+		dao.persist(articles);
+
 		addedData = true;
 
 		log.trace("Exiting");
@@ -282,4 +322,418 @@ public class EntityCriteriaPersistenceTest {
 		log.trace("Exiting");
 	}
 
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> recorro con
+	 * {@link Dao#scroll(EntityCriteria, int, ScrollCallBack)} una busqueda con {@link EntityCriteria}, <b>entonces</b>
+	 * se deberían procesar, en orden, los mismos libros que devolvería la búsqueda normal.
+	 */
+	@Test
+	public void shouldScrollByCriteria() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "hiperion"));
+		entityCriteria.addOrder("title", true);
+
+		final List<String> titles = new ArrayList<String>();
+		final long processedRows = dao.scroll(entityCriteria, 1, new ScrollCallBack<Book>() {
+
+			@Override
+			public void processRow(Book book) {
+				titles.add(book.getTitle());
+			}
+		});
+
+		assertEquals(2, processedRows);
+		assertEquals("Hiperion", titles.get(0));
+		assertEquals("La Caida de Hiperion", titles.get(1));
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> recorro todos los libros con
+	 * {@link Dao#scroll(EntityCriteria, int, ScrollCallBack)} dentro de una transacción, <b>entonces</b> la sesión no
+	 * debería acumular los libros ya procesados ni sus categorías: como mucho debería tener el libro que se está
+	 * procesando y su categoría.
+	 */
+	@Test
+	public void shouldKeepTheSessionBoundedWhileScrolling() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.addOrder("id", true);
+
+		final List<Integer> entitiesInSession = new ArrayList<Integer>();
+		new TransactionTemplate(transactionManager).execute(new TransactionCallback() {
+
+			@Override
+			public Object doInTransaction(TransactionStatus status) {
+				return Long.valueOf(dao.scroll(entityCriteria, 1, new ScrollCallBack<Book>() {
+
+					@Override
+					public void processRow(Book book) {
+						assertTrue(book.getCategory().getName().length() > 0);
+						entitiesInSession.add(Integer.valueOf(sessionFactory.getCurrentSession().getStatistics()
+								.getEntityCount()));
+					}
+				}));
+			}
+		});
+
+		assertTrue(entitiesInSession.size() >= 8);
+		for (Integer entities : entitiesInSession) {
+			assertTrue("Entities in session: " + entitiesInSession, entities.intValue() <= 2);
+		}
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> recorro todos los libros con
+	 * {@link Dao#scrollInPartitions(EntityCriteria, String, int, int, PartitionedScrollCallBack)}, <b>entonces</b> se
+	 * debería procesar cada libro una sola vez y cada partición debería informar de cuántos ha procesado.
+	 */
+	@Test
+	public void shouldScrollInPartitions() {
+		log.trace("Entering");
+
+		final Set<String> books = Collections.synchronizedSet(new HashSet<String>());
+		final AtomicLong reportedRows = new AtomicLong();
+		final long processedRows = dao.scrollInPartitions(new EntityCriteria(Book.class), null, 3, 2,
+				new PartitionedScrollCallBack<Book>() {
+
+					@Override
+					public void processRow(Book book) {
+						Assert.assertTrue(books.add(book.getTitle() + " - " + book.getSummary()));
+					}
+
+					@Override
+					public void partitionProgress(int partition, int partitions, long partitionRows, boolean finished) {
+						if (finished) {
+							reportedRows.addAndGet(partitionRows);
+						}
+					}
+				});
+
+		assertEquals(8, processedRows);
+		assertEquals(8, books.size());
+		assertEquals(8, reportedRows.get());
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una transacción de escritura, en la que las particiones se recorren en serie, <b>cuando</b> falla el
+	 * proceso de un libro, <b>entonces</b> no se debería recorrer ninguna partición más.
+	 */
+	@Test
+	public void shouldStopScrollingPartitionsInSequenceAfterTheFirstFailure() {
+		log.trace("Entering");
+
+		final AtomicLong processedRows = new AtomicLong();
+		try {
+			new TransactionTemplate(transactionManager).execute(new TransactionCallback() {
+
+				@Override
+				public Object doInTransaction(TransactionStatus status) {
+					return Long.valueOf(dao.scrollInPartitions(new EntityCriteria(Book.class), null, 3, 2,
+							new PartitionedScrollCallBack<Book>() {
+
+								@Override
+								public void processRow(Book book) {
+									processedRows.incrementAndGet();
+									throw new IllegalStateException("Failed to process " + book.getTitle());
+								}
+
+								@Override
+								public void partitionProgress(int partition, int partitions, long partitionRows,
+										boolean finished) {
+									// Nothing to do
+								}
+							}));
+				}
+			});
+			Assert.fail("The failure of the first partition should be thrown");
+
+		} catch (IllegalStateException e) {
+			assertEquals(1, processedRows.get());
+		}
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> hago una busqueda paginada agrupada con
+	 * {@link Dao#findAndCountSacalerQuery(EntityCriteria, int, int)}, <b>entonces</b> el total debería ser el número de
+	 * grupos, incluido el grupo de los libros sin resumen.
+	 */
+	@Test
+	public void shouldCountGroupsOfScalarQuery() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "os"));
+		entityCriteria.setFlyingObject("select " + entityCriteria.getAlias() + ".summary, count("
+				+ entityCriteria.getAlias() + ")");
+		entityCriteria.addGroupBy("summary");
+
+		final Pair<List<Object[]>, Long> pair = dao.findAndCountSacalerQuery(entityCriteria, 0, 2);
+
+		assertEquals(2, pair.getLeft().size());
+		assertEquals(4, pair.getRight().intValue());
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> hago una busqueda paginada con
+	 * {@link Dao#findAndCountSacalerQuery(EntityCriteria, int, int)} que sólo tiene funciones de agregación,
+	 * <b>entonces</b> el total debería ser 1, igual que el número de registros, y no el número de libros.
+	 */
+	@Test
+	public void shouldCountOneRowForAnAggregateScalarQuery() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "os"));
+		entityCriteria.setFlyingObject("select count(" + entityCriteria.getAlias() + "), max("
+				+ entityCriteria.getAlias() + ".title)");
+
+		final Pair<List<Object[]>, Long> pair = dao.findAndCountSacalerQuery(entityCriteria, 0, 2);
+
+		assertEquals(1, pair.getLeft().size());
+		assertEquals(1, pair.getRight().intValue());
+		assertTrue(((Number)pair.getLeft().get(0)[0]).intValue() > 1);
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> hago una busqueda paginada con proyección de
+	 * propiedades del libro y de su categoría, <b>entonces</b> cada registro debería ser un mapa anidado con sólo esas
+	 * propiedades, y el total debería ser el número de libros.
+	 */
+	@Test
+	public void shouldFindProjectedRows() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "hiperion"));
+		entityCriteria.setProjection("title", "category.name");
+		entityCriteria.addOrder("title", true);
+
+		final Pair<List<Map<String, Object>>, Long> pair = dao.findAndCount(entityCriteria, 0, 100);
+
+		assertEquals(2, pair.getRight().intValue());
+		final Map<String, Object> row = pair.getLeft().get(0);
+		assertEquals("Hiperion", row.get("title"));
+		assertEquals("Ciencia Ficción", ClassUtils.invokeGetterMethod(row, "category.name"));
+		assertEquals(2, row.size());
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con dos libros con el mismo título y la misma categoría, <b>cuando</b> hago una
+	 * busqueda con proyección de esas propiedades y un join, <b>entonces</b> el <code>distinct</code> no debería juntar
+	 * los dos libros, y la página debería tener tantos registros como dice el total.
+	 */
+	@Test
+	public void shouldNotMergeDistinctEntitiesWithEqualProjectedValues() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.join("category").add(new SimpleExpression("name", Operator.EQUALS, "Fantasía"));
+		entityCriteria.setProjection("title", "category.name");
+		entityCriteria.addOrder("title", true);
+
+		final Pair<List<Map<String, Object>>, Long> pair = dao.findAndCount(entityCriteria, 0, 100);
+
+		assertEquals(2, pair.getRight().intValue());
+		assertEquals(2, pair.getLeft().size());
+		assertEquals("El Señor de los Gramillos", pair.getLeft().get(1).get("title"));
+		assertEquals(2, pair.getLeft().get(1).size());
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> recorro con
+	 * {@link Dao#scroll(EntityCriteria, int, ScrollCallBack)} una busqueda con proyección, <b>entonces</b> cada registro
+	 * debería ser el mismo mapa anidado que devuelve la búsqueda normal.
+	 */
+	@Test
+	public void shouldScrollProjectedRows() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "hiperion"));
+		entityCriteria.setProjection("title", "category.name");
+		entityCriteria.addOrder("title", true);
+
+		final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		dao.scroll(entityCriteria, 1, new ScrollCallBack<Map<String, Object>>() {
+
+			@Override
+			public void processRow(Map<String, Object> row) {
+				rows.add(row);
+			}
+		});
+
+		assertEquals(dao.find(entityCriteria), rows);
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> hago una busqueda paginada indicando que se
+	 * va a leer la categoría de cada libro, <b>entonces</b> la categoría se debería traer con un join en la misma
+	 * consulta, sin cambiar los libros encontrados ni el total.
+	 */
+	@Test
+	public void shouldFetchAssociationsOfPropertyPaths() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "hiperion"));
+		entityCriteria.setFetchPaths("title", "category.name");
+
+		Assert.assertTrue(entityCriteria.toHql().contains(" left join fetch " + entityCriteria.getAlias()
+				+ ".category "));
+
+		final List<Book> books = find(entityCriteria, 2);
+		assertEquals("Ciencia Ficción", books.get(0).getCategory().getName());
+		assertEquals(2, dao.findAndCount(entityCriteria, 0, 1).getRight().intValue());
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con libros y categorias, <b>cuando</b> busco con la vista de sólo lectura del
+	 * {@link Dao}, <b>entonces</b> debería encontrar los mismos libros, pero no debería poder guardar nada con ella. La
+	 * vista debería tener los mismos proxies (transacciones, aspectos) que el Dao.
+	 */
+	@Test
+	public void shouldFindButNotWriteWithReadOnlyDao() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Book.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "hiperion"));
+
+		final Dao readOnlyDao = dao.readOnly();
+		assertTrue(AopUtils.isAopProxy(readOnlyDao));
+		assertSame(readOnlyDao, dao.readOnly());
+		assertSame(readOnlyDao, readOnlyDao.readOnly());
+		assertEquals(2, readOnlyDao.findAndCount(entityCriteria, 0, 100).getLeft().size());
+		assertEquals(dao.find(Book.class).size(), readOnlyDao.find(Book.class).size());
+
+		try {
+			readOnlyDao.persist(new Category("Poesía"));
+			Assert.fail();
+		} catch (InvalidDataAccessApiUsageException e) {
+			log.debug("Write rejected by read-only Dao: " + e.getMessage());
+		}
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una base de datos con artículos cuyo título está indexado con Hibernate Search, <b>cuando</b> busco
+	 * por el título con {@link Operator#CONTAINS} o {@link Operator#STARTS_WITH}, <b>entonces</b> esos criterios se
+	 * deberían resolver con el índice (y el resto en la base de datos), y encontrar los mismos artículos que con el
+	 * <code>like</code>.
+	 */
+	@Test
+	public void shouldResolveTextCriteriaWithTheFullTextIndex() {
+		log.trace("Entering");
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Article.class, MatchMode.ANY);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "HIPERION"));
+		entityCriteria.add(new SimpleExpression("title", Operator.STARTS_WITH, "los micro"));
+		entityCriteria.add(new SimpleExpression("summary", Operator.CONTAINS, "bolsillo"));
+
+		final Session session = sessionFactory.openSession();
+		try {
+			final String hql = new FullTextCriteriaResolver().resolve(session, entityCriteria).toHql();
+			log.debug("HQL resolved with the full-text index: " + hql);
+			assertFalse(hql.contains("lower(article.title)"));
+			assertTrue(hql.contains("lower(article.summary) like lower(?)"));
+		} finally {
+			session.close();
+		}
+
+		assertEquals(4, dao.find(entityCriteria).size());
+
+		log.trace("Exiting");
+	}
+
+	/**
+	 * <b>Dada</b> una transacción de escritura, <b>cuando</b> cambio el título de un artículo y lo busco por
+	 * {@link Operator#CONTAINS} antes del commit, <b>entonces</b> lo debería encontrar, aunque el índice de texto
+	 * todavía no tenga el cambio.
+	 */
+	@Test
+	public void shouldFindUncommittedChangesByTextInsideAWriteTransaction() {
+		new TransactionTemplate(transactionManager).execute(new TransactionCallback() {
+
+			@Override
+			public Object doInTransaction(TransactionStatus status) {
+				final EntityCriteria microsiervos = new EntityCriteria(Article.class);
+				microsiervos.add(new SimpleExpression("title", Operator.EQUALS, "Los microsiervos"));
+				dao.<Article> find(microsiervos).get(0).setTitle("Los microsiervos reeditados");
+
+				final EntityCriteria entityCriteria = new EntityCriteria(Article.class);
+				entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "reeditados"));
+				assertEquals(1, dao.find(entityCriteria).size());
+
+				status.setRollbackOnly();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * <b>Dado</b> un artículo cuyo título cambio con una sentencia en bloque, que el índice de texto no ve,
+	 * <b>cuando</b> lo busco por {@link Operator#CONTAINS}, <b>entonces</b> lo debería encontrar, y el índice se debería
+	 * volver a usar cuando se reindexan los artículos.
+	 */
+	@Test
+	public void shouldResolveTextCriteriaInTheDatabaseUntilReindexedAfterABulkUpdate() {
+		updateTitle("Endymion", "Endymion reeditado");
+		try {
+			assertTrue(fullTextCriteriaResolver.isIndexOutdated(Article.class));
+			final EntityCriteria entityCriteria = new EntityCriteria(Article.class);
+			entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "reeditado"));
+			assertEquals(1, dao.find(entityCriteria).size());
+		} finally {
+			updateTitle("Endymion reeditado", "Endymion");
+		}
+
+		new TransactionTemplate(transactionManager).execute(new TransactionCallback() {
+
+			@Override
+			public Object doInTransaction(TransactionStatus status) {
+				return new HibernateTemplate(sessionFactory).execute(new HibernateCallback() {
+
+					@Override
+					public Object doInHibernate(Session session) throws HibernateException {
+						fullTextCriteriaResolver.reindex(session, Article.class);
+						return null;
+					}
+				});
+			}
+		});
+		assertFalse(fullTextCriteriaResolver.isIndexOutdated(Article.class));
+
+		final EntityCriteria entityCriteria = new EntityCriteria(Article.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.CONTAINS, "endymion"));
+		assertEquals(2, dao.find(entityCriteria).size());
+	}
+
+	private void updateTitle(String title, String newTitle) {
+		final EntityCriteria entityCriteria = new EntityCriteria(Article.class);
+		entityCriteria.add(new SimpleExpression("title", Operator.EQUALS, title));
+		assertEquals(1, dao.update(entityCriteria, Collections.<String, Object> singletonMap("title", newTitle)));
+	}
 }
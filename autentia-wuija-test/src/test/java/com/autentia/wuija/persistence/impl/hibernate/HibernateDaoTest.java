@@ -0,0 +1,413 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L. This file is part of Autentia WUIJA. Autentia WUIJA is free
+ * software: you can redistribute it and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, version 3 of the License. Autentia WUIJA is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Resource;
+
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.autentia.common.util.Pair;
+import com.autentia.wuija.persistence.Dao;
+import com.autentia.wuija.persistence.EntityChangeListener;
+import com.autentia.wuija.persistence.criteria.EntityCriteria;
+
+/**
+ * Tests de los métodos del {@link HibernateDao} contra la base de datos. Cada test guarda sus propias notas (con
+ * commit, ya que algunos caminos del Dao usan otras sesiones) y las borra al terminar.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:applicationContext-test.xml" })
+public class HibernateDaoTest {
+
+	@Resource
+	private Dao dao;
+
+	@Resource
+	private SessionFactory sessionFactory;
+
+	@Resource
+	private PlatformTransactionManager transactionManager;
+
+	@After
+	public void deleteNotes() {
+		dao.delete(new EntityCriteria(Note.class));
+	}
+
+	/**
+	 * <b>Dada</b> una lista de notas, <b>cuando</b> las guardo con {@link Dao#persistBatch(Collection, int)},
+	 * <b>entonces</b> la sesión se debería volcar y limpiar cada <code>batchSize</code> notas y al final, y deberían
+	 * quedar guardadas todas.
+	 */
+	@Test
+	public void shouldFlushAndClearTheSessionAtEveryBatch() {
+		final List<Note> notes = createNotes(7);
+		final List<Integer> entitiesInSession = new ArrayList<Integer>();
+		final Collection<Note> recordingNotes = new AbstractCollection<Note>() {
+
+			@Override
+			public Iterator<Note> iterator() {
+				final Iterator<Note> iterator = notes.iterator();
+				return new Iterator<Note>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Note next() {
+						// Sólo la primera pasada, la que guarda las notas
+						if (entitiesInSession.size() < notes.size()) {
+							entitiesInSession.add(Integer.valueOf(getEntitiesInCurrentSession()));
+						}
+						return iterator.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return notes.size();
+			}
+		};
+
+		final Integer[] entitiesAfterBatch = new Integer[1];
+		final Integer rowsWritten = (Integer)new TransactionTemplate(transactionManager)
+				.execute(new TransactionCallback() {
+
+					@Override
+					public Object doInTransaction(TransactionStatus status) {
+						final int rows = dao.persistBatch(recordingNotes, 3);
+						entitiesAfterBatch[0] = Integer.valueOf(getEntitiesInCurrentSession());
+						return Integer.valueOf(rows);
+					}
+				});
+
+		assertEquals(7, rowsWritten.intValue());
+		assertEquals(Arrays.asList(0, 1, 2, 0, 1, 2, 0), entitiesInSession);
+		assertEquals(0, entitiesAfterBatch[0].intValue());
+		assertEquals(7, dao.find(Note.class).size());
+	}
+
+	/**
+	 * <b>Dadas</b> unas notas guardadas, <b>cuando</b> borro parte de ellas con
+	 * {@link Dao#deleteBatch(Collection, int)}, <b>entonces</b> sólo deberían quedar las que no he borrado.
+	 */
+	@Test
+	public void shouldDeleteInBatches() {
+		dao.persist(createNotes(7));
+		final List<Note> notes = dao.find(Note.class);
+
+		assertEquals(5, dao.deleteBatch(notes.subList(0, 5), 2));
+		assertEquals(2, dao.find(Note.class).size());
+	}
+
+	/**
+	 * <b>Dado</b> un Dao con <code>findAndCountExecutor</code>, <b>cuando</b> busco una página con
+	 * {@link Dao#findAndCount(EntityCriteria, int, int)} sin transacción y dentro de una transacción de sólo lectura,
+	 * <b>entonces</b> la cuenta se debería hacer en el executor, y la página y la cuenta deberían ser las mismas que al
+	 * hacerlo en serie.
+	 */
+	@Test
+	public void shouldFindAndCountInParallelLikeInSequence() {
+		dao.persist(createNotes(7));
+		final EntityCriteria entityCriteria = new EntityCriteria(Note.class);
+		entityCriteria.addOrder("priority", false);
+
+		final List<Runnable> countTasks = new ArrayList<Runnable>();
+		final HibernateDao parallelDao = new HibernateDao(sessionFactory);
+		parallelDao.setFindAndCountExecutor(new TaskExecutor() {
+
+			@Override
+			public void execute(Runnable task) {
+				countTasks.add(task);
+				new SimpleAsyncTaskExecutor("findAndCountTest-").execute(task);
+			}
+		});
+
+		final Pair<List<Note>, Long> sequential = dao.findAndCount(entityCriteria, 2, 3);
+		final Pair<List<Note>, Long> withoutTransaction = parallelDao.findAndCount(entityCriteria, 2, 3);
+		final TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+		readOnlyTransaction.setReadOnly(true);
+		@SuppressWarnings("unchecked")
+		final Pair<List<Note>, Long> inReadOnlyTransaction = (Pair<List<Note>, Long>)readOnlyTransaction
+				.execute(new TransactionCallback() {
+
+					@Override
+					public Object doInTransaction(TransactionStatus status) {
+						return parallelDao.findAndCount(entityCriteria, 2, 3);
+					}
+				});
+
+		assertEquals(2, countTasks.size());
+		assertEquals(Long.valueOf(7), sequential.getRight());
+		assertEquals(Arrays.asList(5, 4, 3), getPriorities(sequential.getLeft()));
+		assertEquals(sequential.getRight(), withoutTransaction.getRight());
+		assertEquals(getIds(sequential.getLeft()), getIds(withoutTransaction.getLeft()));
+		assertEquals(sequential.getRight(), inReadOnlyTransaction.getRight());
+		assertEquals(getIds(sequential.getLeft()), getIds(inReadOnlyTransaction.getLeft()));
+	}
+
+	/**
+	 * <b>Dado</b> un Dao con {@link RowCountCache}, <b>cuando</b> busco una página dentro de transacciones de escritura
+	 * (las de <code>@Transactional</code> por defecto), <b>entonces</b> la cuenta se debería guardar al hacer el commit
+	 * y usarse en la siguiente transacción, salvo en la transacción que guarda una nota, que tiene que contarla.
+	 */
+	@Test
+	public void shouldCacheRowCountsInsideWriteTransactions() {
+		dao.persist(createNotes(5));
+		final int[] hits = new int[1];
+		final HibernateDao cachingDao = new HibernateDao(sessionFactory);
+		cachingDao.setRowCountCache(new RowCountCache(60, 10) {
+
+			@Override
+			public synchronized Long get(String countQuery, Object[] values) {
+				final Long rowCount = super.get(countQuery, values);
+				if (rowCount != null) {
+					hits[0]++;
+				}
+				return rowCount;
+			}
+		});
+
+		assertEquals(5, findAndCountInTransaction(cachingDao, null).intValue());
+		assertEquals(0, hits[0]);
+		assertEquals(5, findAndCountInTransaction(cachingDao, null).intValue());
+		assertEquals(1, hits[0]);
+
+		assertEquals(6, findAndCountInTransaction(cachingDao, new Note("note 6", Integer.valueOf(6))).intValue());
+		assertEquals(1, hits[0]);
+		assertEquals(6, findAndCountInTransaction(cachingDao, null).intValue());
+		assertEquals(6, findAndCountInTransaction(cachingDao, null).intValue());
+		assertEquals(2, hits[0]);
+	}
+
+	/**
+	 * <b>Dada</b> una transacción, <b>cuando</b> guardo varias notas por separado, <b>entonces</b> se debería registrar
+	 * una sola sincronización con la transacción, y los {@link EntityChangeListener} deberían recibir todos los cambios,
+	 * en orden, después del commit.
+	 */
+	@Test
+	public void shouldNotifyEntityChangesOnceTheTransactionCommits() {
+		final List<Object> savedEntities = new ArrayList<Object>();
+		final HibernateDao notifyingDao = new HibernateDao(sessionFactory);
+		notifyingDao.setEntityChangeListeners(Collections.<EntityChangeListener> singletonList(
+				new EntityChangeListener() {
+
+					@Override
+					public void entitiesSaved(Collection<?> entities) {
+						savedEntities.addAll(entities);
+					}
+
+					@Override
+					public void entitiesDeleted(Collection<?> entities) {
+						// Los tests sólo guardan notas
+					}
+
+					@Override
+					public void entitiesChangedInBulk(Class<?> entityClass) {
+						// Los tests sólo guardan notas
+					}
+				}));
+		final List<Note> notes = createNotes(3);
+
+		new TransactionTemplate(transactionManager).execute(new TransactionCallback() {
+
+			@Override
+			public Object doInTransaction(TransactionStatus status) {
+				notifyingDao.persist(notes.get(0));
+				final int synchronizations = TransactionSynchronizationManager.getSynchronizations().size();
+				notifyingDao.persist(notes.get(1));
+				notifyingDao.persist(notes.get(2));
+				assertEquals(synchronizations, TransactionSynchronizationManager.getSynchronizations().size());
+				assertTrue(savedEntities.isEmpty());
+				return null;
+			}
+		});
+
+		assertEquals(notes, savedEntities);
+	}
+
+	/**
+	 * <b>Dada</b> una consulta guardada en la caché de consultas, <b>cuando</b> guardo otra nota, <b>entonces</b> la
+	 * siguiente búsqueda no debería devolver el resultado guardado, sino también la nota nueva.
+	 */
+	@Test
+	public void shouldNotReturnCachedResultsAfterAWrite() {
+		dao.persist(createNotes(2));
+		final EntityCriteria entityCriteria = new EntityCriteria(Note.class);
+
+		assertEquals(2, dao.findCached("notes", entityCriteria).size());
+		assertEquals(2, dao.findCached("notes", entityCriteria).size());
+		assertEquals(1, dao.getQueryCacheStatistics("notes").getHitCount());
+
+		dao.persist(new Note("note 3", Integer.valueOf(3)));
+
+		assertEquals(3, dao.findCached("notes", entityCriteria).size());
+		assertEquals(1, dao.getQueryCacheStatistics("notes").getHitCount());
+	}
+
+	/**
+	 * <b>Dadas</b> unas notas con prioridades repetidas y nulas, <b>cuando</b> las recorro por páginas con
+	 * {@link Dao#findAndCountAfter(EntityCriteria, Object, Object, int)}, ordenando por prioridad en los dos sentidos,
+	 * <b>entonces</b> debería obtener cada nota una única vez, y el total de cada página debería ser el número de notas.
+	 */
+	@Test
+	public void shouldPageByKeysetIncludingNullSortValues() {
+		final Integer[] priorities = { Integer.valueOf(3), null, Integer.valueOf(1), null, Integer.valueOf(2),
+				Integer.valueOf(3), null };
+		final List<Note> notes = new ArrayList<Note>();
+		for (int i = 0; i < priorities.length; i++) {
+			notes.add(new Note("note " + i, priorities[i]));
+		}
+		dao.persist(notes);
+
+		assertEquals(priorities.length, findAllByKeyset(true).size());
+		assertEquals(priorities.length, findAllByKeyset(false).size());
+	}
+
+	/**
+	 * <b>Dadas</b> unas notas, <b>cuando</b> las busco con
+	 * {@link Dao#findByAnHqlQueryWithListParametersSupport(String, Object...)} con una lista de ids que no cabe en un
+	 * solo <code>in</code>, <b>entonces</b> debería obtener las mismas notas que con una única consulta.
+	 */
+	@Test
+	public void shouldFindInChunksLikeInASingleQuery() {
+		final List<Note> notes = new ArrayList<Note>();
+		for (int i = 0; i < 7; i++) {
+			notes.add(new Note("note " + i, Integer.valueOf(i)));
+		}
+		dao.persist(notes);
+		final List<Integer> ids = getIds(notes);
+		final HibernateDao chunkingDao = new HibernateDao(sessionFactory);
+		chunkingDao.setMaxInListSize(2);
+
+		final String hql = "from Note as n where n.id in (:param0)";
+		final List<Note> expected = dao.<Note> findByAnHqlQueryWithListParametersSupport(hql, ids);
+		final List<Note> chunked = chunkingDao.<Note> findByAnHqlQueryWithListParametersSupport(hql, ids);
+
+		assertEquals(7, chunked.size());
+		assertEquals(new HashSet<Integer>(getIds(expected)), new HashSet<Integer>(getIds(chunked)));
+	}
+
+	/**
+	 * <b>Dada</b> una consulta con <code>order by</code> y una lista de ids que no cabe en un solo <code>in</code>,
+	 * <b>cuando</b> la ejecuto, <b>entonces</b> debería fallar en vez de ordenar los trozos en memoria.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectSortedQueriesThatNeedChunks() {
+		final HibernateDao chunkingDao = new HibernateDao(sessionFactory);
+		chunkingDao.setMaxInListSize(2);
+
+		chunkingDao.findAndCountByHqlQueryWithInStatements("from Note as n where n.id in (:param0) order by n.priority",
+				0, 2, Arrays.asList(Integer.valueOf(1), Integer.valueOf(2), Integer.valueOf(3)));
+	}
+
+	/**
+	 * @return el total de notas de una búsqueda paginada dentro de una transacción de escritura, en la que antes se
+	 *         guarda la nota indicada (si no es <code>null</code>).
+	 */
+	private Long findAndCountInTransaction(final Dao transactionalDao, final Note noteToSave) {
+		return (Long)new TransactionTemplate(transactionManager).execute(new TransactionCallback() {
+
+			@Override
+			public Object doInTransaction(TransactionStatus status) {
+				if (noteToSave != null) {
+					transactionalDao.persist(noteToSave);
+				}
+				return transactionalDao.findAndCount(new EntityCriteria(Note.class), 0, 2).getRight();
+			}
+		});
+	}
+
+	/**
+	 * @return los ids de las notas recorridas por páginas de 2, comprobando que ninguna se repite.
+	 */
+	private Set<Integer> findAllByKeyset(boolean ascending) {
+		final EntityCriteria entityCriteria = new EntityCriteria(Note.class);
+		entityCriteria.addOrder("priority", ascending);
+		entityCriteria.setUniqueSortProperty("id");
+
+		final Set<Integer> ids = new HashSet<Integer>();
+		Note last = null;
+		do {
+			final Pair<List<Note>, Long> page = last == null ? dao.<Note> findAndCountAfter(entityCriteria, null,
+					null, 2) : dao.<Note> findAndCountAfter(entityCriteria, last.getPriority(), last.getId(), 2);
+			assertEquals(7, page.getRight().intValue());
+			last = null;
+			for (Note note : page.getLeft()) {
+				assertTrue("Repeated note " + note, ids.add(note.getId()));
+				last = note;
+			}
+		} while (last != null);
+		return ids;
+	}
+
+	private List<Integer> getIds(List<Note> notes) {
+		final List<Integer> ids = new ArrayList<Integer>(notes.size());
+		for (Note note : notes) {
+			ids.add(note.getId());
+		}
+		return ids;
+	}
+
+	private List<Integer> getPriorities(List<Note> notes) {
+		final List<Integer> priorities = new ArrayList<Integer>(notes.size());
+		for (Note note : notes) {
+			priorities.add(note.getPriority());
+		}
+		return priorities;
+	}
+
+	private int getEntitiesInCurrentSession() {
+		return sessionFactory.getCurrentSession().getStatistics().getEntityCount();
+	}
+
+	/**
+	 * @return notas con prioridad del 1 al número de notas, sin guardar.
+	 */
+	private List<Note> createNotes(int count) {
+		final List<Note> notes = new ArrayList<Note>(count);
+		for (int i = 1; i <= count; i++) {
+			notes.add(new Note("note " + i, Integer.valueOf(i)));
+		}
+		return notes;
+	}
+}
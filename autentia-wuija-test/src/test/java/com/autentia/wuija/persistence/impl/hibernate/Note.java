@@ -0,0 +1,82 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ * 
+ * This file is part of Autentia WUIJA.
+ * 
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.persistence.impl.hibernate;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.TableGenerator;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.hibernate.validator.NotEmpty;
+
+/**
+ * Entidad para los tests del {@link HibernateDao}, en su propia tabla para no alterar los datos de los tests de libros
+ * y categorías. Los ids se generan con una tabla y no con <code>identity</code>, para que las inserciones de
+ * {@link com.autentia.wuija.persistence.Dao#persistBatch(java.util.Collection, int)} se agrupen en batches de JDBC.
+ */
+@Entity
+public class Note {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.TABLE, generator = "noteIds")
+	@TableGenerator(name = "noteIds", allocationSize = 50)
+	private Integer id;
+
+	@NotEmpty
+	private String text;
+
+	/** Admite nulos, para probar la ordenación con valores nulos. */
+	private Integer priority;
+
+	public Note() {
+		// Default constructor
+	}
+
+	public Note(String text, Integer priority) {
+		this.text = text;
+		this.priority = priority;
+	}
+
+	public Integer getId() {
+		return id;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	public Integer getPriority() {
+		return priority;
+	}
+
+	public void setPriority(Integer priority) {
+		this.priority = priority;
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+}
@@ -12,6 +12,7 @@ package com.autentia.wuija.trace;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -30,6 +31,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.jdbc.SimpleJdbcTestUtils;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.autentia.common.util.Pair;
 import com.autentia.wuija.trace.persistence.OperationalTrace;
 import com.autentia.wuija.trace.persistence.OperationalTraceTypeEnum;
 import com.autentia.wuija.trace.service.TraceQueryParams;
@@ -191,6 +193,48 @@ public class TraceRepositoryQueryTest {
 
 	}
 
+	@Test
+	public void shouldPageByOffsetAndCountAll() {
+		final Pair<List<OperationalTrace>, Long> page = traceRepository.getTracesBetweenDatesAndWithTypesByUser(
+				createParams(ADMIN_USER, null, null, null), false, 4, 4);
+
+		assertEquals(Long.valueOf(SIX_TRACES), page.getRight());
+		assertEquals(2, page.getLeft().size());
+		assertEquals(EARLIEST_DATE_STRING1_ADMIN_USER, page.getLeft().get(1).getString1());
+	}
+
+	@Test
+	public void shouldPageByDateWithoutLosingTracesWithTheSameDate() {
+		final TraceQueryParams params = createParams(ADMIN_USER, null, null, null);
+		final List<Integer> ids = new ArrayList<Integer>();
+
+		OperationalTrace lastTrace = null;
+		Pair<List<OperationalTrace>, Long> page;
+		do {
+			page = traceRepository.getTracesBetweenDatesAndWithTypesByUserAfter(params, true, lastTrace, 2);
+			assertEquals(Long.valueOf(SIX_TRACES), page.getRight());
+			for (OperationalTrace trace : page.getLeft()) {
+				ids.add(trace.getId());
+				lastTrace = trace;
+			}
+		} while (!page.getLeft().isEmpty());
+
+		// Las trazas 3 y 5 tienen la misma fecha y caen en la misma página; se desempata por id
+		assertEquals(Arrays.asList(1, 2, 3, 5, 4, 6), ids);
+	}
+
+	@Test
+	public void shouldPageAllTracesFromTheLatest() {
+		final Pair<List<OperationalTrace>, Long> firstPage = traceRepository.getAllTraces(null, FIVE_TRACES);
+		assertEquals(Long.valueOf(SIX_TRACES * 2), firstPage.getRight());
+		assertEquals(LATEST_DATE_STRING1_NOT_ADMIN_USER, firstPage.getLeft().get(0).getString1());
+
+		final OperationalTrace lastTrace = firstPage.getLeft().get(FIVE_TRACES - 1);
+		final List<OperationalTrace> nextTraces = traceRepository.getAllTraces(lastTrace, SIX_TRACES * 2).getLeft();
+		assertEquals(SIX_TRACES * 2 - FIVE_TRACES, nextTraces.size());
+		assertEquals(EARLIEST_DATE_STRING1_NOT_ADMIN_USER, nextTraces.get(nextTraces.size() - 1).getString1());
+	}
+
 	private TraceQueryParams createParams(String username, Date initDate, Date endDate,
 			List<OperationalTraceTypeEnum> types) {
 		return new TraceQueryParams(username, initDate, endDate, types);
@@ -9,9 +9,13 @@
 package com.autentia.wuija.trace;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Resource;
 
@@ -22,6 +26,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.autentia.common.util.Pair;
 import com.autentia.wuija.trace.persistence.OperationalTrace;
 import com.autentia.wuija.trace.persistence.OperationalTraceBuilder;
 import com.autentia.wuija.trace.persistence.OperationalTraceTypeEnum;
@@ -35,6 +40,7 @@ public class TraceRepositoryTest {
 	private TraceRepository traceRepository;
 
 	@Test
+	@SuppressWarnings("deprecation")
 	public void persistTrace() {
 		saveTrace("admin", OperationalTraceTypeEnum.QUERY_USER, "traza test 1", "traza test 2");
 
@@ -66,6 +72,7 @@ public class TraceRepositoryTest {
 	}
 	
 	@Test
+	@SuppressWarnings("deprecation")
 	public void shouldDeleteTraces() {
 		saveTrace("admin", OperationalTraceTypeEnum.QUERY_USER, "traza test 1", "traza test 2");
 		final List<OperationalTrace> operationalTraces = traceRepository.getAllTraces(); 
@@ -76,6 +83,50 @@ public class TraceRepositoryTest {
 		traceRepository.delete(operationalTracesToDelete);
 		assertEquals(size - 1, traceRepository.getAllTraces().size());
 	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void shouldDeleteTracesBetweenDates() {
+		saveTrace("admin", OperationalTraceTypeEnum.QUERY_USER, "traza test 1", "traza test 2");
+		saveTrace("admin", OperationalTraceTypeEnum.QUERY_USER, "traza test 3", "traza test 4");
+		final int size = traceRepository.getAllTraces().size();
+
+		final Date today = new Date();
+		assertEquals(size, traceRepository.deleteTracesBetweenDates(today, today));
+		assertEquals(0, traceRepository.getAllTraces().size());
+	}
+
+	@Test
+	public void shouldPageAllTracesAfterTheLastTraceOfThePreviousPage() {
+		saveTrace("admin", OperationalTraceTypeEnum.QUERY_USER, "traza test 1", "traza test 2");
+		saveTrace("admin", OperationalTraceTypeEnum.QUERY_USER, "traza test 3", "traza test 4");
+		saveTrace("admin", OperationalTraceTypeEnum.QUERY_USER, "traza test 5", "traza test 6");
+
+		final Pair<List<OperationalTrace>, Long> firstPage = traceRepository.getAllTraces(null, 2);
+		assertEquals(2, firstPage.getLeft().size());
+		assertEquals(3, firstPage.getRight().longValue());
+
+		final Pair<List<OperationalTrace>, Long> secondPage = traceRepository.getAllTraces(firstPage.getLeft().get(1),
+				2);
+		assertEquals(1, secondPage.getLeft().size());
+		assertEquals(3, secondPage.getRight().longValue());
+
+		final Set<Integer> ids = new HashSet<Integer>();
+		for (OperationalTrace trace : firstPage.getLeft()) {
+			ids.add(trace.getId());
+		}
+		ids.add(secondPage.getLeft().get(0).getId());
+		assertEquals(3, ids.size());
+	}
+
+	@Test
+	public void shouldReturnAnEmptyPageAfterTheLastTrace() {
+		saveTrace("admin", OperationalTraceTypeEnum.QUERY_USER, "traza test 1", "traza test 2");
+
+		final List<OperationalTrace> traces = traceRepository.getAllTraces(null, 2).getLeft();
+		assertEquals(1, traces.size());
+		assertTrue(traceRepository.getAllTraces(traces.get(0), 2).getLeft().isEmpty());
+	}
 	
 
 	private void saveTrace(String userName, OperationalTraceTypeEnum type, String string1, String string2) {
@@ -17,7 +17,6 @@
  */
 package com.autentia.wuija.web.jsf;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 
 import javax.faces.context.FacesContext;
@@ -29,7 +28,7 @@ import org.springframework.context.support.MessageSourceAccessor;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.jsf.FacesContextUtils;
 
-import com.autentia.common.util.ClassUtils;
+import com.autentia.common.util.PropertyPath;
 
 /**
  * Prepara la lista de <code>SelectItem</code> en función de la lista de valores que se pasa en el constructor.
@@ -90,17 +89,17 @@ public class I18NSelectItemList extends ArrayList<SelectItem> {
 		super(values.length);
 		
 		final MessageSourceAccessor msa = getMsa();
+		final PropertyPath propertyPath = (propertyToShow == null ? null : PropertyPath.compile(propertyToShow));
 
 		for (int i = 0; i < values.length; i++) {
 			final Object valueObj = values[i];
 			Object labelObj = valueObj;
 
-			if (propertyToShow != null) {
-				final Method getterMethod = ClassUtils.getGetterMethod(valueObj.getClass(), propertyToShow);
+			if (propertyPath != null) {
 				try {
-					labelObj = getterMethod.invoke(valueObj);
-				} catch (Exception e) {
-					log.error("Cannot invoke method [" + getterMethod.getName() + "] on object [" + valueObj + "]", e);
+					labelObj = propertyPath.getValue(valueObj);
+				} catch (RuntimeException e) {
+					log.error("Cannot get property [" + propertyToShow + "] of object [" + valueObj + "]", e);
 					labelObj = "!!! error !!!";
 				}
 			}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ * 
+ * This file is part of Autentia WUIJA.
+ * 
+ * Autentia WUIJA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * Autentia WUIJA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Autentia WUIJA. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.wuija.widget.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.faces.model.SelectItem;
+
+import org.springframework.util.Assert;
+
+import com.autentia.wuija.suggest.Suggestion;
+import com.autentia.wuija.suggest.SuggestionIndex;
+
+/**
+ * {@link AutoCompleteCallBack} que saca las sugerencias de un {@link SuggestionIndex} en memoria, en vez de hacer una
+ * consulta a la base de datos por cada tecla que se pulsa en el campo de autocompletar.
+ * <p>
+ * Por defecto el valor de cada sugerencia es su texto, que es lo que esperan los widgets de autocompletar; se puede
+ * sobrescribir {@link #getItemValue(Suggestion)} para usar el id de la entidad. Los métodos
+ * {@link #insertLinkEvent(String)} y {@link #removeLinkEvent(String)} no hacen nada.
+ *
+ * @param <T> la clase de las entidades del índice.
+ */
+public class IndexedAutoCompleteCallBack<T> implements AutoCompleteCallBack {
+
+	private static final int DEFAULT_MAX_RESULTS = 10;
+
+	private final SuggestionIndex<T> suggestionIndex;
+
+	private int maxResults = DEFAULT_MAX_RESULTS;
+
+	public IndexedAutoCompleteCallBack(SuggestionIndex<T> suggestionIndex) {
+		Assert.notNull(suggestionIndex, "The suggestion index cannot be null");
+		this.suggestionIndex = suggestionIndex;
+	}
+
+	@Override
+	public List<SelectItem> generateSelectItemList(ActionEvent event, String searchedItem) {
+		final List<Suggestion> suggestions = suggestionIndex.find(searchedItem, maxResults);
+		final List<SelectItem> items = new ArrayList<SelectItem>(suggestions.size());
+		for (Suggestion suggestion : suggestions) {
+			items.add(new SelectItem(getItemValue(suggestion), suggestion.getLabel()));
+		}
+		return items;
+	}
+
+	/**
+	 * @param suggestion la sugerencia.
+	 * @return el valor de la sugerencia. Por defecto es su texto.
+	 */
+	protected Object getItemValue(Suggestion suggestion) {
+		return suggestion.getLabel();
+	}
+
+	@Override
+	public void insertLinkEvent(String label) {
+		// Las sugerencias no dependen de los valores ya seleccionados
+	}
+
+	@Override
+	public void removeLinkEvent(String label) {
+		// Las sugerencias no dependen de los valores ya seleccionados
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	/**
+	 * @param maxResults número máximo de sugerencias. Por defecto 10, las mismas filas que muestran los widgets.
+	 */
+	public void setMaxResults(int maxResults) {
+		Assert.isTrue(maxResults > 0, "The max number of results must be positive");
+		this.maxResults = maxResults;
+	}
+}
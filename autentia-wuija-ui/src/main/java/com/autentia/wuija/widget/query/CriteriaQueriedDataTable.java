@@ -9,14 +9,22 @@
 
 package com.autentia.wuija.widget.query;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import org.springframework.util.Assert;
+
+import com.autentia.common.util.ClassUtils;
+import com.autentia.common.util.KeysetPagedListDataProvider;
 import com.autentia.common.util.PagedListDataProvider;
 import com.autentia.common.util.Pair;
 import com.autentia.wuija.persistence.Dao;
 import com.autentia.wuija.persistence.criteria.Criteria;
 import com.autentia.wuija.persistence.criteria.EntityCriteria;
 import com.autentia.wuija.reports.CsvReportsService;
+import com.autentia.wuija.widget.property.OneToManyProperty;
 import com.autentia.wuija.widget.property.Property;
 
 /**
@@ -31,18 +39,164 @@ import com.autentia.wuija.widget.property.Property;
  */
 public class CriteriaQueriedDataTable<T> extends QueriedDataTable<T> {
 
+	/**
+	 * La criteria con la que se busca. No se modifica: en cada búsqueda se ejecuta una copia con la ordenación, la
+	 * proyección y las asociaciones de este datatable, ya que la criteria puede estar compartida.
+	 */
+	private final EntityCriteria entityCriteria;
+
+	/** Propiedad única de la paginación por clave, o <code>null</code> si se pagina por desplazamiento. */
+	private final String uniqueSortProperty;
+
+	/** Propiedades que se muestran en el datatable. */
+	private final Property[] propertiesOfList;
+
+	/** Propiedades que se recuperan en vez de las entidades, o <code>null</code> si se recuperan las entidades. */
+	private String[] projection;
+
+	/** Si se traen en la misma consulta las entidades asociadas que se muestran. */
+	private boolean fetchDisplayedAssociations;
+
 	public CriteriaQueriedDataTable(Property[] propertiesOfList, final EntityCriteria entityCriteria,
 			Query dataTableQuery, final Dao dao, CsvReportsService csvReportsService) {
 
+		this.entityCriteria = entityCriteria;
+		this.uniqueSortProperty = null;
+		this.propertiesOfList = propertiesOfList;
+
 		final PagedListDataProvider<T> pagedListDataProvider = new PagedListDataProvider<T>() {
 
 			@Override
 			public Pair<List<T>, Long> getPage(int firstRow, int pageSize) {
-				entityCriteria.addOrder(pagedDataTable.getSortColumn(), pagedDataTable.isSortAscending());
-				return dao.findAndCount(entityCriteria, firstRow, pageSize);
+				return dao.findAndCount(createCriteriaToExecute(), firstRow, pageSize);
 			}
 		};
 
 		init(propertiesOfList, pagedListDataProvider, dataTableQuery, csvReportsService);
 	}
+
+	/**
+	 * Crea el datatable paginando por clave en vez de por desplazamiento (ver {@link KeysetPagedListDataProvider}). De
+	 * esta forma cargar una página lejana cuesta lo mismo que cargar la primera.
+	 * 
+	 * @param uniqueSortProperty propiedad de la entidad con valores únicos (normalmente el id) que se usa para desempatar
+	 *            la ordenación.
+	 * @see EntityCriteria#setUniqueSortProperty(String)
+	 */
+	public CriteriaQueriedDataTable(Property[] propertiesOfList, final EntityCriteria entityCriteria,
+			Query dataTableQuery, final Dao dao, CsvReportsService csvReportsService, final String uniqueSortProperty) {
+
+		this.entityCriteria = entityCriteria;
+		this.uniqueSortProperty = uniqueSortProperty;
+		this.propertiesOfList = propertiesOfList;
+
+		final PagedListDataProvider<T> pagedListDataProvider = new KeysetPagedListDataProvider<T>() {
+
+			@Override
+			protected Pair<List<T>, Long> getPageAfter(T lastElementOfPreviousPage, int pageSize) {
+				if (lastElementOfPreviousPage == null) {
+					return dao.findAndCountAfter(createCriteriaToExecute(), null, null, pageSize);
+				}
+				final Object lastSortValue = ClassUtils.invokeGetterMethod(lastElementOfPreviousPage, pagedDataTable
+						.getSortColumn());
+				final Object lastUniqueValue = ClassUtils.invokeGetterMethod(lastElementOfPreviousPage,
+						uniqueSortProperty);
+				return dao.findAndCountAfter(createCriteriaToExecute(), lastSortValue, lastUniqueValue, pageSize);
+			}
+
+			@Override
+			protected Pair<List<T>, Long> getPageByOffset(int firstRow, int pageSize) {
+				return dao.findAndCount(createCriteriaToExecute(), firstRow, pageSize);
+			}
+
+			@Override
+			protected boolean isValidBoundary(T element) {
+				// Con valores nulos en la ordenación no se puede paginar por clave. Tampoco si se ordena por una
+				// asociación y las filas son proyecciones (ver setProjected), porque no tenemos la entidad.
+				final Object sortValue = ClassUtils.invokeGetterMethod(element, pagedDataTable.getSortColumn());
+				return sortValue != null && !(sortValue instanceof Map);
+			}
+		};
+
+		init(propertiesOfList, pagedListDataProvider, dataTableQuery, csvReportsService);
+	}
+
+	/**
+	 * Crea la copia de la criteria que se ejecuta en cada búsqueda, con la ordenación actual del datatable.
+	 */
+	private EntityCriteria createCriteriaToExecute() {
+		final EntityCriteria criteriaToExecute = entityCriteria.copy();
+		criteriaToExecute.addOrder(pagedDataTable.getSortColumn(), pagedDataTable.isSortAscending());
+		if (uniqueSortProperty != null) {
+			criteriaToExecute.setUniqueSortProperty(uniqueSortProperty);
+		}
+		if (projection != null) {
+			criteriaToExecute.setProjection(projection);
+		}
+		if (fetchDisplayedAssociations) {
+			fetchDisplayedAssociations(criteriaToExecute);
+		}
+		return criteriaToExecute;
+	}
+
+	/**
+	 * Para no cargar una a una, en cada fila, las entidades asociadas que se muestran en el datatable (las propiedades
+	 * del tipo <code>category.name</code>), se traen en la misma consulta que las entidades (ver
+	 * {@link EntityCriteria#setFetchPaths(String...)}). Se mantienen las que ya tuviera la criteria.
+	 */
+	private void fetchDisplayedAssociations(EntityCriteria criteriaToExecute) {
+		final List<String> fetchPaths = new ArrayList<String>();
+		if (criteriaToExecute.getFetchPaths() != null) {
+			fetchPaths.addAll(Arrays.asList(criteriaToExecute.getFetchPaths()));
+		}
+		for (Property property : propertiesOfList) {
+			fetchPaths.add(property.getFullPath());
+		}
+		criteriaToExecute.setFetchPaths(fetchPaths.toArray(new String[fetchPaths.size()]));
+	}
+
+	/**
+	 * Hace que las entidades asociadas que se muestran en el datatable (las propiedades del tipo
+	 * <code>category.name</code>) se traigan con un <code>left join fetch</code> en la misma consulta que las entidades,
+	 * en vez de cargarlas una a una en cada fila. Por defecto no se hace, porque cambia la consulta de los datatables
+	 * que ya existen: cada asociación añade un join y sus columnas a cada fila, y todas las entidades asociadas se
+	 * quedan en la sesión.
+	 * 
+	 * @param fetchDisplayedAssociations <code>true</code> para traer las asociaciones en la misma consulta.
+	 */
+	public void setFetchDisplayedAssociations(boolean fetchDisplayedAssociations) {
+		this.fetchDisplayedAssociations = fetchDisplayedAssociations;
+		forceReload();
+	}
+
+	/**
+	 * Hace que la búsqueda sólo recupere de la base de datos las propiedades que se muestran en el datatable (ver
+	 * {@link EntityCriteria#setProjection(String...)}), en vez de las entidades completas. Cada fila pasa a ser un
+	 * {@link Map} con esas propiedades, que se pinta y se exporta a CSV igual que la entidad. Por eso sólo tiene sentido
+	 * en datatables de consulta: las filas no se pueden editar ni pasar al {@link Dao}, y el datatable se tiene que
+	 * declarar como <code>CriteriaQueriedDataTable&lt;Map&lt;String, Object&gt;&gt;</code>.
+	 * <p>
+	 * No se pueden mostrar colecciones ({@link OneToManyProperty}).
+	 * 
+	 * @param projected <code>true</code> para recuperar sólo las propiedades que se muestran, <code>false</code> para
+	 *            recuperar las entidades.
+	 */
+	public void setProjected(boolean projected) {
+		if (!projected) {
+			projection = null;
+
+		} else {
+			final List<String> propertyPaths = new ArrayList<String>();
+			for (Property property : pagedDataTable.getProperties()) {
+				Assert.isTrue(!(property instanceof OneToManyProperty), "Collection properties cannot be projected: "
+						+ property.getFullPath());
+				propertyPaths.add(property.getFullPath());
+			}
+			if (uniqueSortProperty != null && !propertyPaths.contains(uniqueSortProperty)) {
+				propertyPaths.add(uniqueSortProperty);
+			}
+			projection = propertyPaths.toArray(new String[propertyPaths.size()]);
+		}
+		forceReload();
+	}
 }
@@ -22,9 +22,16 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public final class ClassUtils {
 
+	/** Getters ya buscados, por clase y nombre de propiedad. También se guardan los que no existen. */
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, GetterLookup>> getters =
+			new ConcurrentHashMap<Class<?>, ConcurrentMap<String, GetterLookup>>();
+
 	private ClassUtils() {
 		// Para cumplir con el patrón singleton.
 	}
@@ -40,13 +47,29 @@ public final class ClassUtils {
 	 * "Payment", y como <code>propertyName</code> "client.name", primero obtendrá la instacia de la clase Client a
 	 * través de un getClient() sobre Payment, para poder después invocar al método getName de Client.
 	 * </p>
+	 * <p>
+	 * Si alguno de los objetos es un {@link Map}, en vez de invocar al método se recupera el valor de la clave con el
+	 * nombre de la propiedad (igual que hace EL), de forma que también se pueden leer los registros de una consulta con
+	 * proyección.
+	 * </p>
+	 * <p>
+	 * Sin parámetros se usa {@link PropertyPath}, que guarda la ruta ya troceada y los getters de cada clase, así que
+	 * leer la misma propiedad de muchos objetos no vuelve a pagar la búsqueda de los métodos.
+	 * </p>
 	 * 
 	 * @param valueObj el objeto de la clase que contiene el método que queremos invocar
 	 * @param propertyName nombre de la propiedad que usaremos para obtener el método a invocar
 	 * @param params posibles parámetros que serán pasados al método
 	 * @return el resultado de la invocación al método
+	 * @throws NullPointerException si <code>valueObj</code> es <code>null</code>.
 	 */
 	public static Object invokeGetterMethod(Object valueObj, String propertyName, Object... params) {
+		if (valueObj == null) {
+			throw new NullPointerException("Cannot invoke the getter of property '" + propertyName + "' on null");
+		}
+		if (params.length == 0) {
+			return PropertyPath.compile(propertyName).getValue(valueObj);
+		}
 
 		Object theValue = valueObj;
 		Class<?> theClazz = theValue.getClass();
@@ -55,6 +78,16 @@ public final class ClassUtils {
 		String[] propertyNames = propertyName.split("\\.");
 
 		for (int i = 0; i < propertyNames.length; i++) {
+			if (theValue instanceof Map) {
+				theValue = ((Map<?, ?>)theValue).get(propertyNames[i]);
+				if (theValue == null) {
+					return null;
+				}
+				theClazz = theValue.getClass();
+				result = theValue;
+				continue;
+			}
+
 			Method getterMethod = ClassUtils.getGetterMethod(theClazz, propertyNames[i]);
 			try {
 				theValue = getterMethod.invoke(theValue, params);
@@ -160,12 +193,32 @@ public final class ClassUtils {
 	 * Recupera el método getter de una propiedad. Tiene en cuenta si el método es de tipo 'get...' o 'is...'.
 	 * <p>
 	 * En caso de no encontrar el método retorna <code>null</code>.
-	 * 
+	 * <p>
+	 * El resultado (también si no existe) se guarda en una caché, así que sólo se busca la primera vez.
+	 *
 	 * @param clazz
 	 * @param propertyName
 	 * @return
 	 */
 	public static Method getGetterMethod(Class<?> clazz, String propertyName) {
+		ConcurrentMap<String, GetterLookup> classGetters = getters.get(clazz);
+		if (classGetters == null) {
+			classGetters = new ConcurrentHashMap<String, GetterLookup>();
+			final ConcurrentMap<String, GetterLookup> previous = getters.putIfAbsent(clazz, classGetters);
+			if (previous != null) {
+				classGetters = previous;
+			}
+		}
+
+		GetterLookup lookup = classGetters.get(propertyName);
+		if (lookup == null) {
+			lookup = new GetterLookup(findGetterMethod(clazz, propertyName));
+			classGetters.putIfAbsent(propertyName, lookup);
+		}
+		return lookup.method;
+	}
+
+	private static Method findGetterMethod(Class<?> clazz, String propertyName) {
 		final String camelCase = propertyName.substring(0, 1).toUpperCase() + propertyName.substring(1);
 		String getterName = "get" + camelCase;
 		Method getterMethod;
@@ -319,4 +372,15 @@ public final class ClassUtils {
 		}
 	}
 
+	/**
+	 * Resultado de buscar un getter; <code>method</code> es <code>null</code> si no existe.
+	 */
+	private static final class GetterLookup {
+
+		final Method method;
+
+		GetterLookup(Method method) {
+			this.method = method;
+		}
+	}
 }
@@ -23,6 +23,8 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.Embeddable;
 import javax.persistence.Entity;
@@ -48,12 +50,13 @@ public final class EntityUtils {
 		private final Field field;
 
 		FieldIdAccessor(Field field) {
+			super(field);
 			this.field = field;
 		}
 
 		@Override
-		AccessibleObject getAccessibleObject() {
-			return field;
+		Class<?> getIdType() {
+			return field.getType();
 		}
 
 		@Override
@@ -62,49 +65,56 @@ public final class EntityUtils {
 		}
 	}
 
-	private static abstract class IdAccesor {
+	/**
+	 * Forma de acceder al id de una clase de entidad. Se crea una sola vez por clase (ver
+	 * {@link EntityUtils#getIdAccesor(Class)}), y en ese momento se hace accesible el atributo o el método, así que
+	 * leer el id no cuesta más que la llamada por reflexión.
+	 */
+	static abstract class IdAccesor {
 
-		abstract AccessibleObject getAccessibleObject();
+		IdAccesor(AccessibleObject accessibleObject) {
+			accessibleObject.setAccessible(true);
+		}
 
 		Serializable getId(Object entity) {
-			final boolean isAccessible = getAccessibleObject().isAccessible();
-			getAccessibleObject().setAccessible(true);
-
-			final Serializable id;
 			try {
-				id = getIdValue(entity);
+				return getIdValue(entity);
 
 			} catch (Exception e) {
 				throw new CannotAccessEntityIdException(e);
-			} finally {
-				getAccessibleObject().setAccessible(isAccessible);
 			}
-
-			return id;
 		}
 
+		abstract Class<?> getIdType();
+
 		abstract Serializable getIdValue(Object entity) throws Exception;
 	}
 
 	private static class MethodIdAccessor extends IdAccesor {
 
+		private static final Object[] NO_ARGS = new Object[0];
+
 		private final Method method;
 
 		MethodIdAccessor(Method method) {
+			super(method);
 			this.method = method;
 		}
 
 		@Override
-		AccessibleObject getAccessibleObject() {
-			return method;
+		Class<?> getIdType() {
+			return method.getReturnType();
 		}
 
 		@Override
 		public Serializable getIdValue(Object entity) throws Exception {
-			return (Serializable)method.invoke(entity);
+			return (Serializable)method.invoke(entity, NO_ARGS);
 		}
 	}
 
+	/** Forma de acceder al id de cada clase de entidad, para no buscar las anotaciones en cada llamada. */
+	private static final ConcurrentMap<Class<?>, IdAccesor> idAccessors = new ConcurrentHashMap<Class<?>, IdAccesor>();
+
 //	private static final Log log = LogFactory.getLog(EntityUtils.class);
 
 //	private static void checkIsEntity(Class<?> entityClass) {
@@ -126,21 +136,33 @@ public final class EntityUtils {
 	 * @throws CannotAccessEntityIdException si no se encuentra el id o no se puede acceder a él.
 	 */
 	public static Serializable getId(Object entity) throws IllegalArgumentException, CannotAccessEntityIdException {
-		final IdAccesor idAccesor;
+		return getIdAccesor(entity.getClass()).getId(entity);
+	}
 
-		final Field idField = ClassUtils.findAnnotatedField(entity.getClass(), Id.class);
-		if (idField != null) {
-			idAccesor = new FieldIdAccessor(idField);
-		} else {
-			final Method idMethod = ClassUtils.findAnnotatedMethod(entity.getClass(), Id.class);
-			if (idMethod != null) {
-				idAccesor = new MethodIdAccessor(idMethod);
+	/**
+	 * Devuelve la forma de acceder al id de la clase. Sólo se busca el atributo o el método anotado con @Id la primera
+	 * vez; después se reutiliza.
+	 */
+	static IdAccesor getIdAccesor(Class<?> entityClass) throws CannotAccessEntityIdException {
+		IdAccesor idAccesor = idAccessors.get(entityClass);
+		if (idAccesor == null) {
+			final Field idField = ClassUtils.findAnnotatedField(entityClass, Id.class);
+			if (idField != null) {
+				idAccesor = new FieldIdAccessor(idField);
 			} else {
-				throw new CannotAccessEntityIdException(entity.getClass());
+				final Method idMethod = ClassUtils.findAnnotatedMethod(entityClass, Id.class);
+				if (idMethod != null) {
+					idAccesor = new MethodIdAccessor(idMethod);
+				} else {
+					throw new CannotAccessEntityIdException(entityClass);
+				}
+			}
+			final IdAccesor existingIdAccesor = idAccessors.putIfAbsent(entityClass, idAccesor);
+			if (existingIdAccesor != null) {
+				idAccesor = existingIdAccesor;
 			}
 		}
-		
-		return idAccesor.getId(entity);
+		return idAccesor;
 	}
 
 	/**
@@ -232,15 +254,17 @@ public final class EntityUtils {
 	 * convirtiendo la cadena <code>idAsString</code> al tipo correspondiente.
 	 * <p>
 	 * Este método sólo funciona si el tipo del id de la entidad es: <code>Integer</code>, <code>Long</code>,
-	 * <code>String</code>.
+	 * <code>String</code>. El id puede estar anotado tanto en el atributo como en el getter.
 	 * 
 	 * @param entityClass clase de la entidad.
 	 * @param idAsString valor de id como una cadena.
 	 * @return un objeto que sirve como id de la entidad de tipo <code>entityClass</code>.
 	 * @throws IllegalArgumentException si <code>entityClass</code> no es una entidad.
+	 * @throws CannotAccessEntityIdException si no se encuentra el id.
 	 */
-	public static Object parseToIdType(Class<?> entityClass, String idAsString) throws IllegalArgumentException {
-		final Class<?> returnType = ClassUtils.findAnnotatedMethod(entityClass, Id.class).getReturnType();
+	public static Object parseToIdType(Class<?> entityClass, String idAsString) throws IllegalArgumentException,
+			CannotAccessEntityIdException {
+		final Class<?> returnType = getIdAccesor(entityClass).getIdType();
 
 		Object idAsObject = null;
 		if (Integer.class.isAssignableFrom(returnType)) {
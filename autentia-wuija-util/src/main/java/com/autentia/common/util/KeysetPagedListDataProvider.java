@@ -0,0 +1,116 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ *
+ * This file is part of autentia-util.
+ *
+ * autentia-util is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * autentia-util is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with autentia-util. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.common.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Proveedor de datos para la {@link PagedList} que pagina por clave en vez de por desplazamiento. Para ello recuerda el
+ * último elemento de cada página que se ha cargado (el límite de la página), de forma que la siguiente página se pide
+ * como "los <code>pageSize</code> elementos que van detrás de este". Así el coste de cargar una página no depende de lo
+ * lejos que esté del principio.
+ * <p>
+ * Si se pide una página de la que no se conoce el límite (por ejemplo al saltar directamente a la última página), se
+ * carga por desplazamiento y a partir de ahí se sigue paginando por clave.
+ * <p>
+ * Los límites se invalidan con {@link KeysetPagedListDataProvider#clearBoundaries()}. La {@link PagedList} lo hace
+ * automáticamente cada vez que se limpia.
+ *
+ * @param <T> Tipo de los objetos con los que trabaja esta interfaz.
+ */
+public abstract class KeysetPagedListDataProvider<T> implements PagedListDataProvider<T> {
+
+	private static final Log log = LogFactory.getLog(KeysetPagedListDataProvider.class);
+
+	/** Último elemento de la página anterior, indexado por el índice de la primera fila de cada página. */
+	private final Map<Integer, T> boundaries = new HashMap<Integer, T>();
+
+	@Override
+	public Pair<List<T>, Long> getPage(int firstRow, int pageSize) {
+		final Pair<List<T>, Long> page;
+		if (firstRow == 0) {
+			page = getPageAfter(null, pageSize);
+
+		} else {
+			final T lastElementOfPreviousPage = boundaries.get(Integer.valueOf(firstRow));
+			if (lastElementOfPreviousPage != null) {
+				page = getPageAfter(lastElementOfPreviousPage, pageSize);
+			} else {
+				if (log.isDebugEnabled()) {
+					log.debug("Unknown boundary for firstRow=" + firstRow + ", loading page by offset");
+				}
+				page = getPageByOffset(firstRow, pageSize);
+			}
+		}
+
+		final List<T> elements = page.getLeft();
+		if (!elements.isEmpty()) {
+			final T lastElement = elements.get(elements.size() - 1);
+			if (isValidBoundary(lastElement)) {
+				boundaries.put(Integer.valueOf(firstRow + elements.size()), lastElement);
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Olvida todos los límites de página conocidos. Hay que llamarlo siempre que cambie la ordenación o el criterio de
+	 * búsqueda.
+	 */
+	public void clearBoundaries() {
+		boundaries.clear();
+	}
+
+	/**
+	 * Indica si el elemento se puede usar como límite de página. Por defecto siempre se puede, pero las clases hijas
+	 * pueden descartar, por ejemplo, los elementos cuya propiedad de ordenación es <code>null</code>.
+	 *
+	 * @param element el último elemento de una página.
+	 * @return <code>true</code> si se puede pedir la siguiente página a partir de este elemento.
+	 */
+	protected boolean isValidBoundary(T element) {
+		return true;
+	}
+
+	/**
+	 * Devuelve los <code>pageSize</code> elementos que van detrás de <code>lastElementOfPreviousPage</code>, y el tamaño
+	 * real de la lista completa.
+	 *
+	 * @param lastElementOfPreviousPage el último elemento de la página anterior, o <code>null</code> si se pide la
+	 *            primera página.
+	 * @param pageSize el tamaño de la página.
+	 * @return par de valores con la página y el tamaño real de la lista completa.
+	 */
+	protected abstract Pair<List<T>, Long> getPageAfter(T lastElementOfPreviousPage, int pageSize);
+
+	/**
+	 * Devuelve la página por desplazamiento, igual que {@link PagedListDataProvider#getPage(int, int)}. Sólo se usa
+	 * cuando no se conoce el límite de la página que se está pidiendo.
+	 *
+	 * @param firstRow el índice del primer elemento que se tiene que devolver.
+	 * @param pageSize el tamaño de la página.
+	 * @return par de valores con la página y el tamaño real de la lista completa.
+	 */
+	protected abstract Pair<List<T>, Long> getPageByOffset(int firstRow, int pageSize);
+}
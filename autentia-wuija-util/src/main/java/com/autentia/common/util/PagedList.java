@@ -109,11 +109,14 @@ public class PagedList<T> extends AbstractList<T> {
 
 	/**
 	 * Invalida el contenido actual de la liasta, de forma que se fuerza a volver a cargar la información del proveedor
-	 * de datos.
+	 * de datos. Si el proveedor pagina por clave, también se olvidan los límites de página que tuviera guardados.
 	 */
 	@Override
 	public void clear() {
 		loadedElements = null;
+		if (dataProvider instanceof KeysetPagedListDataProvider<?>) {
+			((KeysetPagedListDataProvider<?>)dataProvider).clearBoundaries();
+		}
 	}
 
 	/**
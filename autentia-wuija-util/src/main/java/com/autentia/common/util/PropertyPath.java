@@ -0,0 +1,184 @@
+/**
+ * Copyright 2008 Autentia Real Business Solutions S.L.
+ *
+ * This file is part of autentia-util.
+ *
+ * autentia-util is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * autentia-util is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with autentia-util. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.autentia.common.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Ruta de propiedades ya analizada (por ejemplo "client.address.city"), para leer su valor de muchos objetos sin
+ * volver a trocear la ruta ni a buscar los getters cada vez.
+ * <p>
+ * Cada tramo de la ruta guarda el getter de cada clase con la que se ha usado, así que recorrer una lista de objetos,
+ * aunque sean de distintas clases (por ejemplo, entidades y sus proxies), sólo cuesta la invocación de los métodos. Igual que
+ * {@link ClassUtils#invokeGetterMethod(Object, String, Object...)}, si algún objeto intermedio es <code>null</code> se
+ * devuelve <code>null</code>, y si es un {@link Map} se lee el valor de la clave con el nombre de la propiedad.
+ * <p>
+ * Las instancias son inmutables desde fuera y se pueden compartir entre hilos; lo normal es obtenerlas con
+ * {@link #compile(String)}, que las guarda en una caché.
+ */
+public final class PropertyPath {
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private static final ConcurrentMap<String, PropertyPath> paths = new ConcurrentHashMap<String, PropertyPath>();
+
+	private final String path;
+
+	private final Segment[] segments;
+
+	private PropertyPath(String path) {
+		this.path = path;
+
+		final List<Segment> parsed = new ArrayList<Segment>();
+		int start = 0;
+		while (start <= path.length()) {
+			int end = path.indexOf('.', start);
+			if (end < 0) {
+				end = path.length();
+			}
+			if (end == start) {
+				throw new IllegalArgumentException("Invalid property path '" + path + "'");
+			}
+			parsed.add(new Segment(path.substring(start, end)));
+			start = end + 1;
+		}
+		this.segments = parsed.toArray(new Segment[parsed.size()]);
+	}
+
+	/**
+	 * Devuelve la ruta de propiedades analizada. Las rutas se guardan en una caché, así que llamar a este método
+	 * varias veces con la misma ruta devuelve siempre la misma instancia.
+	 *
+	 * @param path ruta de propiedades separadas por puntos, por ejemplo "client.name".
+	 * @return la ruta analizada.
+	 * @throws IllegalArgumentException si la ruta está vacía o tiene algún tramo vacío.
+	 */
+	public static PropertyPath compile(String path) {
+		PropertyPath propertyPath = paths.get(path);
+		if (propertyPath == null) {
+			propertyPath = new PropertyPath(path);
+			final PropertyPath previous = paths.putIfAbsent(path, propertyPath);
+			if (previous != null) {
+				propertyPath = previous;
+			}
+		}
+		return propertyPath;
+	}
+
+	/**
+	 * Lee el valor de la ruta de propiedades en el objeto que se pasa como parámetro.
+	 *
+	 * @param bean el objeto.
+	 * @return el valor, o <code>null</code> si el objeto, o alguno de los objetos intermedios de la ruta, es
+	 *         <code>null</code>.
+	 * @throws RuntimeException si alguno de los objetos no tiene la propiedad, o si el getter lanza una excepción.
+	 */
+	public Object getValue(Object bean) {
+		Object value = bean;
+		for (int i = 0; i < segments.length && value != null; i++) {
+			value = segments[i].getValue(value);
+		}
+		return value;
+	}
+
+	/**
+	 * @return la ruta tal y como se pasó a {@link #compile(String)}.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+	/**
+	 * Un tramo de la ruta: una única propiedad.
+	 */
+	private static final class Segment {
+
+		private final String propertyName;
+
+		/** Getter de cada clase con la que se ha usado este tramo, ya accesible. */
+		private final ConcurrentMap<Class<?>, Method> getters = new ConcurrentHashMap<Class<?>, Method>();
+
+		Segment(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		Object getValue(Object bean) {
+			if (bean instanceof Map) {
+				return ((Map<?, ?>)bean).get(propertyName);
+			}
+
+			final Class<?> clazz = bean.getClass();
+			final Method getter = getGetter(clazz);
+			try {
+				return getter.invoke(bean, NO_ARGS);
+			} catch (Exception e) {
+				throw new RuntimeException("Exception invoking the method='" + getter + "' of the class='" + clazz
+						+ "'.", e);
+			}
+		}
+
+		private Method getGetter(Class<?> clazz) {
+			Method getter = getters.get(clazz);
+			if (getter == null) {
+				final Method getterMethod = ClassUtils.getGetterMethod(clazz, propertyName);
+				if (getterMethod == null) {
+					throw new RuntimeException("Cannot find the getter of property '" + propertyName
+							+ "' in the class='" + clazz + "'.");
+				}
+				getter = makeAccessibleCopy(getterMethod);
+				final Method previous = getters.putIfAbsent(clazz, getter);
+				if (previous != null) {
+					getter = previous;
+				}
+			}
+			return getter;
+		}
+
+		/**
+		 * Devuelve una copia del método que se puede invocar sin la comprobación de acceso, y que permite leer de clases
+		 * que no son públicas. Se hace sobre una copia porque el método que devuelve
+		 * {@link ClassUtils#getGetterMethod(Class, String)} está cacheado y lo comparten todos los que lo usan.
+		 *
+		 * @return la copia, o el propio método si no se puede copiar o cambiar su acceso.
+		 */
+		private static Method makeAccessibleCopy(Method method) {
+			try {
+				final Method copy = method.getDeclaringClass().getDeclaredMethod(method.getName(),
+						method.getParameterTypes());
+				copy.setAccessible(true);
+				return copy;
+			} catch (NoSuchMethodException e) {
+				return method;
+			} catch (SecurityException e) {
+				// Se invocará con la comprobación de acceso normal
+				return method;
+			}
+		}
+	}
+}
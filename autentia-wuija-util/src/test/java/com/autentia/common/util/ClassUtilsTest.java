@@ -18,6 +18,10 @@
 
 package com.autentia.common.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
 import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
@@ -26,6 +30,7 @@ import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.lang.reflect.WildcardType;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -44,6 +49,30 @@ class ClassWithList<T> {
 
 public class ClassUtilsTest {
 
+	public static class Person {
+
+		private final String name;
+
+		private final Person boss;
+
+		public Person(String name, Person boss) {
+			this.name = name;
+			this.boss = boss;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Person getBoss() {
+			return boss;
+		}
+
+		public boolean isManager() {
+			return boss == null;
+		}
+	}
+
 	private static final Log log = LogFactory.getLog(ClassUtilsTest.class);
 
 	@Ignore("No es un test, son pruebas con reflection")
@@ -101,6 +130,52 @@ public class ClassUtilsTest {
 		}
 	}
 	
+	@Test
+	public void shouldReadNestedPropertiesWithCompiledPath() {
+		final Person boss = new Person("Ana", null);
+		final Person employee = new Person("Luis", boss);
+
+		final PropertyPath bossName = PropertyPath.compile("boss.name");
+		assertSame(bossName, PropertyPath.compile("boss.name"));
+		assertEquals("Ana", bossName.getValue(employee));
+		assertNull(bossName.getValue(boss));
+		assertNull(bossName.getValue(null));
+		assertEquals(Boolean.TRUE, PropertyPath.compile("boss.manager").getValue(employee));
+		assertEquals("Luis", PropertyPath.compile("employee.name").getValue(
+				Collections.singletonMap("employee", employee)));
+		assertEquals("Ana", ClassUtils.invokeGetterMethod(employee, "boss.name"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void shouldFailWhenThePropertyDoesNotExist() {
+		PropertyPath.compile("surname").getValue(new Person("Ana", null));
+	}
+
+	@Test
+	public void shouldReadThePropertyFromObjectsOfDifferentClasses() {
+		final PropertyPath name = PropertyPath.compile("name");
+		final Person subclassPerson = new Person("Luis", null) {
+			// Otra clase, como los proxies de las entidades
+		};
+
+		for (int i = 0; i < 2; i++) {
+			assertEquals("Ana", name.getValue(new Person("Ana", null)));
+			assertEquals("Luis", name.getValue(subclassPerson));
+		}
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void shouldNotInvokeGettersOnNull() {
+		ClassUtils.invokeGetterMethod(null, "name");
+	}
+
+	@Test
+	public void shouldCacheGetterLookups() {
+		assertSame(ClassUtils.getGetterMethod(Person.class, "name"), ClassUtils.getGetterMethod(Person.class, "name"));
+		assertNull(ClassUtils.getGetterMethod(Person.class, "surname"));
+		assertNull(ClassUtils.getGetterMethod(Person.class, "surname"));
+	}
+
 	private <T> void printInfo(List<T> list) throws SecurityException, NoSuchMethodException {
 
 		final TypeVariable<?>[] types = list.getClass().getTypeParameters();
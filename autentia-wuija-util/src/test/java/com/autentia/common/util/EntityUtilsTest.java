@@ -99,4 +99,21 @@ public class EntityUtilsTest {
 		final Integer id = (Integer)EntityUtils.getId(y);
 		Assert.assertEquals(Integer.valueOf(4), id);
 	}
+
+	@Test
+	public void shouldReuseIdAccessorOfEachClass() {
+		Assert.assertEquals(Integer.valueOf(7), EntityUtils.getId(new B(Integer.valueOf(7))));
+		Assert.assertEquals(Integer.valueOf(8), EntityUtils.getId(new B(Integer.valueOf(8))));
+		Assert.assertEquals(Integer.valueOf(9), EntityUtils.getId(new A(Integer.valueOf(9))));
+
+		Assert.assertSame(EntityUtils.getIdAccesor(B.class), EntityUtils.getIdAccesor(B.class));
+		Assert.assertSame(EntityUtils.getIdAccesor(Y.class), EntityUtils.getIdAccesor(Y.class));
+		Assert.assertNotSame(EntityUtils.getIdAccesor(A.class), EntityUtils.getIdAccesor(B.class));
+	}
+
+	@Test
+	public void shouldParseIdAnnotatedInFieldOrMethod() {
+		Assert.assertEquals(Integer.valueOf(7), EntityUtils.parseToIdType(B.class, "7"));
+		Assert.assertEquals(Integer.valueOf(4), EntityUtils.parseToIdType(Y.class, "4"));
+	}
 }